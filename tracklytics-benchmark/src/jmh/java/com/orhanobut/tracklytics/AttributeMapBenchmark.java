@@ -0,0 +1,64 @@
+package com.orhanobut.tracklytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link AttributeMap} compared to a default {@link HashMap} at the typical sizes of the event attributes
+ */
+@State(Scope.Benchmark)
+public class AttributeMapBenchmark {
+
+  @Param({"2", "6", "12"})
+  int attributeCount;
+
+  @Param({"HashMap", "AttributeMap"})
+  String map;
+
+  private String[] keys;
+  private Map<String, Object> attributes;
+
+  @Setup public void setup() {
+    keys = new String[attributeCount];
+    for (int i = 0; i < attributeCount; i++) {
+      keys[i] = "key" + i;
+    }
+    attributes = fill();
+  }
+
+  /**
+   * Same as the aspect, the map is created and filled for each tracked call
+   */
+  @Benchmark public Map<String, Object> fill() {
+    Map<String, Object> attributes = "HashMap".equals(map)
+        ? new HashMap<String, Object>()
+        : new AttributeMap(attributeCount);
+    for (String key : keys) {
+      attributes.put(key, key);
+    }
+    return attributes;
+  }
+
+  @Benchmark public void get(Blackhole blackhole) {
+    for (String key : keys) {
+      blackhole.consume(attributes.get(key));
+    }
+  }
+
+  @Benchmark public void iterate(Blackhole blackhole) {
+    for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+      blackhole.consume(entry.getValue());
+    }
+  }
+
+  @Benchmark public int hash() {
+    return attributes.hashCode();
+  }
+}
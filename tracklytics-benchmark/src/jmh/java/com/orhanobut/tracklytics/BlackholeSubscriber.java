@@ -0,0 +1,27 @@
+package com.orhanobut.tracklytics;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Hands every tracked event and log message to JMH, so nothing is optimized away
+ */
+class BlackholeSubscriber implements EventSubscriber, EventLogListener, StructuredEventLogListener {
+
+  private final Blackhole blackhole;
+
+  BlackholeSubscriber(Blackhole blackhole) {
+    this.blackhole = blackhole;
+  }
+
+  @Override public void onEventTracked(Event event) {
+    blackhole.consume(event);
+  }
+
+  @Override public void log(String message) {
+    blackhole.consume(message);
+  }
+
+  @Override public void log(Event event) {
+    blackhole.consume(event);
+  }
+}
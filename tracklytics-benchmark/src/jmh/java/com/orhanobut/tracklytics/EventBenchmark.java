@@ -0,0 +1,47 @@
+package com.orhanobut.tracklytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cost of merging the event attributes with the super attributes
+ */
+@State(Scope.Benchmark)
+public class EventBenchmark {
+
+  @Param({"1", "8", "32"})
+  int attributeCount;
+
+  private Event event;
+
+  @Setup public void setup() {
+    Map<String, Object> attributes = new HashMap<>();
+    Map<String, Object> superAttributes = new HashMap<>();
+    for (int i = 0; i < attributeCount; i++) {
+      attributes.put("key" + i, i);
+      superAttributes.put("super" + i, i);
+    }
+    event = new Event("event", null, null, attributes, superAttributes);
+  }
+
+  @Benchmark public Object getAllAttributes() {
+    return event.getAllAttributes().get("key0");
+  }
+
+  @Benchmark public void iterateAllAttributes(Blackhole blackhole) {
+    for (Map.Entry<String, Object> entry : event.getAllAttributes().entrySet()) {
+      blackhole.consume(entry.getValue());
+    }
+  }
+
+  @Benchmark public Map<String, Object> copyAllAttributes() {
+    return event.copyAllAttributes();
+  }
+}
@@ -0,0 +1,58 @@
+package com.orhanobut.tracklytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of tracking an event without logging, with an {@link EventLogListener}, with a
+ * {@link StructuredEventLogListener} and with async logging
+ */
+@State(Scope.Benchmark)
+public class LogBenchmark {
+
+  @Param({"none", "sync", "structured", "async"})
+  String logging;
+
+  private final Map<String, Object> attributes = new HashMap<>();
+  private Tracklytics tracklytics;
+
+  @Setup public void setup(Blackhole blackhole) {
+    BlackholeSubscriber subscriber = new BlackholeSubscriber(blackhole);
+    tracklytics = Tracklytics.init(subscriber);
+    switch (logging) {
+      case "sync":
+        tracklytics.setEventLogListener(subscriber);
+        break;
+      case "structured":
+        tracklytics.setStructuredEventLogListener(subscriber);
+        break;
+      case "async":
+        tracklytics.setEventLogListener(subscriber);
+        tracklytics.enableAsyncLogging(1024, 0);
+        break;
+      default:
+        break;
+    }
+    for (int i = 0; i < 8; i++) {
+      attributes.put("key" + i, "value" + i);
+      tracklytics.addSuperAttribute("super" + i, i);
+    }
+  }
+
+  @TearDown public void tearDown() {
+    tracklytics.shutdown(1, TimeUnit.SECONDS);
+  }
+
+  @Benchmark public void trackEvent() {
+    tracklytics.trackEvent("event", attributes);
+  }
+}
@@ -0,0 +1,120 @@
+package com.orhanobut.tracklytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Cost of the woven {@link TrackEvent} calls compared to the same call without tracking, with and without
+ * event pooling
+ */
+@State(Scope.Benchmark)
+public class TrackEventBenchmark {
+
+  @Param({"false", "true"})
+  boolean pooled;
+
+  private final Target target = new Target();
+  private final Trackable trackable = new Trackable() {
+    private final Map<String, Object> attributes = Collections.<String, Object>singletonMap("trackable", "value");
+
+    @Override public Map<String, Object> getTrackableAttributes() {
+      return attributes;
+    }
+  };
+
+  private int position;
+
+  @Setup public void setup(Blackhole blackhole) {
+    Tracklytics tracklytics = Tracklytics.init(new BlackholeSubscriber(blackhole));
+    if (pooled) {
+      tracklytics.enableEventPooling(64, false);
+    }
+  }
+
+  @Benchmark public int plainCall() {
+    return target.plain(next());
+  }
+
+  @Benchmark public int trackEvent() {
+    return target.event(next());
+  }
+
+  @Benchmark public int attribute() {
+    return target.attribute(next());
+  }
+
+  @Benchmark public int fixedAttribute() {
+    return target.fixedAttribute(next());
+  }
+
+  @Benchmark public int transformAttribute() {
+    return target.transformAttribute(next());
+  }
+
+  @Benchmark public int trackableAttribute() {
+    return target.trackableAttribute(next(), trackable);
+  }
+
+  @Benchmark public int allAttributes() {
+    int value = next();
+    return target.allAttributes(value, value, trackable);
+  }
+
+  /**
+   * Changes the argument on each call, so the transformed value goes through all keys
+   */
+  private int next() {
+    return position = (position + 1) & 3;
+  }
+
+  @FixedAttribute(key = "screen", value = "benchmark")
+  static class Target {
+
+    int plain(int value) {
+      return value;
+    }
+
+    @TrackEvent("event")
+    int event(int value) {
+      return value;
+    }
+
+    @TrackEvent("event")
+    int attribute(@Attribute("key") int value) {
+      return value;
+    }
+
+    @TrackEvent("event")
+    @FixedAttribute(key = "fixed", value = "value")
+    int fixedAttribute(int value) {
+      return value;
+    }
+
+    @TrackEvent("event")
+    @TransformAttributeMap(keys = {0, 1, 2, 3}, values = {"zero", "one", "two", "three"})
+    int transformAttribute(@TransformAttribute("key") int value) {
+      return value;
+    }
+
+    @TrackEvent("event")
+    int trackableAttribute(int value, @TrackableAttribute Trackable trackable) {
+      return value;
+    }
+
+    @TrackEvent(value = "event", filters = {1, 2}, tags = {"tag"})
+    @FixedAttribute(key = "fixed", value = "value")
+    @TransformAttributeMap(keys = {0, 1, 2, 3}, values = {"zero", "one", "two", "three"})
+    @Attribute("result")
+    int allAttributes(@Attribute("key") int value, @TransformAttribute("transformed") int position,
+                      @TrackableAttribute Trackable trackable) {
+      return value;
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package com.orhanobut.tracklytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cost of tracking an event manually, depending on the number of super attributes
+ */
+@State(Scope.Benchmark)
+public class TracklyticsBenchmark {
+
+  @Param({"0", "4", "32"})
+  int superAttributeCount;
+
+  private final Map<String, Object> attributes = new HashMap<>();
+  private Tracklytics tracklytics;
+
+  @Setup public void setup(Blackhole blackhole) {
+    tracklytics = Tracklytics.init(new BlackholeSubscriber(blackhole));
+    for (int i = 0; i < superAttributeCount; i++) {
+      tracklytics.addSuperAttribute("super" + i, i);
+    }
+    attributes.put("key", "value");
+  }
+
+  @Benchmark public void trackEvent() {
+    tracklytics.trackEvent("event", attributes);
+  }
+
+  @Benchmark public void addSuperAttribute() {
+    tracklytics.addSuperAttribute("super0", "value");
+    tracklytics.removeSuperAttribute("super0");
+  }
+}
@@ -0,0 +1,672 @@
+package com.orhanobut.tracklytics.compiler;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+
+/**
+ * Writes the source of the tracking stubs of a single class.
+ * <p>
+ * Each tracked method gets its own advice which mirrors what TracklyticsAspect and TrackingPlan do at runtime:
+ * the attributes of the tracked instance and its classes first, then the method annotations in declaration order,
+ * then the first annotation of each parameter.
+ */
+final class StubGenerator {
+
+  private static final String PACKAGE = "com.orhanobut.tracklytics";
+  static final String TRACK_EVENT = PACKAGE + ".TrackEvent";
+  static final String TRACK_SUPER_ATTRIBUTE = PACKAGE + ".TrackSuperAttribute";
+  static final String REMOVE_SUPER_ATTRIBUTE = PACKAGE + ".RemoveSuperAttribute";
+  private static final String ATTRIBUTE = PACKAGE + ".Attribute";
+  private static final String FIXED_ATTRIBUTE = PACKAGE + ".FixedAttribute";
+  private static final String FIXED_ATTRIBUTES = PACKAGE + ".FixedAttributes";
+  private static final String TRANSFORM_ATTRIBUTE = PACKAGE + ".TransformAttribute";
+  private static final String TRANSFORM_ATTRIBUTE_MAP = PACKAGE + ".TransformAttributeMap";
+  private static final String TRACKABLE_ATTRIBUTE = PACKAGE + ".TrackableAttribute";
+  private static final String TRACKABLE = PACKAGE + ".Trackable";
+
+  static final String SUFFIX = "_TracklyticsStubs";
+
+  private static final String RESULT = "result";
+  private static final String SELF = "self";
+
+  private final ProcessingEnvironment environment;
+  private final Elements elements;
+  private final Types types;
+  private final TypeElement type;
+  private final List<ExecutableElement> methods;
+
+  private final StringBuilder fields = new StringBuilder();
+  private final StringBuilder advices = new StringBuilder();
+
+  /**
+   * Attribute keys of the tracked methods, interned once the stub is loaded
+   */
+  private final Set<String> keys = new LinkedHashSet<>();
+  private boolean failed;
+
+  StubGenerator(ProcessingEnvironment environment, TypeElement type, List<ExecutableElement> methods) {
+    this.environment = environment;
+    this.elements = environment.getElementUtils();
+    this.types = environment.getTypeUtils();
+    this.type = type;
+    this.methods = methods;
+  }
+
+  String packageName() {
+    return elements.getPackageOf(type).getQualifiedName().toString();
+  }
+
+  /**
+   * Outer_Inner_TracklyticsStubs for a nested class
+   */
+  String stubName() {
+    StringBuilder name = new StringBuilder();
+    Element element = type;
+    while (element instanceof TypeElement) {
+      name.insert(0, element.getSimpleName()).insert(0, '_');
+      element = element.getEnclosingElement();
+    }
+    return name.substring(1) + SUFFIX;
+  }
+
+  String qualifiedStubName() {
+    String packageName = packageName();
+    return packageName.isEmpty() ? stubName() : packageName + "." + stubName();
+  }
+
+  /**
+   * @return null when a method cannot be tracked, the error is reported
+   */
+  String generate() {
+    for (int i = 0, size = methods.size(); i < size; i++) {
+      ExecutableElement method = methods.get(i);
+      if (annotation(method, TRACK_EVENT) != null) {
+        writeTrackEvent(method, i);
+      }
+      if (annotation(method, TRACK_SUPER_ATTRIBUTE) != null) {
+        writeSuperAttribute(method, i);
+      }
+      AnnotationMirror removeSuperAttribute = annotation(method, REMOVE_SUPER_ATTRIBUTE);
+      if (removeSuperAttribute != null) {
+        writeRemoveSuperAttribute(method, removeSuperAttribute, i);
+      }
+    }
+    if (failed) return null;
+
+    StringBuilder source = new StringBuilder();
+    source.append("// Generated by tracklytics-compiler. Do not modify!\n");
+    String packageName = packageName();
+    if (!packageName.isEmpty()) {
+      source.append("package ").append(packageName).append(";\n\n");
+    }
+    source.append("import com.orhanobut.tracklytics.AttributeMap;\n")
+        .append("import com.orhanobut.tracklytics.TrackEvent;\n")
+        .append("import com.orhanobut.tracklytics.TrackingStubs;\n")
+        .append("import org.aspectj.lang.annotation.AfterReturning;\n")
+        .append("import org.aspectj.lang.annotation.Aspect;\n")
+        .append("import org.aspectj.lang.annotation.Before;\n\n")
+        .append("@Aspect\n")
+        .append("@SuppressWarnings(\"all\")\n")
+        .append("public final class ").append(stubName()).append(" {\n");
+    writeInternKeys(source);
+    source.append(fields)
+        .append(advices)
+        .append("}\n");
+    return source.toString();
+  }
+
+  private void writeInternKeys(StringBuilder source) {
+    if (keys.isEmpty()) return;
+
+    List<String> literals = new ArrayList<>();
+    for (String key : keys) {
+      literals.add(literal(key));
+    }
+    source.append("  static {\n")
+        .append("    TrackingStubs.internKeys(").append(join(literals, ", ")).append(");\n")
+        .append("  }\n\n");
+  }
+
+  private void writeTrackEvent(ExecutableElement method, int index) {
+    AnnotationMirror trackEvent = annotation(method, TRACK_EVENT);
+    String event = "EVENT_" + index;
+    fields.append("  private static final TrackEvent ").append(event).append(" = TrackingStubs.trackEvent(")
+        .append(literal(stringValue(trackEvent, "value"))).append(", ")
+        .append(intArray(listValue(trackEvent, "filters"))).append(", ")
+        .append(stringArray(listValue(trackEvent, "tags")));
+    double sampleRate = (Double) value(trackEvent, "sampleRate");
+    if (!(sampleRate >= 0 && sampleRate <= 1)) {
+      error("TrackEvent sampleRate must be between 0 and 1", method);
+      return;
+    }
+    int rateLimit = (Integer) value(trackEvent, "rateLimit");
+    if (rateLimit < 0) {
+      error("TrackEvent rateLimit must not be negative", method);
+      return;
+    }
+    if (sampleRate != 1 || rateLimit != 0) {
+      fields.append(", ").append(sampleRate);
+    }
+    if (rateLimit != 0) {
+      fields.append(", ").append(rateLimit);
+    }
+    fields.append(");\n\n");
+
+    String transform = writeTransformTable(method, index);
+    if (failed) return;
+
+    boolean isStatic = method.getModifiers().contains(Modifier.STATIC);
+    TypeMirror returnType = method.getKind() == ElementKind.CONSTRUCTOR ? null : method.getReturnType();
+    if (returnType != null && returnType.getKind() == TypeKind.VOID) {
+      returnType = null;
+    }
+
+    List<String> names = new ArrayList<>();
+    List<String> parameters = new ArrayList<>();
+    if (!isStatic) {
+      names.add(SELF);
+      parameters.add("Object " + SELF);
+    }
+    addArguments(method, names, parameters);
+    if (returnType != null) {
+      names.add(RESULT);
+      parameters.add(adviceType(returnType) + " " + RESULT);
+    }
+
+    advices.append("  @AfterReturning(\n")
+        .append("      pointcut = ").append(literal(pointcut(method, TRACK_EVENT, !isStatic, true))).append(",\n");
+    if (returnType != null) {
+      advices.append("      returning = ").append(literal(RESULT)).append(",\n");
+    }
+    advices.append("      argNames = ").append(literal(join(names, ","))).append("\n")
+        .append("  )\n")
+        .append("  public void ").append(adviceName("track", method, index))
+        .append("(").append(join(parameters, ", ")).append(") {\n")
+        .append("    long start = TrackingStubs.startAdvice();\n")
+        .append("    if (!TrackingStubs.shouldTrack(").append(event).append(")) {\n")
+        .append("      TrackingStubs.addClassSuperAttributes(").append(type.getQualifiedName()).append(".class, ")
+        .append(isStatic ? "null" : SELF).append(");\n");
+    writeUntrackedSuperAttributes(method, returnType, transform);
+    advices.append("      return;\n")
+        .append("    }\n\n")
+        .append("    AttributeMap attributes = TrackingStubs.newAttributes(").append(attributeCount(method))
+        .append(");\n")
+        .append("    TrackingStubs.addClassAttributes(attributes, ").append(type.getQualifiedName()).append(".class, ")
+        .append(isStatic ? "null" : SELF).append(", ").append(isTrackableThis(method)).append(");\n");
+
+    for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+      String annotationName = name(annotation);
+      if (ATTRIBUTE.equals(annotationName)) {
+        writeAttribute(annotation, returnType, RESULT);
+      } else if (FIXED_ATTRIBUTE.equals(annotationName)) {
+        writeFixedAttribute(annotation);
+      } else if (FIXED_ATTRIBUTES.equals(annotationName)) {
+        for (AnnotationValue value : listValue(annotation, "value")) {
+          writeFixedAttribute((AnnotationMirror) value.getValue());
+        }
+      } else if (TRANSFORM_ATTRIBUTE.equals(annotationName)) {
+        writeTransformAttribute(annotation, returnType, RESULT, transform);
+      }
+    }
+
+    List<? extends VariableElement> arguments = method.getParameters();
+    for (int i = 0, size = arguments.size(); i < size; i++) {
+      VariableElement argument = arguments.get(i);
+      AnnotationMirror annotation = firstRuntimeAnnotation(argument);
+      if (annotation == null) continue;
+
+      String annotationName = name(annotation);
+      if (ATTRIBUTE.equals(annotationName)) {
+        writeAttribute(annotation, argument.asType(), "arg" + i);
+      } else if (TRACKABLE_ATTRIBUTE.equals(annotationName)) {
+        advices.append("    TrackingStubs.addTrackableAttributes(attributes, arg").append(i).append(");\n");
+      } else if (TRANSFORM_ATTRIBUTE.equals(annotationName)) {
+        writeTransformAttribute(annotation, argument.asType(), "arg" + i, transform);
+      }
+    }
+
+    advices.append("    TrackingStubs.trackEvent(").append(event).append(", attributes, start);\n")
+        .append("  }\n\n");
+  }
+
+  /**
+   * Calls which are not sampled or exceed the rate limit still update the super attributes, same as the runtime
+   * aspect. Nothing else is collected.
+   */
+  private void writeUntrackedSuperAttributes(ExecutableElement method, TypeMirror returnType, String transform) {
+    for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+      String annotationName = name(annotation);
+      if (ATTRIBUTE.equals(annotationName)) {
+        writeUntrackedSuperAttribute(annotation, stringValue(annotation, "value"),
+            valueOrDefault(annotation, returnType, RESULT));
+      } else if (FIXED_ATTRIBUTE.equals(annotationName)) {
+        writeUntrackedSuperAttribute(annotation, stringValue(annotation, "key"),
+            literal(stringValue(annotation, "value")));
+      } else if (FIXED_ATTRIBUTES.equals(annotationName)) {
+        for (AnnotationValue value : listValue(annotation, "value")) {
+          AnnotationMirror attribute = (AnnotationMirror) value.getValue();
+          writeUntrackedSuperAttribute(attribute, stringValue(attribute, "key"),
+              literal(stringValue(attribute, "value")));
+        }
+      } else if (TRANSFORM_ATTRIBUTE.equals(annotationName)) {
+        writeUntrackedSuperAttribute(annotation, stringValue(annotation, "value"),
+            transformExpression(annotation, returnType, RESULT, transform));
+      }
+    }
+
+    List<? extends VariableElement> arguments = method.getParameters();
+    for (int i = 0, size = arguments.size(); i < size; i++) {
+      VariableElement argument = arguments.get(i);
+      AnnotationMirror annotation = firstRuntimeAnnotation(argument);
+      if (annotation == null) continue;
+
+      String annotationName = name(annotation);
+      if (ATTRIBUTE.equals(annotationName)) {
+        writeUntrackedSuperAttribute(annotation, stringValue(annotation, "value"),
+            valueOrDefault(annotation, argument.asType(), "arg" + i));
+      } else if (TRANSFORM_ATTRIBUTE.equals(annotationName)) {
+        writeUntrackedSuperAttribute(annotation, stringValue(annotation, "value"),
+            transformExpression(annotation, argument.asType(), "arg" + i, transform));
+      }
+    }
+  }
+
+  private void writeUntrackedSuperAttribute(AnnotationMirror annotation, String key, String expression) {
+    if (!booleanValue(annotation, "isSuper")) return;
+
+    advices.append("      TrackingStubs.addSuperAttribute(").append(literal(key)).append(", ").append(expression)
+        .append(");\n");
+  }
+
+  /**
+   * Number of attributes which the advice puts, including the fixed attributes of the class and its enclosing
+   * classes. Trackable attributes are not known at compile time.
+   */
+  private int attributeCount(ExecutableElement method) {
+    int count = keyedAttributeCount(method);
+    for (VariableElement argument : method.getParameters()) {
+      AnnotationMirror annotation = firstRuntimeAnnotation(argument);
+      if (annotation == null) continue;
+
+      String annotationName = name(annotation);
+      if (ATTRIBUTE.equals(annotationName) || TRANSFORM_ATTRIBUTE.equals(annotationName)) {
+        count++;
+      }
+    }
+    for (Element element = type; element instanceof TypeElement; element = element.getEnclosingElement()) {
+      count += keyedAttributeCount(element);
+    }
+    return count;
+  }
+
+  private int keyedAttributeCount(Element element) {
+    int count = 0;
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      String annotationName = name(annotation);
+      if (ATTRIBUTE.equals(annotationName) || FIXED_ATTRIBUTE.equals(annotationName)
+          || TRANSFORM_ATTRIBUTE.equals(annotationName)) {
+        count++;
+      } else if (FIXED_ATTRIBUTES.equals(annotationName)) {
+        count += listValue(annotation, "value").size();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Same as the runtime aspect, every parameter annotated with Attribute becomes a super attribute
+   */
+  private void writeSuperAttribute(ExecutableElement method, int index) {
+    List<String> names = new ArrayList<>();
+    List<String> parameters = new ArrayList<>();
+    addArguments(method, names, parameters);
+
+    writeBefore(method, TRACK_SUPER_ATTRIBUTE, names);
+    advices.append("  public void ").append(adviceName("superAttribute", method, index))
+        .append("(").append(join(parameters, ", ")).append(") {\n");
+
+    List<? extends VariableElement> arguments = method.getParameters();
+    for (int i = 0, size = arguments.size(); i < size; i++) {
+      VariableElement argument = arguments.get(i);
+      AnnotationMirror annotation = firstRuntimeAnnotation(argument);
+      if (annotation == null || !ATTRIBUTE.equals(name(annotation))) continue;
+
+      advices.append("    TrackingStubs.addSuperAttribute(").append(literal(stringValue(annotation, "value")))
+          .append(", ").append(valueOrDefault(annotation, argument.asType(), "arg" + i)).append(");\n");
+    }
+    advices.append("  }\n\n");
+  }
+
+  private void writeRemoveSuperAttribute(ExecutableElement method, AnnotationMirror annotation, int index) {
+    writeBefore(method, REMOVE_SUPER_ATTRIBUTE, Collections.<String>emptyList());
+    advices.append("  public void ").append(adviceName("removeSuperAttribute", method, index)).append("() {\n")
+        .append("    TrackingStubs.removeSuperAttribute(").append(literal(stringValue(annotation, "value")))
+        .append(");\n")
+        .append("  }\n\n");
+  }
+
+  private void writeBefore(ExecutableElement method, String annotation, List<String> names) {
+    advices.append("  @Before(\n")
+        .append("      value = ").append(literal(pointcut(method, annotation, false, !names.isEmpty())));
+    if (!names.isEmpty()) {
+      advices.append(",\n      argNames = ").append(literal(join(names, ",")));
+    }
+    advices.append("\n  )\n");
+  }
+
+  /**
+   * Attribute on the method or a parameter: the value itself or the default value when it is null
+   */
+  private void writeAttribute(AnnotationMirror annotation, TypeMirror valueType, String value) {
+    String put = valueType != null && !booleanValue(annotation, "isSuper") ? typedPut(valueType.getKind()) : null;
+    if (put != null) {
+      keys.add(stringValue(annotation, "value"));
+      advices.append("    attributes.").append(put).append("(").append(literal(stringValue(annotation, "value")))
+          .append(", ").append(value).append(");\n");
+      return;
+    }
+    writePut(annotation, stringValue(annotation, "value"), valueOrDefault(annotation, valueType, value));
+  }
+
+  /**
+   * Primitives which AttributeMap keeps unboxed, null for the others
+   */
+  private static String typedPut(TypeKind kind) {
+    switch (kind) {
+      case INT:
+        return "putInt";
+      case LONG:
+        return "putLong";
+      case DOUBLE:
+        return "putDouble";
+      case FLOAT:
+        return "putFloat";
+      case BOOLEAN:
+        return "putBoolean";
+      default:
+        return null;
+    }
+  }
+
+  private void writeFixedAttribute(AnnotationMirror annotation) {
+    writePut(annotation, stringValue(annotation, "key"), literal(stringValue(annotation, "value")));
+  }
+
+  private void writeTransformAttribute(AnnotationMirror annotation, TypeMirror valueType, String value,
+                                       String transform) {
+    writePut(annotation, stringValue(annotation, "value"), transformExpression(annotation, valueType, value,
+        transform));
+  }
+
+  /**
+   * Only int values have a mapping, any other value is null
+   */
+  private String transformExpression(AnnotationMirror annotation, TypeMirror valueType, String value,
+                                     String transform) {
+    String defaultValue = defaultValue(annotation);
+    if (valueType == null) return defaultValue;
+    if (valueType.getKind().isPrimitive()) {
+      return transform != null && valueType.getKind() == TypeKind.INT ? transform + "(" + value + ")" : "null";
+    }
+    String transformed = transform != null ? transform + "(" + value + ")" : "(String) null";
+    return value + " != null ? " + transformed + " : " + defaultValue;
+  }
+
+  private void writePut(AnnotationMirror annotation, String key, String expression) {
+    keys.add(key);
+    if (booleanValue(annotation, "isSuper")) {
+      advices.append("    TrackingStubs.putSuperAttribute(attributes, ");
+    } else {
+      advices.append("    attributes.put(");
+    }
+    advices.append(literal(key)).append(", ").append(expression).append(");\n");
+  }
+
+  private String valueOrDefault(AnnotationMirror annotation, TypeMirror valueType, String value) {
+    if (valueType == null) return defaultValue(annotation);
+    if (valueType.getKind().isPrimitive()) return value;
+
+    String defaultValue = defaultValue(annotation);
+    return "null".equals(defaultValue) ? value : value + " != null ? " + value + " : " + defaultValue;
+  }
+
+  private String defaultValue(AnnotationMirror annotation) {
+    String defaultValue = stringValue(annotation, "defaultValue");
+    return defaultValue.isEmpty() ? "null" : literal(defaultValue);
+  }
+
+  /**
+   * Compiles the TransformAttributeMap of the method into a switch
+   *
+   * @return name of the generated method, null when the method has no map
+   */
+  private String writeTransformTable(ExecutableElement method, int index) {
+    AnnotationMirror map = annotation(method, TRANSFORM_ATTRIBUTE_MAP);
+    if (map == null) return null;
+
+    List<? extends AnnotationValue> keys = listValue(map, "keys");
+    List<? extends AnnotationValue> values = listValue(map, "values");
+    if (keys.size() != values.size()) {
+      error("TransformAttributeMap keys and values must have same length", method);
+      return null;
+    }
+    // The latest value wins for the same key
+    Map<Integer, String> table = new TreeMap<>();
+    for (int i = 0; i < keys.size(); i++) {
+      table.put((Integer) keys.get(i).getValue(), (String) values.get(i).getValue());
+    }
+
+    String name = "transform" + index;
+    fields.append("  private static String ").append(name).append("(int value) {\n")
+        .append("    switch (value) {\n");
+    for (Map.Entry<Integer, String> entry : table.entrySet()) {
+      fields.append("      case ").append(entry.getKey()).append(": return ").append(literal(entry.getValue()))
+          .append(";\n");
+    }
+    fields.append("      default: return null;\n")
+        .append("    }\n")
+        .append("  }\n\n")
+        .append("  private static String ").append(name).append("(Object value) {\n")
+        .append("    return value instanceof Integer\n")
+        .append("        ? ").append(name).append("(((Integer) value).intValue()) : null;\n")
+        .append("  }\n\n");
+    return name;
+  }
+
+  private void addArguments(ExecutableElement method, List<String> names, List<String> parameters) {
+    List<? extends VariableElement> arguments = method.getParameters();
+    for (int i = 0, size = arguments.size(); i < size; i++) {
+      names.add("arg" + i);
+      parameters.add(adviceType(arguments.get(i).asType()) + " arg" + i);
+    }
+  }
+
+  /**
+   * Primitives are bound as they are, everything else as Object, the class of a value doesn't need to be visible
+   */
+  private String adviceType(TypeMirror typeMirror) {
+    return typeMirror.getKind().isPrimitive() ? typeMirror.toString() : "Object";
+  }
+
+  /**
+   * Matches exactly this method. within() leaves out the overriding methods of subclasses, they have stubs of
+   * their own when they are annotated as well.
+   *
+   * @param bindArgs the advice has a formal for each argument, arg0 and so on. Without the formals ajc takes the
+   *                 names of args() for types and the advice never matches.
+   */
+  private String pointcut(ExecutableElement method, String annotation, boolean bindThis, boolean bindArgs) {
+    StringBuilder pointcut = new StringBuilder("execution(@").append(annotation).append(' ');
+    if (method.getKind() == ElementKind.CONSTRUCTOR) {
+      pointcut.append(type.getQualifiedName()).append(".new(");
+    } else {
+      pointcut.append("* ").append(type.getQualifiedName()).append('.').append(method.getSimpleName()).append('(');
+    }
+    List<String> parameterTypes = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    for (VariableElement parameter : method.getParameters()) {
+      parameterTypes.add(types.erasure(parameter.asType()).toString());
+      names.add("arg" + names.size());
+    }
+    // Varargs only match the ... notation
+    if (method.isVarArgs()) {
+      int last = parameterTypes.size() - 1;
+      String arrayType = parameterTypes.get(last);
+      parameterTypes.set(last, arrayType.substring(0, arrayType.length() - 2) + "...");
+    }
+    pointcut.append(join(parameterTypes, ", ")).append("))")
+        .append(" && within(").append(type.getQualifiedName()).append(')');
+    if (bindThis) {
+      pointcut.append(" && this(").append(SELF).append(')');
+    }
+    if (bindArgs && !names.isEmpty()) {
+      pointcut.append(" && args(").append(join(names, ", ")).append(')');
+    }
+    return pointcut.toString();
+  }
+
+  private String adviceName(String prefix, ExecutableElement method, int index) {
+    String name = method.getKind() == ElementKind.CONSTRUCTOR ? "Constructor" : method.getSimpleName().toString();
+    return prefix + "_" + name + "_" + index;
+  }
+
+  private boolean isTrackableThis(ExecutableElement method) {
+    if (annotation(method, TRACKABLE_ATTRIBUTE) == null) return false;
+
+    TypeElement trackable = elements.getTypeElement(TRACKABLE);
+    return trackable != null && types.isAssignable(types.erasure(type.asType()), trackable.asType());
+  }
+
+  /**
+   * Only runtime annotations are visible to the aspect, the first one of them decides
+   */
+  private static AnnotationMirror firstRuntimeAnnotation(Element element) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      Retention retention = annotation.getAnnotationType().asElement().getAnnotation(Retention.class);
+      if (retention != null && retention.value() == RetentionPolicy.RUNTIME) {
+        return annotation;
+      }
+    }
+    return null;
+  }
+
+  private static AnnotationMirror annotation(Element element, String name) {
+    for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+      if (name.equals(name(annotation))) return annotation;
+    }
+    return null;
+  }
+
+  private static String name(AnnotationMirror annotation) {
+    return ((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().toString();
+  }
+
+  private Object value(AnnotationMirror annotation, String name) {
+    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+        : elements.getElementValuesWithDefaults(annotation).entrySet()) {
+      if (entry.getKey().getSimpleName().contentEquals(name)) {
+        return entry.getValue().getValue();
+      }
+    }
+    return null;
+  }
+
+  private String stringValue(AnnotationMirror annotation, String name) {
+    return (String) value(annotation, name);
+  }
+
+  private boolean booleanValue(AnnotationMirror annotation, String name) {
+    return Boolean.TRUE.equals(value(annotation, name));
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<? extends AnnotationValue> listValue(AnnotationMirror annotation, String name) {
+    Object value = value(annotation, name);
+    return value != null ? (List<? extends AnnotationValue>) value : Collections.<AnnotationValue>emptyList();
+  }
+
+  private static String intArray(List<? extends AnnotationValue> values) {
+    List<String> items = new ArrayList<>();
+    for (AnnotationValue value : values) {
+      items.add(String.valueOf(value.getValue()));
+    }
+    return "new int[]{" + join(items, ", ") + "}";
+  }
+
+  private static String stringArray(List<? extends AnnotationValue> values) {
+    List<String> items = new ArrayList<>();
+    for (AnnotationValue value : values) {
+      items.add(literal((String) value.getValue()));
+    }
+    return "new String[]{" + join(items, ", ") + "}";
+  }
+
+  private void error(String message, Element element) {
+    failed = true;
+    environment.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  private static String join(List<String> items, String separator) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0, size = items.size(); i < size; i++) {
+      if (i > 0) {
+        builder.append(separator);
+      }
+      builder.append(items.get(i));
+    }
+    return builder.toString();
+  }
+
+  static String literal(String value) {
+    StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0, size = value.length(); i < size; i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          builder.append("\\\"");
+          break;
+        case '\\':
+          builder.append("\\\\");
+          break;
+        case '\n':
+          builder.append("\\n");
+          break;
+        case '\r':
+          builder.append("\\r");
+          break;
+        case '\t':
+          builder.append("\\t");
+          break;
+        default:
+          if (c < 0x20 || c > 0x7e) {
+            builder.append(String.format("\\u%04x", (int) c));
+          } else {
+            builder.append(c);
+          }
+      }
+    }
+    return builder.append('"').toString();
+  }
+}
@@ -0,0 +1,102 @@
+package com.orhanobut.tracklytics.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates a tracking stub aspect for each class which contains methods annotated with TrackEvent,
+ * TrackSuperAttribute or RemoveSuperAttribute.
+ * <p>
+ * Stubs bind the arguments and the return value of each method directly and have the keys, fixed attributes and
+ * transform tables compiled in. Unlike TracklyticsAspect, they don't touch the join point, the argument array
+ * or reflection when the method is invoked.
+ * <p>
+ * Methods of anonymous and local classes are not visible to annotation processors, the plugin weaves the runtime
+ * aspect into them.
+ */
+@SupportedAnnotationTypes({
+    StubGenerator.TRACK_EVENT,
+    StubGenerator.TRACK_SUPER_ATTRIBUTE,
+    StubGenerator.REMOVE_SUPER_ATTRIBUTE
+})
+public final class TracklyticsProcessor extends AbstractProcessor {
+
+  @Override public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    Map<TypeElement, Set<ExecutableElement>> methodsByType = new LinkedHashMap<>();
+    for (TypeElement annotation : annotations) {
+      for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+        if (!(element instanceof ExecutableElement)) continue;
+
+        TypeElement type = (TypeElement) element.getEnclosingElement();
+        Set<ExecutableElement> methods = methodsByType.get(type);
+        if (methods == null) {
+          methods = new LinkedHashSet<>();
+          methodsByType.put(type, methods);
+        }
+        methods.add((ExecutableElement) element);
+      }
+    }
+
+    for (Map.Entry<TypeElement, Set<ExecutableElement>> entry : methodsByType.entrySet()) {
+      TypeElement type = entry.getKey();
+      if (!isAccessible(type)) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+            "Tracking stubs cannot be generated for private classes", type);
+        continue;
+      }
+      StubGenerator generator = new StubGenerator(processingEnv, type, new ArrayList<>(entry.getValue()));
+      String source = generator.generate();
+      if (source == null) continue;
+
+      write(generator.qualifiedStubName(), source, type);
+    }
+    return false;
+  }
+
+  private void write(String name, String source, TypeElement originatingElement) {
+    try {
+      JavaFileObject file = processingEnv.getFiler().createSourceFile(name, originatingElement);
+      Writer writer = file.openWriter();
+      try {
+        writer.write(source);
+      } finally {
+        writer.close();
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Unable to write tracking stubs " + name + ": " + e.getMessage(), originatingElement);
+    }
+  }
+
+  /**
+   * Stubs live in the package of the class and refer to it, therefore no class of the chain can be private
+   */
+  private static boolean isAccessible(TypeElement type) {
+    Element element = type;
+    while (element instanceof TypeElement) {
+      if (element.getModifiers().contains(Modifier.PRIVATE)) return false;
+      element = element.getEnclosingElement();
+    }
+    return true;
+  }
+}
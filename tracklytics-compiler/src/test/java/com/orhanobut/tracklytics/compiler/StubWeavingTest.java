@@ -0,0 +1,278 @@
+package com.orhanobut.tracklytics.compiler;
+
+import org.aspectj.bridge.IMessage;
+import org.aspectj.bridge.MessageHandler;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.tools.ajc.Main;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static com.google.common.truth.Truth.assertThat;
+
+/**
+ * Compiles and weaves the same classes once with the generated stubs and once with TracklyticsAspect, both must
+ * track the same events
+ */
+public class StubWeavingTest {
+
+  private static final File RUNTIME = new File("../tracklytics-runtime/src/main/java/com/orhanobut/tracklytics");
+
+  private static final String FOO = ""
+      + "package test;\n"
+      + "import com.orhanobut.tracklytics.*;\n"
+      + "import java.util.*;\n"
+      + "@FixedAttribute(key = \"screen\", value = \"foo\")\n"
+      + "public class Foo implements Trackable {\n"
+      + "  @Override public Map<String, Object> getTrackableAttributes() {\n"
+      + "    return Collections.<String, Object>singletonMap(\"this\", \"foo\");\n"
+      + "  }\n"
+      + "  @TrackEvent(value = \"plain\", filters = {1, 2}, tags = \"tag\")\n"
+      + "  public void plain() {\n"
+      + "  }\n"
+      + "  @TrackEvent(\"result\")\n"
+      + "  @Attribute(value = \"result\", defaultValue = \"none\")\n"
+      + "  @FixedAttributes({@FixedAttribute(key = \"a\", value = \"1\"),\n"
+      + "      @FixedAttribute(key = \"b\", value = \"2\", isSuper = true)})\n"
+      + "  public String result(@Attribute(\"name\") String name,\n"
+      + "      @Attribute(value = \"count\", isSuper = true) int count,\n"
+      + "      @TransformAttribute(value = \"position\", defaultValue = \"d\") Integer position,\n"
+      + "      @TrackableAttribute Foo self) {\n"
+      + "    return name;\n"
+      + "  }\n"
+      + "  @TrackEvent(\"transform\")\n"
+      + "  @TransformAttributeMap(keys = {0, 1}, values = {\"zero\", \"one\"})\n"
+      + "  @TransformAttribute(\"result\")\n"
+      + "  @TrackableAttribute\n"
+      + "  public int transform(@TransformAttribute(\"position\") int position,\n"
+      + "      String... names) {\n"
+      + "    return position;\n"
+      + "  }\n"
+      + "  @TrackEvent(\"static\")\n"
+      + "  public static long staticMethod(@Attribute(\"value\") long value) {\n"
+      + "    return value;\n"
+      + "  }\n"
+      + "  @TrackSuperAttribute\n"
+      + "  public void login(@Attribute(\"user\") String user, @Attribute(value = \"level\", defaultValue = \"none\")\n"
+      + "      String level) {\n"
+      + "  }\n"
+      + "  @RemoveSuperAttribute(\"user\")\n"
+      + "  public void logout(String reason) {\n"
+      + "  }\n"
+      + "  @TrackEvent(value = \"unsampled\", sampleRate = 0)\n"
+      + "  @FixedAttribute(key = \"c\", value = \"3\", isSuper = true)\n"
+      + "  public void unsampled(@Attribute(value = \"u\", isSuper = true) String u,\n"
+      + "      @Attribute(\"local\") int local) {\n"
+      + "  }\n"
+      + "  @TrackEvent(value = \"limited\", rateLimit = 1)\n"
+      + "  public void limited(@Attribute(value = \"l\", isSuper = true) String l) {\n"
+      + "  }\n"
+      + "  @RemoveSuperAttribute(\"level\")\n"
+      + "  public void reset() {\n"
+      + "  }\n"
+      + "  public static class Inner<T extends CharSequence> {\n"
+      + "    @TrackEvent(\"inner\")\n"
+      + "    public void inner(@Attribute(\"value\") T value) {\n"
+      + "    }\n"
+      + "  }\n"
+      + "}\n";
+
+  private static final String DRIVER = ""
+      + "package test;\n"
+      + "import com.orhanobut.tracklytics.*;\n"
+      + "import java.util.*;\n"
+      + "import java.util.concurrent.Callable;\n"
+      + "public class Driver implements Callable<List<String>> {\n"
+      + "  @Override public List<String> call() {\n"
+      + "    final List<String> events = new ArrayList<>();\n"
+      + "    Tracklytics.init(new EventSubscriber() {\n"
+      + "      @Override public void onEventTracked(Event event) {\n"
+      + "        events.add(event.name + \" \" + Arrays.toString(event.filters) + \" \" + Arrays.toString(event.tags)\n"
+      + "            + \" \" + new TreeMap<>(event.attributes) + \" super=\" + new TreeMap<>(event.superAttributes));\n"
+      + "      }\n"
+      + "    });\n"
+      + "    Foo foo = new Foo();\n"
+      + "    foo.plain();\n"
+      + "    foo.result(\"name\", 3, 1, foo);\n"
+      + "    foo.result(null, 4, null, foo);\n"
+      + "    foo.transform(1, \"a\", \"b\");\n"
+      + "    foo.transform(7);\n"
+      + "    Foo.staticMethod(5L);\n"
+      + "    foo.login(\"user\", null);\n"
+      + "    foo.plain();\n"
+      + "    foo.logout(\"timeout\");\n"
+      + "    foo.plain();\n"
+      + "    foo.reset();\n"
+      + "    foo.plain();\n"
+      + "    new Foo.Inner<String>().inner(\"value\");\n"
+      + "    foo.unsampled(\"u\", 1);\n"
+      + "    foo.plain();\n"
+      + "    foo.limited(\"first\");\n"
+      + "    foo.limited(\"second\");\n"
+      + "    foo.plain();\n"
+      + "    return events;\n"
+      + "  }\n"
+      + "}\n";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final String aspectjRuntime = location(JoinPoint.class);
+
+  @Test public void trackSameEventsAsAspect() throws Exception {
+    File runtime = compile(sources(RUNTIME.listFiles()), aspectjRuntime, false);
+    File wovenRuntime = folder.newFolder();
+    ajc("-inpath", runtime.getPath(), "-d", wovenRuntime.getPath(), "-classpath", aspectjRuntime);
+
+    // Stubs are woven from the inpath, the runtime aspect is not applied
+    File stubs = compile(appSources(), aspectjRuntime + File.pathSeparator + runtime, true);
+    assertThat(new File(stubs, "test/Foo_TracklyticsStubs.class").isFile()).isTrue();
+    List<String> warnings = ajc("-inpath", stubs.getPath(), "-d", stubs.getPath(),
+        "-classpath", aspectjRuntime + File.pathSeparator + runtime);
+    for (String warning : warnings) {
+      assertThat(warning).doesNotContain("has not been applied");
+      assertThat(warning).doesNotContain("no match for this type name");
+    }
+
+    File classes = compile(appSources(), aspectjRuntime + File.pathSeparator + runtime, false);
+    ajc("-inpath", classes.getPath(), "-aspectpath", wovenRuntime.getPath(), "-d", classes.getPath(),
+        "-classpath", aspectjRuntime + File.pathSeparator + wovenRuntime);
+
+    List<String> generatedEvents = run(runtime, stubs);
+    List<String> aspectEvents = run(wovenRuntime, classes);
+    assertThat(generatedEvents).isEqualTo(aspectEvents);
+    assertThat(generatedEvents).hasSize(13);
+    assertThat(generatedEvents.get(6)).endsWith("super={b=2, count=4, level=none, user=user}");
+    assertThat(generatedEvents.get(7)).endsWith("super={b=2, count=4, level=none}");
+    assertThat(generatedEvents.get(8)).endsWith("super={b=2, count=4}");
+    assertThat(generatedEvents.get(10)).endsWith("super={b=2, c=3, count=4, u=u}");
+    assertThat(generatedEvents.get(11)).startsWith("limited ");
+    assertThat(generatedEvents.get(12)).endsWith("super={b=2, c=3, count=4, l=second, u=u}");
+  }
+
+  private List<JavaFileObject> appSources() {
+    return Arrays.<JavaFileObject>asList(new Source("test.Foo", FOO), new Source("test.Driver", DRIVER));
+  }
+
+  private static List<JavaFileObject> sources(File[] files) {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+    List<JavaFileObject> sources = new ArrayList<>();
+    for (JavaFileObject file : fileManager.getJavaFileObjects(files)) {
+      sources.add(file);
+    }
+    return sources;
+  }
+
+  /**
+   * @return the directory of the classes
+   */
+  private File compile(List<JavaFileObject> sources, String classPath, boolean generateStubs) throws IOException {
+    File classes = folder.newFolder();
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+    List<String> options = new ArrayList<>(Arrays.asList(
+        "-source", "1.7", "-target", "1.7", "-nowarn", "-g",
+        "-classpath", classPath,
+        "-d", classes.getPath(),
+        "-s", folder.newFolder().getPath()
+    ));
+    if (!generateStubs) {
+      options.add("-proc:none");
+    }
+    JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+    if (generateStubs) {
+      task.setProcessors(Collections.singletonList(new TracklyticsProcessor()));
+    }
+    try {
+      boolean success = task.call();
+      List<String> errors = new ArrayList<>();
+      for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+        if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+          errors.add(diagnostic.toString());
+        }
+      }
+      assertThat(errors).isEmpty();
+      assertThat(success).isTrue();
+    } finally {
+      fileManager.close();
+    }
+    return classes;
+  }
+
+  /**
+   * @return the warnings, fails for errors
+   */
+  private static List<String> ajc(String... args) {
+    List<String> arguments = new ArrayList<>(Arrays.asList("-1.7"));
+    arguments.addAll(Arrays.asList(args));
+    MessageHandler handler = new MessageHandler(true);
+    new Main().run(arguments.toArray(new String[arguments.size()]), handler);
+
+    List<String> errors = new ArrayList<>();
+    for (IMessage message : handler.getMessages(IMessage.ERROR, true)) {
+      errors.add(message.toString());
+    }
+    assertThat(errors).isEmpty();
+    List<String> warnings = new ArrayList<>();
+    for (IMessage message : handler.getMessages(IMessage.WARNING, false)) {
+      warnings.add(message.toString());
+    }
+    return warnings;
+  }
+
+  /**
+   * Each run gets its own class loader, Tracklytics keeps its subscribers in static state
+   */
+  @SuppressWarnings("unchecked")
+  private static List<String> run(File runtime, File classes) throws Exception {
+    URLClassLoader loader = new URLClassLoader(new URL[]{runtime.toURI().toURL(), classes.toURI().toURL()},
+        StubWeavingTest.class.getClassLoader());
+    try {
+      Callable<List<String>> driver = (Callable<List<String>>) loader.loadClass("test.Driver").newInstance();
+      return driver.call();
+    } finally {
+      loader.close();
+    }
+  }
+
+  private static String location(Class<?> type) {
+    try {
+      return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    } catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static final class Source extends SimpleJavaFileObject {
+    private final String content;
+
+    Source(String className, String content) {
+      super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+      this.content = content;
+    }
+
+    @Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+      return content;
+    }
+  }
+}
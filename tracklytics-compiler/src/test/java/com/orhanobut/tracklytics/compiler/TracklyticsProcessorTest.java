@@ -0,0 +1,245 @@
+package com.orhanobut.tracklytics.compiler;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TracklyticsProcessorTest {
+
+  private static final File RUNTIME = new File("../tracklytics-runtime/src/main/java/com/orhanobut/tracklytics");
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+  private File generated;
+
+  @Before public void setup() throws IOException {
+    generated = folder.newFolder("generated");
+  }
+
+  /**
+   * Runs only the processor, the runtime sources are compiled along since the stubs refer to them
+   */
+  private boolean process(String className, String source) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+
+    List<JavaFileObject> sources = new ArrayList<>();
+    for (JavaFileObject file : fileManager.getJavaFileObjects(RUNTIME.listFiles())) {
+      sources.add(file);
+    }
+    sources.add(new Source(className, source));
+
+    List<String> options = Arrays.asList(
+        "-proc:only", "-s", generated.getPath(), "-d", folder.newFolder().getPath()
+    );
+    JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, sources);
+    task.setProcessors(Collections.singletonList(new TracklyticsProcessor()));
+    try {
+      return task.call();
+    } finally {
+      fileManager.close();
+    }
+  }
+
+  private String generated(String path) throws IOException {
+    return new String(Files.readAllBytes(new File(generated, path).toPath()), Charset.forName("UTF-8"));
+  }
+
+  private List<String> errors() {
+    List<String> errors = new ArrayList<>();
+    for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+      if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+        errors.add(diagnostic.getMessage(null));
+      }
+    }
+    return errors;
+  }
+
+  @Test public void generateTrackEventStub() throws IOException {
+    boolean success = process("test.Foo", ""
+        + "package test;\n"
+        + "import com.orhanobut.tracklytics.*;\n"
+        + "@FixedAttribute(key = \"screen\", value = \"foo\")\n"
+        + "public class Foo {\n"
+        + "  @TrackEvent(value = \"event\", filters = {1, 2}, tags = \"tag\")\n"
+        + "  @Attribute(\"result\")\n"
+        + "  @FixedAttribute(key = \"fixed\", value = \"value\", isSuper = true)\n"
+        + "  public int foo(@Attribute(\"name\") String name, @TrackableAttribute Object value, String... rest) {\n"
+        + "    return 1;\n"
+        + "  }\n"
+        + "}\n");
+
+    assertThat(errors()).isEmpty();
+    assertThat(success).isTrue();
+
+    String stub = generated("test/Foo_TracklyticsStubs.java");
+    assertThat(stub).contains("package test;");
+    assertThat(stub).contains("@Aspect");
+    assertThat(stub).contains("public final class Foo_TracklyticsStubs {");
+    assertThat(stub).contains(
+        "TrackingStubs.trackEvent(\"event\", new int[]{1, 2}, new String[]{\"tag\"})");
+    assertThat(stub).contains(
+        "execution(@com.orhanobut.tracklytics.TrackEvent * test.Foo.foo"
+            + "(java.lang.String, java.lang.Object, java.lang.String...))");
+    assertThat(stub).contains("TrackingStubs.internKeys(\"result\", \"fixed\", \"name\");");
+    assertThat(stub).contains("returning = \"result\"");
+    assertThat(stub).contains("TrackingStubs.addClassAttributes(attributes, test.Foo.class, self, false);");
+    assertThat(stub).contains("TrackingStubs.putSuperAttribute(attributes, \"fixed\", \"value\");");
+    assertThat(stub).contains("TrackingStubs.addTrackableAttributes(attributes, arg1);");
+    assertThat(stub).contains("TrackingStubs.trackEvent(EVENT_0, attributes, start);");
+    assertThat(stub).contains(""
+        + "    if (!TrackingStubs.shouldTrack(EVENT_0)) {\n"
+        + "      TrackingStubs.addClassSuperAttributes(test.Foo.class, self);\n"
+        + "      TrackingStubs.addSuperAttribute(\"fixed\", \"value\");\n"
+        + "      return;\n"
+        + "    }\n");
+    assertThat(stub.indexOf("long start = TrackingStubs.startAdvice();"))
+        .isLessThan(stub.indexOf("if (!TrackingStubs.shouldTrack(EVENT_0))"));
+    assertThat(stub.indexOf("if (!TrackingStubs.shouldTrack(EVENT_0))"))
+        .isLessThan(stub.indexOf("AttributeMap attributes = TrackingStubs.newAttributes(4);"));
+  }
+
+  @Test public void generatePrimitiveAttributes() throws IOException {
+    process("test.Foo", ""
+        + "package test;\n"
+        + "import com.orhanobut.tracklytics.*;\n"
+        + "public class Foo {\n"
+        + "  @TrackEvent(\"event\")\n"
+        + "  public void foo(@Attribute(\"count\") int count, @Attribute(\"price\") double price,\n"
+        + "      @Attribute(value = \"flag\", isSuper = true) boolean flag) {\n"
+        + "  }\n"
+        + "}\n");
+
+    assertThat(errors()).isEmpty();
+    String stub = generated("test/Foo_TracklyticsStubs.java");
+    assertThat(stub).contains("attributes.putInt(\"count\", arg0);");
+    assertThat(stub).contains("attributes.putDouble(\"price\", arg1);");
+    assertThat(stub).contains("TrackingStubs.internKeys(\"count\", \"price\", \"flag\");");
+    assertThat(stub).doesNotContain("putBoolean");
+  }
+
+  @Test public void generateSampleRate() throws IOException {
+    process("test.Foo", ""
+        + "package test;\n"
+        + "import com.orhanobut.tracklytics.*;\n"
+        + "public class Foo {\n"
+        + "  @TrackEvent(value = \"event\", sampleRate = 0.25)\n"
+        + "  public void foo() {\n"
+        + "  }\n"
+        + "}\n");
+
+    assertThat(errors()).isEmpty();
+    assertThat(generated("test/Foo_TracklyticsStubs.java")).contains(
+        "TrackingStubs.trackEvent(\"event\", new int[]{}, new String[]{}, 0.25)");
+  }
+
+  @Test public void generateRateLimit() throws IOException {
+    process("test.Foo", ""
+        + "package test;\n"
+        + "import com.orhanobut.tracklytics.*;\n"
+        + "public class Foo {\n"
+        + "  @TrackEvent(value = \"event\", rateLimit = 10)\n"
+        + "  public void foo() {\n"
+        + "  }\n"
+        + "}\n");
+
+    assertThat(errors()).isEmpty();
+    assertThat(generated("test/Foo_TracklyticsStubs.java")).contains(
+        "TrackingStubs.trackEvent(\"event\", new int[]{}, new String[]{}, 1.0, 10)");
+  }
+
+  @Test public void failForSampleRateOutOfRange() throws IOException {
+    boolean success = process("test.Foo", ""
+        + "package test;\n"
+        + "import com.orhanobut.tracklytics.*;\n"
+        + "public class Foo {\n"
+        + "  @TrackEvent(value = \"event\", sampleRate = 2)\n"
+        + "  public void foo() {\n"
+        + "  }\n"
+        + "}\n");
+
+    assertThat(success).isFalse();
+    assertThat(errors()).containsExactly("TrackEvent sampleRate must be between 0 and 1");
+  }
+
+  @Test public void nestedClassStubName() throws IOException {
+    process("test.Outer", ""
+        + "package test;\n"
+        + "import com.orhanobut.tracklytics.*;\n"
+        + "public class Outer {\n"
+        + "  static class Inner {\n"
+        + "    @TrackSuperAttribute @Attribute(\"key\") String foo() {\n"
+        + "      return \"value\";\n"
+        + "    }\n"
+        + "  }\n"
+        + "}\n");
+
+    assertThat(errors()).isEmpty();
+    assertThat(generated("test/Outer_Inner_TracklyticsStubs.java")).contains("test.Outer.Inner");
+  }
+
+  @Test public void failForPrivateClass() throws IOException {
+    boolean success = process("test.Foo", ""
+        + "package test;\n"
+        + "import com.orhanobut.tracklytics.*;\n"
+        + "public class Foo {\n"
+        + "  private static class Inner {\n"
+        + "    @TrackEvent(\"event\") void foo() {\n"
+        + "    }\n"
+        + "  }\n"
+        + "}\n");
+
+    assertThat(success).isFalse();
+    assertThat(errors()).containsExactly("Tracking stubs cannot be generated for private classes");
+  }
+
+  @Test public void failForTransformAttributeMapWithDifferentLengths() throws IOException {
+    boolean success = process("test.Foo", ""
+        + "package test;\n"
+        + "import com.orhanobut.tracklytics.*;\n"
+        + "public class Foo {\n"
+        + "  @TrackEvent(\"event\")\n"
+        + "  @TransformAttributeMap(keys = {1, 2}, values = {\"one\"})\n"
+        + "  public void foo(@TransformAttribute(\"key\") int value) {\n"
+        + "  }\n"
+        + "}\n");
+
+    assertThat(success).isFalse();
+    assertThat(errors()).containsExactly("TransformAttributeMap keys and values must have same length");
+  }
+
+  private static final class Source extends SimpleJavaFileObject {
+    private final String content;
+
+    Source(String className, String content) {
+      super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+      this.content = content;
+    }
+
+    @Override public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+      return content;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package tracklytics.weaving.plugin
+
+import groovy.transform.CompileStatic
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipInputStream
+
+/**
+ * Tells whether a class file refers to the annotations which Tracklytics weaves or is an aspect, by reading only
+ * the UTF-8 entries of its constant pool. Annotated methods always have the annotation descriptor in the pool.
+ * <p>
+ * Classes which cannot be read are reported as tracked, so ajc decides about them.
+ */
+@CompileStatic
+final class ClassScanner {
+
+  static final int NONE = 0
+  static final int TRACKED = 1
+  static final int ASPECT = 2
+
+  private static final int MAGIC = (int) 0xCAFEBABEL
+  private static final byte OBJECT = (byte) 0x4C // L
+
+  private static final byte[][] TRACKED_DESCRIPTORS = [
+      bytes('Lcom/orhanobut/tracklytics/TrackEvent;'),
+      bytes('Lcom/orhanobut/tracklytics/TrackSuperAttribute;'),
+      bytes('Lcom/orhanobut/tracklytics/RemoveSuperAttribute;')
+  ] as byte[][]
+  private static final byte[] ASPECT_DESCRIPTOR = bytes('Lorg/aspectj/lang/annotation/Aspect;')
+
+  private ClassScanner() {
+  }
+
+  /**
+   * @return a combination of {@link #TRACKED} and {@link #ASPECT}
+   */
+  static int scan(byte[] bytes) {
+    try {
+      return scanConstantPool(bytes)
+    } catch (IndexOutOfBoundsException ignored) {
+      return TRACKED
+    }
+  }
+
+  /**
+   * @return true when one of the classes of the jar is an aspect
+   */
+  static boolean containsAspect(File jar) {
+    ZipInputStream stream = new ZipInputStream(new BufferedInputStream(new FileInputStream(jar)))
+    try {
+      ZipEntry entry
+      while ((entry = stream.nextEntry) != null) {
+        if (entry.name.endsWith('.class') && (scan(read(stream)) & ASPECT) != 0) return true
+      }
+      return false
+    } finally {
+      stream.close()
+    }
+  }
+
+  private static byte[] read(InputStream stream) {
+    ByteArrayOutputStream output = new ByteArrayOutputStream()
+    byte[] buffer = new byte[8192]
+    int count
+    while ((count = stream.read(buffer)) != -1) {
+      output.write(buffer, 0, count)
+    }
+    return output.toByteArray()
+  }
+
+  private static int scanConstantPool(byte[] bytes) {
+    if (readInt(bytes, 0) != MAGIC) return TRACKED
+
+    int result = NONE
+    int count = readShort(bytes, 8)
+    int offset = 10
+    for (int i = 1; i < count; i++) {
+      int tag = bytes[offset] & 0xFF
+      switch (tag) {
+        case 1: // Utf8
+          int length = readShort(bytes, offset + 1)
+          result |= match(bytes, offset + 3, length)
+          offset += 3 + length
+          break
+        case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: // 4 bytes
+          offset += 5
+          break
+        case 5: case 6: // Long and Double take two entries
+          offset += 9
+          i++
+          break
+        case 7: case 8: case 16: case 19: case 20:
+          offset += 3
+          break
+        case 15:
+          offset += 4
+          break
+        default:
+          return TRACKED
+      }
+    }
+    return result
+  }
+
+  private static int match(byte[] bytes, int offset, int length) {
+    if (length == 0 || bytes[offset] != OBJECT) return NONE
+
+    for (byte[] descriptor : TRACKED_DESCRIPTORS) {
+      if (equals(bytes, offset, length, descriptor)) return TRACKED
+    }
+    return equals(bytes, offset, length, ASPECT_DESCRIPTOR) ? ASPECT : NONE
+  }
+
+  private static boolean equals(byte[] bytes, int offset, int length, byte[] descriptor) {
+    if (length != descriptor.length) return false
+
+    for (int i = 0; i < length; i++) {
+      if (bytes[offset + i] != descriptor[i]) return false
+    }
+    return true
+  }
+
+  private static int readShort(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF)
+  }
+
+  private static int readInt(byte[] bytes, int offset) {
+    return (readShort(bytes, offset) << 16) | readShort(bytes, offset + 2)
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes('US-ASCII')
+  }
+}
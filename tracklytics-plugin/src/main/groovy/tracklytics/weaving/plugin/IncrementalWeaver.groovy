@@ -0,0 +1,506 @@
+package tracklytics.weaving.plugin
+
+import groovy.transform.CompileStatic
+
+import java.security.MessageDigest
+
+/**
+ * Weaves the classes of a compile output in place, only the classes which changed since the last run.
+ * <p>
+ * The state directory keeps an unwoven copy and the woven output of each class, keyed by the content hash of
+ * the class file:
+ * <ul>
+ *   <li>A class which still has its woven content is skipped.</li>
+ *   <li>A class which was compiled again to the same bytes, e.g. restored from the build cache, gets its
+ *   woven output copied back without weaving.</li>
+ *   <li>Only new and changed classes go through ajc.</li>
+ *   <li>When the aspects change, in the aspect path or aspect classes of the output such as generated stubs,
+ *   every class is woven again from its unwoven copy.</li>
+ * </ul>
+ * Only classes which refer to the Tracklytics annotations or are aspects, see {@link ClassScanner}, and pass the
+ * package filters are given to ajc. Likewise only the aspect path entries which contain aspects are given as
+ * aspect path, the others are on the class path anyway.
+ * <p>
+ * With generated stubs, the tracked classes which have no stub, such as anonymous and local classes, are woven
+ * in batches of their own which have the fallback aspect path, the runtime aspect, as well.
+ * <p>
+ * The classes to weave are split into batches which {@link WeaveWorker} weaves independently, aspects of the
+ * output are part of every batch. Workers report the woven classes through result files which are merged into
+ * the state by the next run; a class without a result is woven again.
+ * <p>
+ * Paths in the state are relative to the output, so the state stays valid when the project is moved.
+ */
+@CompileStatic
+class IncrementalWeaver {
+
+  private static final String STATE_VERSION = '3'
+  private static final String FILE_PREFIX = 'file:'
+  private static final String STUB_SUFFIX = '_TracklyticsStubs.class'
+
+  private final File classesDir
+  private final File stateDir
+  private final List<File> aspectPath
+  private final List<File> fallbackAspectPath
+  private final String classPath
+  private final String bootClassPath
+  private final List<String> includes
+  private final List<String> excludes
+  private final int classesPerBatch
+
+  private final File pristineDir
+  private final File wovenDir
+  private final File aspectsDir
+  private final File batchesDir
+  private final File resultsDir
+  private final File stateFile
+
+  /** Relative path of each class of the output to its record */
+  private final Map<String, Record> records = new TreeMap<>()
+  /** Aspect path files, reused while their size and modification time stay the same */
+  private final Map<String, FileState> fileStates = new TreeMap<>()
+  private final List<File> aspectPathWithAspects = []
+  private final List<File> fallbackAspectPathWithAspects = []
+  private String aspectFingerprint
+
+  /** Number of classes of the output after the last {@link #plan} */
+  int classCount
+  /** Number of classes which went through the scan of the last {@link #plan} */
+  int changedCount
+  /** Number of classes which are given to ajc by the last {@link #plan} */
+  int weaveCount
+
+  /**
+   * @param fallbackAspectPath aspects for the tracked classes without a generated stub, empty when stubs are not
+   *                           generated
+   * @param includes           packages of the classes to weave, all classes when empty. Sub packages are included.
+   * @param excludes           packages of the classes to leave as they are, they win over the includes
+   */
+  IncrementalWeaver(File classesDir, File stateDir, List<File> aspectPath, List<File> fallbackAspectPath,
+                    String classPath, String bootClassPath, List<String> includes, List<String> excludes,
+                    int classesPerBatch) {
+    this.classesDir = classesDir
+    this.stateDir = stateDir
+    this.aspectPath = aspectPath
+    this.fallbackAspectPath = fallbackAspectPath
+    this.classPath = classPath
+    this.bootClassPath = bootClassPath
+    this.includes = packagePaths(includes)
+    this.excludes = packagePaths(excludes)
+    this.classesPerBatch = classesPerBatch
+    this.pristineDir = new File(stateDir, 'pristine')
+    this.wovenDir = new File(stateDir, 'woven')
+    this.aspectsDir = new File(stateDir, 'aspects')
+    this.batchesDir = new File(stateDir, 'batches')
+    this.resultsDir = new File(stateDir, 'results')
+    this.stateFile = new File(stateDir, 'state.properties')
+  }
+
+  /**
+   * Brings the output up to date except the classes which need weaving, those are written to batches.
+   *
+   * @return the batch directories to pass to {@link WeaveWorker}
+   */
+  List<File> plan() {
+    loadState()
+
+    Set<String> owned = new HashSet<>()
+    for (Record record : records.values()) {
+      owned.addAll(record.extras)
+    }
+
+    List<String> changed = []
+    Set<String> present = new HashSet<>()
+    for (String path : WeaveWorker.classFiles(classesDir)) {
+      if (owned.contains(path)) continue
+
+      present.add(path)
+      byte[] bytes = new File(classesDir, path).bytes
+      String classHash = WeaveWorker.hash(bytes)
+      Record record = records.get(path)
+      if (record != null && record.woven && classHash == record.wovenHash) continue
+
+      if (record != null && record.woven && classHash == record.pristineHash) {
+        restore(record)
+        continue
+      }
+      WeaveWorker.write(bytes, new File(pristineDir, path))
+      Record changedRecord = new Record(path, classHash, ClassScanner.scan(bytes))
+      if (record != null) {
+        // The closures of the previous weave are deleted along with the new record
+        changedRecord.extras.addAll(record.extras)
+      }
+      records.put(path, changedRecord)
+      changed.add(path)
+    }
+
+    for (String path : new ArrayList<String>(records.keySet())) {
+      if (!present.contains(path)) {
+        remove(records.remove(path))
+      }
+    }
+
+    String fingerprint = fingerprint()
+    boolean full = fingerprint != aspectFingerprint
+    List<String> classes = []
+    List<String> fallbackClasses = []
+    List<String> aspects = []
+    for (String path : full ? records.keySet() : changed) {
+      Record record = records.get(path)
+      if (!isCandidate(record)) {
+        passThrough(record)
+        continue
+      }
+      deleteExtras(record)
+      record.extras.clear()
+      record.wovenHash = ''
+      if (full && (record.flags & ClassScanner.ASPECT) != 0) {
+        aspects.add(path)
+      } else if (needsFallback(record)) {
+        fallbackClasses.add(path)
+      } else {
+        classes.add(path)
+      }
+    }
+    classCount = records.size()
+    changedCount = changed.size()
+    weaveCount = classes.size() + fallbackClasses.size() + aspects.size()
+
+    batchesDir.deleteDir()
+    List<File> batches = []
+    if (weaveCount == 0) {
+      aspectFingerprint = fingerprint
+    } else if (full) {
+      // The first batch stores the new fingerprint once the aspects are woven
+      aspectsDir.deleteDir()
+      batches = writeBatches(classes, fallbackClasses, aspects, fingerprint)
+    } else {
+      aspectFingerprint = fingerprint
+      batches = writeBatches(classes, fallbackClasses, aspects, null)
+    }
+    saveState()
+    return batches
+  }
+
+  private boolean isCandidate(Record record) {
+    if (record.flags == ClassScanner.NONE) return false
+
+    return (includes.isEmpty() || matches(includes, record.path)) && !matches(excludes, record.path)
+  }
+
+  /**
+   * Tracked classes which have no stub of their own, Foo$Inner has Foo_Inner_TracklyticsStubs. Processors don't
+   * see anonymous and local classes.
+   */
+  private boolean needsFallback(Record record) {
+    if (fallbackAspectPath.isEmpty() || record.flags != ClassScanner.TRACKED) return false
+
+    String stub = record.path.substring(0, record.path.length() - '.class'.length()).replace('$', '_') + STUB_SUFFIX
+    return !records.containsKey(stub)
+  }
+
+  /**
+   * Puts the unwoven class back in case it was woven before
+   */
+  private void passThrough(Record record) {
+    if (record.wovenHash == record.pristineHash) return
+
+    copy(new File(pristineDir, record.path), new File(classesDir, record.path))
+    new File(wovenDir, record.path).delete()
+    new File(aspectsDir, record.path).delete()
+    deleteExtras(record)
+    record.extras.clear()
+    record.wovenHash = record.pristineHash
+  }
+
+  /**
+   * Aspects of the output are in every batch to apply them to all classes, only the first batch keeps them.
+   * Aspects which were woven before are on the aspect path instead. Fallback classes come last, in batches of
+   * their own.
+   */
+  private List<File> writeBatches(List<String> classes, List<String> fallbackClasses, List<String> aspects,
+                                  String fingerprint) {
+    List<List<String>> groups = classes.isEmpty() && aspects.isEmpty() ? [] : split(classes)
+    int fallbackStart = groups.size()
+    if (!fallbackClasses.isEmpty()) {
+      groups.addAll(split(fallbackClasses))
+    }
+    int count = groups.size()
+    List<File> batches = []
+    for (int i = 0; i < count; i++) {
+      List<String> owners = new ArrayList<String>(groups[i])
+      if (i == 0) {
+        owners.addAll(aspects)
+      }
+
+      File batchDir = new File(batchesDir, String.valueOf(i))
+      File input = new File(batchDir, WeaveWorker.INPUT)
+      for (String path : owners + aspects) {
+        copy(new File(pristineDir, path), new File(input, path))
+      }
+
+      List<File> aspectPathOfBatch = new ArrayList<>(aspectPathWithAspects)
+      if (i >= fallbackStart) {
+        aspectPathOfBatch.addAll(fallbackAspectPathWithAspects)
+      }
+      if (fingerprint == null) {
+        aspectPathOfBatch.add(aspectsDir)
+      }
+      List<String> args = [
+          "-showWeaveInfo",
+          "-1.7",
+          "-inpath", input.path,
+          "-d", new File(batchDir, WeaveWorker.OUTPUT).path,
+          "-classpath", classPath + File.pathSeparator + classesDir.path,
+          "-bootclasspath", bootClassPath
+      ]
+      if (!aspectPathOfBatch.isEmpty()) {
+        args.addAll(["-aspectpath", join(aspectPathOfBatch)])
+      }
+
+      Properties batch = new Properties()
+      batch.setProperty('name', "${classesDir.name} ${i + 1}/$count".toString())
+      batch.setProperty('classes', classesDir.path)
+      batch.setProperty('woven', wovenDir.path)
+      batch.setProperty('aspects', aspectsDir.path)
+      batch.setProperty('result', new File(resultsDir, "${i}.properties").path)
+      if (i == 0 && fingerprint != null) {
+        batch.setProperty('fingerprint', fingerprint)
+      }
+      WeaveWorker.putList(batch, 'arg', args)
+      WeaveWorker.putList(batch, 'owner', owners)
+      WeaveWorker.putList(batch, 'ignored', i == 0 ? [] : aspects)
+      WeaveWorker.putList(batch, 'aspect', i == 0 ? aspects : [])
+      WeaveWorker.store(batch, new File(batchDir, WeaveWorker.BATCH_FILE))
+      batches.add(batchDir)
+    }
+    return batches
+  }
+
+  private List<List<String>> split(List<String> classes) {
+    int count = Math.max(1, (int) Math.ceil(classes.size() / (double) classesPerBatch))
+    List<List<String>> groups = []
+    for (int i = 0; i < count; i++) {
+      groups.add(classes.subList(i * classes.size() / count as int, (i + 1) * classes.size() / count as int))
+    }
+    return groups
+  }
+
+  private void restore(Record record) {
+    copy(new File(wovenDir, record.path), new File(classesDir, record.path))
+    for (String extra : record.extras) {
+      copy(new File(wovenDir, extra), new File(classesDir, extra))
+    }
+  }
+
+  private void remove(Record record) {
+    new File(pristineDir, record.path).delete()
+    new File(wovenDir, record.path).delete()
+    new File(aspectsDir, record.path).delete()
+    deleteExtras(record)
+  }
+
+  private void deleteExtras(Record record) {
+    for (String extra : record.extras) {
+      new File(classesDir, extra).delete()
+      new File(wovenDir, extra).delete()
+    }
+  }
+
+  /**
+   * Covers the aspect path entries which contain aspects, the unwoven aspect classes of the output and the
+   * package filters. Collects the aspect path entries which contain aspects as well.
+   */
+  private String fingerprint() {
+    MessageDigest digest = MessageDigest.getInstance('SHA-1')
+    Map<String, FileState> previousStates = new HashMap<>(fileStates)
+    fileStates.clear()
+    scanAspectPath(aspectPath, aspectPathWithAspects, previousStates, digest)
+    digest.update('fallback:'.bytes)
+    scanAspectPath(fallbackAspectPath, fallbackAspectPathWithAspects, previousStates, digest)
+    for (Record record : records.values()) {
+      if ((record.flags & ClassScanner.ASPECT) != 0) {
+        digest.update(record.path.bytes)
+        digest.update(record.pristineHash.bytes)
+      }
+    }
+    digest.update(('includes:' + includes + ', excludes:' + excludes).bytes)
+    return digest.digest().encodeHex().toString()
+  }
+
+  private void scanAspectPath(List<File> files, List<File> withAspects, Map<String, FileState> previousStates,
+                              MessageDigest digest) {
+    withAspects.clear()
+    for (File file : files) {
+      if (file.isDirectory()) {
+        boolean containsAspect = false
+        for (String path : WeaveWorker.classFiles(file)) {
+          byte[] bytes = new File(file, path).bytes
+          if ((ClassScanner.scan(bytes) & ClassScanner.ASPECT) != 0) {
+            containsAspect = true
+            digest.update(path.bytes)
+            digest.update(bytes)
+          }
+        }
+        if (containsAspect) {
+          withAspects.add(file)
+        }
+      } else if (file.isFile()) {
+        String key = file.absolutePath + ',' + file.length() + ',' + file.lastModified()
+        FileState state = previousStates.get(key)
+        if (state == null) {
+          state = new FileState(WeaveWorker.hash(file.bytes), ClassScanner.containsAspect(file))
+        }
+        fileStates.put(key, state)
+        if (state.containsAspect) {
+          withAspects.add(file)
+          digest.update(file.name.bytes)
+          digest.update(state.hash.bytes)
+        }
+      }
+    }
+  }
+
+  private void loadState() {
+    records.clear()
+    fileStates.clear()
+    aspectFingerprint = null
+    if (!stateFile.isFile()) {
+      // Unknown state, everything is woven from scratch
+      pristineDir.deleteDir()
+      wovenDir.deleteDir()
+      aspectsDir.deleteDir()
+      resultsDir.deleteDir()
+      return
+    }
+
+    Properties properties = new Properties()
+    stateFile.withInputStream { InputStream stream -> properties.load(stream) }
+    if (properties.getProperty('version') != STATE_VERSION) {
+      stateFile.delete()
+      resultsDir.deleteDir()
+      loadState()
+      return
+    }
+    aspectFingerprint = properties.getProperty('aspects')
+    for (String key : properties.stringPropertyNames()) {
+      if (key.startsWith(FILE_PREFIX)) {
+        String[] values = properties.getProperty(key).split(',')
+        fileStates.put(key.substring(FILE_PREFIX.length()), new FileState(values[0], Boolean.parseBoolean(values[1])))
+      }
+      if (!key.endsWith('.class')) continue
+
+      String[] values = properties.getProperty(key).split(',', -1)
+      Record record = new Record(key, values[0], Integer.parseInt(values[2]))
+      record.wovenHash = values[1]
+      if (!values[3].isEmpty()) {
+        record.extras.addAll(values[3].split(';'))
+      }
+      records.put(key, record)
+    }
+
+    mergeResults()
+  }
+
+  /**
+   * Applies what the workers of the previous run have woven
+   */
+  private void mergeResults() {
+    File[] files = resultsDir.listFiles()
+    if (files == null) return
+
+    for (File file : files) {
+      Properties result = WeaveWorker.load(file)
+      for (String key : result.stringPropertyNames()) {
+        if (key == WeaveWorker.ASPECTS_KEY) {
+          aspectFingerprint = result.getProperty(key)
+          continue
+        }
+        Record record = records.get(key)
+        if (record == null) continue
+
+        String[] values = result.getProperty(key).split(',', -1)
+        record.wovenHash = values[0]
+        record.extras.clear()
+        if (!values[1].isEmpty()) {
+          record.extras.addAll(values[1].split(';'))
+        }
+      }
+    }
+    resultsDir.deleteDir()
+  }
+
+  private void saveState() {
+    Properties properties = new Properties()
+    properties.setProperty('version', STATE_VERSION)
+    if (aspectFingerprint != null) {
+      properties.setProperty('aspects', aspectFingerprint)
+    }
+    for (Map.Entry<String, FileState> entry : fileStates.entrySet()) {
+      properties.setProperty(FILE_PREFIX + entry.key, entry.value.hash + ',' + entry.value.containsAspect)
+    }
+    for (Record record : records.values()) {
+      properties.setProperty(record.path,
+          record.pristineHash + ',' + record.wovenHash + ',' + record.flags + ',' + record.extras.join(';'))
+    }
+    stateDir.mkdirs()
+    stateFile.withOutputStream { OutputStream stream -> properties.store(stream, null) }
+  }
+
+  /**
+   * com.example to com/example/
+   */
+  private static List<String> packagePaths(List<String> packages) {
+    List<String> paths = []
+    for (String name : packages) {
+      paths.add(name.replace('.', '/') + '/')
+    }
+    return paths
+  }
+
+  private static boolean matches(List<String> packagePaths, String path) {
+    for (String packagePath : packagePaths) {
+      if (path.startsWith(packagePath)) return true
+    }
+    return false
+  }
+
+  private static void copy(File from, File to) {
+    WeaveWorker.write(from.bytes, to)
+  }
+
+  private static String join(List<File> files) {
+    return files.collect { File file -> file.path }.join(File.pathSeparator)
+  }
+
+  private static final class Record {
+    final String path
+    final String pristineHash
+    /** {@link ClassScanner} result of the unwoven class */
+    final int flags
+    String wovenHash = ''
+    final List<String> extras = []
+
+    Record(String path, String pristineHash, int flags) {
+      this.path = path
+      this.pristineHash = pristineHash
+      this.flags = flags
+    }
+
+    boolean isWoven() {
+      return !wovenHash.isEmpty()
+    }
+  }
+
+  /**
+   * Content hash of an aspect path jar and whether it contains aspects
+   */
+  private static final class FileState {
+    final String hash
+    final boolean containsAspect
+
+    FileState(String hash, boolean containsAspect) {
+      this.hash = hash
+      this.containsAspect = containsAspect
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package tracklytics.weaving.plugin
+
+/**
+ * tracklytics {
+ *   generatedStubs true
+ *   includePackages = ['com.example']
+ *   excludePackages = ['com.example.legacy']
+ *   classesPerWorker 500
+ * }
+ */
+class TracklyticsExtension {
+
+  /**
+   * Weaves the tracking stubs which are generated by tracklytics-compiler instead of the runtime aspect.
+   * Anonymous and local classes have no stubs, the runtime aspect is woven into them.
+   */
+  boolean generatedStubs = false
+
+  /**
+   * Packages of the classes to weave, sub packages included. All packages when empty.
+   */
+  List<String> includePackages = []
+
+  /**
+   * Packages of the classes which are never woven, sub packages included. They win over includePackages.
+   */
+  List<String> excludePackages = []
+
+  /**
+   * Classes which one worker weaves at most, more classes are split across workers
+   */
+  int classesPerWorker = 500
+}
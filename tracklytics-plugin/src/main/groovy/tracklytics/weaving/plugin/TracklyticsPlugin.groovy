@@ -1,21 +1,30 @@
 package tracklytics.weaving.plugin
 
-import org.aspectj.bridge.MessageHandler
-import org.aspectj.tools.ajc.Main
+import com.android.build.gradle.internal.pipeline.TransformTask
 import org.gradle.api.Plugin
 import org.gradle.api.Project
+import org.gradle.api.file.FileCollection
 import org.gradle.api.tasks.compile.JavaCompile
 
 class TracklyticsPlugin implements Plugin<Project> {
 
   @Override
   void apply(Project project) {
+    def extension = project.extensions.create('tracklytics', TracklyticsExtension)
 
     project.dependencies {
       implementation 'org.aspectj:aspectjrt:1.8.10'
       implementation 'com.orhanobut.tracklytics:tracklytics-runtime:2.1.0'
     }
 
+    project.afterEvaluate {
+      if (extension.generatedStubs) {
+        project.dependencies {
+          annotationProcessor 'com.orhanobut.tracklytics:tracklytics-compiler:2.1.0'
+        }
+      }
+    }
+
     project.android.applicationVariants.all { variant ->
       JavaCompile javaCompile
       if (variant.hasProperty('javaCompileProvider')) {
@@ -25,60 +34,61 @@ class TracklyticsPlugin implements Plugin<Project> {
         javaCompile = variant.javaCompile
       }
 
-      // Gets the variant name and capitalize the first character
-      def variantName = variant.name[0].toUpperCase() + variant.name[1..-1].toLowerCase()
+      WeaveTask weaveTask = project.tasks.create("weave${variant.name.capitalize()}Classes", WeaveTask)
+      weaveTask.classesDir = javaCompile.destinationDir
+      weaveTask.classpath = javaCompile.classpath
+      weaveTask.aspectPath = aspectPath(javaCompile, extension)
+      weaveTask.fallbackAspectPath = fallbackAspectPath(javaCompile, extension)
+      weaveTask.bootClasspath = project.files(project.android.bootClasspath)
+      weaveTask.stateDir = new File(project.buildDir, "intermediates/tracklytics/${variant.name}")
+      weaveTask.dependsOn(javaCompile)
+      // Workers rewrite the javac output after the task action returns, readers must wait for the task
+      weaveTask.inputs.dir(javaCompile.destinationDir)
+      weaveTask.outputs.dir(javaCompile.destinationDir)
+      project.afterEvaluate {
+        weaveTask.includePackages = extension.includePackages
+        weaveTask.excludePackages = extension.excludePackages
+        weaveTask.classesPerWorker = extension.classesPerWorker
+      }
 
       // Weave the binary for the actual code
       // CompileSources task is invoked after java and kotlin compilers and copy kotlin classes
       // That's the moment we have the finalized byte code and we can weave the aspects
-      project.tasks.findByName('compile' + variantName + 'Sources')?.doLast {
-        def destinationDir = javaCompile.destinationDir.toString()
-        def classPath = javaCompile.classpath.asPath
-        def bootClassPath = project.android.bootClasspath.join(File.pathSeparator)
-        String[] args = [
-                "-showWeaveInfo",
-                "-1.7",
-                "-inpath", destinationDir,
-                "-aspectpath", classPath,
-                "-d", destinationDir,
-                "-classpath", classPath,
-                "-bootclasspath", bootClassPath
-        ]
-        new Main().run(args, new MessageHandler(true));
-        println("----------------------------------------------")
-        println("--------------Tracklytics Weave---------------")
-        println("----------------------------------------------")
-        println("destinationDir: $destinationDir")
-        println("classPath: $classPath")
-        println("bootClassPath: $bootClassPath")
-        println("----------------------------------------------")
-      }
+      project.tasks.findByName("compile${variant.name.capitalize()}Sources")?.dependsOn(weaveTask)
 
       // Weave the binary for unit tests
       // compile unit tests task is invoked after the byte code is finalized
       // This is the time that we can weave the aspects onto byte code
-      project.tasks.findByName('compile' + variantName + 'UnitTestSources')?.doLast {
-        def destinationDir = javaCompile.destinationDir.toString()
-        def classPath = javaCompile.classpath.asPath
-        def bootClassPath = project.android.bootClasspath.join(File.pathSeparator)
-        String[] args = [
-                "-showWeaveInfo",
-                "-1.7",
-                "-inpath", destinationDir,
-                "-aspectpath", classPath,
-                "-d", destinationDir,
-                "-classpath", classPath,
-                "-bootclasspath", bootClassPath
-        ]
-        new Main().run(args, new MessageHandler(true));
-        println("----------------------------------------------")
-        println("--------------Tracklytics Weave---------------")
-        println("----------------------------------------------")
-        println("destinationDir: $destinationDir")
-        println("classPath: $classPath")
-        println("bootClassPath: $bootClassPath")
-        println("----------------------------------------------")
+      project.tasks.findByName("compile${variant.name.capitalize()}UnitTestSources")?.dependsOn(weaveTask)
+
+      // Dexing, desugaring and shrinking read the javac output directly instead of going through compileSources
+      project.tasks.withType(TransformTask).all { TransformTask transform ->
+        if (transform.variantName == variant.name) {
+          transform.dependsOn(weaveTask)
+        }
       }
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Generated stubs are woven from the inpath, the runtime aspect must not be applied along with them
+   */
+  private static FileCollection aspectPath(JavaCompile javaCompile, TracklyticsExtension extension) {
+    return javaCompile.classpath.filter { File file ->
+      !extension.generatedStubs || !isRuntime(file)
+    }
+  }
+
+  /**
+   * The runtime aspect tracks the classes which have no generated stub, such as anonymous classes
+   */
+  private static FileCollection fallbackAspectPath(JavaCompile javaCompile, TracklyticsExtension extension) {
+    return javaCompile.classpath.filter { File file ->
+      extension.generatedStubs && isRuntime(file)
+    }
+  }
+
+  private static boolean isRuntime(File file) {
+    return file.path.contains('tracklytics-runtime')
+  }
+}
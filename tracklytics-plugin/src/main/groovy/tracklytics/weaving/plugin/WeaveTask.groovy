@@ -0,0 +1,83 @@
+package tracklytics.weaving.plugin
+
+import org.aspectj.tools.ajc.Main
+import org.gradle.api.DefaultTask
+import org.gradle.api.file.FileCollection
+import org.gradle.api.tasks.Classpath
+import org.gradle.api.tasks.Input
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.OutputDirectory
+import org.gradle.api.tasks.TaskAction
+import org.gradle.workers.IsolationMode
+import org.gradle.workers.WorkerConfiguration
+import org.gradle.workers.WorkerExecutor
+
+import javax.inject.Inject
+
+/**
+ * Weaves the compile output of a variant in place.
+ * <p>
+ * The task only plans, see {@link IncrementalWeaver}, ajc runs in workers with their own class loader. Tasks of
+ * other variants run while the workers of this one are busy, and large class sets are split across workers.
+ */
+class WeaveTask extends DefaultTask {
+
+  /**
+   * Woven in place, IncrementalWeaver decides which classes are out of date. The plugin registers it as input and
+   * output of the task, so that the tasks which read the classes run after the workers are done.
+   */
+  @Internal File classesDir
+
+  @Classpath FileCollection classpath
+
+  @Classpath FileCollection aspectPath
+
+  /**
+   * Aspects for the tracked classes which have no generated stub, see {@link IncrementalWeaver}
+   */
+  @Classpath FileCollection fallbackAspectPath
+
+  @Classpath FileCollection bootClasspath
+
+  @Input List<String> includePackages = []
+
+  @Input List<String> excludePackages = []
+
+  @Input int classesPerWorker
+
+  @OutputDirectory File stateDir
+
+  private final WorkerExecutor workerExecutor
+
+  @Inject
+  WeaveTask(WorkerExecutor workerExecutor) {
+    this.workerExecutor = workerExecutor
+    outputs.upToDateWhen { false }
+  }
+
+  @TaskAction
+  void weave() {
+    long start = System.nanoTime()
+    def weaver = new IncrementalWeaver(classesDir, stateDir, new ArrayList<File>(aspectPath.files),
+            new ArrayList<File>(fallbackAspectPath.files), classpath.asPath, bootClasspath.asPath, includePackages,
+            excludePackages, classesPerWorker)
+    List<File> batches = weaver.plan()
+    logger.lifecycle("Tracklytics {}: {} classes, {} changed, {} to weave in {} workers, planned in {} ms",
+            name, weaver.classCount, weaver.changedCount, weaver.weaveCount, batches.size(),
+            (System.nanoTime() - start).intdiv(1000000))
+
+    List<File> workerClasspath = [location(WeaveWorker), location(Main)]
+    for (File batch : batches) {
+      workerExecutor.submit(WeaveWorker) { WorkerConfiguration config ->
+        config.isolationMode = IsolationMode.CLASSLOADER
+        config.displayName = "$name ${batch.name}"
+        config.classpath = workerClasspath
+        config.params(batch)
+      }
+    }
+  }
+
+  private static File location(Class<?> type) {
+    return new File(type.protectionDomain.codeSource.location.toURI())
+  }
+}
@@ -0,0 +1,244 @@
+package tracklytics.weaving.plugin;
+
+import org.aspectj.bridge.IMessage;
+import org.aspectj.bridge.MessageHandler;
+import org.aspectj.tools.ajc.Main;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+/**
+ * Weaves one batch which is prepared by {@link IncrementalWeaver} and puts the woven classes to the compile output.
+ * <p>
+ * Runs in an isolated class loader, therefore it gets everything from the batch directory and reports the woven
+ * classes through a result file which is merged into the state by the next run.
+ */
+public class WeaveWorker implements Runnable {
+
+  static final String BATCH_FILE = "batch.properties";
+  static final String INPUT = "input";
+  static final String OUTPUT = "output";
+  /** Result key of the aspect fingerprint which becomes valid once the aspects are woven */
+  static final String ASPECTS_KEY = "aspects";
+
+  private static final String CLOSURE = "$AjcClosure";
+  private static final Logger LOGGER = Logging.getLogger(WeaveWorker.class);
+
+  private final File batchDir;
+
+  @Inject
+  public WeaveWorker(File batchDir) {
+    this.batchDir = batchDir;
+  }
+
+  @Override public void run() {
+    try {
+      weave();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to weave " + batchDir, e);
+    }
+  }
+
+  private void weave() throws IOException {
+    long start = System.nanoTime();
+    Properties batch = load(new File(batchDir, BATCH_FILE));
+    List<String> args = list(batch, "arg");
+    Set<String> owners = new HashSet<>(list(batch, "owner"));
+    Set<String> ignored = new HashSet<>(list(batch, "ignored"));
+    Set<String> aspects = new HashSet<>(list(batch, "aspect"));
+    File classesDir = new File(batch.getProperty("classes"));
+    File wovenDir = new File(batch.getProperty("woven"));
+    File aspectsDir = new File(batch.getProperty("aspects"));
+    File output = new File(batchDir, OUTPUT);
+
+    ajc(args, batch.getProperty("name"));
+
+    Map<String, String> wovenHashes = new HashMap<>();
+    Map<String, List<String>> extras = new HashMap<>();
+    for (String path : classFiles(output)) {
+      String owner = owner(owners, ignored, path);
+      if (ignored.contains(owner)) continue;
+
+      File file = new File(output, path);
+      byte[] bytes = Files.readAllBytes(file.toPath());
+      write(bytes, new File(classesDir, path));
+      if (!owners.contains(owner)) continue;
+
+      write(bytes, new File(wovenDir, path));
+      if (owner.equals(path)) {
+        wovenHashes.put(path, hash(bytes));
+        if (aspects.contains(path)) {
+          write(bytes, new File(aspectsDir, path));
+        }
+      } else {
+        List<String> list = extras.get(owner);
+        if (list == null) {
+          list = new ArrayList<>();
+          extras.put(owner, list);
+        }
+        list.add(path);
+      }
+    }
+
+    Properties result = new Properties();
+    for (String owner : owners) {
+      String wovenHash = wovenHashes.get(owner);
+      if (wovenHash == null) continue;
+
+      List<String> list = extras.get(owner);
+      result.setProperty(owner, wovenHash + "," + (list == null ? "" : join(list)));
+    }
+    String fingerprint = batch.getProperty("fingerprint");
+    if (fingerprint != null) {
+      result.setProperty(ASPECTS_KEY, fingerprint);
+    }
+    store(result, new File(batch.getProperty("result")));
+    delete(batchDir);
+
+    LOGGER.lifecycle("Tracklytics {}: woven {} classes in {} ms",
+        batch.getProperty("name"), owners.size(), (System.nanoTime() - start) / 1000000);
+  }
+
+  /**
+   * Writes the woven classes of the inpath to the -d directory of the arguments
+   */
+  protected void ajc(List<String> args, String name) {
+    MessageHandler handler = new MessageHandler(true);
+    new Main().run(args.toArray(new String[args.size()]), handler);
+    if (handler.numMessages(IMessage.ERROR, true) > 0) {
+      StringBuilder messages = new StringBuilder("ajc failed for " + name);
+      for (IMessage message : handler.getMessages(IMessage.ERROR, true)) {
+        messages.append('\n').append(message);
+      }
+      throw new IllegalStateException(messages.toString());
+    }
+  }
+
+  /**
+   * Foo$AjcClosure1.class belongs to Foo.class
+   */
+  static String owner(Set<String> owners, Set<String> ignored, String path) {
+    if (owners.contains(path) || ignored.contains(path)) return path;
+
+    int index = path.indexOf(CLOSURE);
+    if (index == -1) {
+      index = path.lastIndexOf('$');
+    }
+    return index == -1 ? path : path.substring(0, index) + ".class";
+  }
+
+  static List<String> list(Properties properties, String prefix) {
+    List<String> values = new ArrayList<>();
+    for (int i = 0; ; i++) {
+      String value = properties.getProperty(prefix + "." + i);
+      if (value == null) return values;
+      values.add(value);
+    }
+  }
+
+  static void putList(Properties properties, String prefix, List<String> values) {
+    for (int i = 0; i < values.size(); i++) {
+      properties.setProperty(prefix + "." + i, values.get(i));
+    }
+  }
+
+  /**
+   * Relative paths with '/' separators
+   */
+  static List<String> classFiles(File dir) {
+    List<String> paths = new ArrayList<>();
+    collect(dir, "", paths);
+    return paths;
+  }
+
+  private static void collect(File dir, String prefix, List<String> paths) {
+    File[] files = dir.listFiles();
+    if (files == null) return;
+
+    for (File file : files) {
+      if (file.isDirectory()) {
+        collect(file, prefix + file.getName() + "/", paths);
+      } else if (file.getName().endsWith(".class")) {
+        paths.add(prefix + file.getName());
+      }
+    }
+  }
+
+  static String hash(byte[] bytes) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+      StringBuilder builder = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return builder.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static void write(byte[] bytes, File to) throws IOException {
+    to.getParentFile().mkdirs();
+    Files.write(to.toPath(), bytes);
+  }
+
+  static Properties load(File file) throws IOException {
+    Properties properties = new Properties();
+    InputStream stream = new FileInputStream(file);
+    try {
+      properties.load(stream);
+    } finally {
+      stream.close();
+    }
+    return properties;
+  }
+
+  static void store(Properties properties, File file) throws IOException {
+    file.getParentFile().mkdirs();
+    OutputStream stream = new FileOutputStream(file);
+    try {
+      properties.store(stream, null);
+    } finally {
+      stream.close();
+    }
+  }
+
+  static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File child : files) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static String join(List<String> values) {
+    StringBuilder builder = new StringBuilder();
+    for (String value : values) {
+      if (builder.length() > 0) {
+        builder.append(';');
+      }
+      builder.append(value);
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,61 @@
+package tracklytics.weaving.plugin
+
+/**
+ * Writes class files which have the given constant pool entries, the rest of the class is empty
+ */
+final class ClassFileBuilder {
+
+  static final String TRACK_EVENT = 'Lcom/orhanobut/tracklytics/TrackEvent;'
+  static final String TRACK_SUPER_ATTRIBUTE = 'Lcom/orhanobut/tracklytics/TrackSuperAttribute;'
+  static final String REMOVE_SUPER_ATTRIBUTE = 'Lcom/orhanobut/tracklytics/RemoveSuperAttribute;'
+  static final String ASPECT = 'Lorg/aspectj/lang/annotation/Aspect;'
+
+  private final ByteArrayOutputStream pool = new ByteArrayOutputStream()
+  private final DataOutputStream poolOutput = new DataOutputStream(pool)
+  private int count = 1
+
+  ClassFileBuilder utf8(String value) {
+    poolOutput.writeByte(1)
+    poolOutput.writeUTF(value)
+    count++
+    return this
+  }
+
+  /**
+   * Entry with the given tag and a payload of zeros, Long and Double take two entries
+   */
+  ClassFileBuilder entry(int tag, int payloadLength) {
+    poolOutput.writeByte(tag)
+    poolOutput.write(new byte[payloadLength])
+    count += tag == 5 || tag == 6 ? 2 : 1
+    return this
+  }
+
+  /**
+   * Number of bytes up to the end of the constant pool
+   */
+  int poolEnd() {
+    return 10 + pool.size()
+  }
+
+  byte[] build() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream()
+    DataOutputStream output = new DataOutputStream(bytes)
+    output.writeInt((int) 0xCAFEBABEL)
+    output.writeShort(0)
+    output.writeShort(52)
+    output.writeShort(count)
+    output.write(pool.toByteArray())
+    // Access flags, this, super, interfaces, fields, methods and attributes
+    output.write(new byte[14])
+    return bytes.toByteArray()
+  }
+
+  static byte[] classFile(String... strings) {
+    ClassFileBuilder builder = new ClassFileBuilder()
+    for (String value : strings) {
+      builder.utf8(value)
+    }
+    return builder.build()
+  }
+}
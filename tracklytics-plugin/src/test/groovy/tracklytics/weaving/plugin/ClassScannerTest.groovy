@@ -0,0 +1,107 @@
+package tracklytics.weaving.plugin
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+import static tracklytics.weaving.plugin.ClassFileBuilder.ASPECT
+import static tracklytics.weaving.plugin.ClassFileBuilder.REMOVE_SUPER_ATTRIBUTE
+import static tracklytics.weaving.plugin.ClassFileBuilder.TRACK_EVENT
+import static tracklytics.weaving.plugin.ClassFileBuilder.TRACK_SUPER_ATTRIBUTE
+import static tracklytics.weaving.plugin.ClassFileBuilder.classFile
+
+class ClassScannerTest {
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder()
+
+  @Test void findTrackedAnnotations() {
+    assertEquals(ClassScanner.TRACKED, ClassScanner.scan(classFile('foo', TRACK_EVENT)))
+    assertEquals(ClassScanner.TRACKED, ClassScanner.scan(classFile(TRACK_SUPER_ATTRIBUTE)))
+    assertEquals(ClassScanner.TRACKED, ClassScanner.scan(classFile(REMOVE_SUPER_ATTRIBUTE, 'bar')))
+  }
+
+  @Test void findAspects() {
+    assertEquals(ClassScanner.ASPECT, ClassScanner.scan(classFile(ASPECT)))
+    assertEquals(ClassScanner.TRACKED | ClassScanner.ASPECT, ClassScanner.scan(classFile(ASPECT, TRACK_EVENT)))
+  }
+
+  @Test void ignoreOtherClasses() {
+    assertEquals(ClassScanner.NONE, ClassScanner.scan(classFile()))
+    assertEquals(ClassScanner.NONE, ClassScanner.scan(classFile('', 'Ljava/lang/String;', 'TrackEvent')))
+    // Same length as the descriptor
+    assertEquals(ClassScanner.NONE, ClassScanner.scan(classFile('Lcom/orhanobut/tracklytics/TrackEventX')))
+  }
+
+  @Test void skipEntriesOfEveryTag() {
+    ClassFileBuilder builder = new ClassFileBuilder()
+    // Integer, Float, Fieldref, Methodref, InterfaceMethodref, NameAndType, Dynamic, InvokeDynamic
+    for (int tag : [3, 4, 9, 10, 11, 12, 17, 18]) {
+      builder.entry(tag, 4)
+    }
+    // Long and Double
+    builder.entry(5, 8).entry(6, 8)
+    // Class, String, MethodType, Module, Package
+    for (int tag : [7, 8, 16, 19, 20]) {
+      builder.entry(tag, 2)
+    }
+    // MethodHandle
+    builder.entry(15, 3)
+    builder.utf8(ASPECT)
+
+    // A wrong width would read a payload of zeros as an unknown tag
+    assertEquals(ClassScanner.ASPECT, ClassScanner.scan(builder.build()))
+  }
+
+  @Test void countLongAndDoubleAsTwoEntries() {
+    byte[] bytes = new ClassFileBuilder().entry(5, 8).utf8(ASPECT).entry(6, 8).build()
+
+    // One more entry would be read from the zeros after the pool
+    assertEquals(ClassScanner.ASPECT, ClassScanner.scan(bytes))
+  }
+
+  @Test void reportUnreadableClassesAsTracked() {
+    ClassFileBuilder builder = new ClassFileBuilder().utf8('foo').entry(5, 8).utf8(ASPECT)
+    byte[] bytes = builder.build()
+    for (int length = 0; length < builder.poolEnd(); length++) {
+      assertEquals("length $length".toString(), ClassScanner.TRACKED,
+          ClassScanner.scan(Arrays.copyOf(bytes, length)))
+    }
+    assertEquals(ClassScanner.ASPECT, ClassScanner.scan(Arrays.copyOf(bytes, builder.poolEnd())))
+
+    byte[] notAClass = Arrays.copyOf(bytes, bytes.length)
+    notAClass[0] = 0
+    assertEquals(ClassScanner.TRACKED, ClassScanner.scan(notAClass))
+
+    assertEquals(ClassScanner.TRACKED, ClassScanner.scan(new ClassFileBuilder().entry(2, 4).utf8('foo').build()))
+  }
+
+  @Test void findAspectsInJars() {
+    File withAspect = jar('with.jar', classFile('foo'), classFile(ASPECT))
+    File withoutAspect = jar('without.jar', classFile('foo'), classFile(TRACK_EVENT))
+
+    assertTrue(ClassScanner.containsAspect(withAspect))
+    assertFalse(ClassScanner.containsAspect(withoutAspect))
+  }
+
+  private File jar(String name, byte[]... classes) {
+    File file = folder.newFile(name)
+    ZipOutputStream stream = new ZipOutputStream(new FileOutputStream(file))
+    try {
+      stream.putNextEntry(new ZipEntry('META-INF/MANIFEST.MF'))
+      stream.write('Manifest-Version: 1.0\n'.bytes)
+      for (int i = 0; i < classes.length; i++) {
+        stream.putNextEntry(new ZipEntry("com/example/Class${i}.class"))
+        stream.write(classes[i])
+      }
+    } finally {
+      stream.close()
+    }
+    return file
+  }
+}
@@ -0,0 +1,265 @@
+package tracklytics.weaving.plugin
+
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.assertArrayEquals
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertTrue
+import static tracklytics.weaving.plugin.ClassFileBuilder.ASPECT
+import static tracklytics.weaving.plugin.ClassFileBuilder.TRACK_EVENT
+import static tracklytics.weaving.plugin.ClassFileBuilder.classFile
+
+class IncrementalWeaverTest {
+
+  private static final String FOO = 'com/example/Foo.class'
+  private static final String FOO_CLOSURE = 'com/example/Foo$AjcClosure1.class'
+  private static final String BAR = 'com/example/Bar.class'
+  private static final String PLAIN = 'com/example/Plain.class'
+  private static final String STUBS = 'com/example/Stubs.class'
+  private static final byte[] WOVEN = 'woven'.bytes
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder()
+
+  private File classesDir
+  private File stateDir
+  private List<File> fallbackAspectPath = []
+
+  @Before void setup() {
+    classesDir = folder.newFolder('classes')
+    stateDir = folder.newFolder('state')
+  }
+
+  @Test void weaveOnlyTrackedClasses() {
+    write(FOO, classFile(TRACK_EVENT, 'foo'))
+    write(PLAIN, classFile('plain'))
+
+    IncrementalWeaver weaver = weaver()
+    weave(weaver)
+
+    assertEquals(2, weaver.classCount)
+    assertEquals(2, weaver.changedCount)
+    assertEquals(1, weaver.weaveCount)
+    assertArrayEquals(woven(classFile(TRACK_EVENT, 'foo')), read(FOO))
+    assertTrue(new File(classesDir, FOO_CLOSURE).isFile())
+    assertArrayEquals(classFile('plain'), read(PLAIN))
+  }
+
+  @Test void skipUnchangedClasses() {
+    write(FOO, classFile(TRACK_EVENT, 'foo'))
+    weave(weaver())
+
+    IncrementalWeaver weaver = weaver()
+    List<File> batches = weaver.plan()
+
+    assertTrue(batches.isEmpty())
+    assertEquals(1, weaver.classCount)
+    assertEquals(0, weaver.changedCount)
+    assertEquals(0, weaver.weaveCount)
+    assertArrayEquals(woven(classFile(TRACK_EVENT, 'foo')), read(FOO))
+  }
+
+  @Test void weaveChangedClassesAgain() {
+    write(FOO, classFile(TRACK_EVENT, 'foo'))
+    write(BAR, classFile(TRACK_EVENT, 'bar'))
+    weave(weaver())
+
+    write(FOO, classFile(TRACK_EVENT, 'foo2'))
+    IncrementalWeaver weaver = weaver()
+    List<File> batches = weaver.plan()
+
+    assertEquals(1, weaver.changedCount)
+    assertEquals(1, weaver.weaveCount)
+    assertEquals([FOO], owners(batches[0]))
+    // Closures of the previous weave don't survive the change
+    assertFalse(new File(classesDir, FOO_CLOSURE).exists())
+
+    run(batches)
+    assertArrayEquals(woven(classFile(TRACK_EVENT, 'foo2')), read(FOO))
+    assertTrue(new File(classesDir, FOO_CLOSURE).isFile())
+  }
+
+  @Test void restoreRecompiledClassesWithoutWeaving() {
+    write(FOO, classFile(TRACK_EVENT, 'foo'))
+    weave(weaver())
+
+    // Compiled again to the same bytes, the closure is deleted along with the class
+    write(FOO, classFile(TRACK_EVENT, 'foo'))
+    new File(classesDir, FOO_CLOSURE).delete()
+    IncrementalWeaver weaver = weaver()
+    List<File> batches = weaver.plan()
+
+    assertTrue(batches.isEmpty())
+    assertEquals(0, weaver.weaveCount)
+    assertArrayEquals(woven(classFile(TRACK_EVENT, 'foo')), read(FOO))
+    assertTrue(new File(classesDir, FOO_CLOSURE).isFile())
+  }
+
+  @Test void forgetRemovedClasses() {
+    write(FOO, classFile(TRACK_EVENT, 'foo'))
+    write(PLAIN, classFile('plain'))
+    weave(weaver())
+
+    new File(classesDir, FOO).delete()
+    IncrementalWeaver weaver = weaver()
+    weaver.plan()
+
+    assertEquals(1, weaver.classCount)
+    assertEquals(0, weaver.weaveCount)
+    assertFalse(new File(classesDir, FOO_CLOSURE).exists())
+    assertFalse(new File(stateDir, "woven/$FOO").exists())
+    assertFalse(new File(stateDir, "pristine/$FOO").exists())
+  }
+
+  @Test void leaveFilteredOutClassesUnwoven() {
+    write(FOO, classFile(TRACK_EVENT, 'foo'))
+    write('com/other/Bar.class', classFile(TRACK_EVENT, 'bar'))
+    write('com/example/legacy/Baz.class', classFile(TRACK_EVENT, 'baz'))
+
+    IncrementalWeaver weaver = weaver(['com.example'], ['com.example.legacy'])
+    List<File> batches = weaver.plan()
+
+    assertEquals(3, weaver.classCount)
+    assertEquals(1, weaver.weaveCount)
+    assertEquals([FOO], owners(batches[0]))
+  }
+
+  @Test void unweaveClassesWhichAreFilteredOutLater() {
+    write(FOO, classFile(TRACK_EVENT, 'foo'))
+    weave(weaver())
+
+    IncrementalWeaver weaver = weaver([], ['com.example'])
+    List<File> batches = weaver.plan()
+
+    assertTrue(batches.isEmpty())
+    assertEquals(0, weaver.weaveCount)
+    assertArrayEquals(classFile(TRACK_EVENT, 'foo'), read(FOO))
+    assertFalse(new File(classesDir, FOO_CLOSURE).exists())
+  }
+
+  @Test void weaveAllClassesWhenAspectsOfOutputChange() {
+    write(FOO, classFile(TRACK_EVENT, 'foo'))
+    write(BAR, classFile(TRACK_EVENT, 'bar'))
+    write(STUBS, classFile(ASPECT, 'stubs'))
+    weave(weaver())
+    assertEquals(0, plannedWeaveCount())
+
+    write(STUBS, classFile(ASPECT, 'stubs2'))
+    IncrementalWeaver weaver = weaver()
+    List<File> batches = weaver.plan()
+
+    assertEquals(1, weaver.changedCount)
+    assertEquals(3, weaver.weaveCount)
+    assertEquals([BAR, FOO, STUBS], owners(batches[0]))
+    assertEquals([STUBS], WeaveWorker.list(batchProperties(batches[0]), 'aspect'))
+
+    run(batches)
+    assertEquals(0, plannedWeaveCount())
+  }
+
+  @Test void splitClassesIntoBatches() {
+    for (int i = 0; i < 5; i++) {
+      write("com/example/Foo${i}.class", classFile(TRACK_EVENT, "foo$i"))
+    }
+    write(STUBS, classFile(ASPECT, 'stubs'))
+
+    List<File> batches = new IncrementalWeaver(classesDir, stateDir, [], [], '', '', [], [], 2).plan()
+
+    assertEquals(3, batches.size())
+    assertEquals(6, batches.sum { File batch -> owners(batch).size() })
+    // Aspects of the output apply to every batch, only the first one keeps them
+    assertEquals([], WeaveWorker.list(batchProperties(batches[1]), 'aspect'))
+    assertEquals([STUBS], WeaveWorker.list(batchProperties(batches[1]), 'ignored'))
+  }
+
+  @Test void weaveClassesWithoutStubsWithFallbackAspects() {
+    File runtime = folder.newFolder('runtime')
+    WeaveWorker.write(classFile(ASPECT, 'aspect'), new File(runtime, 'com/orhanobut/tracklytics/Aspect.class'))
+    fallbackAspectPath = [runtime]
+    String fooStubs = 'com/example/Foo_TracklyticsStubs.class'
+    String inner = 'com/example/Foo$Inner.class'
+    String innerStubs = 'com/example/Foo_Inner_TracklyticsStubs.class'
+    String anonymous = 'com/example/Foo$1.class'
+    write(FOO, classFile(TRACK_EVENT, 'foo'))
+    write(fooStubs, classFile(ASPECT, 'stubs'))
+    write(inner, classFile(TRACK_EVENT, 'inner'))
+    write(innerStubs, classFile(ASPECT, 'innerStubs'))
+    write(anonymous, classFile(TRACK_EVENT, 'anonymous'))
+
+    List<File> batches = weaver().plan()
+
+    assertEquals(2, batches.size())
+    assertEquals([inner, FOO, fooStubs, innerStubs].sort(), owners(batches[0]))
+    assertFalse(aspectPath(batches[0]).contains(runtime.path))
+    assertEquals([anonymous], owners(batches[1]))
+    assertTrue(aspectPath(batches[1]).contains(runtime.path))
+    // Stubs of the output are woven along, but kept by the first batch only
+    assertEquals([fooStubs, innerStubs].sort(), WeaveWorker.list(batchProperties(batches[1]), 'ignored').sort())
+  }
+
+  private IncrementalWeaver weaver(List<String> includes = [], List<String> excludes = []) {
+    return new IncrementalWeaver(classesDir, stateDir, [], fallbackAspectPath, '', '', includes, excludes, 500)
+  }
+
+  private int plannedWeaveCount() {
+    IncrementalWeaver weaver = weaver()
+    weaver.plan()
+    return weaver.weaveCount
+  }
+
+  private static void weave(IncrementalWeaver weaver) {
+    run(weaver.plan())
+  }
+
+  /**
+   * Runs the workers with an ajc which appends a marker to each class and adds a closure to the tracked ones
+   */
+  private static void run(List<File> batches) {
+    for (File batch : batches) {
+      new WeaveWorker(batch) {
+        @Override protected void ajc(List<String> args, String name) {
+          File input = new File(args[args.indexOf('-inpath') + 1])
+          File output = new File(args[args.indexOf('-d') + 1])
+          for (String path : WeaveWorker.classFiles(input)) {
+            byte[] bytes = new File(input, path).bytes
+            WeaveWorker.write(woven(bytes), new File(output, path))
+            if ((ClassScanner.scan(bytes) & ClassScanner.ASPECT) == 0) {
+              WeaveWorker.write(WOVEN, new File(output, path.replace('.class', '$AjcClosure1.class')))
+            }
+          }
+        }
+      }.run()
+    }
+  }
+
+  private static byte[] woven(byte[] bytes) {
+    byte[] result = Arrays.copyOf(bytes, bytes.length + WOVEN.length)
+    System.arraycopy(WOVEN, 0, result, bytes.length, WOVEN.length)
+    return result
+  }
+
+  private static Properties batchProperties(File batch) {
+    return WeaveWorker.load(new File(batch, WeaveWorker.BATCH_FILE))
+  }
+
+  private static String aspectPath(File batch) {
+    List<String> args = WeaveWorker.list(batchProperties(batch), 'arg')
+    int index = args.indexOf('-aspectpath')
+    return index == -1 ? '' : args[index + 1]
+  }
+
+  private static List<String> owners(File batch) {
+    return WeaveWorker.list(batchProperties(batch), 'owner').sort()
+  }
+
+  private void write(String path, byte[] bytes) {
+    WeaveWorker.write(bytes, new File(classesDir, path))
+  }
+
+  private byte[] read(String path) {
+    return new File(classesDir, path).bytes
+  }
+}
@@ -4,7 +4,18 @@ import java.util.Map;
 
 interface AspectListener {
 
-  void onAspectEventTriggered(TrackEvent trackEvent, Map<String, Object> attributes);
+  /**
+   * Container for the attributes of a tracked call, which is passed to {@link #onAspectEventTriggered} afterwards
+   *
+   * @param capacity expected number of attributes
+   */
+  AttributeMap newAttributes(int capacity);
+
+  /**
+   * @param trackEvent resolved by {@link TrackingPlan} or the stubs, reading its members doesn't allocate
+   * @param nameId     {@link Symbols} id of the event name
+   */
+  void onAspectEventTriggered(TrackEvent trackEvent, int nameId, Map<String, Object> attributes);
 
   void onAspectSuperAttributeAdded(String key, Object value);
 
@@ -0,0 +1,311 @@
+package com.orhanobut.tracklytics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands events over to dedicated consumer threads through a bounded {@link RingBuffer}.
+ * The tracking thread only pays for the enqueue, the subscriber is invoked by the consumer threads.
+ */
+final class AsyncEventDispatcher {
+
+  /**
+   * Upper bound of an idle consumer sleep, consumers are woken up as soon as an event is queued
+   */
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  /**
+   * Distance between the activity counters, each one is written by its own poller
+   */
+  private static final int PADDING = 8;
+
+  /**
+   * Notified when an event leaves the dispatcher, either delivered or dropped
+   */
+  interface CompletionListener {
+    void onEventCompleted(Event event);
+  }
+
+  private static final CompletionListener NO_LISTENER = new CompletionListener() {
+    @Override public void onEventCompleted(Event event) {
+    }
+  };
+
+  private final RingBuffer<Event> queue;
+  private final EventSubscriber subscriber;
+  private final CompletionListener completionListener;
+  private final OverflowPolicy overflowPolicy;
+  private final Thread[] consumers;
+
+  private final AtomicInteger idleConsumers = new AtomicInteger();
+  private final AtomicInteger liveConsumers;
+  private final Object drainLock = new Object();
+  private final Object overflowLock = new Object();
+
+  /**
+   * One counter for each consumer, the drain and the DROP_OLDEST overflow. It is odd while the poller may hold an
+   * event it took from the queue, {@link #flush(long, TimeUnit)} waits for the ones which may hold an earlier event.
+   */
+  private final AtomicLongArray activity;
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  private volatile boolean shutdown;
+
+  /**
+   * Set by the last consumer which exits, events which are queued afterwards are delivered by whoever drains
+   */
+  private volatile boolean terminated;
+  private volatile LogHistogram latency;
+
+  AsyncEventDispatcher(EventSubscriber subscriber, int capacity, OverflowPolicy overflowPolicy, int consumerCount,
+                       String name) {
+    this(subscriber, capacity, overflowPolicy, consumerCount, name, NO_LISTENER);
+  }
+
+  AsyncEventDispatcher(EventSubscriber subscriber, int capacity, OverflowPolicy overflowPolicy, int consumerCount,
+                       String name, CompletionListener completionListener) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber == null");
+    }
+    if (overflowPolicy == null) {
+      throw new NullPointerException("overflowPolicy == null");
+    }
+    if (consumerCount <= 0) {
+      throw new IllegalArgumentException("There must be at least one consumer thread");
+    }
+    this.queue = new RingBuffer<>(capacity);
+    this.subscriber = subscriber;
+    this.overflowPolicy = overflowPolicy;
+    this.completionListener = completionListener;
+    this.consumers = new Thread[consumerCount];
+    this.liveConsumers = new AtomicInteger(consumerCount);
+    this.activity = new AtomicLongArray((consumerCount + 2) * PADDING);
+    for (int i = 0; i < consumerCount; i++) {
+      final int slot = i * PADDING;
+      Thread consumer = new Thread(new Runnable() {
+        @Override public void run() {
+          consume(slot);
+        }
+      }, name + "-" + i);
+      consumer.setDaemon(true);
+      consumers[i] = consumer;
+    }
+    for (Thread consumer : consumers) {
+      consumer.start();
+    }
+  }
+
+  /**
+   * Queues the event according to the overflow policy
+   *
+   * @return false when the event is dropped
+   */
+  boolean dispatch(Event event) {
+    if (shutdown || !queue.offer(event) && !handleOverflow(event)) {
+      dropped.incrementAndGet();
+      completionListener.onEventCompleted(event);
+      return false;
+    }
+    if (terminated) {
+      // The consumers may have exited before the event was queued
+      drain();
+      return true;
+    }
+    wakeUpConsumers();
+    return true;
+  }
+
+  private boolean handleOverflow(Event event) {
+    switch (overflowPolicy) {
+      case BLOCK:
+        while (!queue.offer(event)) {
+          if (shutdown) return false;
+          wakeUpConsumers();
+          LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+        }
+        return true;
+      case DROP_OLDEST:
+        while (!queue.offer(event)) {
+          dropOldest();
+        }
+        return true;
+      case DROP_NEWEST:
+      default:
+        return false;
+    }
+  }
+
+  private void wakeUpConsumers() {
+    if (idleConsumers.get() == 0) return;
+    for (Thread consumer : consumers) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  /**
+   * Producers which overflow take turns, they share one activity counter
+   */
+  private void dropOldest() {
+    synchronized (overflowLock) {
+      int slot = (consumers.length + 1) * PADDING;
+      activity.incrementAndGet(slot);
+      try {
+        Event oldest = queue.poll();
+        if (oldest != null) {
+          dropped.incrementAndGet();
+          completionListener.onEventCompleted(oldest);
+        }
+      } finally {
+        activity.incrementAndGet(slot);
+      }
+    }
+  }
+
+  private void consume(int slot) {
+    while (true) {
+      if (pollAndDeliver(slot)) continue;
+      if (shutdown && queue.isEmpty()) {
+        if (liveConsumers.decrementAndGet() == 0) {
+          terminated = true;
+          drain();
+        }
+        return;
+      }
+      idleConsumers.incrementAndGet();
+      if (queue.isEmpty() && !shutdown) {
+        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+      }
+      idleConsumers.decrementAndGet();
+    }
+  }
+
+  private void deliver(Event event) {
+    LogHistogram latency = this.latency;
+    long start = latency != null ? System.nanoTime() : 0;
+    try {
+      subscriber.onEventTracked(event);
+    } catch (Throwable e) {
+      // A failing subscriber must not stop the consumer thread, not even with an Error, the queue would never drain
+      failed.incrementAndGet();
+    } finally {
+      if (latency != null) {
+        latency.record(System.nanoTime() - start);
+      }
+      completionListener.onEventCompleted(event);
+    }
+  }
+
+  /**
+   * @return false when the queue is empty
+   */
+  private boolean pollAndDeliver(int slot) {
+    activity.incrementAndGet(slot);
+    try {
+      Event event = queue.poll();
+      if (event == null) return false;
+      deliver(event);
+      return true;
+    } finally {
+      activity.incrementAndGet(slot);
+    }
+  }
+
+  /**
+   * Delivers the events which are queued after the consumers exited, a dispatch can race with the shutdown.
+   * Drains never run concurrently, so the subscriber is still called by one thread at a time.
+   */
+  private void drain() {
+    synchronized (drainLock) {
+      int slot = consumers.length * PADDING;
+      boolean delivered = true;
+      while (delivered) {
+        delivered = pollAndDeliver(slot);
+      }
+    }
+  }
+
+  /**
+   * Records the time of each subscriber call when set, null to stop
+   */
+  void setLatency(LogHistogram latency) {
+    this.latency = latency;
+  }
+
+  /**
+   * Waits until all events that are queued before this call are delivered
+   *
+   * @return false if the timeout elapsed before
+   */
+  boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+    // Positions rather than counts, later events which complete first must not stand in for the earlier ones
+    long target = queue.writePosition();
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (queue.readPosition() < target) {
+      if (!awaitProgress(deadline)) return false;
+    }
+    // Every earlier event is taken, the pollers which were holding one when it was taken must finish with it
+    for (int slot = 0; slot < activity.length(); slot += PADDING) {
+      long state = activity.get(slot);
+      if ((state & 1) == 0) continue;
+      while (activity.get(slot) == state) {
+        if (!awaitProgress(deadline)) return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return false if the deadline passed
+   */
+  private boolean awaitProgress(long deadline) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    long remaining = deadline - System.nanoTime();
+    if (remaining <= 0) return false;
+    wakeUpConsumers();
+    LockSupport.parkNanos(this, Math.min(remaining, BLOCK_PARK_NANOS));
+    return true;
+  }
+
+  /**
+   * Stops accepting new events, delivers the queued ones and waits for the consumer threads to finish
+   *
+   * @return false if the timeout elapsed before all consumers finished
+   */
+  boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    shutdown = true;
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    for (Thread consumer : consumers) {
+      LockSupport.unpark(consumer);
+    }
+    for (Thread consumer : consumers) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) return false;
+      TimeUnit.NANOSECONDS.timedJoin(consumer, remaining);
+      if (consumer.isAlive()) return false;
+    }
+    return true;
+  }
+
+  EventSubscriber subscriber() {
+    return subscriber;
+  }
+
+  int queueSize() {
+    return queue.size();
+  }
+
+  long droppedCount() {
+    return dropped.get();
+  }
+
+  long failedCount() {
+    return failed.get();
+  }
+}
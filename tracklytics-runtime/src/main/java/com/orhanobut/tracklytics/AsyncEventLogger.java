@@ -0,0 +1,74 @@
+package com.orhanobut.tracklytics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves the logging of the events to a dedicated thread.
+ * <p>
+ * The tracking thread only queues the event, formatting happens on the logging thread with a single reused
+ * builder. Events are dropped instead of blocking when the queue is full or the rate limit is exceeded.
+ */
+final class AsyncEventLogger {
+
+  /**
+   * Writes the log of an event, the builder is reused for every event
+   */
+  interface Writer {
+    void write(Event event, StringBuilder builder);
+  }
+
+  private final AsyncEventDispatcher dispatcher;
+  private final RateLimiter rateLimiter;
+  private final AtomicLong rateLimited = new AtomicLong();
+
+  /**
+   * @param maxLinesPerSecond 0 for no limit
+   */
+  AsyncEventLogger(final Writer writer, int capacity, int maxLinesPerSecond) {
+    if (maxLinesPerSecond < 0) {
+      throw new IllegalArgumentException("Max lines per second must not be negative");
+    }
+    this.rateLimiter = maxLinesPerSecond > 0 ? new RateLimiter(maxLinesPerSecond) : null;
+    this.dispatcher = new AsyncEventDispatcher(new EventSubscriber() {
+      private final StringBuilder builder = new StringBuilder(256);
+
+      @Override public void onEventTracked(Event event) {
+        builder.setLength(0);
+        writer.write(event, builder);
+      }
+    }, capacity, OverflowPolicy.DROP_NEWEST, 1, "Tracklytics-log", new AsyncEventDispatcher.CompletionListener() {
+      @Override public void onEventCompleted(Event event) {
+        event.release();
+      }
+    });
+  }
+
+  void log(Event event) {
+    if (rateLimiter != null && !rateLimiter.tryAcquire(System.nanoTime())) {
+      rateLimited.incrementAndGet();
+      return;
+    }
+    // Released once it is logged or dropped
+    dispatcher.dispatch(event.retain());
+  }
+
+  /**
+   * Events which are not logged because the queue is full or the rate limit is exceeded
+   */
+  long droppedCount() {
+    return rateLimited.get() + dispatcher.droppedCount();
+  }
+
+  int queueSize() {
+    return dispatcher.queueSize();
+  }
+
+  boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+    return dispatcher.flush(timeout, unit);
+  }
+
+  boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+    return dispatcher.shutdown(timeout, unit);
+  }
+}
@@ -0,0 +1,548 @@
+package com.orhanobut.tracklytics;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Attributes of an event in typed columns: keys and object values sit next to each other in one flat array, value
+ * types and primitive values are kept in parallel arrays. Primitive attributes which are put by
+ * {@link #putInt(String, int)} and the like are stored without boxing and can be read the same way, e.g.
+ * {@link #getLong(String)}.
+ * <p>
+ * Events have a handful of attributes, a linear scan over the keys beats hashing at these sizes and the map has no
+ * per entry objects. Maps are sized from the number of attributes of the tracked method, see
+ * {@link TrackingPlan#attributeCount}.
+ * <p>
+ * It is a regular {@link Map} as well, primitive values are boxed when they are read through the map methods.
+ * Keys keep their insertion order. Not thread safe.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class AttributeMap extends AbstractMap<String, Object> {
+
+  private static final byte OBJECT = 0;
+  private static final byte INT = 1;
+  private static final byte LONG = 2;
+  private static final byte DOUBLE = 3;
+  private static final byte FLOAT = 4;
+  private static final byte BOOLEAN = 5;
+
+  private static final int DEFAULT_CAPACITY = 8;
+
+  /**
+   * Key id which is not looked up in {@link Symbols} yet
+   */
+  private static final int UNRESOLVED = -2;
+
+  /**
+   * Key of attribute i at 2 * i, its object value at 2 * i + 1
+   */
+  private Object[] table;
+  private byte[] types;
+  private long[] primitives;
+  private int[] keyIds;
+  private int size;
+
+  private Set<Entry<String, Object>> entrySet;
+
+  /**
+   * Pooled event which reuses this map, see {@link Tracklytics#enableEventPooling(int, boolean)}
+   */
+  Event owner;
+
+  public AttributeMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public AttributeMap(int capacity) {
+    capacity = Math.max(1, capacity);
+    table = new Object[capacity << 1];
+    types = new byte[capacity];
+    primitives = new long[capacity];
+    keyIds = new int[capacity];
+  }
+
+  /**
+   * Copies the given map, values keep their boxed type
+   */
+  public AttributeMap(Map<String, ?> attributes) {
+    this(attributes.size());
+    if (attributes instanceof AttributeMap) {
+      AttributeMap map = (AttributeMap) attributes;
+      System.arraycopy(map.table, 0, table, 0, map.size << 1);
+      System.arraycopy(map.types, 0, types, 0, map.size);
+      System.arraycopy(map.primitives, 0, primitives, 0, map.size);
+      System.arraycopy(map.keyIds, 0, keyIds, 0, map.size);
+      size = map.size;
+      return;
+    }
+    for (Entry<String, ?> entry : attributes.entrySet()) {
+      put(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Grows the map once when more attributes are going to be put, a pooled map keeps its capacity
+   */
+  public void ensureCapacity(int capacity) {
+    if (capacity > types.length) {
+      resize(capacity);
+    }
+  }
+
+  public void putInt(String key, int value) {
+    putPrimitive(key, INT, value);
+  }
+
+  public void putLong(String key, long value) {
+    putPrimitive(key, LONG, value);
+  }
+
+  public void putDouble(String key, double value) {
+    putPrimitive(key, DOUBLE, Double.doubleToLongBits(value));
+  }
+
+  public void putFloat(String key, float value) {
+    putPrimitive(key, FLOAT, Float.floatToIntBits(value));
+  }
+
+  public void putBoolean(String key, boolean value) {
+    putPrimitive(key, BOOLEAN, value ? 1 : 0);
+  }
+
+  /**
+   * @return the value as long when it is a number, 0 otherwise
+   */
+  public long getLong(String key) {
+    return getLong(key, 0);
+  }
+
+  /**
+   * @return the value as long when it is a number, the default value otherwise
+   */
+  public long getLong(String key, long defaultValue) {
+    int index = indexOf(key);
+    if (index < 0) return defaultValue;
+
+    switch (types[index]) {
+      case INT:
+      case LONG:
+        return primitives[index];
+      case DOUBLE:
+        return (long) Double.longBitsToDouble(primitives[index]);
+      case FLOAT:
+        return (long) Float.intBitsToFloat((int) primitives[index]);
+      case OBJECT:
+        Object value = object(index);
+        return value instanceof Number ? ((Number) value).longValue() : defaultValue;
+      default:
+        return defaultValue;
+    }
+  }
+
+  /**
+   * @return the value as int when it is a number, 0 otherwise
+   */
+  public int getInt(String key) {
+    return (int) getLong(key, 0);
+  }
+
+  /**
+   * @return the value as double when it is a number, 0 otherwise
+   */
+  public double getDouble(String key) {
+    return getDouble(key, 0);
+  }
+
+  /**
+   * @return the value as double when it is a number, the default value otherwise
+   */
+  public double getDouble(String key, double defaultValue) {
+    int index = indexOf(key);
+    if (index < 0) return defaultValue;
+
+    switch (types[index]) {
+      case INT:
+      case LONG:
+        return primitives[index];
+      case DOUBLE:
+        return Double.longBitsToDouble(primitives[index]);
+      case FLOAT:
+        return Float.intBitsToFloat((int) primitives[index]);
+      case OBJECT:
+        Object value = object(index);
+        return value instanceof Number ? ((Number) value).doubleValue() : defaultValue;
+      default:
+        return defaultValue;
+    }
+  }
+
+  /**
+   * @return the value when it is a boolean, false otherwise
+   */
+  public boolean getBoolean(String key) {
+    return getBoolean(key, false);
+  }
+
+  /**
+   * @return the value when it is a boolean, the default value otherwise
+   */
+  public boolean getBoolean(String key, boolean defaultValue) {
+    int index = indexOf(key);
+    if (index < 0) return defaultValue;
+
+    if (types[index] == BOOLEAN) return primitives[index] != 0;
+    Object value = object(index);
+    return value instanceof Boolean ? (Boolean) value : defaultValue;
+  }
+
+  @Override public Object put(String key, Object value) {
+    int index = indexOf(key);
+    if (index >= 0) {
+      Object previous = value(index);
+      types[index] = OBJECT;
+      table[(index << 1) + 1] = value;
+      return previous;
+    }
+    index = append(key);
+    table[(index << 1) + 1] = value;
+    return null;
+  }
+
+  @Override public Object get(Object key) {
+    int index = indexOf(key);
+    return index >= 0 ? value(index) : null;
+  }
+
+  @Override public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override public Object remove(Object key) {
+    int index = indexOf(key);
+    if (index < 0) return null;
+
+    Object previous = value(index);
+    removeAt(index);
+    return previous;
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  @Override public void clear() {
+    Arrays.fill(table, 0, size << 1, null);
+    size = 0;
+  }
+
+  @Override public Set<Entry<String, Object>> entrySet() {
+    Set<Entry<String, Object>> result = entrySet;
+    if (result == null) {
+      result = new EntrySet();
+      entrySet = result;
+    }
+    return result;
+  }
+
+  /**
+   * Key of the attribute at the index, attributes keep their insertion order
+   *
+   * @param index from 0 to {@link #size()} - 1
+   */
+  public String keyAt(int index) {
+    checkIndex(index);
+    return key(index);
+  }
+
+  /**
+   * {@link Symbols} id of the key at the index. Keys of the tracked methods are interned already, other keys are
+   * only looked up, they are not interned since they may be built at runtime and the table would grow without bound.
+   *
+   * @param index from 0 to {@link #size()} - 1
+   * @return {@link Symbols#NONE} when the key is not interned
+   */
+  public int keyIdAt(int index) {
+    checkIndex(index);
+    int keyId = keyIds[index];
+    if (keyId == UNRESOLVED) {
+      keyId = Symbols.id(key(index));
+      keyIds[index] = keyId;
+    }
+    return keyId;
+  }
+
+  /**
+   * Value of the attribute at the index, primitives are boxed
+   *
+   * @param index from 0 to {@link #size()} - 1
+   */
+  public Object valueAt(int index) {
+    checkIndex(index);
+    return value(index);
+  }
+
+  /**
+   * Same as {@link #put(String, Object)} for a key whose {@link Symbols} id is known
+   */
+  void put(int keyId, String key, Object value) {
+    int index = indexOf(key);
+    if (index < 0) {
+      index = append(key);
+    }
+    types[index] = OBJECT;
+    table[(index << 1) + 1] = value;
+    keyIds[index] = keyId;
+  }
+
+  /**
+   * Same as the hash code of the boxed values, without boxing them
+   */
+  @Override public int hashCode() {
+    int hash = 0;
+    for (int i = 0; i < size; i++) {
+      String key = key(i);
+      hash += (key != null ? key.hashCode() : 0) ^ valueHashCode(i);
+    }
+    return hash;
+  }
+
+  @Override public boolean equals(Object other) {
+    if (!(other instanceof AttributeMap)) return super.equals(other);
+    if (other == this) return true;
+
+    AttributeMap map = (AttributeMap) other;
+    if (map.size != size) return false;
+    for (int i = 0; i < size; i++) {
+      int index = map.indexOf(key(i));
+      if (index < 0 || !valueEquals(i, map, index)) return false;
+    }
+    return true;
+  }
+
+  /**
+   * Invokes the visitor for each attribute with its primitive value, primitives are not boxed
+   */
+  void visit(Visitor visitor) {
+    for (int i = 0; i < size; i++) {
+      String key = key(i);
+      int keyId = keyIds[i];
+      long primitive = primitives[i];
+      switch (types[i]) {
+        case INT:
+          visitor.visitInt(key, keyId, (int) primitive);
+          break;
+        case LONG:
+          visitor.visitLong(key, keyId, primitive);
+          break;
+        case DOUBLE:
+          visitor.visitDouble(key, keyId, Double.longBitsToDouble(primitive));
+          break;
+        case FLOAT:
+          visitor.visitFloat(key, keyId, Float.intBitsToFloat((int) primitive));
+          break;
+        case BOOLEAN:
+          visitor.visitBoolean(key, keyId, primitive != 0);
+          break;
+        default:
+          visitor.visitObject(key, keyId, object(i));
+      }
+    }
+  }
+
+  /**
+   * The key id is the {@link Symbols} id when it is known already, negative otherwise
+   */
+  interface Visitor {
+    void visitInt(String key, int keyId, int value);
+
+    void visitLong(String key, int keyId, long value);
+
+    void visitDouble(String key, int keyId, double value);
+
+    void visitFloat(String key, int keyId, float value);
+
+    void visitBoolean(String key, int keyId, boolean value);
+
+    void visitObject(String key, int keyId, Object value);
+  }
+
+  private void putPrimitive(String key, byte type, long value) {
+    int index = indexOf(key);
+    if (index < 0) {
+      index = append(key);
+    }
+    types[index] = type;
+    primitives[index] = value;
+    table[(index << 1) + 1] = null;
+  }
+
+  private int append(String key) {
+    if (size == types.length) {
+      resize(size * 2);
+    }
+    table[size << 1] = key;
+    types[size] = OBJECT;
+    keyIds[size] = UNRESOLVED;
+    return size++;
+  }
+
+  private void resize(int capacity) {
+    table = Arrays.copyOf(table, capacity << 1);
+    types = Arrays.copyOf(types, capacity);
+    primitives = Arrays.copyOf(primitives, capacity);
+    keyIds = Arrays.copyOf(keyIds, capacity);
+  }
+
+  private void removeAt(int index) {
+    int moved = size - index - 1;
+    System.arraycopy(table, (index + 1) << 1, table, index << 1, moved << 1);
+    System.arraycopy(types, index + 1, types, index, moved);
+    System.arraycopy(primitives, index + 1, primitives, index, moved);
+    System.arraycopy(keyIds, index + 1, keyIds, index, moved);
+    size--;
+    table[size << 1] = null;
+    table[(size << 1) + 1] = null;
+  }
+
+  /**
+   * Linear scan, events have a handful of attributes
+   */
+  private int indexOf(Object key) {
+    Object[] table = this.table;
+    int end = size << 1;
+    if (key == null) {
+      for (int i = 0; i < end; i += 2) {
+        if (table[i] == null) return i >> 1;
+      }
+      return -1;
+    }
+    int hash = key.hashCode();
+    for (int i = 0; i < end; i += 2) {
+      Object candidate = table[i];
+      if (candidate == key || candidate != null && candidate.hashCode() == hash && candidate.equals(key)) {
+        return i >> 1;
+      }
+    }
+    return -1;
+  }
+
+
+  private String key(int index) {
+    return (String) table[index << 1];
+  }
+
+  private Object object(int index) {
+    return table[(index << 1) + 1];
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+  }
+
+  private Object value(int index) {
+    long primitive = primitives[index];
+    switch (types[index]) {
+      case INT:
+        return (int) primitive;
+      case LONG:
+        return primitive;
+      case DOUBLE:
+        return Double.longBitsToDouble(primitive);
+      case FLOAT:
+        return Float.intBitsToFloat((int) primitive);
+      case BOOLEAN:
+        return primitive != 0;
+      default:
+        return object(index);
+    }
+  }
+
+  private int valueHashCode(int index) {
+    long primitive = primitives[index];
+    switch (types[index]) {
+      case INT:
+      case FLOAT:
+        // Float#hashCode() is its int bits
+        return (int) primitive;
+      case LONG:
+      case DOUBLE:
+        // Double#hashCode() is the hash of its long bits, which are stored
+        return (int) (primitive ^ (primitive >>> 32));
+      case BOOLEAN:
+        return primitive != 0 ? 1231 : 1237;
+      default:
+        Object value = object(index);
+        return value != null ? value.hashCode() : 0;
+    }
+  }
+
+  private boolean valueEquals(int index, AttributeMap other, int otherIndex) {
+    byte type = types[index];
+    if (type != OBJECT && type == other.types[otherIndex]) {
+      return primitives[index] == other.primitives[otherIndex];
+    }
+    Object value = value(index);
+    Object otherValue = other.value(otherIndex);
+    return value == null ? otherValue == null : value.equals(otherValue);
+  }
+
+  private final class EntrySet extends AbstractSet<Entry<String, Object>> {
+    @Override public Iterator<Entry<String, Object>> iterator() {
+      return new EntryIterator();
+    }
+
+    @Override public int size() {
+      return size;
+    }
+
+    @Override public void clear() {
+      AttributeMap.this.clear();
+    }
+  }
+
+  private final class EntryIterator implements Iterator<Entry<String, Object>> {
+    private int next;
+    private int last = -1;
+
+    @Override public boolean hasNext() {
+      return next < size;
+    }
+
+    @Override public Entry<String, Object> next() {
+      if (next >= size) {
+        throw new NoSuchElementException();
+      }
+      last = next++;
+      return new AttributeEntry(key(last), value(last));
+    }
+
+    @Override public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      removeAt(last);
+      next = last;
+      last = -1;
+    }
+  }
+
+  private final class AttributeEntry extends SimpleEntry<String, Object> {
+    private static final long serialVersionUID = 1L;
+
+    AttributeEntry(String key, Object value) {
+      super(key, value);
+    }
+
+    @Override public Object setValue(Object value) {
+      put(getKey(), value);
+      return super.setValue(value);
+    }
+  }
+}
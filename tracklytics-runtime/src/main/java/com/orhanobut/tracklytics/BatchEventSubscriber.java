@@ -0,0 +1,16 @@
+package com.orhanobut.tracklytics;
+
+import java.util.List;
+
+/**
+ * Receives the tracked events in chunks instead of one by one.
+ * This is a good place for the integrations which upload events in batches.
+ * <p>
+ * The given list is read-only and it is reused once this method returns.
+ * Copy the events if they are needed later.
+ */
+@SuppressWarnings("WeakerAccess")
+public interface BatchEventSubscriber {
+
+  void onEventsTracked(List<Event> events);
+}
@@ -0,0 +1,112 @@
+package com.orhanobut.tracklytics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable snapshot of the class scope {@link FixedAttribute} and {@link FixedAttributes}.
+ * <p>
+ * Attributes of the declaring class, its enclosing classes and the runtime class only depend on these classes.
+ * They are resolved once per pair and then applied to each tracked event with a single copy.
+ */
+final class ClassAttributes {
+
+  private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<Class<?>, ClassAttributes>> CACHE =
+      new ConcurrentHashMap<>();
+
+  final Map<String, Object> attributes;
+
+  private final String[] superKeys;
+  private final Object[] superValues;
+
+  private ClassAttributes(Map<String, Object> attributes, String[] superKeys, Object[] superValues) {
+    this.attributes = attributes;
+    this.superKeys = superKeys;
+    this.superValues = superValues;
+  }
+
+  static ClassAttributes of(Class<?> declaringClass, Class<?> runtimeClass) {
+    ConcurrentHashMap<Class<?>, ClassAttributes> runtimeClasses = CACHE.get(declaringClass);
+    if (runtimeClasses == null) {
+      runtimeClasses = new ConcurrentHashMap<>();
+      ConcurrentHashMap<Class<?>, ClassAttributes> existing = CACHE.putIfAbsent(declaringClass, runtimeClasses);
+      if (existing != null) runtimeClasses = existing;
+    }
+
+    ClassAttributes classAttributes = runtimeClasses.get(runtimeClass);
+    if (classAttributes != null) return classAttributes;
+
+    classAttributes = resolve(declaringClass, runtimeClass);
+    ClassAttributes existing = runtimeClasses.putIfAbsent(runtimeClass, classAttributes);
+    return existing != null ? existing : classAttributes;
+  }
+
+  /**
+   * Copies the attributes into the given map and re-adds the implied super attributes
+   */
+  void apply(Map<String, Object> target, AspectListener listener) {
+    if (!attributes.isEmpty()) {
+      target.putAll(attributes);
+    }
+    applySuperAttributes(listener);
+  }
+
+  /**
+   * Re-adds the implied super attributes only, for calls which are not tracked
+   */
+  void applySuperAttributes(AspectListener listener) {
+    if (listener == null) return;
+
+    for (int i = 0, size = superKeys.length; i < size; i++) {
+      listener.onAspectSuperAttributeAdded(superKeys[i], superValues[i]);
+    }
+  }
+
+  private static ClassAttributes resolve(Class<?> declaringClass, Class<?> runtimeClass) {
+    Map<String, Object> attributes = new LinkedHashMap<>();
+    List<FixedAttribute> superAttributes = new ArrayList<>();
+
+    Class<?> klass = declaringClass;
+    while (klass != null) {
+      addFixedAttributes(klass, attributes, superAttributes);
+      klass = klass.getEnclosingClass();
+    }
+    addFixedAttributes(runtimeClass, attributes, superAttributes);
+
+    int size = superAttributes.size();
+    String[] superKeys = new String[size];
+    Object[] superValues = new Object[size];
+    for (int i = 0; i < size; i++) {
+      superKeys[i] = superAttributes.get(i).key();
+      superValues[i] = superAttributes.get(i).value();
+    }
+    return new ClassAttributes(Collections.unmodifiableMap(attributes), superKeys, superValues);
+  }
+
+  private static void addFixedAttributes(Class<?> klass, Map<String, Object> attributes,
+                                         List<FixedAttribute> superAttributes) {
+    addFixedAttribute(klass.getAnnotation(FixedAttribute.class), attributes, superAttributes);
+
+    FixedAttributes fixedAttributes = klass.getAnnotation(FixedAttributes.class);
+    if (fixedAttributes == null) return;
+    for (FixedAttribute attribute : fixedAttributes.value()) {
+      addFixedAttribute(attribute, attributes, superAttributes);
+    }
+  }
+
+  private static void addFixedAttribute(FixedAttribute attribute, Map<String, Object> attributes,
+                                        List<FixedAttribute> superAttributes) {
+    if (attribute == null) return;
+
+    // Declared keys get an id, see AttributeMap.keyIdAt
+    Symbols.intern(attribute.key());
+    attributes.put(attribute.key(), attribute.value());
+    if (attribute.isSuper()) {
+      superAttributes.add(attribute);
+    }
+  }
+}
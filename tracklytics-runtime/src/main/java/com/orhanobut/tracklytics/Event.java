@@ -1,21 +1,99 @@
 package com.orhanobut.tracklytics;
 
+import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * This is the container for the triggered tracking event.
  * All related information is kept in here.
+ * <p>
+ * When event pooling is enabled, see {@link Tracklytics#enableEventPooling(int, boolean)}, the instance is
+ * reused once it is released. Keep it beyond the subscriber call only after {@link #retain()}. The fields of
+ * pooled events are null, read them with the getters such as {@link #getName()}.
  */
 @SuppressWarnings("WeakerAccess")
 public class Event {
 
   public final String name;
+
+  /**
+   * Read-only, the array is shared by all events of the same tracked method and must not be modified
+   */
   public final int[] filters;
+
+  /**
+   * Read-only, the array is shared by all events of the same tracked method and must not be modified
+   */
   public final String[] tags;
   public final Map<String, Object> attributes;
   public final Map<String, Object> superAttributes;
 
+  static final AtomicIntegerFieldUpdater<Event> PENDING_DELIVERIES =
+      AtomicIntegerFieldUpdater.newUpdater(Event.class, "pendingDeliveries");
+  private static final AtomicIntegerFieldUpdater<Event> REFERENCES =
+      AtomicIntegerFieldUpdater.newUpdater(Event.class, "references");
+
+  /**
+   * Pool which the event returns to once it is released, null when the event is not pooled
+   */
+  final EventPool pool;
+
+  /**
+   * Attributes container of a pooled event, reused along with the event
+   */
+  final AttributeMap pooledAttributes;
+
+  /**
+   * Number of holders of a pooled event, it returns to the pool once it is zero
+   */
+  private volatile int references;
+
+  /**
+   * Sequence in the {@link EventJournal}, -1 when the event is not journaled
+   */
+  long journalSequence = -1;
+
+  /**
+   * Number of subscribers which didn't receive the event yet, the journal is acknowledged once it is zero
+   */
+  volatile int pendingDeliveries;
+
+  /**
+   * {@link Symbols} id of the name
+   */
+  int nameId = Symbols.NONE;
+
+  /**
+   * Number of calls which this event stands for, see {@link TrackEvent#sampleRate()}
+   */
+  double samplingWeight = 1;
+
+  /**
+   * Number of identical events which this event stands for, see {@link Tracklytics#enableCoalescing}
+   */
+  int occurrences = 1;
+
+  /**
+   * Filters and tags as compiled by {@link EventRouting}, null when they are compiled on dispatch
+   */
+  long[] route;
+
+  /**
+   * Values of the event which the getters return, the same as the public fields unless the event is pooled.
+   * Pooled events are filled again.
+   */
+  String eventName;
+  int[] eventFilters;
+  String[] eventTags;
+  Map<String, Object> eventAttributes;
+  Map<String, Object> eventSuperAttributes;
+
+  private Map<String, Object> allAttributes;
+  private AttributeMap typedAttributes;
+
   public Event(String eventName, int[] filters, String[] tags, Map<String, Object> attributes,
                Map<String, Object> superAttributes) {
     this.name = eventName;
@@ -23,20 +101,243 @@ public class Event {
     this.tags = tags;
     this.attributes = attributes;
     this.superAttributes = superAttributes;
+    this.eventName = eventName;
+    this.eventFilters = filters;
+    this.eventTags = tags;
+    this.eventAttributes = attributes;
+    this.eventSuperAttributes = superAttributes;
+    this.pool = null;
+    this.pooledAttributes = null;
   }
 
   public Event(TrackEvent trackEvent, Map<String, Object> attributes, Map<String, Object> superAttributes) {
-    this.name = trackEvent.value();
-    this.filters = trackEvent.filters();
-    this.tags = trackEvent.tags();
-    this.attributes = attributes;
-    this.superAttributes = superAttributes;
+    this(trackEvent.value(), trackEvent.filters(), trackEvent.tags(), attributes, superAttributes);
+  }
+
+  /**
+   * Empty pooled event, see {@link EventPool#acquire()}
+   */
+  Event(EventPool pool) {
+    this.name = null;
+    this.filters = null;
+    this.tags = null;
+    this.attributes = null;
+    this.superAttributes = null;
+    this.pool = pool;
+    this.pooledAttributes = new AttributeMap();
+    this.pooledAttributes.owner = this;
+  }
+
+  /**
+   * Keeps a pooled event from being reused until {@link #release()} is called, each call needs its own release.
+   * Does nothing when the event is not pooled.
+   *
+   * @throws IllegalStateException when the event is already released
+   */
+  public Event retain() {
+    if (pool == null) return this;
+
+    if (REFERENCES.getAndIncrement(this) <= 0) {
+      REFERENCES.decrementAndGet(this);
+      throw new IllegalStateException("Event is retained after it is released");
+    }
+    return this;
+  }
+
+  /**
+   * Gives up a reference which is taken by {@link #retain()}, the event returns to the pool once nothing holds
+   * it anymore. Does nothing when the event is not pooled.
+   *
+   * @throws IllegalStateException when the event is released more often than it is retained
+   */
+  public void release() {
+    if (pool == null) return;
+
+    int remaining = REFERENCES.decrementAndGet(this);
+    if (remaining == 0) {
+      pool.recycle(this);
+    } else if (remaining < 0) {
+      REFERENCES.incrementAndGet(this);
+      throw new IllegalStateException("Event is released more than once");
+    }
+  }
+
+  /**
+   * Fills an event which is taken from the pool, the caller holds the only reference
+   */
+  void fill(String eventName, int[] filters, String[] tags, Map<String, Object> attributes,
+            Map<String, Object> superAttributes) {
+    this.eventName = eventName;
+    this.eventFilters = filters;
+    this.eventTags = tags;
+    this.eventAttributes = attributes;
+    this.eventSuperAttributes = superAttributes;
+    references = 1;
   }
 
+  /**
+   * Clears the event before it returns to the pool
+   */
+  void reset() {
+    eventName = null;
+    eventFilters = null;
+    eventTags = null;
+    eventAttributes = null;
+    eventSuperAttributes = null;
+    journalSequence = -1;
+    nameId = Symbols.NONE;
+    pendingDeliveries = 0;
+    samplingWeight = 1;
+    occurrences = 1;
+    route = null;
+    allAttributes = null;
+    typedAttributes = null;
+    pooledAttributes.clear();
+  }
+
+  /**
+   * Makes each later read fail instead of returning the values of the released event, used by the debug mode of
+   * the pool. The event is not reused afterwards.
+   */
+  void poison() {
+    eventName = null;
+    eventFilters = null;
+    eventTags = null;
+    allAttributes = null;
+    typedAttributes = null;
+    eventAttributes = ReleasedAttributes.INSTANCE;
+    eventSuperAttributes = ReleasedAttributes.INSTANCE;
+  }
+
+  private void checkNotReleased() {
+    if (pool != null && pool.debug && references <= 0) {
+      throw new IllegalStateException("Event is used after it is released");
+    }
+  }
+
+  public String getName() {
+    checkNotReleased();
+    return eventName;
+  }
+
+  /**
+   * Read-only, see {@link #filters}
+   */
+  public int[] getFilters() {
+    checkNotReleased();
+    return eventFilters;
+  }
+
+  /**
+   * Read-only, see {@link #tags}
+   */
+  public String[] getTags() {
+    checkNotReleased();
+    return eventTags;
+  }
+
+  /**
+   * Subscribers must not modify it, see {@link #copyAllAttributes()}
+   */
+  public Map<String, Object> getAttributes() {
+    checkNotReleased();
+    return eventAttributes;
+  }
+
+  /**
+   * Subscribers must not modify it, see {@link #copyAllAttributes()}
+   */
+  public Map<String, Object> getSuperAttributes() {
+    checkNotReleased();
+    return eventSuperAttributes;
+  }
+
+  /**
+   * {@link Symbols} id of the name, names of the tracked methods always have one. Use it to index arrays instead
+   * of hashing the name.
+   *
+   * @return {@link Symbols#NONE} when the name is not interned
+   */
+  public int getNameId() {
+    checkNotReleased();
+    return nameId;
+  }
+
+  /**
+   * Number of calls which this event stands for, 1 / sample rate. It is 1 when the event is not sampled.
+   * Multiply counts by it to estimate the number of calls.
+   */
+  public double getSamplingWeight() {
+    checkNotReleased();
+    return samplingWeight;
+  }
+
+  /**
+   * Number of times this event was tracked within the coalescing window, 1 when coalescing is not enabled
+   */
+  public int getOccurrenceCount() {
+    checkNotReleased();
+    return occurrences;
+  }
+
+  /**
+   * The attributes with typed accessors such as {@link AttributeMap#getLong(String)}. Primitive attributes of
+   * tracked methods are read without boxing. Attributes which are given as another map are copied once.
+   * <p>
+   * Same as {@link #getAttributes()}, subscribers must not modify it.
+   */
+  public AttributeMap getTypedAttributes() {
+    checkNotReleased();
+    AttributeMap result = typedAttributes;
+    if (result == null) {
+      Map<String, Object> attributes = eventAttributes;
+      if (attributes instanceof AttributeMap) {
+        result = (AttributeMap) attributes;
+      } else {
+        result = attributes != null ? new AttributeMap(attributes) : new AttributeMap(0);
+      }
+      typedAttributes = result;
+    }
+    return result;
+  }
+
+  /**
+   * Read-only view of the attributes and the super attributes, super attributes win for the same key.
+   * Use {@link #copyAllAttributes()} for a map which can be changed.
+   */
   public Map<String, Object> getAllAttributes() {
-    Map<String, Object> allAttributes = new HashMap<>();
-    allAttributes.putAll(attributes);
-    allAttributes.putAll(superAttributes);
-    return allAttributes;
+    checkNotReleased();
+    Map<String, Object> result = allAttributes;
+    if (result == null) {
+      result = new MergedAttributes(eventAttributes, eventSuperAttributes);
+      allAttributes = result;
+    }
+    return result;
+  }
+
+  /**
+   * Mutable copy of the attributes and the super attributes, super attributes win for the same key
+   */
+  public Map<String, Object> copyAllAttributes() {
+    return new HashMap<>(getAllAttributes());
+  }
+
+  /**
+   * Attributes of a released event in debug mode
+   */
+  private static final class ReleasedAttributes extends AbstractMap<String, Object> {
+    static final ReleasedAttributes INSTANCE = new ReleasedAttributes();
+
+    @Override public Set<Entry<String, Object>> entrySet() {
+      throw new IllegalStateException("Event is used after it is released");
+    }
+
+    @Override public Object get(Object key) {
+      return entrySet();
+    }
+
+    @Override public boolean containsKey(Object key) {
+      return entrySet() != null;
+    }
   }
 }
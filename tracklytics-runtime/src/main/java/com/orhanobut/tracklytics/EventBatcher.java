@@ -0,0 +1,228 @@
+package com.orhanobut.tracklytics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects events for a {@link BatchEventSubscriber} and flushes them when the batch reaches the maximum
+ * count or the estimated byte size, or when the oldest event waits longer than the maximum latency.
+ * <p>
+ * Two batch containers are used alternately: one collects the new events while the other one is being
+ * delivered. Therefore flushing doesn't allocate new lists.
+ */
+final class EventBatcher {
+
+  private static final long MIN_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final int MAX_INITIAL_CAPACITY = 256;
+
+  /**
+   * Rough per entry cost of the estimate, covers the references and the container overhead
+   */
+  private static final int ENTRY_OVERHEAD_BYTES = 16;
+
+  private final BatchEventSubscriber subscriber;
+  private final int maxEvents;
+  private final long maxBytes;
+  private final long maxLatencyNanos;
+  private final ScheduledFuture<?> timer;
+
+  private final Object lock = new Object();
+  private final Object deliveryLock = new Object();
+
+  /**
+   * Guarded by lock
+   */
+  private final SizeEstimator sizeEstimator = new SizeEstimator();
+
+  private Batch pending;
+  private Batch spare;
+  private long pendingBytes;
+  private long oldestEventNanos;
+
+  EventBatcher(BatchEventSubscriber subscriber, int maxEvents, long maxBytes, long maxLatency, TimeUnit unit,
+               ScheduledExecutorService scheduler) {
+    if (subscriber == null) {
+      throw new NullPointerException("subscriber == null");
+    }
+    if (maxEvents <= 0 || maxBytes <= 0 || maxLatency <= 0) {
+      throw new IllegalArgumentException("Batch limits must be positive");
+    }
+    this.subscriber = subscriber;
+    this.maxEvents = maxEvents;
+    this.maxBytes = maxBytes;
+    this.maxLatencyNanos = unit.toNanos(maxLatency);
+    this.pending = new Batch(maxEvents);
+    this.spare = new Batch(maxEvents);
+
+    long tick = Math.max(MIN_TICK_NANOS, maxLatencyNanos / 4);
+    this.timer = scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override public void run() {
+        try {
+          flushIfExpired();
+        } catch (RuntimeException e) {
+          // An exception would cancel the periodic task, the batch is dropped instead
+        }
+      }
+    }, tick, tick, TimeUnit.NANOSECONDS);
+  }
+
+  void add(Event event) {
+    boolean full;
+    synchronized (lock) {
+      if (pending.events.isEmpty()) {
+        oldestEventNanos = System.nanoTime();
+      }
+      // Released once the batch is delivered
+      pending.events.add(event.retain());
+      pendingBytes += sizeEstimator.estimate(event);
+      full = pending.events.size() >= maxEvents || pendingBytes >= maxBytes;
+    }
+    if (full) {
+      flush();
+    }
+  }
+
+  void flush() {
+    synchronized (deliveryLock) {
+      Batch batch;
+      synchronized (lock) {
+        if (pending.events.isEmpty()) return;
+        batch = pending;
+        pending = spare;
+        spare = null;
+        pendingBytes = 0;
+      }
+      try {
+        subscriber.onEventsTracked(batch.view);
+      } finally {
+        for (int i = 0, size = batch.events.size(); i < size; i++) {
+          batch.events.get(i).release();
+        }
+        batch.events.clear();
+        synchronized (lock) {
+          spare = batch;
+        }
+      }
+    }
+  }
+
+  private void flushIfExpired() {
+    synchronized (lock) {
+      if (pending.events.isEmpty() || System.nanoTime() - oldestEventNanos < maxLatencyNanos) return;
+    }
+    flush();
+  }
+
+  /**
+   * Flushes the remaining events and stops the latency timer
+   */
+  void close() {
+    timer.cancel(false);
+    flush();
+  }
+
+  /**
+   * Estimates the size of the events without allocating. Attribute maps are visited instead of iterating their
+   * entries, and the size of the super attributes is kept until the snapshot changes, which is rare.
+   * Not thread safe.
+   */
+  static final class SizeEstimator implements AttributeMap.Visitor {
+    private long size;
+    private Map<String, Object> lastSuperAttributes;
+    private long lastSuperAttributesSize;
+
+    long estimate(Event event) {
+      long total = ENTRY_OVERHEAD_BYTES + estimateSize(event.eventName);
+      total += estimateSize(event.eventAttributes);
+      total += estimateSuperAttributesSize(event.eventSuperAttributes);
+      if (event.eventFilters != null) {
+        total += event.eventFilters.length * 4;
+      }
+      if (event.eventTags != null) {
+        for (String tag : event.eventTags) {
+          total += estimateSize(tag);
+        }
+      }
+      return total;
+    }
+
+    /**
+     * Snapshots are immutable, the same snapshot has the same size
+     */
+    private long estimateSuperAttributesSize(Map<String, Object> superAttributes) {
+      if (!(superAttributes instanceof PersistentMap)) return estimateSize(superAttributes);
+
+      if (superAttributes != lastSuperAttributes) {
+        lastSuperAttributesSize = estimateSize(superAttributes);
+        lastSuperAttributes = superAttributes;
+      }
+      return lastSuperAttributesSize;
+    }
+
+    private long estimateSize(Map<String, Object> attributes) {
+      if (attributes == null) return 0;
+
+      if (attributes instanceof AttributeMap) {
+        size = 0;
+        ((AttributeMap) attributes).visit(this);
+        return size;
+      }
+      long total = 0;
+      for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+        total += ENTRY_OVERHEAD_BYTES + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+      }
+      return total;
+    }
+
+    private static long estimateSize(Object value) {
+      if (value == null) return 0;
+      if (value instanceof CharSequence) return ((CharSequence) value).length() * 2;
+      if (value instanceof Boolean || value instanceof Byte) return 1;
+      if (value instanceof Number) return 8;
+      return ENTRY_OVERHEAD_BYTES;
+    }
+
+    private void add(String key, long valueSize) {
+      size += ENTRY_OVERHEAD_BYTES + estimateSize(key) + valueSize;
+    }
+
+    @Override public void visitInt(String key, int keyId, int value) {
+      add(key, 8);
+    }
+
+    @Override public void visitLong(String key, int keyId, long value) {
+      add(key, 8);
+    }
+
+    @Override public void visitDouble(String key, int keyId, double value) {
+      add(key, 8);
+    }
+
+    @Override public void visitFloat(String key, int keyId, float value) {
+      add(key, 8);
+    }
+
+    @Override public void visitBoolean(String key, int keyId, boolean value) {
+      add(key, 1);
+    }
+
+    @Override public void visitObject(String key, int keyId, Object value) {
+      add(key, estimateSize(value));
+    }
+  }
+
+  private static final class Batch {
+    final List<Event> events;
+    final List<Event> view;
+
+    Batch(int capacity) {
+      this.events = new ArrayList<>(Math.min(capacity, MAX_INITIAL_CAPACITY));
+      this.view = Collections.unmodifiableList(events);
+    }
+  }
+}
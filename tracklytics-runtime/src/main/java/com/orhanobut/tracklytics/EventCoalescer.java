@@ -0,0 +1,190 @@
+package com.orhanobut.tracklytics;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses identical events which are tracked within a time window into one event, see
+ * {@link Event#getOccurrenceCount()}. Events are identical when they have the same name, filters, tags,
+ * attributes and super attributes.
+ * <p>
+ * The first event of a window is held back and delivered with the number of occurrences once the window is
+ * over. Held events are kept in an open addressing table of parallel arrays, so tracking a duplicate doesn't
+ * allocate. When the table is full, new events are delivered right away.
+ */
+final class EventCoalescer {
+
+  private static final long MIN_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final EventSubscriber downstream;
+  private final long windowNanos;
+  private final int maxSize;
+  private final int mask;
+  private final ScheduledFuture<?> timer;
+
+  private final Object lock = new Object();
+  private final Object deliveryLock = new Object();
+
+  private final int[] hashes;
+  private final Event[] events;
+  private final int[] counts;
+  private final long[] deadlines;
+  private int size;
+  private boolean closed;
+
+  /**
+   * Events which are taken out of the table and wait for delivery, guarded by the delivery lock
+   */
+  private final Event[] drained;
+
+  /**
+   * @param capacity maximum number of events which are held back at the same time
+   */
+  EventCoalescer(EventSubscriber downstream, long window, TimeUnit unit, int capacity,
+                 ScheduledExecutorService scheduler) {
+    if (downstream == null) {
+      throw new NullPointerException("downstream == null");
+    }
+    if (window <= 0 || capacity <= 0) {
+      throw new IllegalArgumentException("Window and capacity must be positive");
+    }
+    this.downstream = downstream;
+    this.windowNanos = unit.toNanos(window);
+    this.maxSize = capacity;
+
+    // At most half full, probe sequences stay short
+    int tableSize = Integer.highestOneBit(Math.max(2, capacity) - 1) << 2;
+    this.mask = tableSize - 1;
+    this.hashes = new int[tableSize];
+    this.events = new Event[tableSize];
+    this.counts = new int[tableSize];
+    this.deadlines = new long[tableSize];
+    this.drained = new Event[capacity];
+
+    long tick = Math.max(MIN_TICK_NANOS, windowNanos / 2);
+    this.timer = scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override public void run() {
+        try {
+          drain(false);
+        } catch (RuntimeException e) {
+          // An exception would cancel the periodic task, the drained events are dropped instead
+        }
+      }
+    }, tick, tick, TimeUnit.NANOSECONDS);
+  }
+
+  void add(Event event) {
+    int hash = hash(event);
+    long now = System.nanoTime();
+    synchronized (lock) {
+      if (!closed) {
+        int slot = hash & mask;
+        for (Event held; (held = events[slot]) != null; slot = (slot + 1) & mask) {
+          if (hashes[slot] == hash && deadlines[slot] - now > 0 && isSame(held, event)) {
+            counts[slot]++;
+            // Only the held event is delivered
+            event.release();
+            return;
+          }
+        }
+        if (size < maxSize) {
+          hashes[slot] = hash;
+          events[slot] = event;
+          counts[slot] = 1;
+          deadlines[slot] = now + windowNanos;
+          size++;
+          return;
+        }
+      }
+    }
+    downstream.onEventTracked(event);
+  }
+
+  /**
+   * Delivers all held events, also the ones whose window is not over yet
+   */
+  void flush() {
+    drain(true);
+  }
+
+  /**
+   * Delivers the held events and stops the timer, events which are added afterwards are delivered right away
+   */
+  void close() {
+    timer.cancel(false);
+    synchronized (lock) {
+      closed = true;
+    }
+    flush();
+  }
+
+  private void drain(boolean all) {
+    synchronized (deliveryLock) {
+      int count = 0;
+      synchronized (lock) {
+        long now = System.nanoTime();
+        int slot = 0;
+        while (slot <= mask) {
+          Event event = events[slot];
+          if (event == null || (!all && deadlines[slot] - now > 0)) {
+            slot++;
+            continue;
+          }
+          event.occurrences = counts[slot];
+          drained[count++] = event;
+          // The slot may hold a shifted entry now, which is checked again
+          remove(slot);
+        }
+      }
+      try {
+        for (int i = 0; i < count; i++) {
+          downstream.onEventTracked(drained[i]);
+        }
+      } finally {
+        Arrays.fill(drained, 0, count, null);
+      }
+    }
+  }
+
+  /**
+   * Backward shift deletion, keeps the probe sequences of linear probing intact without tombstones
+   */
+  private void remove(int slot) {
+    int gap = slot;
+    for (int i = (slot + 1) & mask; events[i] != null; i = (i + 1) & mask) {
+      int home = hashes[i] & mask;
+      // The entry may fill the gap unless its home lies cyclically within (gap, i]
+      if (((i - home) & mask) >= ((i - gap) & mask)) {
+        hashes[gap] = hashes[i];
+        events[gap] = events[i];
+        counts[gap] = counts[i];
+        deadlines[gap] = deadlines[i];
+        gap = i;
+      }
+    }
+    events[gap] = null;
+    size--;
+  }
+
+  static int hash(Event event) {
+    int hash = event.eventName != null ? event.eventName.hashCode() : 0;
+    hash = 31 * hash + (event.eventAttributes != null ? event.eventAttributes.hashCode() : 0);
+    hash = 31 * hash + Arrays.hashCode(event.eventFilters);
+    hash = 31 * hash + Arrays.hashCode(event.eventTags);
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean isSame(Event first, Event second) {
+    return equals(first.eventName, second.eventName)
+        && Arrays.equals(first.eventFilters, second.eventFilters)
+        && Arrays.equals(first.eventTags, second.eventTags)
+        && equals(first.eventAttributes, second.eventAttributes)
+        && equals(first.eventSuperAttributes, second.eventSuperAttributes);
+  }
+
+  private static boolean equals(Object first, Object second) {
+    return first == null ? second == null : first == second || first.equals(second);
+  }
+}
@@ -0,0 +1,587 @@
+package com.orhanobut.tracklytics;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary format for {@link Event}.
+ * <p>
+ * Ints are written as varints and attribute values keep their primitive type. Event names, attribute keys and
+ * tags are written once per stream and then referred to by their id, therefore an event which is tracked again
+ * mostly costs its values only. Each stream needs its own {@link Encoder} and {@link Decoder}, events must be
+ * decoded in the same order as they were encoded.
+ * <pre>
+ *   <code>EventCodec.Encoder encoder = new EventCodec.Encoder();
+ *   encoder.encode(event, buffer);
+ *   </code>
+ * </pre>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class EventCodec {
+
+  /**
+   * Strings which are seen after the dictionary is full are always written inline
+   */
+  static final int MAX_DICTIONARY_SIZE = 4096;
+
+  private static final byte TYPE_NULL = 0;
+  private static final byte TYPE_FALSE = 1;
+  private static final byte TYPE_TRUE = 2;
+  private static final byte TYPE_INT = 3;
+  private static final byte TYPE_LONG = 4;
+  private static final byte TYPE_FLOAT = 5;
+  private static final byte TYPE_DOUBLE = 6;
+  private static final byte TYPE_STRING = 7;
+  private static final byte TYPE_SHORT = 8;
+  private static final byte TYPE_BYTE = 9;
+
+  private static final int FLAG_WEIGHT = 1;
+  private static final int FLAG_OCCURRENCES = 2;
+
+  private EventCodec() {
+    // no instance
+  }
+
+  /**
+   * Writes events of a single stream. Not thread safe.
+   */
+  public static final class Encoder {
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final AttributeWriter attributeWriter = new AttributeWriter();
+    private String[] strings = new String[64];
+    private int size;
+
+    /**
+     * Dictionary id + 1 by {@link Symbols} id, names and keys with a symbol id are found without hashing them
+     */
+    private int[] symbolIds = new int[64];
+
+    /**
+     * Symbol id of each dictionary entry, {@link Symbols#NONE} when it has none
+     */
+    private int[] entrySymbols = new int[64];
+
+    /**
+     * Writes the event at the position of the buffer and moves the position to the end of the event.
+     * <p>
+     * Values which are not primitives or Strings are written as their String representation.
+     *
+     * @throws BufferOverflowException when the event doesn't fit, the buffer position and the dictionary are
+     *                                 left untouched so the event can be encoded again into a larger buffer
+     */
+    public void encode(Event event, ByteBuffer buffer) {
+      int start = buffer.position();
+      int mark = size;
+      try {
+        writeString(buffer, event.eventName, event.nameId);
+        writeFilters(buffer, event.eventFilters);
+        writeTags(buffer, event.eventTags);
+        writeCounts(buffer, event.samplingWeight, event.occurrences);
+        writeAttributes(buffer, event.eventAttributes);
+        writeAttributes(buffer, event.eventSuperAttributes);
+      } catch (BufferOverflowException e) {
+        rollback(mark);
+        buffer.position(start);
+        throw e;
+      }
+    }
+
+    /**
+     * Forgets all strings, the next event starts a new stream
+     */
+    public void reset() {
+      rollback(0);
+    }
+
+    private void rollback(int mark) {
+      for (int i = mark; i < size; i++) {
+        ids.remove(strings[i]);
+        strings[i] = null;
+        if (entrySymbols[i] >= 0) {
+          symbolIds[entrySymbols[i]] = 0;
+        }
+      }
+      size = mark;
+    }
+
+    private void writeFilters(ByteBuffer buffer, int[] filters) {
+      if (filters == null) {
+        writeVarint(buffer, 0);
+        return;
+      }
+      writeVarint(buffer, filters.length + 1);
+      for (int filter : filters) {
+        writeVarint(buffer, zigZag(filter));
+      }
+    }
+
+    private void writeTags(ByteBuffer buffer, String[] tags) {
+      if (tags == null) {
+        writeVarint(buffer, 0);
+        return;
+      }
+      writeVarint(buffer, tags.length + 1);
+      for (String tag : tags) {
+        writeString(buffer, tag);
+      }
+    }
+
+    /**
+     * A flags byte followed by the sampling weight and the occurrence count when they are not 1, most events
+     * cost the flags byte only
+     */
+    private static void writeCounts(ByteBuffer buffer, double weight, int occurrences) {
+      int flags = (weight != 1 ? FLAG_WEIGHT : 0) | (occurrences != 1 ? FLAG_OCCURRENCES : 0);
+      buffer.put((byte) flags);
+      if (weight != 1) {
+        buffer.putDouble(weight);
+      }
+      if (occurrences != 1) {
+        writeVarint(buffer, occurrences);
+      }
+    }
+
+    private void writeAttributes(ByteBuffer buffer, Map<String, Object> attributes) {
+      if (attributes == null) {
+        writeVarint(buffer, 0);
+        return;
+      }
+      writeVarint(buffer, attributes.size() + 1);
+      if (attributes instanceof AttributeMap) {
+        attributeWriter.buffer = buffer;
+        try {
+          ((AttributeMap) attributes).visit(attributeWriter);
+        } finally {
+          attributeWriter.buffer = null;
+        }
+        return;
+      }
+      for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+        writeString(buffer, entry.getKey());
+        writeValue(buffer, entry.getValue());
+      }
+    }
+
+    private void writeString(ByteBuffer buffer, String value) {
+      writeString(buffer, value, Symbols.NONE);
+    }
+
+    /**
+     * Writes either the id of a known string, or the string itself which then gets the next id.
+     * Null is written as id 0.
+     *
+     * @param symbolId {@link Symbols} id of the string, negative when it is not known
+     */
+    private void writeString(ByteBuffer buffer, String value, int symbolId) {
+      if (value == null) {
+        writeVarint(buffer, 0);
+        return;
+      }
+      int id = find(value, symbolId);
+      if (id >= 0) {
+        writeVarint(buffer, (id + 1) << 1);
+        return;
+      }
+      writeVarint(buffer, (utf8Length(value) << 1) | 1);
+      writeUtf8(buffer, value);
+      if (size == MAX_DICTIONARY_SIZE) return;
+
+      if (size == strings.length) {
+        strings = Arrays.copyOf(strings, size * 2);
+        entrySymbols = Arrays.copyOf(entrySymbols, size * 2);
+      }
+      strings[size] = value;
+      ids.put(value, size);
+      entrySymbols[size] = Symbols.NONE;
+      if (symbolId >= 0) {
+        link(symbolId, size);
+      }
+      size++;
+    }
+
+    /**
+     * @return the dictionary id of the string, -1 when it is not in the dictionary
+     */
+    private int find(String value, int symbolId) {
+      if (symbolId >= 0 && symbolId < symbolIds.length && symbolIds[symbolId] != 0) {
+        return symbolIds[symbolId] - 1;
+      }
+      Integer id = ids.get(value);
+      if (id == null) return -1;
+
+      // The string is written without its symbol id before, next time it is found by the id
+      if (symbolId >= 0 && entrySymbols[id] == Symbols.NONE) {
+        link(symbolId, id);
+      }
+      return id;
+    }
+
+    private void link(int symbolId, int id) {
+      if (symbolId >= symbolIds.length) {
+        symbolIds = Arrays.copyOf(symbolIds, Math.max(symbolId + 1, symbolIds.length * 2));
+      }
+      symbolIds[symbolId] = id + 1;
+      entrySymbols[id] = symbolId;
+    }
+
+    /**
+     * Writes the typed columns of an {@link AttributeMap} without boxing the primitives
+     */
+    private final class AttributeWriter implements AttributeMap.Visitor {
+      ByteBuffer buffer;
+
+      @Override public void visitInt(String key, int keyId, int value) {
+        writeString(buffer, key, keyId);
+        buffer.put(TYPE_INT);
+        writeVarint(buffer, zigZag(value));
+      }
+
+      @Override public void visitLong(String key, int keyId, long value) {
+        writeString(buffer, key, keyId);
+        buffer.put(TYPE_LONG);
+        writeVarlong(buffer, zigZag(value));
+      }
+
+      @Override public void visitDouble(String key, int keyId, double value) {
+        writeString(buffer, key, keyId);
+        buffer.put(TYPE_DOUBLE);
+        buffer.putDouble(value);
+      }
+
+      @Override public void visitFloat(String key, int keyId, float value) {
+        writeString(buffer, key, keyId);
+        buffer.put(TYPE_FLOAT);
+        buffer.putFloat(value);
+      }
+
+      @Override public void visitBoolean(String key, int keyId, boolean value) {
+        writeString(buffer, key, keyId);
+        buffer.put(value ? TYPE_TRUE : TYPE_FALSE);
+      }
+
+      @Override public void visitObject(String key, int keyId, Object value) {
+        writeString(buffer, key, keyId);
+        writeValue(buffer, value);
+      }
+    }
+  }
+
+  /**
+   * Reads events of a single stream. Not thread safe.
+   */
+  public static final class Decoder {
+
+    private String[] strings = new String[64];
+    private int size;
+    private char[] chars = new char[64];
+
+    /**
+     * Reads the event at the position of the buffer and moves the position to the end of the event
+     *
+     * @throws IllegalArgumentException when the data is not a valid event of this stream
+     */
+    public Event decode(ByteBuffer buffer) {
+      try {
+        return readEvent(buffer);
+      } catch (BufferUnderflowException e) {
+        throw new IllegalArgumentException("Event is truncated");
+      }
+    }
+
+    /**
+     * Forgets all strings, the next event starts a new stream
+     */
+    public void reset() {
+      Arrays.fill(strings, 0, size, null);
+      size = 0;
+    }
+
+    private Event readEvent(ByteBuffer buffer) {
+      String name = readString(buffer);
+
+      int[] filters = null;
+      int filterCount = readCount(buffer);
+      if (filterCount >= 0) {
+        filters = new int[filterCount];
+        for (int i = 0; i < filterCount; i++) {
+          filters[i] = unZigZag(readVarint(buffer));
+        }
+      }
+
+      String[] tags = null;
+      int tagCount = readCount(buffer);
+      if (tagCount >= 0) {
+        tags = new String[tagCount];
+        for (int i = 0; i < tagCount; i++) {
+          tags[i] = readString(buffer);
+        }
+      }
+
+      byte flags = buffer.get();
+      double samplingWeight = (flags & FLAG_WEIGHT) != 0 ? buffer.getDouble() : 1;
+      int occurrences = (flags & FLAG_OCCURRENCES) != 0 ? readVarint(buffer) : 1;
+      Map<String, Object> attributes = readAttributes(buffer);
+      Map<String, Object> superAttributes = readAttributes(buffer);
+      Event event = new Event(name, filters, tags, attributes,
+          superAttributes != null ? Collections.unmodifiableMap(superAttributes) : null);
+      event.samplingWeight = samplingWeight;
+      event.occurrences = occurrences;
+      event.nameId = Symbols.id(name);
+      return event;
+    }
+
+    private Map<String, Object> readAttributes(ByteBuffer buffer) {
+      int count = readCount(buffer);
+      if (count < 0) return null;
+
+      AttributeMap attributes = new AttributeMap(count);
+      for (int i = 0; i < count; i++) {
+        String key = readString(buffer);
+        readAttribute(buffer, key, attributes);
+      }
+      return attributes;
+    }
+
+    /**
+     * Primitives are put into their typed column, they are not boxed
+     */
+    private void readAttribute(ByteBuffer buffer, String key, AttributeMap attributes) {
+      byte type = buffer.get();
+      switch (type) {
+        case TYPE_FALSE:
+          attributes.putBoolean(key, false);
+          break;
+        case TYPE_TRUE:
+          attributes.putBoolean(key, true);
+          break;
+        case TYPE_INT:
+          attributes.putInt(key, unZigZag(readVarint(buffer)));
+          break;
+        case TYPE_LONG:
+          attributes.putLong(key, unZigZag(readVarlong(buffer)));
+          break;
+        case TYPE_FLOAT:
+          attributes.putFloat(key, buffer.getFloat());
+          break;
+        case TYPE_DOUBLE:
+          attributes.putDouble(key, buffer.getDouble());
+          break;
+        default:
+          attributes.put(key, readValue(buffer, type));
+      }
+    }
+
+    private Object readValue(ByteBuffer buffer, byte type) {
+      switch (type) {
+        case TYPE_NULL:
+          return null;
+        case TYPE_STRING:
+          return readUtf8(buffer, readVarint(buffer));
+        case TYPE_SHORT:
+          return (short) unZigZag(readVarint(buffer));
+        case TYPE_BYTE:
+          return buffer.get();
+        default:
+          throw new IllegalArgumentException("Unknown value type " + type);
+      }
+    }
+
+    private String readString(ByteBuffer buffer) {
+      int header = readVarint(buffer);
+      if (header == 0) return null;
+
+      if ((header & 1) == 0) {
+        int id = (header >>> 1) - 1;
+        if (id >= size) {
+          throw new IllegalArgumentException("Unknown string id " + id);
+        }
+        return strings[id];
+      }
+
+      String value = readUtf8(buffer, header >>> 1);
+      if (size < MAX_DICTIONARY_SIZE) {
+        if (size == strings.length) {
+          strings = Arrays.copyOf(strings, size * 2);
+        }
+        strings[size++] = value;
+      }
+      return value;
+    }
+
+    private String readUtf8(ByteBuffer buffer, int length) {
+      if (length > buffer.remaining()) {
+        throw new IllegalArgumentException("String is longer than the remaining data");
+      }
+      // A UTF-8 byte never results in more than one char, a malformed last char may read a few bytes more
+      if (chars.length <= length) {
+        chars = new char[Math.max(length + 1, chars.length * 2)];
+      }
+      int end = buffer.position() + length;
+      int count = 0;
+      while (buffer.position() < end) {
+        int b = buffer.get() & 0xFF;
+        if (b < 0x80) {
+          chars[count++] = (char) b;
+        } else if (b < 0xE0) {
+          chars[count++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+        } else if (b < 0xF0) {
+          chars[count++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+        } else {
+          int codePoint = ((b & 0x07) << 18) | ((buffer.get() & 0x3F) << 12) | ((buffer.get() & 0x3F) << 6)
+              | (buffer.get() & 0x3F);
+          chars[count++] = Character.highSurrogate(codePoint);
+          chars[count++] = Character.lowSurrogate(codePoint);
+        }
+      }
+      if (buffer.position() != end) {
+        throw new IllegalArgumentException("Malformed string");
+      }
+      return new String(chars, 0, count);
+    }
+
+    private static int readCount(ByteBuffer buffer) {
+      int count = readVarint(buffer) - 1;
+      if (count < -1 || count > buffer.remaining()) {
+        throw new IllegalArgumentException("Malformed count " + count);
+      }
+      return count;
+    }
+  }
+
+  private static void writeValue(ByteBuffer buffer, Object value) {
+    if (value == null) {
+      buffer.put(TYPE_NULL);
+    } else if (value instanceof String) {
+      String string = (String) value;
+      buffer.put(TYPE_STRING);
+      writeVarint(buffer, utf8Length(string));
+      writeUtf8(buffer, string);
+    } else if (value instanceof Integer) {
+      buffer.put(TYPE_INT);
+      writeVarint(buffer, zigZag((Integer) value));
+    } else if (value instanceof Long) {
+      buffer.put(TYPE_LONG);
+      writeVarlong(buffer, zigZag((long) (Long) value));
+    } else if (value instanceof Boolean) {
+      buffer.put((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+    } else if (value instanceof Double) {
+      buffer.put(TYPE_DOUBLE);
+      buffer.putDouble((Double) value);
+    } else if (value instanceof Float) {
+      buffer.put(TYPE_FLOAT);
+      buffer.putFloat((Float) value);
+    } else if (value instanceof Short) {
+      buffer.put(TYPE_SHORT);
+      writeVarint(buffer, zigZag((Short) value));
+    } else if (value instanceof Byte) {
+      buffer.put(TYPE_BYTE);
+      buffer.put((Byte) value);
+    } else {
+      writeValue(buffer, value.toString());
+    }
+  }
+
+  static int utf8Length(String value) {
+    int length = 0;
+    for (int i = 0, size = value.length(); i < size; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Unpaired surrogates are written as 3 bytes, the same way as {@link java.io.DataOutputStream#writeUTF(String)}
+   */
+  private static void writeUtf8(ByteBuffer buffer, String value) {
+    for (int i = 0, size = value.length(); i < size; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer.put((byte) c);
+      } else if (c < 0x800) {
+        buffer.put((byte) (0xC0 | (c >> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < size && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer.put((byte) (0xF0 | (codePoint >> 18)));
+        buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+        buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+      } else {
+        buffer.put((byte) (0xE0 | (c >> 12)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        buffer.put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
+  private static void writeVarint(ByteBuffer buffer, int value) {
+    while ((value & ~0x7F) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static void writeVarlong(ByteBuffer buffer, long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private static int readVarint(ByteBuffer buffer) {
+    int result = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      byte b = buffer.get();
+      result |= (b & 0x7F) << shift;
+      if (b >= 0) return result;
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  private static long readVarlong(ByteBuffer buffer) {
+    long result = 0;
+    for (int shift = 0; shift < 70; shift += 7) {
+      byte b = buffer.get();
+      result |= (long) (b & 0x7F) << shift;
+      if (b >= 0) return result;
+    }
+    throw new IllegalArgumentException("Malformed varint");
+  }
+
+  /**
+   * Maps small negative numbers to small positive numbers so they stay short as a varint
+   */
+  private static int zigZag(int value) {
+    return (value << 1) ^ (value >> 31);
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static int unZigZag(int value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
@@ -0,0 +1,61 @@
+package com.orhanobut.tracklytics;
+
+import java.util.Map;
+
+/**
+ * Formats the log message of an event into a given builder, so that the builder can be reused.
+ * The message is the same as the one built from {@link Map#toString()} and {@link java.util.Arrays#toString(int[])}.
+ */
+final class EventFormatter {
+
+  private EventFormatter() {
+    // no instance
+  }
+
+  static void format(Event event, StringBuilder builder) {
+    builder.append(event.eventName).append("-> ");
+    appendMap(builder, event.eventAttributes);
+    builder.append(", super attrs: ");
+    appendMap(builder, event.eventSuperAttributes);
+    builder.append(", filters: ");
+    appendFilters(builder, event.eventFilters);
+  }
+
+  private static void appendMap(StringBuilder builder, Map<String, Object> map) {
+    if (map == null) {
+      builder.append("null");
+      return;
+    }
+    builder.append('{');
+    boolean first = true;
+    for (Map.Entry<String, Object> entry : map.entrySet()) {
+      if (!first) {
+        builder.append(", ");
+      }
+      first = false;
+      builder.append(entry.getKey()).append('=');
+      Object value = entry.getValue();
+      if (value == map) {
+        builder.append("(this Map)");
+      } else {
+        builder.append(value);
+      }
+    }
+    builder.append('}');
+  }
+
+  private static void appendFilters(StringBuilder builder, int[] filters) {
+    if (filters == null) {
+      builder.append("null");
+      return;
+    }
+    builder.append('[');
+    for (int i = 0; i < filters.length; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      builder.append(filters[i]);
+    }
+    builder.append(']');
+  }
+}
@@ -0,0 +1,417 @@
+package com.orhanobut.tracklytics;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal which keeps the tracked events until every subscriber has received them.
+ * <p>
+ * Events are written to segment files through a {@link MappedByteBuffer}, therefore a written event survives the
+ * death of the process. Records are encoded with {@link EventCodec}, one stream per segment, and carry a CRC32
+ * of their payload, torn or corrupted records are skipped on replay. Once all events of a segment are
+ * acknowledged, the segment file is deleted without rewriting anything.
+ * <p>
+ * Pass the journal to {@link Tracklytics#init(EventSubscriber, EventJournal)}. Events which were not
+ * acknowledged before the process died are delivered again by {@link Tracklytics#replayPendingEvents()}, so
+ * subscribers may receive an event more than once.
+ * <pre>
+ *   <code>EventJournal journal = EventJournal.open(new File(context.getFilesDir(), "tracklytics"),
+ *       EventJournal.DEFAULT_SEGMENT_SIZE, EventJournal.SyncPolicy.NONE);
+ *   Tracklytics tracklytics = Tracklytics.init(subscriber, journal);
+ *   tracklytics.addEventSubscriber(otherSubscriber);
+ *   tracklytics.replayPendingEvents();
+ *   </code>
+ * </pre>
+ */
+@SuppressWarnings("WeakerAccess")
+public final class EventJournal {
+
+  public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+  /**
+   * Decides when the written records are forced to the storage device.
+   * Written records always survive the death of the process, forcing only matters when the device loses power.
+   */
+  public enum SyncPolicy {
+
+    /**
+     * Never forces, the operating system writes the records back on its own
+     */
+    NONE,
+
+    /**
+     * Forces each record once it is written, the slowest option
+     */
+    EVERY_RECORD,
+
+    /**
+     * Forces a segment once it is full
+     */
+    ON_ROTATION
+  }
+
+  private static final String SUFFIX = ".journal";
+  private static final int MAGIC = 0x54524b4a;
+  private static final int FORMAT_VERSION = 3;
+
+  // Header: magic, format version, base sequence, acknowledged record count
+  private static final int ACKED_OFFSET = 16;
+  static final int HEADER_SIZE = 20;
+
+  // Record: payload length, payload crc, payload
+  static final int RECORD_HEADER_SIZE = 8;
+
+  private final File directory;
+  private final int segmentSize;
+  private final SyncPolicy syncPolicy;
+
+  private final List<Segment> segments = new ArrayList<>();
+  private final List<Event> pendingEvents;
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * Each segment is a separate {@link EventCodec} stream, so a segment can be read without the previous ones
+   */
+  private final EventCodec.Encoder encoder = new EventCodec.Encoder();
+  private ByteBuffer record = ByteBuffer.allocate(256);
+
+  private Segment activeSegment;
+  private long nextSequence;
+
+  /**
+   * All sequences below this one are acknowledged
+   */
+  private long ackWatermark;
+
+  /**
+   * Acknowledged sequences above the watermark, relative to the watermark
+   */
+  private final BitSet acknowledged = new BitSet();
+
+  private long failedRecords;
+  private boolean closed;
+
+  private EventJournal(File directory, int segmentSize, SyncPolicy syncPolicy) throws IOException {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+    this.syncPolicy = syncPolicy;
+    this.pendingEvents = recover();
+  }
+
+  /**
+   * Opens the journal in the given directory and reads the events which are not acknowledged yet
+   *
+   * @param segmentSize size of each segment file in bytes, a single event must fit into a segment
+   */
+  public static EventJournal open(File directory, int segmentSize, SyncPolicy syncPolicy) throws IOException {
+    if (syncPolicy == null) {
+      throw new NullPointerException("syncPolicy == null");
+    }
+    if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+      throw new IllegalArgumentException("Segment size is too small");
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create journal directory " + directory);
+    }
+    return new EventJournal(directory, segmentSize, syncPolicy);
+  }
+
+  /**
+   * Events which were written but never acknowledged, in the order they were tracked.
+   * Returns them only once, they are replayed by {@link Tracklytics}.
+   */
+  synchronized List<Event> takePendingEvents() {
+    List<Event> events = new ArrayList<>(pendingEvents);
+    pendingEvents.clear();
+    return events;
+  }
+
+  /**
+   * Writes the event and assigns its journal sequence.
+   * The event is delivered anyway when it cannot be written, it is only not durable then.
+   */
+  synchronized void append(Event event) {
+    if (closed) return;
+
+    try {
+      if (activeSegment == null) {
+        rotate();
+      }
+      if (!encode(event)) {
+        failedRecords++;
+        return;
+      }
+      if (activeSegment.buffer.remaining() < RECORD_HEADER_SIZE + record.position()) {
+        // Strings of the previous segment are not known in the new one, the event is encoded again. Without the
+        // references it can be too large for a segment.
+        rotate();
+        if (!encode(event)) {
+          failedRecords++;
+          return;
+        }
+      }
+    } catch (IOException e) {
+      failedRecords++;
+      return;
+    }
+
+    int length = record.position();
+    byte[] payload = record.array();
+    crc.reset();
+    crc.update(payload, 0, length);
+    MappedByteBuffer buffer = activeSegment.buffer;
+    int start = buffer.position();
+    buffer.position(start + 4);
+    buffer.putInt((int) crc.getValue());
+    buffer.put(payload, 0, length);
+    // Length is written last, a record is only visible once it is complete
+    buffer.putInt(start, length);
+    if (syncPolicy == SyncPolicy.EVERY_RECORD) {
+      buffer.force();
+    }
+
+    activeSegment.recordCount++;
+    event.journalSequence = nextSequence++;
+  }
+
+  /**
+   * Encodes the event into {@link #record} which grows up to the largest record a segment can keep
+   *
+   * @return false when the event doesn't fit into a segment
+   */
+  private boolean encode(Event event) {
+    int maxLength = segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE;
+    while (true) {
+      record.clear();
+      try {
+        encoder.encode(event, record);
+        return true;
+      } catch (BufferOverflowException e) {
+        if (record.capacity() >= maxLength) return false;
+        record = ByteBuffer.allocate(Math.min(record.capacity() * 2, maxLength));
+      }
+    }
+  }
+
+  /**
+   * Marks the event as received by every subscriber
+   */
+  synchronized void acknowledge(long sequence) {
+    if (sequence < ackWatermark) return;
+
+    acknowledged.set((int) (sequence - ackWatermark));
+    int advance = acknowledged.nextClearBit(0);
+    if (advance == 0) return;
+
+    acknowledged.clear(0, advance);
+    if (!acknowledged.isEmpty()) {
+      BitSet remaining = acknowledged.get(advance, acknowledged.length());
+      acknowledged.clear();
+      acknowledged.or(remaining);
+    }
+    ackWatermark += advance;
+    releaseAcknowledgedSegments();
+  }
+
+  private void releaseAcknowledgedSegments() {
+    for (int i = 0; i < segments.size(); i++) {
+      Segment segment = segments.get(i);
+      if (segment.baseSequence >= ackWatermark) return;
+
+      long acked = Math.min(segment.recordCount, ackWatermark - segment.baseSequence);
+      if (segment != activeSegment && acked == segment.recordCount) {
+        segments.remove(i--);
+        //noinspection ResultOfMethodCallIgnored
+        segment.file.delete();
+      } else if (!closed) {
+        segment.buffer.putInt(ACKED_OFFSET, (int) acked);
+      }
+    }
+  }
+
+  /**
+   * Number of events which could not be written, for example because they are larger than a segment
+   */
+  synchronized long failedRecordCount() {
+    return failedRecords;
+  }
+
+  synchronized int segmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Forces the written records to the storage device and stops writing.
+   * Events which are tracked afterwards are not journaled.
+   */
+  public synchronized void close() {
+    if (closed) return;
+    closed = true;
+    for (Segment segment : segments) {
+      segment.buffer.force();
+    }
+  }
+
+  private void rotate() throws IOException {
+    if (activeSegment != null && syncPolicy == SyncPolicy.ON_ROTATION) {
+      activeSegment.buffer.force();
+    }
+    Segment sealed = activeSegment;
+    activeSegment = createSegment(nextSequence);
+    encoder.reset();
+    segments.add(activeSegment);
+    if (sealed != null && sealed.baseSequence + sealed.recordCount <= ackWatermark) {
+      releaseAcknowledgedSegments();
+    }
+  }
+
+  private Segment createSegment(long baseSequence) throws IOException {
+    for (Segment segment : segments) {
+      if (segment.baseSequence == baseSequence) {
+        throw new IOException("Segment " + baseSequence + " already exists");
+      }
+    }
+    File file = new File(directory, String.format("%020d", baseSequence) + SUFFIX);
+    MappedByteBuffer buffer = map(file);
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, FORMAT_VERSION);
+    buffer.putLong(8, baseSequence);
+    buffer.putInt(ACKED_OFFSET, 0);
+    buffer.position(HEADER_SIZE);
+    return new Segment(file, buffer, baseSequence);
+  }
+
+  private MappedByteBuffer map(File file) throws IOException {
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      // Mapping extends the file with zeros, a zero length marks the end of the records
+      return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private List<Event> recover() throws IOException {
+    File[] files = directory.listFiles(new FilenameFilter() {
+      @Override public boolean accept(File dir, String name) {
+        return name.endsWith(SUFFIX);
+      }
+    });
+    List<Event> events = new ArrayList<>();
+    if (files == null) return events;
+
+    Arrays.sort(files);
+    List<Long> corrupted = new ArrayList<>();
+    boolean watermarkFound = false;
+    for (File file : files) {
+      if (file.length() != segmentSize) {
+        // Either a different segment size or a file which is not created by the journal, keep it untouched
+        continue;
+      }
+      MappedByteBuffer buffer = map(file);
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) continue;
+
+      Segment segment = new Segment(file, buffer, buffer.getLong(8));
+      if (segment.baseSequence < nextSequence) continue;
+
+      int acked = buffer.getInt(ACKED_OFFSET);
+      buffer.position(HEADER_SIZE);
+      readRecords(segment, acked, events, corrupted);
+      nextSequence = segment.baseSequence + segment.recordCount;
+      if (segment.recordCount == 0) {
+        // Created by a rotation without a record, the next segment takes the same base sequence and file name
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        continue;
+      }
+      segments.add(segment);
+
+      if (!watermarkFound && acked < segment.recordCount) {
+        ackWatermark = segment.baseSequence + acked;
+        watermarkFound = true;
+      }
+    }
+    if (!watermarkFound) {
+      ackWatermark = nextSequence;
+    }
+    // Corrupted records are never delivered, therefore they are acknowledged right away
+    for (long sequence : corrupted) {
+      acknowledge(sequence);
+    }
+    // Segments which are completely acknowledged are not needed anymore
+    releaseAcknowledgedSegments();
+    return events;
+  }
+
+  /**
+   * Acknowledged records are decoded as well, later records may refer to their strings.
+   * Records which refer to the strings of a corrupted record cannot be decoded and count as corrupted too.
+   */
+  private void readRecords(Segment segment, int acked, List<Event> events, List<Long> corrupted) {
+    MappedByteBuffer buffer = segment.buffer;
+    EventCodec.Decoder decoder = new EventCodec.Decoder();
+    byte[] payload = new byte[256];
+    while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+      int length = buffer.getInt(buffer.position());
+      if (length <= 0 || length > buffer.remaining() - RECORD_HEADER_SIZE) return;
+
+      buffer.position(buffer.position() + 4);
+      int expectedCrc = buffer.getInt();
+      if (payload.length < length) {
+        payload = new byte[Math.max(length, payload.length * 2)];
+      }
+      buffer.get(payload, 0, length);
+
+      long sequence = segment.baseSequence + segment.recordCount;
+      segment.recordCount++;
+
+      crc.reset();
+      crc.update(payload, 0, length);
+      Event event = (int) crc.getValue() == expectedCrc ? decode(decoder, payload, length) : null;
+      if (segment.recordCount <= acked) continue;
+      if (event == null) {
+        corrupted.add(sequence);
+        continue;
+      }
+      event.journalSequence = sequence;
+      events.add(event);
+    }
+  }
+
+  /**
+   * @return null when the payload is not a valid event
+   */
+  private static Event decode(EventCodec.Decoder decoder, byte[] payload, int length) {
+    ByteBuffer input = ByteBuffer.wrap(payload, 0, length);
+    try {
+      Event event = decoder.decode(input);
+      return input.hasRemaining() ? null : event;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static final class Segment {
+    final File file;
+    final MappedByteBuffer buffer;
+    final long baseSequence;
+    int recordCount;
+
+    Segment(File file, MappedByteBuffer buffer, long baseSequence) {
+      this.file = file;
+      this.buffer = buffer;
+      this.baseSequence = baseSequence;
+    }
+  }
+}
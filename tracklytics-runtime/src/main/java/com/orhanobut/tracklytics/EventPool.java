@@ -0,0 +1,56 @@
+package com.orhanobut.tracklytics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of {@link Event} instances along with their attribute containers. Events return to the pool once
+ * every holder has released them, see {@link Event#release()}. A new event is created when the pool is empty and
+ * a released event is dropped when the pool is full, tracking never waits for the pool.
+ * <p>
+ * In debug mode released events are never reused. They fail on each later use instead, so that an event which is
+ * used after it is released is detected rather than showing the values of another event.
+ */
+final class EventPool {
+
+  final boolean debug;
+
+  private final RingBuffer<Event> free;
+  private final AtomicLong created = new AtomicLong();
+
+  EventPool(int capacity, boolean debug) {
+    this.free = new RingBuffer<>(capacity);
+    this.debug = debug;
+  }
+
+  /**
+   * @return an empty event, it must be filled by {@link Event#fill} before it is used
+   */
+  Event acquire() {
+    Event event = debug ? null : free.poll();
+    if (event == null) {
+      created.incrementAndGet();
+      event = new Event(this);
+    }
+    return event;
+  }
+
+  void recycle(Event event) {
+    if (debug) {
+      event.poison();
+      return;
+    }
+    event.reset();
+    free.offer(event);
+  }
+
+  /**
+   * Number of events which are created since the pool exists, it stops growing in steady state
+   */
+  long createdCount() {
+    return created.get();
+  }
+
+  int size() {
+    return free.size();
+  }
+}
@@ -0,0 +1,100 @@
+package com.orhanobut.tracklytics;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Compiles the filters and tags of events and subscriber interests into bitsets, an event is routed to a
+ * subscriber when the bitsets intersect.
+ * <p>
+ * Every filter id and tag gets its own bit when it is seen for the first time. The bitset of a {@link TrackEvent}
+ * is compiled once and then looked up by identity.
+ */
+final class EventRouting {
+
+  /**
+   * Events which have neither filters nor tags
+   */
+  static final long[] NONE = new long[0];
+
+  /**
+   * Stops caching when something creates a new TrackEvent for each call
+   */
+  private static final int MAX_CACHED_ROUTES = 4096;
+
+  /**
+   * Filter ids as Integer and tags as String, to their bit
+   */
+  private final Map<Object, Integer> bits = new HashMap<>();
+
+  /**
+   * Copy on write, read without locking
+   */
+  private volatile IdentityHashMap<TrackEvent, long[]> routes = new IdentityHashMap<>();
+
+  long[] route(TrackEvent trackEvent) {
+    long[] route = routes.get(trackEvent);
+    if (route != null) return route;
+
+    synchronized (this) {
+      route = routes.get(trackEvent);
+      if (route != null) return route;
+
+      route = compile(trackEvent.filters(), trackEvent.tags());
+      if (routes.size() < MAX_CACHED_ROUTES) {
+        IdentityHashMap<TrackEvent, long[]> newRoutes = new IdentityHashMap<>(routes);
+        newRoutes.put(trackEvent, route);
+        routes = newRoutes;
+      }
+      return route;
+    }
+  }
+
+  /**
+   * @param filters null for none
+   * @param tags    null for none
+   */
+  synchronized long[] compile(int[] filters, String[] tags) {
+    int filterCount = filters != null ? filters.length : 0;
+    int tagCount = tags != null ? tags.length : 0;
+    if (filterCount + tagCount == 0) return NONE;
+
+    long[] words = NONE;
+    for (int i = 0; i < filterCount; i++) {
+      words = set(words, bit(filters[i]));
+    }
+    for (int i = 0; i < tagCount; i++) {
+      if (tags[i] != null) {
+        words = set(words, bit(tags[i]));
+      }
+    }
+    return words;
+  }
+
+  static boolean intersects(long[] first, long[] second) {
+    for (int i = 0, size = Math.min(first.length, second.length); i < size; i++) {
+      if ((first[i] & second[i]) != 0) return true;
+    }
+    return false;
+  }
+
+  private int bit(Object key) {
+    Integer bit = bits.get(key);
+    if (bit == null) {
+      bit = bits.size();
+      bits.put(key, bit);
+    }
+    return bit;
+  }
+
+  private static long[] set(long[] words, int bit) {
+    int index = bit >>> 6;
+    if (index >= words.length) {
+      words = Arrays.copyOf(words, index + 1);
+    }
+    words[index] |= 1L << bit;
+    return words;
+  }
+}
@@ -0,0 +1,69 @@
+package com.orhanobut.tracklytics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of non-negative values with log-linear buckets, as in HdrHistogram. Values below 32 have
+ * their own bucket, larger values fall into one of 16 linear buckets per power of two, which keeps the relative
+ * error below 6.25% over the whole long range with 960 buckets.
+ * <p>
+ * Recording is a bucket increment and a striped sum update, it never allocates or locks. Buckets are striped by
+ * thread like {@link StripedCounter}, each stripe has a copy of all buckets, so concurrent threads rarely write to
+ * the same cache line. Stripes are capped at 8, a copy takes 7.5 KB.
+ */
+final class LogHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int HALF_SUB_BUCKETS = SUB_BUCKETS >> 1;
+
+  static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+  private static final int STRIPES = Math.min(8, StripedCounter.STRIPES);
+
+  /**
+   * Buckets of a stripe are at stripe * BUCKETS
+   */
+  private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+  private final StripedCounter sum = new StripedCounter();
+
+  /**
+   * Negative values are recorded as 0
+   */
+  void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    int stripe = StripedCounter.stripe() & (STRIPES - 1);
+    counts.incrementAndGet(stripe * BUCKETS + index(value));
+    sum.add(value);
+  }
+
+  TracklyticsMetrics.Histogram snapshot() {
+    long[] snapshot = new long[BUCKETS];
+    for (int stripe = 0; stripe < STRIPES; stripe++) {
+      for (int i = 0; i < BUCKETS; i++) {
+        snapshot[i] += counts.get(stripe * BUCKETS + i);
+      }
+    }
+    return new TracklyticsMetrics.Histogram(snapshot, sum.sum());
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+    return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >>> shift) - HALF_SUB_BUCKETS;
+  }
+
+  /**
+   * Largest value which falls into the bucket
+   */
+  static long highestValue(int index) {
+    if (index < SUB_BUCKETS) return index;
+
+    int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+    long lowest = (long) ((index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,129 @@
+package com.orhanobut.tracklytics;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only view of the event attributes and the super attributes, nothing is copied.
+ * <p>
+ * Super attributes win when both maps contain the same key, the shadowed event attribute is skipped while
+ * iterating. Changes of the underlying maps are visible through the view.
+ */
+final class MergedAttributes extends AbstractMap<String, Object> {
+
+  private final Map<String, Object> attributes;
+  private final Map<String, Object> superAttributes;
+
+  private Set<Entry<String, Object>> entrySet;
+
+  /**
+   * Null maps are treated as empty
+   */
+  MergedAttributes(Map<String, Object> attributes, Map<String, Object> superAttributes) {
+    this.attributes = attributes != null ? attributes : Collections.<String, Object>emptyMap();
+    this.superAttributes = superAttributes != null ? superAttributes : Collections.<String, Object>emptyMap();
+  }
+
+  @Override public Object get(Object key) {
+    Object value = superAttributes.get(key);
+    if (value != null || superAttributes.containsKey(key)) return value;
+    return attributes.get(key);
+  }
+
+  @Override public boolean containsKey(Object key) {
+    return superAttributes.containsKey(key) || attributes.containsKey(key);
+  }
+
+  /**
+   * Walks the event attributes to leave out the shadowed ones
+   */
+  @Override public int size() {
+    if (superAttributes.isEmpty()) return attributes.size();
+
+    int size = superAttributes.size();
+    for (String key : attributes.keySet()) {
+      if (!superAttributes.containsKey(key)) {
+        size++;
+      }
+    }
+    return size;
+  }
+
+  @Override public boolean isEmpty() {
+    return attributes.isEmpty() && superAttributes.isEmpty();
+  }
+
+  @Override public Set<Entry<String, Object>> entrySet() {
+    Set<Entry<String, Object>> result = entrySet;
+    if (result == null) {
+      result = new AbstractSet<Entry<String, Object>>() {
+        @Override public Iterator<Entry<String, Object>> iterator() {
+          return new EntryIterator();
+        }
+
+        @Override public int size() {
+          return MergedAttributes.this.size();
+        }
+      };
+      entrySet = result;
+    }
+    return result;
+  }
+
+  /**
+   * Super attributes first, then the event attributes which are not shadowed
+   */
+  private final class EntryIterator implements Iterator<Entry<String, Object>> {
+    private final Iterator<Entry<String, Object>> superIterator = superAttributes.entrySet().iterator();
+    private Iterator<Entry<String, Object>> iterator;
+    private Entry<String, Object> next;
+
+    EntryIterator() {
+      advance();
+    }
+
+    private void advance() {
+      if (superIterator.hasNext()) {
+        next = readOnly(superIterator.next());
+        return;
+      }
+      if (iterator == null) {
+        iterator = attributes.entrySet().iterator();
+      }
+      while (iterator.hasNext()) {
+        Entry<String, Object> entry = iterator.next();
+        if (!superAttributes.containsKey(entry.getKey())) {
+          next = readOnly(entry);
+          return;
+        }
+      }
+      next = null;
+    }
+
+    private Entry<String, Object> readOnly(Entry<String, Object> entry) {
+      return entry instanceof SimpleImmutableEntry ? entry : new SimpleImmutableEntry<>(entry);
+    }
+
+    @Override public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override public Entry<String, Object> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Entry<String, Object> result = next;
+      advance();
+      return result;
+    }
+
+    @Override public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
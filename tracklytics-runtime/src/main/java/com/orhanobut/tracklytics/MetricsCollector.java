@@ -0,0 +1,137 @@
+package com.orhanobut.tracklytics;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Collects the numbers of {@link TracklyticsMetrics} while events are tracked.
+ * <p>
+ * Events are counted by their {@link Symbols} id in striped cells. Cells are allocated in chunks of names which
+ * are never copied, so growing the table doesn't lose concurrent increments. A chunk keeps the cells of a stripe
+ * together, threads of different stripes don't write to the same cache line. Names without an id are counted in
+ * a map.
+ */
+final class MetricsCollector {
+
+  private static final int CHUNK_BITS = 8;
+  private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+  private static final int MAX_CHUNKS = 4096;
+
+  /**
+   * Time spent in the advice of a tracked method without the method itself, in nanoseconds. Only calls which
+   * are sampled and within the rate limit are recorded.
+   */
+  final LogHistogram adviceTime = new LogHistogram();
+
+  /**
+   * Time spent in {@link EventSubscriber#onEventTracked(Event)} of the subscriber given to init, in nanoseconds.
+   * Each subscriber has its own histogram, see {@link #subscriberLatency(EventSubscriber)}.
+   */
+  final LogHistogram subscriberLatency;
+
+  /**
+   * Looked up when a subscriber is added, never while events are delivered
+   */
+  private final Map<EventSubscriber, LogHistogram> subscriberLatencies = new IdentityHashMap<>();
+
+  /**
+   * Chunks of CHUNK_SIZE names per stripe, the cell of a name is at stripe * CHUNK_SIZE + name
+   */
+  private final AtomicReferenceArray<AtomicLongArray> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+  private final ConcurrentHashMap<String, AtomicLong> unnamedCounts = new ConcurrentHashMap<>();
+
+  MetricsCollector(EventSubscriber subscriber) {
+    this.subscriberLatency = subscriberLatency(subscriber);
+  }
+
+  void countEvent(Event event) {
+    int nameId = event.nameId;
+    if (nameId < 0 || nameId >= MAX_CHUNKS * CHUNK_SIZE) {
+      countUnnamed(event.eventName);
+      return;
+    }
+    AtomicLongArray chunk = chunk(nameId >>> CHUNK_BITS);
+    chunk.incrementAndGet(StripedCounter.stripe() * CHUNK_SIZE + (nameId & (CHUNK_SIZE - 1)));
+  }
+
+  /**
+   * Number of tracked events by name
+   */
+  Map<String, Long> eventCounts() {
+    Map<String, Long> counts = new HashMap<>();
+    for (int i = 0; i < MAX_CHUNKS; i++) {
+      AtomicLongArray chunk = chunks.get(i);
+      if (chunk == null) continue;
+
+      for (int name = 0; name < CHUNK_SIZE; name++) {
+        long count = 0;
+        for (int stripe = 0; stripe < StripedCounter.STRIPES; stripe++) {
+          count += chunk.get(stripe * CHUNK_SIZE + name);
+        }
+        if (count != 0) {
+          add(counts, Symbols.name((i << CHUNK_BITS) + name), count);
+        }
+      }
+    }
+    for (Map.Entry<String, AtomicLong> entry : unnamedCounts.entrySet()) {
+      add(counts, entry.getKey(), entry.getValue().get());
+    }
+    return counts;
+  }
+
+  /**
+   * Histogram of the time spent in the given subscriber, in nanoseconds. A subscriber which is added more than
+   * once shares its histogram.
+   */
+  synchronized LogHistogram subscriberLatency(EventSubscriber subscriber) {
+    LogHistogram latency = subscriberLatencies.get(subscriber);
+    if (latency == null) {
+      latency = new LogHistogram();
+      subscriberLatencies.put(subscriber, latency);
+    }
+    return latency;
+  }
+
+  synchronized Map<EventSubscriber, TracklyticsMetrics.Histogram> subscriberLatencies() {
+    Map<EventSubscriber, TracklyticsMetrics.Histogram> snapshots = new IdentityHashMap<>();
+    for (Map.Entry<EventSubscriber, LogHistogram> entry : subscriberLatencies.entrySet()) {
+      snapshots.put(entry.getKey(), entry.getValue().snapshot());
+    }
+    return snapshots;
+  }
+
+  private AtomicLongArray chunk(int index) {
+    AtomicLongArray chunk = chunks.get(index);
+    if (chunk != null) return chunk;
+
+    chunks.compareAndSet(index, null, new AtomicLongArray(CHUNK_SIZE * StripedCounter.STRIPES));
+    return chunks.get(index);
+  }
+
+  private void countUnnamed(String name) {
+    // The map doesn't take null keys
+    String key = String.valueOf(name);
+    AtomicLong count = unnamedCounts.get(key);
+    if (count == null) {
+      AtomicLong newCount = new AtomicLong();
+      count = unnamedCounts.putIfAbsent(key, newCount);
+      if (count == null) {
+        count = newCount;
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  /**
+   * A name can be counted in both ways when it is interned after it was tracked manually
+   */
+  private static void add(Map<String, Long> counts, String name, long count) {
+    Long existing = counts.get(name);
+    counts.put(name, existing != null ? existing + count : count);
+  }
+}
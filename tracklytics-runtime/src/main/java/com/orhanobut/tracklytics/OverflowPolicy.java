@@ -0,0 +1,22 @@
+package com.orhanobut.tracklytics;
+
+/**
+ * Decides what happens to an event when the asynchronous dispatch queue is full.
+ */
+public enum OverflowPolicy {
+
+  /**
+   * The tracking thread waits until there is space in the queue. No event is lost.
+   */
+  BLOCK,
+
+  /**
+   * The new event is dropped, the tracking thread is never blocked.
+   */
+  DROP_NEWEST,
+
+  /**
+   * The oldest queued event is dropped in favor of the new one, the tracking thread is never blocked.
+   */
+  DROP_OLDEST
+}
@@ -0,0 +1,395 @@
+package com.orhanobut.tracklytics;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable hash array mapped trie.
+ * <p>
+ * {@link #with(String, Object)} and {@link #without(String)} return a new map which shares all untouched nodes
+ * with the previous one, therefore a write costs O(log32 n) and any existing map can be handed out as a snapshot
+ * without copying it. Each write increases the {@link #version}.
+ */
+final class PersistentMap extends AbstractMap<String, Object> {
+
+  static final PersistentMap EMPTY = new PersistentMap(null, 0, 0);
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  /**
+   * Marks the key slot of a sub node in {@link BitmapNode#array}
+   */
+  private static final Object SUB_NODE = new Object();
+
+  private final Node root;
+  private final int size;
+
+  /**
+   * Number of writes which created this map, starting from {@link #EMPTY}
+   */
+  final long version;
+
+  private Set<Entry<String, Object>> entrySet;
+
+  private PersistentMap(Node root, int size, long version) {
+    this.root = root;
+    this.size = size;
+    this.version = version;
+  }
+
+  /**
+   * @return this map when the key is already associated with an equal value
+   */
+  PersistentMap with(String key, Object value) {
+    int hash = hash(key);
+    if (root == null) {
+      return new PersistentMap(BitmapNode.single(hash, key, value), 1, version + 1);
+    }
+    boolean[] added = new boolean[1];
+    Node newRoot = root.with(0, hash, key, value, added);
+    if (newRoot == root) return this;
+    return new PersistentMap(newRoot, added[0] ? size + 1 : size, version + 1);
+  }
+
+  /**
+   * @return this map when the key doesn't exist
+   */
+  PersistentMap without(String key) {
+    if (root == null) return this;
+
+    Node newRoot = root.without(0, hash(key), key);
+    if (newRoot == root) return this;
+    return new PersistentMap(newRoot, size - 1, version + 1);
+  }
+
+  @Override public Object get(Object key) {
+    if (root == null || !(key instanceof String || key == null)) return null;
+    return root.find(0, hash(key), key, null);
+  }
+
+  @Override public boolean containsKey(Object key) {
+    if (root == null || !(key instanceof String || key == null)) return false;
+    return root.find(0, hash(key), key, SUB_NODE) != SUB_NODE;
+  }
+
+  @Override public int size() {
+    return size;
+  }
+
+  @Override public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override public Set<Entry<String, Object>> entrySet() {
+    Set<Entry<String, Object>> result = entrySet;
+    if (result == null) {
+      result = new AbstractSet<Entry<String, Object>>() {
+        @Override public Iterator<Entry<String, Object>> iterator() {
+          return new EntryIterator(root);
+        }
+
+        @Override public int size() {
+          return size;
+        }
+      };
+      entrySet = result;
+    }
+    return result;
+  }
+
+  private static int hash(Object key) {
+    if (key == null) return 0;
+    int hash = key.hashCode();
+    // Spread the bits, String hashes of similar keys mostly differ in the lower bits only
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean equal(Object a, Object b) {
+    return a == b || (a != null && a.equals(b));
+  }
+
+  private abstract static class Node {
+
+    /**
+     * @return the value or notFound when the key doesn't exist
+     */
+    abstract Object find(int shift, int hash, Object key, Object notFound);
+
+    abstract Node with(int shift, int hash, String key, Object value, boolean[] added);
+
+    /**
+     * @return null when the node becomes empty
+     */
+    abstract Node without(int shift, int hash, Object key);
+
+    /**
+     * Number of key/value pairs and sub nodes which are kept in this node
+     */
+    abstract int slotCount();
+
+    /**
+     * @return the key, or {@link #SUB_NODE} when the slot holds a sub node
+     */
+    abstract Object keyAt(int slot);
+
+    abstract Object valueAt(int slot);
+  }
+
+  /**
+   * Keeps up to 32 slots, only the existing ones are stored and the bitmap tells which ones exist
+   */
+  private static final class BitmapNode extends Node {
+    final int bitmap;
+    final Object[] array;
+
+    BitmapNode(int bitmap, Object[] array) {
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    static BitmapNode single(int hash, String key, Object value) {
+      return new BitmapNode(1 << (hash & MASK), new Object[]{key, value});
+    }
+
+    private static int bit(int shift, int hash) {
+      return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override Object find(int shift, int hash, Object key, Object notFound) {
+      int bit = bit(shift, hash);
+      if ((bitmap & bit) == 0) return notFound;
+
+      int index = index(bit) << 1;
+      Object slotKey = array[index];
+      if (slotKey == SUB_NODE) {
+        return ((Node) array[index + 1]).find(shift + BITS, hash, key, notFound);
+      }
+      return equal(key, slotKey) ? array[index + 1] : notFound;
+    }
+
+    @Override Node with(int shift, int hash, String key, Object value, boolean[] added) {
+      int bit = bit(shift, hash);
+      int index = index(bit) << 1;
+
+      if ((bitmap & bit) == 0) {
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, index);
+        newArray[index] = key;
+        newArray[index + 1] = value;
+        System.arraycopy(array, index, newArray, index + 2, array.length - index);
+        added[0] = true;
+        return new BitmapNode(bitmap | bit, newArray);
+      }
+
+      Object slotKey = array[index];
+      Object slotValue = array[index + 1];
+      if (slotKey == SUB_NODE) {
+        Node subNode = (Node) slotValue;
+        Node newSubNode = subNode.with(shift + BITS, hash, key, value, added);
+        return newSubNode == subNode ? this : replace(index, SUB_NODE, newSubNode);
+      }
+      if (equal(key, slotKey)) {
+        return equal(value, slotValue) ? this : replace(index, slotKey, value);
+      }
+
+      added[0] = true;
+      Node subNode = merge(shift + BITS, hash(slotKey), (String) slotKey, slotValue, hash, key, value);
+      return replace(index, SUB_NODE, subNode);
+    }
+
+    private BitmapNode replace(int index, Object key, Object value) {
+      Object[] newArray = array.clone();
+      newArray[index] = key;
+      newArray[index + 1] = value;
+      return new BitmapNode(bitmap, newArray);
+    }
+
+    private static Node merge(int shift, int hash1, String key1, Object value1,
+                              int hash2, String key2, Object value2) {
+      if (hash1 == hash2) {
+        return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+      }
+      int position1 = (hash1 >>> shift) & MASK;
+      int position2 = (hash2 >>> shift) & MASK;
+      if (position1 == position2) {
+        Node subNode = merge(shift + BITS, hash1, key1, value1, hash2, key2, value2);
+        return new BitmapNode(1 << position1, new Object[]{SUB_NODE, subNode});
+      }
+      // Slots are ordered by their bit position
+      Object[] array = position1 < position2
+          ? new Object[]{key1, value1, key2, value2}
+          : new Object[]{key2, value2, key1, value1};
+      return new BitmapNode((1 << position1) | (1 << position2), array);
+    }
+
+    @Override Node without(int shift, int hash, Object key) {
+      int bit = bit(shift, hash);
+      if ((bitmap & bit) == 0) return this;
+
+      int index = index(bit) << 1;
+      Object slotKey = array[index];
+      if (slotKey == SUB_NODE) {
+        Node subNode = (Node) array[index + 1];
+        Node newSubNode = subNode.without(shift + BITS, hash, key);
+        if (newSubNode == subNode) return this;
+        if (newSubNode != null) return replace(index, SUB_NODE, newSubNode);
+      } else if (!equal(key, slotKey)) {
+        return this;
+      }
+
+      if (bitmap == bit) return null;
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, index);
+      System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+      return new BitmapNode(bitmap & ~bit, newArray);
+    }
+
+    @Override int slotCount() {
+      return array.length >> 1;
+    }
+
+    @Override Object keyAt(int slot) {
+      return array[slot << 1];
+    }
+
+    @Override Object valueAt(int slot) {
+      return array[(slot << 1) + 1];
+    }
+  }
+
+  /**
+   * Keeps the keys which have exactly the same hash
+   */
+  private static final class CollisionNode extends Node {
+    final int hash;
+    final Object[] array;
+
+    CollisionNode(int hash, Object[] array) {
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (equal(key, array[i])) return i;
+      }
+      return -1;
+    }
+
+    @Override Object find(int shift, int hash, Object key, Object notFound) {
+      int index = indexOf(key);
+      return index < 0 ? notFound : array[index + 1];
+    }
+
+    @Override Node with(int shift, int hash, String key, Object value, boolean[] added) {
+      if (hash != this.hash) {
+        // Different hash ends up in the same path, split into a bitmap node
+        BitmapNode node = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[]{SUB_NODE, this});
+        return node.with(shift, hash, key, value, added);
+      }
+      int index = indexOf(key);
+      if (index >= 0) {
+        if (equal(value, array[index + 1])) return this;
+        Object[] newArray = array.clone();
+        newArray[index + 1] = value;
+        return new CollisionNode(hash, newArray);
+      }
+      Object[] newArray = Arrays.copyOf(array, array.length + 2);
+      newArray[array.length] = key;
+      newArray[array.length + 1] = value;
+      added[0] = true;
+      return new CollisionNode(hash, newArray);
+    }
+
+    @Override Node without(int shift, int hash, Object key) {
+      int index = indexOf(key);
+      if (index < 0) return this;
+      if (array.length == 2) return null;
+
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, index);
+      System.arraycopy(array, index + 2, newArray, index, array.length - index - 2);
+      return new CollisionNode(hash, newArray);
+    }
+
+    @Override int slotCount() {
+      return array.length >> 1;
+    }
+
+    @Override Object keyAt(int slot) {
+      return array[slot << 1];
+    }
+
+    @Override Object valueAt(int slot) {
+      return array[(slot << 1) + 1];
+    }
+  }
+
+  /**
+   * Depth first traversal, the trie is at most 7 levels deep
+   */
+  private static final class EntryIterator implements Iterator<Entry<String, Object>> {
+    private final Node[] nodes = new Node[8];
+    private final int[] slots = new int[8];
+    private int depth = -1;
+    private Entry<String, Object> next;
+
+    EntryIterator(Node root) {
+      if (root != null) {
+        nodes[0] = root;
+        depth = 0;
+      }
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      while (depth >= 0) {
+        Node node = nodes[depth];
+        int slot = slots[depth];
+        if (slot >= node.slotCount()) {
+          slots[depth] = 0;
+          depth--;
+          continue;
+        }
+        slots[depth] = slot + 1;
+        Object key = node.keyAt(slot);
+        if (key == SUB_NODE) {
+          depth++;
+          nodes[depth] = (Node) node.valueAt(slot);
+          slots[depth] = 0;
+          continue;
+        }
+        next = new SimpleImmutableEntry<>((String) key, node.valueAt(slot));
+        return;
+      }
+    }
+
+    @Override public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override public Entry<String, Object> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Entry<String, Object> result = next;
+      advance();
+      return result;
+    }
+
+    @Override public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
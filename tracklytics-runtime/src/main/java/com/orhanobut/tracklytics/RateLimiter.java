@@ -0,0 +1,41 @@
+package com.orhanobut.tracklytics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free rate limiter based on the generic cell rate algorithm.
+ * <p>
+ * Only the theoretical arrival time of the next permit is kept, a permit is a single compare-and-set.
+ * Up to one second worth of permits can be taken at once after an idle period.
+ */
+final class RateLimiter {
+
+  private final long interval;
+  private final long tolerance;
+  private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+  /**
+   * @param permitsPerSecond must be positive
+   */
+  RateLimiter(int permitsPerSecond) {
+    if (permitsPerSecond <= 0) {
+      throw new IllegalArgumentException("Permits per second must be positive");
+    }
+    this.interval = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+    this.tolerance = interval * (permitsPerSecond - 1);
+  }
+
+  /**
+   * @param now {@link System#nanoTime()}
+   * @return false when the rate is exceeded
+   */
+  boolean tryAcquire(long now) {
+    while (true) {
+      long arrival = theoreticalArrival.get();
+      long start = arrival == Long.MIN_VALUE || arrival - now < 0 ? now : arrival;
+      if (start - now > tolerance) return false;
+      if (theoreticalArrival.compareAndSet(arrival, start + interval)) return true;
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package com.orhanobut.tracklytics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limits of the events by name, checked before any attribute of the event is collected. Rejected calls of
+ * tracked methods only update the super attributes.
+ * <p>
+ * The limit of an event is the one which is set at runtime when there is one, otherwise the one of its
+ * {@link TrackEvent}. Each event name has a single {@link Limit} which tracked methods keep a reference to, so
+ * the table is only looked up once per method. Rejected events are counted per name.
+ */
+final class RateLimits {
+
+  private static final ConcurrentHashMap<String, Limit> LIMITS = new ConcurrentHashMap<>();
+
+  private RateLimits() {
+    // no instance
+  }
+
+  /**
+   * @param annotatedPerSecond {@link TrackEvent#rateLimit()}, the first positive limit of an event name is used
+   */
+  static Limit of(String eventName, int annotatedPerSecond) {
+    Limit limit = LIMITS.get(eventName);
+    if (limit == null) {
+      limit = new Limit();
+      Limit existing = LIMITS.putIfAbsent(eventName, limit);
+      if (existing != null) limit = existing;
+    }
+    if (annotatedPerSecond > 0 && limit.annotated == null) {
+      limit.setAnnotated(annotatedPerSecond);
+    }
+    return limit;
+  }
+
+  /**
+   * @return null when the event name has no limit yet
+   */
+  static Limit find(String eventName) {
+    return LIMITS.get(eventName);
+  }
+
+  static void set(String eventName, int perSecond) {
+    of(eventName, 0).override = new RateLimiter(perSecond);
+  }
+
+  static void clear(String eventName) {
+    Limit limit = LIMITS.get(eventName);
+    if (limit != null) {
+      limit.override = null;
+    }
+  }
+
+  static long rejectedCount() {
+    long count = 0;
+    for (Limit limit : LIMITS.values()) {
+      count += limit.rejected.get();
+    }
+    return count;
+  }
+
+  static long rejectedCount(String eventName) {
+    Limit limit = LIMITS.get(eventName);
+    return limit != null ? limit.rejected.get() : 0;
+  }
+
+  static final class Limit {
+    final AtomicLong rejected = new AtomicLong();
+
+    volatile RateLimiter annotated;
+    volatile RateLimiter override;
+
+    /**
+     * @return false when the event exceeds the limit, it is counted as rejected then
+     */
+    boolean tryAcquire() {
+      RateLimiter limiter = override;
+      if (limiter == null) {
+        limiter = annotated;
+        if (limiter == null) return true;
+      }
+      if (limiter.tryAcquire(System.nanoTime())) return true;
+
+      rejected.incrementAndGet();
+      return false;
+    }
+
+    private synchronized void setAnnotated(int perSecond) {
+      if (annotated == null) {
+        annotated = new RateLimiter(perSecond);
+      }
+    }
+  }
+}
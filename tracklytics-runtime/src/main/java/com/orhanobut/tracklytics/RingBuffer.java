@@ -0,0 +1,127 @@
+package com.orhanobut.tracklytics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free multi-producer multi-consumer queue.
+ * <p>
+ * Each slot carries a sequence number which tells whether the slot is ready to be written or read,
+ * therefore producers and consumers only compete on a single compare-and-set and never allocate.
+ */
+final class RingBuffer<E> {
+
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+
+  /**
+   * Next position to read
+   */
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Next position to write
+   */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * @param capacity is rounded up to the next power of two
+   */
+  RingBuffer(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.mask = size - 1;
+    this.elements = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * @return false when the buffer is full
+   */
+  boolean offer(E element) {
+    if (element == null) {
+      throw new NullPointerException("element == null");
+    }
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.set(index, element);
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * @return null when the buffer is empty
+   */
+  E poll() {
+    long position = head.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.get(index) - (position + 1);
+      if (difference == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          E element = elements.get(index);
+          elements.lazySet(index, null);
+          sequences.set(index, position + mask + 1);
+          return element;
+        }
+        position = head.get();
+      } else if (difference < 0) {
+        return null;
+      } else {
+        position = head.get();
+      }
+    }
+  }
+
+  /**
+   * Approximate number of elements, exact only when there is no concurrent producer or consumer
+   */
+  int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, capacity()));
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Number of elements which are taken so far, the position of the next one
+   */
+  long readPosition() {
+    return head.get();
+  }
+
+  /**
+   * Number of elements which are offered so far, the position of the next one
+   */
+  long writePosition() {
+    return tail.get();
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+}
@@ -0,0 +1,99 @@
+package com.orhanobut.tracklytics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether a tracked call becomes an event, before any of its attributes are collected.
+ * <p>
+ * The rate of an event is the override for its name when there is one, otherwise the rate of its
+ * {@link TrackEvent}. Kept events weigh 1 / rate, so that counts can be scaled back up.
+ */
+final class Sampling {
+
+  private static final ConcurrentHashMap<String, Double> OVERRIDES = new ConcurrentHashMap<>();
+  private static final AtomicLong SEEDS = new AtomicLong(System.nanoTime());
+  private static final ThreadLocal<XorShift> RANDOM = new ThreadLocal<XorShift>() {
+    @Override protected XorShift initialValue() {
+      return new XorShift(SEEDS.addAndGet(0x9E3779B97F4A7C15L));
+    }
+  };
+
+  /**
+   * Avoids the map lookup for the common case that no rate is overridden
+   */
+  private static volatile boolean overridden;
+
+  private Sampling() {
+    // no instance
+  }
+
+  /**
+   * @return true when the call should be tracked
+   */
+  static boolean sample(String eventName, double annotatedRate) {
+    double rate = rate(eventName, annotatedRate);
+    if (rate >= 1) return true;
+    if (rate <= 0) return false;
+    return RANDOM.get().nextDouble() < rate;
+  }
+
+  /**
+   * @return 1 / rate of the event, 1 when the event is not sampled
+   */
+  static double weight(String eventName, double annotatedRate) {
+    double rate = rate(eventName, annotatedRate);
+    return rate > 0 && rate < 1 ? 1 / rate : 1;
+  }
+
+  static double rate(String eventName, double annotatedRate) {
+    if (overridden) {
+      Double rate = OVERRIDES.get(eventName);
+      if (rate != null) return rate;
+    }
+    return annotatedRate;
+  }
+
+  /**
+   * @param rate from 0 to 1
+   */
+  static void setRate(String eventName, double rate) {
+    if (!(rate >= 0 && rate <= 1)) {
+      throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+    }
+    OVERRIDES.put(eventName, rate);
+    overridden = true;
+  }
+
+  static void clearRate(String eventName) {
+    OVERRIDES.remove(eventName);
+  }
+
+  static void clearRates() {
+    OVERRIDES.clear();
+    overridden = false;
+  }
+
+  /**
+   * xorshift64*, one instance per thread
+   */
+  static final class XorShift {
+    private long state;
+
+    XorShift(long seed) {
+      this.state = seed != 0 ? seed : 1;
+    }
+
+    /**
+     * @return from 0 inclusive to 1 exclusive
+     */
+    double nextDouble() {
+      long x = state;
+      x ^= x >>> 12;
+      x ^= x << 25;
+      x ^= x >>> 27;
+      state = x;
+      return ((x * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package com.orhanobut.tracklytics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which spreads the updates of concurrent threads over padded cells, threads rarely compete on the same
+ * cache line. Reading the sum walks all cells. LongAdder is not available on older Android versions.
+ */
+final class StripedCounter {
+
+  static final int STRIPES = stripes();
+
+  /**
+   * Longs per cell, a cell covers a cache line
+   */
+  private static final int PADDING = 8;
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  void add(long value) {
+    cells.getAndAdd(stripe() * PADDING, value);
+  }
+
+  void increment() {
+    add(1);
+  }
+
+  long sum() {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  /**
+   * Stripe of the current thread, in [0, {@link #STRIPES})
+   */
+  static int stripe() {
+    long id = Thread.currentThread().getId();
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+  }
+
+  /**
+   * Next power of two of the processor count, at most 64
+   */
+  private static int stripes() {
+    int processors = Math.min(64, Math.max(1, Runtime.getRuntime().availableProcessors()));
+    return Integer.highestOneBit(processors * 2 - 1);
+  }
+}
@@ -0,0 +1,12 @@
+package com.orhanobut.tracklytics;
+
+/**
+ * Receives the tracked event itself instead of a pre-formatted log message,
+ * so the listener decides what to format and nothing is formatted when it is not needed.
+ * <p>
+ * When async logging is enabled, the listener is invoked on the logging thread.
+ */
+@SuppressWarnings("WeakerAccess")
+public interface StructuredEventLogListener {
+  void log(Event event);
+}
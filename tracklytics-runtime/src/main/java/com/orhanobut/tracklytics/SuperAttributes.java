@@ -0,0 +1,41 @@
+package com.orhanobut.tracklytics;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Thread safe holder of the super attributes.
+ * <p>
+ * The attributes are kept in a {@link PersistentMap}. Reading a snapshot is a single volatile read and never
+ * copies the attributes, writers replace the map with compare-and-set.
+ */
+final class SuperAttributes {
+
+  private final AtomicReference<PersistentMap> current = new AtomicReference<>(PersistentMap.EMPTY);
+
+  /**
+   * Immutable snapshot, later changes are not reflected to the returned map
+   */
+  PersistentMap snapshot() {
+    return current.get();
+  }
+
+  void put(String key, Object value) {
+    while (true) {
+      PersistentMap map = current.get();
+      PersistentMap newMap = map.with(key, value);
+      if (newMap == map || current.compareAndSet(map, newMap)) return;
+    }
+  }
+
+  void remove(String key) {
+    while (true) {
+      PersistentMap map = current.get();
+      PersistentMap newMap = map.without(key);
+      if (newMap == map || current.compareAndSet(map, newMap)) return;
+    }
+  }
+
+  long version() {
+    return current.get().version;
+  }
+}
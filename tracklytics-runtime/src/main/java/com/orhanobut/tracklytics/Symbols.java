@@ -0,0 +1,88 @@
+package com.orhanobut.tracklytics;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide table of event names and attribute keys, each one gets a dense int id starting from 0.
+ * <p>
+ * Names and keys of the tracked methods are interned when their annotations are resolved for the first time, see
+ * {@link Event#getNameId()} and {@link AttributeMap#keyIdAt(int)}. Only the declared ones are interned, so the table
+ * is bounded by the code. Names and keys which are given at runtime are looked up and get {@link #NONE} otherwise.
+ * Ids can be used to index arrays instead of hashing the strings. They are only valid within the process, don't
+ * persist them.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class Symbols {
+
+  /**
+   * Id of a string which is not interned
+   */
+  public static final int NONE = -1;
+
+  private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+  private static final Object LOCK = new Object();
+
+  /**
+   * Written under the lock before the id is published through {@link #IDS}
+   */
+  private static volatile String[] names = new String[64];
+  private static int size;
+
+  private Symbols() {
+    // no instance
+  }
+
+  /**
+   * @return the id of the string, {@link #NONE} when it is not interned
+   */
+  public static int id(String value) {
+    if (value == null) return NONE;
+
+    Integer id = IDS.get(value);
+    return id != null ? id : NONE;
+  }
+
+  /**
+   * @return the string of the id, null when there is no such id
+   */
+  public static String name(int id) {
+    String[] names = Symbols.names;
+    return id >= 0 && id < names.length ? names[id] : null;
+  }
+
+  /**
+   * Number of interned strings, ids are less than this
+   */
+  public static int size() {
+    synchronized (LOCK) {
+      return size;
+    }
+  }
+
+  /**
+   * Only for the names and keys which are declared by the annotations, never for the ones given at runtime
+   *
+   * @return the id of the string, a new one when it is not interned yet. {@link #NONE} for null.
+   */
+  static int intern(String value) {
+    if (value == null) return NONE;
+
+    Integer id = IDS.get(value);
+    if (id != null) return id;
+
+    synchronized (LOCK) {
+      id = IDS.get(value);
+      if (id != null) return id;
+
+      String[] current = names;
+      if (size == current.length) {
+        current = Arrays.copyOf(current, size * 2);
+      }
+      current[size] = value;
+      names = current;
+      IDS.put(value, size);
+      return size++;
+    }
+  }
+}
@@ -10,7 +10,32 @@ import java.lang.annotation.RetentionPolicy;
 public @interface TrackEvent {
   String value();
 
+  /**
+   * The events of a tracked method share one array instead of a copy each, the array must not be modified
+   */
   int[] filters() default {};
 
+  /**
+   * The events of a tracked method share one array instead of a copy each, the array must not be modified
+   */
   String[] tags() default {};
+
+  /**
+   * Share of the calls which are tracked, from 0 to 1. The decision is made as soon as the method returns, calls
+   * which are not sampled only add the attributes marked with isSuper as super attributes and collect nothing else.
+   * Tracked events carry the weight 1 / sampleRate, see {@link Event#getSamplingWeight()}.
+   * <p>
+   * Can be overridden at runtime by {@link Tracklytics#setSampleRate(String, double)}.
+   */
+  double sampleRate() default 1;
+
+  /**
+   * Maximum number of events with this name per second, 0 for no limit. Calls over the limit are rejected before
+   * any attribute is collected and counted, see {@link Tracklytics#getRateLimitedEventCount()}. Only the
+   * attributes marked with isSuper are still added as super attributes. The limit is shared by all methods which
+   * track the same event name.
+   * <p>
+   * Can be overridden at runtime by {@link Tracklytics#setRateLimit(String, int)}.
+   */
+  int rateLimit() default 0;
 }
\ No newline at end of file
@@ -0,0 +1,332 @@
+package com.orhanobut.tracklytics;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable, precompiled form of a method annotated with {@link TrackEvent}.
+ * <p>
+ * Annotations are resolved only once, when the method is tracked for the first time.
+ * Subsequent invocations run the precompiled extractors against the return value and the arguments.
+ */
+final class TrackingPlan {
+
+  private static final ConcurrentHashMap<Method, TrackingPlan> PLANS = new ConcurrentHashMap<>();
+
+  private static final Extractor[] NO_EXTRACTORS = new Extractor[0];
+
+  /**
+   * Source of a super attribute which is taken from the return value rather than an argument
+   */
+  private static final int RETURN_VALUE = -1;
+
+  /**
+   * The annotation resolved into a value, the members are not read through the proxy for each call
+   */
+  final TrackingStubs.TrackEventValue trackEvent;
+
+  /**
+   * {@link TrackEvent#value()} and {@link TrackEvent#sampleRate()}, read once since annotation members are
+   * proxy calls
+   */
+  final String eventName;
+  final double sampleRate;
+
+  /**
+   * {@link Symbols} id of the event name
+   */
+  final int nameId;
+
+  /**
+   * Limit of the event name, the table is not looked up for each call
+   */
+  final RateLimits.Limit rateLimit;
+
+  /**
+   * True when the method is annotated with {@link TrackableAttribute} and the declaring class is {@link Trackable}
+   */
+  final boolean trackableThis;
+
+  /**
+   * Number of attributes which the method and its declaring class add, trackable attributes are not known
+   * upfront. The attributes map of each call is sized from it.
+   */
+  final int attributeCount;
+
+  private final Extractor[] methodExtractors;
+  private final Extractor[] parameterExtractors;
+
+  /**
+   * Extractors marked with isSuper in the order of a tracked call, with the argument index they read or
+   * RETURN_VALUE
+   */
+  private final KeyedExtractor[] superExtractors;
+  private final int[] superSources;
+
+  private TrackingPlan(TrackEvent trackEvent, boolean trackableThis, int attributeCount,
+                       Extractor[] methodExtractors, Extractor[] parameterExtractors) {
+    this.eventName = trackEvent.value();
+    this.sampleRate = trackEvent.sampleRate();
+    this.trackEvent = new TrackingStubs.TrackEventValue(eventName, trackEvent.filters(), trackEvent.tags(),
+        sampleRate, trackEvent.rateLimit());
+    this.nameId = this.trackEvent.nameId;
+    this.rateLimit = RateLimits.of(eventName, trackEvent.rateLimit());
+    this.trackableThis = trackableThis;
+    this.attributeCount = attributeCount;
+    this.methodExtractors = methodExtractors;
+    this.parameterExtractors = parameterExtractors;
+
+    List<KeyedExtractor> superExtractors = new ArrayList<>();
+    List<Integer> superSources = new ArrayList<>();
+    for (Extractor extractor : methodExtractors) {
+      if (extractor instanceof KeyedExtractor && ((KeyedExtractor) extractor).isSuper) {
+        superExtractors.add((KeyedExtractor) extractor);
+        superSources.add(RETURN_VALUE);
+      }
+    }
+    for (int i = 0; i < parameterExtractors.length; i++) {
+      Extractor extractor = parameterExtractors[i];
+      if (extractor instanceof KeyedExtractor && ((KeyedExtractor) extractor).isSuper) {
+        superExtractors.add((KeyedExtractor) extractor);
+        superSources.add(i);
+      }
+    }
+    this.superExtractors = superExtractors.toArray(new KeyedExtractor[superExtractors.size()]);
+    this.superSources = new int[superSources.size()];
+    for (int i = 0; i < this.superSources.length; i++) {
+      this.superSources[i] = superSources.get(i);
+    }
+  }
+
+  static TrackingPlan of(Method method) {
+    TrackingPlan plan = PLANS.get(method);
+    if (plan != null) return plan;
+
+    plan = compile(method);
+    TrackingPlan existing = PLANS.putIfAbsent(method, plan);
+    return existing != null ? existing : plan;
+  }
+
+  /**
+   * Adds the attributes which are provided by the method itself: return value and method scope fixed attributes
+   */
+  void addMethodAttributes(Object returnValue, Map<String, Object> attributes, AspectListener listener) {
+    for (Extractor extractor : methodExtractors) {
+      extractor.extract(returnValue, attributes, listener);
+    }
+  }
+
+  void addParameterAttributes(Object[] args, Map<String, Object> attributes, AspectListener listener) {
+    if (args == null) return;
+
+    for (int i = 0, size = parameterExtractors.length; i < size; i++) {
+      Extractor extractor = parameterExtractors[i];
+      if (extractor == null) continue;
+      extractor.extract(args[i], attributes, listener);
+    }
+  }
+
+  /**
+   * True when a parameter has an attribute marked with isSuper, only then the arguments are read for a call
+   * which is not tracked
+   */
+  boolean hasSuperParameters() {
+    return superSources.length != 0 && superSources[superSources.length - 1] != RETURN_VALUE;
+  }
+
+  /**
+   * Adds the attributes marked with isSuper of a call which is not tracked, the super attributes are updated
+   * anyway. Nothing else is collected.
+   *
+   * @param args null when there are no super parameters
+   */
+  void addSuperAttributes(Object returnValue, Object[] args, AspectListener listener) {
+    if (listener == null) return;
+
+    for (int i = 0, size = superExtractors.length; i < size; i++) {
+      int source = superSources[i];
+      if (source != RETURN_VALUE && args == null) continue;
+
+      KeyedExtractor extractor = superExtractors[i];
+      Object value = source == RETURN_VALUE ? returnValue : args[source];
+      listener.onAspectSuperAttributeAdded(extractor.key, extractor.resolve(value));
+    }
+  }
+
+  private static TrackingPlan compile(Method method) {
+    TrackEvent trackEvent = method.getAnnotation(TrackEvent.class);
+    boolean trackableThis = method.isAnnotationPresent(TrackableAttribute.class)
+        && Trackable.class.isAssignableFrom(method.getDeclaringClass());
+
+    Annotation[] annotations = method.getDeclaredAnnotations();
+    TransformTable transformTable = compileTransformTable(annotations);
+
+    List<Extractor> methodExtractors = new ArrayList<>();
+    for (Annotation annotation : annotations) {
+      if (annotation instanceof Attribute) {
+        Attribute attribute = (Attribute) annotation;
+        methodExtractors.add(new ValueExtractor(attribute.value(), attribute.defaultValue(), attribute.isSuper()));
+      }
+      if (annotation instanceof FixedAttribute) {
+        methodExtractors.add(new FixedExtractor((FixedAttribute) annotation));
+      }
+      if (annotation instanceof FixedAttributes) {
+        for (FixedAttribute attribute : ((FixedAttributes) annotation).value()) {
+          methodExtractors.add(new FixedExtractor(attribute));
+        }
+      }
+      if (annotation instanceof TransformAttribute) {
+        methodExtractors.add(new TransformExtractor((TransformAttribute) annotation, transformTable));
+      }
+    }
+
+    int attributeCount = methodExtractors.size()
+        + ClassAttributes.of(method.getDeclaringClass(), method.getDeclaringClass()).attributes.size();
+    Annotation[][] parameterAnnotations = method.getParameterAnnotations();
+    Extractor[] parameterExtractors = new Extractor[parameterAnnotations.length];
+    for (int i = 0, size = parameterAnnotations.length; i < size; i++) {
+      if (parameterAnnotations[i].length == 0) {
+        continue;
+      }
+      Annotation annotation = parameterAnnotations[i][0];
+      if (annotation instanceof Attribute) {
+        Attribute attribute = (Attribute) annotation;
+        parameterExtractors[i] = new ValueExtractor(attribute.value(), attribute.defaultValue(), attribute.isSuper());
+      }
+      if (annotation instanceof TrackableAttribute) {
+        parameterExtractors[i] = new TrackableExtractor();
+      }
+      if (annotation instanceof TransformAttribute) {
+        parameterExtractors[i] = new TransformExtractor((TransformAttribute) annotation, transformTable);
+      }
+      if (parameterExtractors[i] instanceof KeyedExtractor) {
+        attributeCount++;
+      }
+    }
+
+    return new TrackingPlan(
+        trackEvent,
+        trackableThis,
+        attributeCount,
+        methodExtractors.isEmpty() ? NO_EXTRACTORS : methodExtractors.toArray(new Extractor[methodExtractors.size()]),
+        parameterExtractors
+    );
+  }
+
+  private static TransformTable compileTransformTable(Annotation[] annotations) {
+    for (Annotation annotation : annotations) {
+      if (annotation instanceof TransformAttributeMap) {
+        TransformAttributeMap transformAttributeMap = (TransformAttributeMap) annotation;
+        return TransformTable.compile(transformAttributeMap.keys(), transformAttributeMap.values());
+      }
+    }
+    return TransformTable.EMPTY;
+  }
+
+  /**
+   * {@link TrackableAttribute} on parameter
+   *
+   * @throws ClassCastException when the value is not {@link Trackable}
+   */
+  static void addTrackableAttributes(Object value, Map<String, Object> attributes) {
+    if (!(value instanceof Trackable)) {
+      throw new ClassCastException("Trackable interface must be implemented for the parameter type");
+    }
+    Map<String, Object> trackableValues = ((Trackable) value).getTrackableAttributes();
+    if (trackableValues != null) {
+      attributes.putAll(trackableValues);
+    }
+  }
+
+  private static String emptyToNull(String value) {
+    return value.length() != 0 ? value : null;
+  }
+
+  private abstract static class Extractor {
+    abstract void extract(Object value, Map<String, Object> attributes, AspectListener listener);
+  }
+
+  private abstract static class KeyedExtractor extends Extractor {
+    private final String key;
+    private final int keyId;
+    private final boolean isSuper;
+
+    KeyedExtractor(String key, boolean isSuper) {
+      this.key = key;
+      this.keyId = Symbols.intern(key);
+      this.isSuper = isSuper;
+    }
+
+    abstract Object resolve(Object value);
+
+    @Override final void extract(Object value, Map<String, Object> attributes, AspectListener listener) {
+      Object result = resolve(value);
+      if (attributes instanceof AttributeMap) {
+        ((AttributeMap) attributes).put(keyId, key, result);
+      } else {
+        attributes.put(key, result);
+      }
+      if (isSuper && listener != null) {
+        listener.onAspectSuperAttributeAdded(key, result);
+      }
+    }
+  }
+
+  /**
+   * {@link Attribute} on method or parameter: uses the value itself or the default value when it is null
+   */
+  private static final class ValueExtractor extends KeyedExtractor {
+    private final String defaultValue;
+
+    ValueExtractor(String key, String defaultValue, boolean isSuper) {
+      super(key, isSuper);
+      this.defaultValue = emptyToNull(defaultValue);
+    }
+
+    @Override Object resolve(Object value) {
+      return value != null ? value : defaultValue;
+    }
+  }
+
+  private static final class TransformExtractor extends KeyedExtractor {
+    private final String defaultValue;
+    private final TransformTable transformTable;
+
+    TransformExtractor(TransformAttribute attribute, TransformTable transformTable) {
+      super(attribute.value(), attribute.isSuper());
+      this.defaultValue = emptyToNull(attribute.defaultValue());
+      this.transformTable = transformTable;
+    }
+
+    @Override Object resolve(Object value) {
+      return value != null ? transformTable.get(value) : defaultValue;
+    }
+  }
+
+  /**
+   * {@link FixedAttribute} on method, ignores the given value
+   */
+  private static final class FixedExtractor extends KeyedExtractor {
+    private final String value;
+
+    FixedExtractor(FixedAttribute attribute) {
+      super(attribute.key(), attribute.isSuper());
+      this.value = attribute.value();
+    }
+
+    @Override Object resolve(Object ignored) {
+      return value;
+    }
+  }
+
+  private static final class TrackableExtractor extends Extractor {
+
+    @Override void extract(Object value, Map<String, Object> attributes, AspectListener listener) {
+      addTrackableAttributes(value, attributes);
+    }
+  }
+}
@@ -0,0 +1,248 @@
+package com.orhanobut.tracklytics;
+
+import java.lang.annotation.Annotation;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Entry points of the tracking stubs which are generated by tracklytics-compiler, not meant to be used directly.
+ * <p>
+ * Generated stubs bind the arguments and the return value of a tracked method directly and have the keys,
+ * fixed attributes and transform tables compiled in. They rely on the same class attribute and event handling as
+ * {@link TracklyticsAspect}, so both produce the same events.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class TrackingStubs {
+
+  private TrackingStubs() {
+    // no instance
+  }
+
+  /**
+   * Creates the {@link TrackEvent} of a tracked method once, stubs keep it as a constant. The arrays are not
+   * copied, they are handed to every event of the method and must not be modified afterwards.
+   */
+  public static TrackEvent trackEvent(String value, int[] filters, String[] tags) {
+    return new TrackEventValue(value, filters, tags, 1, 0);
+  }
+
+  /**
+   * Same as {@link #trackEvent(String, int[], String[])} for an event with {@link TrackEvent#sampleRate()}
+   */
+  public static TrackEvent trackEvent(String value, int[] filters, String[] tags, double sampleRate) {
+    return new TrackEventValue(value, filters, tags, sampleRate, 0);
+  }
+
+  /**
+   * Same as {@link #trackEvent(String, int[], String[])} for an event with {@link TrackEvent#sampleRate()} and
+   * {@link TrackEvent#rateLimit()}
+   */
+  public static TrackEvent trackEvent(String value, int[] filters, String[] tags, double sampleRate,
+                                      int rateLimit) {
+    return new TrackEventValue(value, filters, tags, sampleRate, rateLimit);
+  }
+
+  /**
+   * Interns the attribute keys of the stub once it is loaded, they get {@link Symbols} ids as the keys of
+   * {@link TracklyticsAspect} do. Keys which are only known at runtime are never interned.
+   */
+  public static void internKeys(String... keys) {
+    for (String key : keys) {
+      Symbols.intern(key);
+    }
+  }
+
+  /**
+   * Invoked first by the stub of a tracked method. When the call is not sampled or exceeds the rate limit, only
+   * the super attributes are updated.
+   */
+  public static boolean shouldTrack(TrackEvent trackEvent) {
+    if (!Sampling.sample(trackEvent.value(), trackEvent.sampleRate())) return false;
+
+    RateLimits.Limit rateLimit = trackEvent instanceof TrackEventValue
+        ? ((TrackEventValue) trackEvent).limit()
+        : RateLimits.of(trackEvent.value(), trackEvent.rateLimit());
+    return rateLimit.tryAcquire();
+  }
+
+  /**
+   * Container for the attributes of the tracked call, it is pooled along with the event when pooling is enabled
+   *
+   * @param capacity number of attributes which the stub puts
+   */
+  public static AttributeMap newAttributes(int capacity) {
+    return TracklyticsAspect.newAttributes(TracklyticsAspect.aspectListener(), capacity);
+  }
+
+  /**
+   * @param target        the tracked instance, null for static methods
+   * @param trackableThis true when the method is annotated with {@link TrackableAttribute} and the declaring class
+   *                      is {@link Trackable}
+   */
+  public static void addClassAttributes(Map<String, Object> attributes, Class<?> declaringClass, Object target,
+                                        boolean trackableThis) {
+    TracklyticsAspect.addClassAttributes(attributes, declaringClass, target, trackableThis,
+        TracklyticsAspect.aspectListener());
+  }
+
+  /**
+   * Re-adds the class scope super attributes for a call which is not sampled or exceeds the rate limit
+   *
+   * @param target the tracked instance, null for static methods
+   */
+  public static void addClassSuperAttributes(Class<?> declaringClass, Object target) {
+    AspectListener listener = TracklyticsAspect.aspectListener();
+    if (listener == null) return;
+
+    TracklyticsAspect.addClassSuperAttributes(declaringClass, target, listener);
+  }
+
+  /**
+   * @throws ClassCastException when the value is not {@link Trackable}
+   */
+  public static void addTrackableAttributes(Map<String, Object> attributes, Object value) {
+    TrackingPlan.addTrackableAttributes(value, attributes);
+  }
+
+  /**
+   * Puts the attribute which is marked with isSuper, it becomes a super attribute as well
+   */
+  public static void putSuperAttribute(Map<String, Object> attributes, String key, Object value) {
+    attributes.put(key, value);
+    addSuperAttribute(key, value);
+  }
+
+  public static void addSuperAttribute(String key, Object value) {
+    AspectListener listener = TracklyticsAspect.aspectListener();
+    if (listener == null) return;
+
+    listener.onAspectSuperAttributeAdded(key, value);
+  }
+
+  public static void removeSuperAttribute(String key) {
+    AspectListener listener = TracklyticsAspect.aspectListener();
+    if (listener == null) return;
+
+    listener.onAspectSuperAttributeRemoved(key);
+  }
+
+  /**
+   * Invoked by the stub once the tracked method returns
+   *
+   * @return start of the advice for {@link #trackEvent(TrackEvent, Map, long)}, 0 when metrics are not enabled
+   */
+  public static long startAdvice() {
+    return TracklyticsAspect.metrics() != null ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Same as {@link #trackEvent(TrackEvent, Map)}, records the advice time since {@link #startAdvice()}
+   */
+  public static void trackEvent(TrackEvent trackEvent, Map<String, Object> attributes, long start) {
+    trackEvent(trackEvent, attributes);
+    if (start == 0) return;
+
+    MetricsCollector metrics = TracklyticsAspect.metrics();
+    if (metrics != null) {
+      metrics.adviceTime.record(System.nanoTime() - start);
+    }
+  }
+
+  public static void trackEvent(TrackEvent trackEvent, Map<String, Object> attributes) {
+    AspectListener listener = TracklyticsAspect.aspectListener();
+    if (listener == null) return;
+
+    int nameId = trackEvent instanceof TrackEventValue
+        ? ((TrackEventValue) trackEvent).nameId
+        : Symbols.intern(trackEvent.value());
+    listener.onAspectEventTriggered(trackEvent, nameId, attributes);
+  }
+
+  /**
+   * {@link TrackEvent} which is created without reflection. Members are field reads, unlike the annotation proxy
+   * which clones the arrays on each call.
+   */
+  static final class TrackEventValue implements TrackEvent {
+    private final String value;
+    private final int[] filters;
+    private final String[] tags;
+    private final double sampleRate;
+    private final int rateLimit;
+    final int nameId;
+    private volatile RateLimits.Limit resolvedLimit;
+
+    TrackEventValue(String value, int[] filters, String[] tags, double sampleRate, int rateLimit) {
+      this.value = value;
+      this.filters = filters;
+      this.tags = tags;
+      this.sampleRate = sampleRate;
+      this.rateLimit = rateLimit;
+      this.nameId = Symbols.intern(value);
+    }
+
+    /**
+     * Resolved on first use, the stub keeps this instance as a constant
+     */
+    RateLimits.Limit limit() {
+      RateLimits.Limit result = resolvedLimit;
+      if (result == null) {
+        result = RateLimits.of(value, rateLimit);
+        resolvedLimit = result;
+      }
+      return result;
+    }
+
+    @Override public String value() {
+      return value;
+    }
+
+    @Override public int[] filters() {
+      return filters;
+    }
+
+    @Override public String[] tags() {
+      return tags;
+    }
+
+    @Override public double sampleRate() {
+      return sampleRate;
+    }
+
+    @Override public int rateLimit() {
+      return rateLimit;
+    }
+
+    @Override public Class<? extends Annotation> annotationType() {
+      return TrackEvent.class;
+    }
+
+    @Override public boolean equals(Object other) {
+      if (this == other) return true;
+      if (!(other instanceof TrackEvent)) return false;
+
+      TrackEvent trackEvent = (TrackEvent) other;
+      return value.equals(trackEvent.value())
+          && Arrays.equals(filters, trackEvent.filters())
+          && Arrays.equals(tags, trackEvent.tags())
+          && Double.doubleToLongBits(sampleRate) == Double.doubleToLongBits(trackEvent.sampleRate())
+          && rateLimit == trackEvent.rateLimit();
+    }
+
+    /**
+     * As defined by {@link Annotation#hashCode()}
+     */
+    @Override public int hashCode() {
+      return (127 * "value".hashCode() ^ value.hashCode())
+          + (127 * "filters".hashCode() ^ Arrays.hashCode(filters))
+          + (127 * "tags".hashCode() ^ Arrays.hashCode(tags))
+          + (127 * "sampleRate".hashCode() ^ Double.valueOf(sampleRate).hashCode())
+          + (127 * "rateLimit".hashCode() ^ rateLimit);
+    }
+
+    @Override public String toString() {
+      return "@" + TrackEvent.class.getName() + "(value=" + value + ", filters=" + Arrays.toString(filters)
+          + ", tags=" + Arrays.toString(tags) + ", sampleRate=" + sampleRate
+          + ", rateLimit=" + rateLimit + ")";
+    }
+  }
+}
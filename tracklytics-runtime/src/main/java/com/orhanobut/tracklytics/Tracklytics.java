@@ -1,56 +1,216 @@
 package com.orhanobut.tracklytics;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Annotation based tracking event handler.
  */
 public class Tracklytics implements AspectListener {
 
-  private final Map<String, Object> superAttributes = new HashMap<>();
+  private static final int DEFAULT_SUBSCRIBER_CAPACITY = 1024;
+
+  private final SuperAttributes superAttributes = new SuperAttributes();
   private final EventSubscriber eventSubscriber;
+  private final EventJournal journal;
+  private final AsyncEventDispatcher.CompletionListener completionListener =
+      new AsyncEventDispatcher.CompletionListener() {
+        @Override public void onEventCompleted(Event event) {
+          complete(event);
+        }
+      };
 
-  private EventLogListener logger;
+  private volatile EventLogListener logger;
+  private volatile StructuredEventLogListener structuredLogger;
+  private volatile AsyncEventLogger asyncLogger;
+  private volatile AsyncEventDispatcher asyncDispatcher;
+  private volatile EventBatcher[] batchers = new EventBatcher[0];
+  private volatile EventCoalescer coalescer;
+  private volatile EventPool pool;
+  private volatile MetricsCollector metrics;
+  private volatile SubscriberChannel[] subscriberChannels = new SubscriberChannel[0];
+  private final EventRouting routing = new EventRouting();
+  private int subscriberChannelCount;
+  private ScheduledExecutorService scheduler;
 
-  private Tracklytics(EventSubscriber eventSubscriber) {
+  private Tracklytics(EventSubscriber eventSubscriber, EventJournal journal) {
     this.eventSubscriber = eventSubscriber;
+    this.journal = journal;
   }
 
   public static Tracklytics init(EventSubscriber eventSubscriber) {
-    Tracklytics tracklytics = new Tracklytics(eventSubscriber);
+    return init(eventSubscriber, null);
+  }
+
+  /**
+   * Writes every tracked event to the given journal before it is delivered, events are acknowledged once
+   * all subscribers have received them.
+   * <p>
+   * Events which were written but not acknowledged before the process died are kept until
+   * {@link #replayPendingEvents()} is called.
+   */
+  public static Tracklytics init(EventSubscriber eventSubscriber, EventJournal journal) {
+    Tracklytics tracklytics = new Tracklytics(eventSubscriber, journal);
     TracklyticsAspect.subscribe(tracklytics);
     return tracklytics;
   }
 
+  /**
+   * Delivers the events which were written to the journal but not acknowledged before the process died, once.
+   * Call it after the subscribers are added and the dispatch is configured, the events take the same way as the
+   * tracked ones and only reach the subscribers which exist at this point.
+   */
+  public void replayPendingEvents() {
+    if (journal == null) return;
+    for (Event event : journal.takePendingEvents()) {
+      dispatch(event);
+    }
+  }
+
+  /**
+   * Tracked unless the event name is sampled or rate limited, see {@link #setSampleRate(String, double)} and
+   * {@link #setRateLimit(String, int)}
+   */
   public void trackEvent(String eventName) {
-    trackEvent(new Event(eventName, null, null, null, superAttributes));
+    trackEvent(eventName, null);
   }
 
+  /**
+   * Tracked unless the event name is sampled or rate limited, see {@link #setSampleRate(String, double)} and
+   * {@link #setRateLimit(String, int)}
+   */
   public void trackEvent(String eventName, Map<String, Object> attributes) {
-    trackEvent(new Event(eventName, null, null, attributes, superAttributes));
+    if (!Sampling.sample(eventName, 1)) return;
+    RateLimits.Limit rateLimit = RateLimits.find(eventName);
+    if (rateLimit != null && !rateLimit.tryAcquire()) return;
+
+    Event event = newEvent(eventName, null, null, attributes);
+    event.nameId = Symbols.id(eventName);
+    event.samplingWeight = Sampling.weight(eventName, 1);
+    trackEvent(event);
+  }
+
+  private Event newEvent(String eventName, int[] filters, String[] tags, Map<String, Object> attributes) {
+    EventPool pool = this.pool;
+    if (pool == null) return new Event(eventName, filters, tags, attributes, superAttributes.snapshot());
+
+    Event event = pool.acquire();
+    event.fill(eventName, filters, tags, attributes, superAttributes.snapshot());
+    return event;
   }
 
   // TODO: For now keep it private
   private void trackEvent(Event event) {
-    eventSubscriber.onEventTracked(event);
+    MetricsCollector metrics = this.metrics;
+    if (metrics != null) {
+      metrics.countEvent(event);
+    }
+    EventCoalescer coalescer = this.coalescer;
+    if (coalescer != null) {
+      coalescer.add(event);
+      return;
+    }
+    record(event);
+  }
+
+  private void record(Event event) {
+    if (journal != null) {
+      journal.append(event);
+    }
+    dispatch(event);
+  }
+
+  private void dispatch(Event event) {
+    SubscriberChannel[] channels = subscriberChannels;
+    long[] route = channels.length != 0 ? route(event) : EventRouting.NONE;
+    if (event.journalSequence >= 0) {
+      int deliveries = 1;
+      for (SubscriberChannel channel : channels) {
+        if (channel.accepts(route)) deliveries++;
+      }
+      event.pendingDeliveries = deliveries;
+    }
+    // Each subscriber holds the event until it is completed, the tracking thread holds it for the main delivery
+    for (SubscriberChannel channel : channels) {
+      if (channel.accepts(route)) {
+        channel.dispatcher.dispatch(event.retain());
+      }
+    }
+
+    AsyncEventDispatcher dispatcher = asyncDispatcher;
+    if (dispatcher != null) {
+      dispatcher.dispatch(event);
+      return;
+    }
+    try {
+      deliver(event);
+    } finally {
+      complete(event);
+    }
+  }
+
+  /**
+   * Events of the aspect are routed once per {@link TrackEvent}, the others whenever they are dispatched
+   */
+  private long[] route(Event event) {
+    long[] route = event.route;
+    return route != null ? route : routing.compile(event.eventFilters, event.eventTags);
+  }
+
+  /**
+   * Invoked once a subscriber has received the event or the event is dropped for it
+   */
+  private void complete(Event event) {
+    long journalSequence = event.journalSequence;
+    if (journalSequence >= 0 && Event.PENDING_DELIVERIES.decrementAndGet(event) == 0) {
+      journal.acknowledge(journalSequence);
+    }
+    event.release();
+  }
+
+  private void deliver(Event event) {
+    MetricsCollector metrics = this.metrics;
+    if (metrics == null) {
+      eventSubscriber.onEventTracked(event);
+    } else {
+      long start = System.nanoTime();
+      try {
+        eventSubscriber.onEventTracked(event);
+      } finally {
+        metrics.subscriberLatency.record(System.nanoTime() - start);
+      }
+    }
+    for (EventBatcher batcher : batchers) {
+      batcher.add(event);
+    }
     log(event);
   }
 
   private void log(Event event) {
-    if (logger == null) return;
+    if (logger == null && structuredLogger == null) return;
 
-    @SuppressWarnings("StringBufferReplaceableByString")
-    StringBuilder builder = new StringBuilder()
-        .append(event.name)
-        .append("-> ")
-        .append(event.attributes.toString())
-        .append(", super attrs: ")
-        .append(superAttributes.toString())
-        .append(", filters: ")
-        .append(Arrays.toString(event.filters));
-    logger.log(builder.toString());
+    AsyncEventLogger async = asyncLogger;
+    if (async != null) {
+      async.log(event);
+      return;
+    }
+    writeLog(event, new StringBuilder());
+  }
+
+  private void writeLog(Event event, StringBuilder builder) {
+    StructuredEventLogListener structuredLogger = this.structuredLogger;
+    if (structuredLogger != null) {
+      structuredLogger.log(event);
+    }
+    EventLogListener logger = this.logger;
+    if (logger != null) {
+      EventFormatter.format(event, builder);
+      logger.log(builder.toString());
+    }
   }
 
   public void setEventLogListener(EventLogListener logger) {
@@ -58,7 +218,453 @@ public class Tracklytics implements AspectListener {
   }
 
   /**
-   * Allows you to add super attribute without requiring to use annotation
+   * Receives the tracked events for logging without formatting them, can be used along with
+   * {@link #setEventLogListener(EventLogListener)}
+   */
+  public void setStructuredEventLogListener(StructuredEventLogListener logger) {
+    this.structuredLogger = logger;
+  }
+
+  /**
+   * Logs the events on a dedicated thread, the tracking thread doesn't pay for formatting anymore.
+   * Events are not logged when the queue is full or more than maxLinesPerSecond events are logged,
+   * see {@link #getDroppedLogCount()}.
+   *
+   * @param capacity          maximum number of events which wait to be logged
+   * @param maxLinesPerSecond 0 for no limit
+   */
+  public synchronized void enableAsyncLogging(int capacity, int maxLinesPerSecond) {
+    if (asyncLogger != null) {
+      throw new IllegalStateException("Async logging is already enabled");
+    }
+    asyncLogger = new AsyncEventLogger(new AsyncEventLogger.Writer() {
+      @Override public void write(Event event, StringBuilder builder) {
+        writeLog(event, builder);
+      }
+    }, capacity, maxLinesPerSecond);
+  }
+
+  /**
+   * Number of events which are not logged by the async logging, because of its capacity or rate limit
+   */
+  public long getDroppedLogCount() {
+    AsyncEventLogger async = asyncLogger;
+    return async != null ? async.droppedCount() : 0;
+  }
+
+  /**
+   * Delivers the events on dedicated background threads instead of the thread which tracks the event.
+   * The tracking thread only pays for putting the event into a bounded queue.
+   * <p>
+   * When there is more than one consumer thread, events may be delivered out of order and the subscriber
+   * must be thread safe.
+   *
+   * @param capacity        maximum number of queued events, rounded up to the next power of two
+   * @param overflowPolicy  what to do when the queue is full
+   * @param consumerThreads number of threads which deliver the events to the subscriber
+   */
+  public synchronized void enableAsyncDispatch(int capacity, OverflowPolicy overflowPolicy, int consumerThreads) {
+    if (asyncDispatcher != null) {
+      throw new IllegalStateException("Async dispatch is already enabled");
+    }
+    asyncDispatcher = new AsyncEventDispatcher(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        deliver(event);
+      }
+    }, capacity, overflowPolicy, consumerThreads, "Tracklytics-dispatch", completionListener);
+  }
+
+  /**
+   * Collapses identical events which are tracked within the given window into one event, which carries the
+   * number of occurrences, see {@link Event#getOccurrenceCount()}. Events are identical when they have the same
+   * name, filters, tags, attributes and super attributes.
+   * <p>
+   * The first event is held back until the window is over, it is neither journaled nor delivered before.
+   * When more than capacity events are held back, new events are delivered without coalescing.
+   *
+   * @param capacity maximum number of events which are held back at the same time
+   */
+  public synchronized void enableCoalescing(long window, TimeUnit unit, int capacity) {
+    if (coalescer != null) {
+      throw new IllegalStateException("Coalescing is already enabled");
+    }
+    coalescer = new EventCoalescer(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        record(event);
+      }
+    }, window, unit, capacity, scheduler());
+  }
+
+  /**
+   * Reuses the {@link Event} instances and their attribute containers, so that tracking doesn't produce garbage
+   * once the pool is warmed up. Events of the annotated methods and {@link #trackEvent(String, Map)} are pooled.
+   * <p>
+   * An event returns to the pool once all subscribers, loggers and batch subscribers are done with it.
+   * Subscribers which keep an event or read it on another thread after their call returns must
+   * {@link Event#retain()} it within the call and {@link Event#release()} it afterwards. The public fields of
+   * pooled events are null, subscribers read them with the getters such as {@link Event#getName()}.
+   * Should be enabled before events are tracked.
+   *
+   * @param capacity maximum number of idle events which are kept, rounded up to the next power of two
+   * @param debug    released events are not reused but fail on each later use with IllegalStateException,
+   *                 for finding subscribers which keep events without retaining them
+   */
+  public synchronized void enableEventPooling(int capacity, boolean debug) {
+    if (pool != null) {
+      throw new IllegalStateException("Event pooling is already enabled");
+    }
+    pool = new EventPool(capacity, debug);
+  }
+
+  /**
+   * Starts collecting the metrics which are returned by {@link #getMetrics()}: counts of the tracked events by
+   * name, the time the advice adds to tracked methods and the time spent in the subscribers.
+   * Recording takes a few atomic increments without locking or allocation, so it can stay enabled in release
+   * builds.
+   */
+  public synchronized void enableMetrics() {
+    if (metrics != null) {
+      throw new IllegalStateException("Metrics are already enabled");
+    }
+    MetricsCollector metrics = new MetricsCollector(eventSubscriber);
+    for (SubscriberChannel channel : subscriberChannels) {
+      channel.dispatcher.setLatency(metrics.subscriberLatency(channel.dispatcher.subscriber()));
+    }
+    this.metrics = metrics;
+    TracklyticsAspect.setMetrics(metrics);
+  }
+
+  /**
+   * Snapshot of the metrics since {@link #enableMetrics()}
+   *
+   * @throws IllegalStateException when metrics are not enabled
+   */
+  public TracklyticsMetrics getMetrics() {
+    MetricsCollector metrics = this.metrics;
+    if (metrics == null) {
+      throw new IllegalStateException("Metrics are not enabled");
+    }
+    int queueDepth = 0;
+    AsyncEventDispatcher dispatcher = asyncDispatcher;
+    if (dispatcher != null) {
+      queueDepth += dispatcher.queueSize();
+    }
+    for (SubscriberChannel channel : subscriberChannels) {
+      queueDepth += channel.dispatcher.queueSize();
+    }
+    AsyncEventLogger async = asyncLogger;
+    return new TracklyticsMetrics(
+        metrics.eventCounts(),
+        metrics.adviceTime.snapshot(),
+        metrics.subscriberLatencies(),
+        superAttributes.snapshot().size(),
+        getDroppedEventCount(),
+        getFailedEventCount(),
+        getDroppedLogCount(),
+        getRateLimitedEventCount(),
+        queueDepth,
+        async != null ? async.queueSize() : 0
+    );
+  }
+
+  /**
+   * Adds another subscriber next to the one given to {@link #init(EventSubscriber)}.
+   * <p>
+   * Each added subscriber has its own queue and delivery thread. A slow subscriber doesn't delay the others and
+   * anything thrown by a subscriber, errors included, doesn't affect the others. All subscribers receive the same
+   * {@link Event} instance, therefore subscribers must not modify it.
+   *
+   * @param capacity       maximum number of queued events for this subscriber
+   * @param overflowPolicy what to do when the queue of this subscriber is full
+   */
+  public void addEventSubscriber(EventSubscriber subscriber, int capacity, OverflowPolicy overflowPolicy) {
+    addEventSubscriber(subscriber, capacity, overflowPolicy, null, null);
+  }
+
+  /**
+   * Same as {@link #addEventSubscriber(EventSubscriber, int, OverflowPolicy)}, but the subscriber only receives
+   * the events which have at least one of the given filters or tags. It is not invoked for the other events.
+   *
+   * @param filters {@link TrackEvent#filters()} to receive, null for none
+   * @param tags    {@link TrackEvent#tags()} to receive, null for none. The subscriber receives all events when
+   *                both are null.
+   */
+  public synchronized void addEventSubscriber(EventSubscriber subscriber, int capacity,
+                                              OverflowPolicy overflowPolicy, int[] filters, String[] tags) {
+    long[] interest = filters == null && tags == null ? null : routing.compile(filters, tags);
+    AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(
+        subscriber, capacity, overflowPolicy, 1, "Tracklytics-subscriber-" + subscriberChannelCount++,
+        completionListener
+    );
+    if (metrics != null) {
+      dispatcher.setLatency(metrics.subscriberLatency(subscriber));
+    }
+    SubscriberChannel[] channels = Arrays.copyOf(subscriberChannels, subscriberChannels.length + 1);
+    channels[subscriberChannels.length] = new SubscriberChannel(dispatcher, interest);
+    subscriberChannels = channels;
+  }
+
+  /**
+   * Same as {@link #addEventSubscriber(EventSubscriber, int, OverflowPolicy)} with a queue of 1024 events
+   * which drops the oldest event when it is full
+   */
+  public void addEventSubscriber(EventSubscriber subscriber) {
+    addEventSubscriber(subscriber, DEFAULT_SUBSCRIBER_CAPACITY, OverflowPolicy.DROP_OLDEST);
+  }
+
+  /**
+   * Same as {@link #addEventSubscriber(EventSubscriber, int, OverflowPolicy, int[], String[])} with a queue of
+   * 1024 events which drops the oldest event when it is full
+   */
+  public void addEventSubscriber(EventSubscriber subscriber, int[] filters, String[] tags) {
+    addEventSubscriber(subscriber, DEFAULT_SUBSCRIBER_CAPACITY, OverflowPolicy.DROP_OLDEST, filters, tags);
+  }
+
+  /**
+   * Removes a subscriber which is added by {@link #addEventSubscriber(EventSubscriber)}.
+   * Already queued events are still delivered to it.
+   */
+  public void removeEventSubscriber(EventSubscriber subscriber) {
+    AsyncEventDispatcher removed = null;
+    synchronized (this) {
+      SubscriberChannel[] channels = subscriberChannels;
+      for (int i = 0; i < channels.length; i++) {
+        if (channels[i].dispatcher.subscriber() != subscriber) continue;
+
+        removed = channels[i].dispatcher;
+        SubscriberChannel[] newChannels = new SubscriberChannel[channels.length - 1];
+        System.arraycopy(channels, 0, newChannels, 0, i);
+        System.arraycopy(channels, i + 1, newChannels, i, channels.length - i - 1);
+        subscriberChannels = newChannels;
+        break;
+      }
+    }
+    if (removed == null) return;
+    try {
+      // Doesn't wait, the delivery thread stops on its own once the queue is drained
+      removed.shutdown(0, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Receives the events in batches. A batch is delivered when one of the following happens:
+   * <ul>
+   *   <li>It contains maxEvents events</li>
+   *   <li>The estimated size of its events reaches maxBytes</li>
+   *   <li>Its oldest event waits longer than maxLatency</li>
+   *   <li>{@link #flush()} is called</li>
+   * </ul>
+   */
+  public synchronized void addBatchEventSubscriber(BatchEventSubscriber subscriber, int maxEvents, long maxBytes,
+                                                   long maxLatency, TimeUnit unit) {
+    EventBatcher batcher = new EventBatcher(subscriber, maxEvents, maxBytes, maxLatency, unit, scheduler());
+    EventBatcher[] newBatchers = Arrays.copyOf(batchers, batchers.length + 1);
+    newBatchers[batchers.length] = batcher;
+    batchers = newBatchers;
+  }
+
+  private ScheduledExecutorService scheduler() {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "Tracklytics-scheduler");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return scheduler;
+  }
+
+  /**
+   * Blocks until all events which are tracked before this call are delivered and logged,
+   * including the events which are held back by coalescing and the pending batches of the batch subscribers.
+   */
+  public void flush() {
+    flush(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Same as {@link #flush()} but waits at most the given time for the async dispatch
+   *
+   * @return false when the timeout elapsed before all events are delivered
+   */
+  public boolean flush(long timeout, TimeUnit unit) {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    EventCoalescer coalescer = this.coalescer;
+    if (coalescer != null) {
+      coalescer.flush();
+    }
+    try {
+      AsyncEventDispatcher dispatcher = asyncDispatcher;
+      if (dispatcher != null && !dispatcher.flush(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+      for (SubscriberChannel channel : subscriberChannels) {
+        if (!channel.dispatcher.flush(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) return false;
+      }
+      AsyncEventLogger async = asyncLogger;
+      if (async != null && !async.flush(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    for (EventBatcher batcher : batchers) {
+      batcher.flush();
+    }
+    return true;
+  }
+
+  /**
+   * Delivers the queued events and stops all background work: the async dispatch threads, the async logging
+   * thread, the coalescing timer and the batch timers.
+   * Batch subscribers receive their last batch and are removed.
+   * Events which are tracked afterwards are delivered on the tracking thread again.
+   *
+   * @return false when the timeout elapsed before all queued events are delivered
+   */
+  public boolean shutdown(long timeout, TimeUnit unit) {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    // Held back events go through the dispatcher, therefore coalescing stops first
+    EventCoalescer oldCoalescer;
+    synchronized (this) {
+      oldCoalescer = coalescer;
+      coalescer = null;
+    }
+    if (oldCoalescer != null) {
+      oldCoalescer.close();
+    }
+
+    AsyncEventDispatcher dispatcher;
+    SubscriberChannel[] channels;
+    synchronized (this) {
+      dispatcher = asyncDispatcher;
+      asyncDispatcher = null;
+      channels = subscriberChannels;
+      subscriberChannels = new SubscriberChannel[0];
+    }
+    boolean terminated = true;
+    try {
+      for (SubscriberChannel channel : channels) {
+        terminated &= channel.dispatcher.shutdown(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+      if (dispatcher != null) {
+        terminated &= dispatcher.shutdown(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+      // Logging stops after the dispatcher, so that the drained events are logged as well
+      AsyncEventLogger async;
+      synchronized (this) {
+        async = asyncLogger;
+        asyncLogger = null;
+      }
+      if (async != null) {
+        terminated &= async.shutdown(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      terminated = false;
+    }
+
+    // Batchers are closed after the dispatcher, so that they receive the drained events as well
+    EventBatcher[] oldBatchers;
+    ScheduledExecutorService oldScheduler;
+    synchronized (this) {
+      oldBatchers = batchers;
+      batchers = new EventBatcher[0];
+      oldScheduler = scheduler;
+      scheduler = null;
+    }
+    for (EventBatcher batcher : oldBatchers) {
+      batcher.close();
+    }
+    if (oldScheduler != null) {
+      oldScheduler.shutdown();
+    }
+    return terminated;
+  }
+
+  /**
+   * Number of events which are dropped by the async dispatch and the subscriber queues
+   * because of the overflow policy
+   */
+  public long getDroppedEventCount() {
+    AsyncEventDispatcher dispatcher = asyncDispatcher;
+    long dropped = dispatcher != null ? dispatcher.droppedCount() : 0;
+    for (SubscriberChannel channel : subscriberChannels) {
+      dropped += channel.dispatcher.droppedCount();
+    }
+    return dropped;
+  }
+
+  /**
+   * Number of events for which a subscriber threw an exception or an error on the async dispatch or subscriber
+   * threads. It is swallowed there, so that the other events are still delivered.
+   */
+  public long getFailedEventCount() {
+    AsyncEventDispatcher dispatcher = asyncDispatcher;
+    long failed = dispatcher != null ? dispatcher.failedCount() : 0;
+    for (SubscriberChannel channel : subscriberChannels) {
+      failed += channel.dispatcher.failedCount();
+    }
+    return failed;
+  }
+
+  /**
+   * Tracks only the given share of the events with this name, overrides {@link TrackEvent#sampleRate()}.
+   * Applies to all events with this name, including the ones which are tracked by {@link #trackEvent(String)}.
+   *
+   * @param rate from 0 to 1, 0 drops all events with this name
+   */
+  public void setSampleRate(String eventName, double rate) {
+    Sampling.setRate(eventName, rate);
+  }
+
+  /**
+   * Uses the sample rate of the {@link TrackEvent} again
+   */
+  public void clearSampleRate(String eventName) {
+    Sampling.clearRate(eventName);
+  }
+
+  /**
+   * Tracks at most the given number of events with this name per second, overrides
+   * {@link TrackEvent#rateLimit()}. Applies to all events with this name, including the ones which are tracked by
+   * {@link #trackEvent(String)}. Up to one second worth of events can be tracked at once after a quiet period.
+   *
+   * @param eventsPerSecond must be positive
+   */
+  public void setRateLimit(String eventName, int eventsPerSecond) {
+    RateLimits.set(eventName, eventsPerSecond);
+  }
+
+  /**
+   * Uses the rate limit of the {@link TrackEvent} again
+   */
+  public void clearRateLimit(String eventName) {
+    RateLimits.clear(eventName);
+  }
+
+  /**
+   * Number of events which are rejected because of the rate limits so far
+   */
+  public long getRateLimitedEventCount() {
+    return RateLimits.rejectedCount();
+  }
+
+  /**
+   * Number of events with this name which are rejected because of the rate limit so far
+   */
+  public long getRateLimitedEventCount(String eventName) {
+    return RateLimits.rejectedCount(eventName);
+  }
+
+  /**
+   * Allows you to add super attribute without requiring to use annotation.
+   * Events which are already tracked keep the super attributes they are created with.
    */
   public void addSuperAttribute(String key, Object value) {
     this.superAttributes.put(key, value);
@@ -71,8 +677,34 @@ public class Tracklytics implements AspectListener {
     this.superAttributes.remove(key);
   }
 
-  @Override public void onAspectEventTriggered(TrackEvent trackEvent, Map<String, Object> attributes) {
-    trackEvent(new Event(trackEvent, attributes, superAttributes));
+  /**
+   * Takes an event from the pool along with its attributes container when pooling is enabled
+   */
+  @Override public AttributeMap newAttributes(int capacity) {
+    EventPool pool = this.pool;
+    if (pool == null) return new AttributeMap(capacity);
+
+    AttributeMap attributes = pool.acquire().pooledAttributes;
+    attributes.ensureCapacity(capacity);
+    return attributes;
+  }
+
+  /**
+   * The call is already sampled by the aspect
+   */
+  @Override public void onAspectEventTriggered(TrackEvent trackEvent, int nameId, Map<String, Object> attributes) {
+    // Attributes of a pooled event are filled by the aspect, see newAttributes()
+    Event event = attributes instanceof AttributeMap ? ((AttributeMap) attributes).owner : null;
+    if (event != null) {
+      event.fill(trackEvent.value(), trackEvent.filters(), trackEvent.tags(), attributes,
+          superAttributes.snapshot());
+    } else {
+      event = new Event(trackEvent, attributes, superAttributes.snapshot());
+    }
+    event.nameId = nameId;
+    event.route = routing.route(trackEvent);
+    event.samplingWeight = Sampling.weight(event.eventName, trackEvent.sampleRate());
+    trackEvent(event);
   }
 
   @Override public void onAspectSuperAttributeAdded(String key, Object value) {
@@ -82,4 +714,25 @@ public class Tracklytics implements AspectListener {
   @Override public void onAspectSuperAttributeRemoved(String key) {
     removeSuperAttribute(key);
   }
-}
\ No newline at end of file
+
+  /**
+   * Subscriber which is added by {@link #addEventSubscriber(EventSubscriber)} along with the events it receives
+   */
+  private static final class SubscriberChannel {
+    final AsyncEventDispatcher dispatcher;
+
+    /**
+     * Null for all events
+     */
+    final long[] interest;
+
+    SubscriberChannel(AsyncEventDispatcher dispatcher, long[] interest) {
+      this.dispatcher = dispatcher;
+      this.interest = interest;
+    }
+
+    boolean accepts(long[] route) {
+      return interest == null || EventRouting.intersects(interest, route);
+    }
+  }
+}
@@ -9,7 +9,6 @@ import org.aspectj.lang.reflect.MethodSignature;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
-import java.util.HashMap;
 import java.util.Map;
 
 @Aspect
@@ -17,11 +16,23 @@ import java.util.Map;
 public class TracklyticsAspect {
 
   private static AspectListener aspectListener;
+  private static volatile MetricsCollector metrics;
 
   static void subscribe(AspectListener listener) {
     TracklyticsAspect.aspectListener = listener;
   }
 
+  /**
+   * Records the time of each advice when set, null to stop
+   */
+  static void setMetrics(MetricsCollector metrics) {
+    TracklyticsAspect.metrics = metrics;
+  }
+
+  static MetricsCollector metrics() {
+    return metrics;
+  }
+
   @Pointcut("execution(@com.orhanobut.tracklytics.TrackSuperAttribute * *(..))")
   public void methodAnnotatedWithSuperAttribute() {
     // No implementation is needed
@@ -96,193 +107,102 @@ public class TracklyticsAspect {
   public Object weaveJoinPointTrackEvent(ProceedingJoinPoint joinPoint) throws Throwable {
     Object result = joinPoint.proceed();
 
-    // Local attributes
-    final Map<String, Object> attributes = new HashMap<>();
-
-    Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
-
-    addClassAttributes(method, joinPoint, attributes);
-
-    // TODO: This creation is most of the time redundant. Find a way to avoid redundant map creation
-    Map<Integer, String> transformMap = new HashMap<>();
-    addMethodAttributes(method, result, attributes, transformMap);
-    addMethodParameterAttributes(method, joinPoint, attributes, transformMap);
-
-    // send the results
-    TrackEvent trackEvent = method.getAnnotation(TrackEvent.class);
-
-    pushEvent(trackEvent, attributes);
-    return result;
-  }
-
-  private void addClassAttributes(Method method, JoinPoint joinPoint, Map<String, Object> attributes) {
-    Class<?> declaringClass = method.getDeclaringClass();
-
-    if (method.isAnnotationPresent(TrackableAttribute.class) && Trackable.class.isAssignableFrom(declaringClass)) {
-      Trackable trackable = (Trackable) joinPoint.getThis();
-      if (trackable.getTrackableAttributes() != null) {
-        attributes.putAll(trackable.getTrackableAttributes());
-      }
+    // The tracked method itself is not part of the advice time
+    MetricsCollector metrics = TracklyticsAspect.metrics;
+    if (metrics == null) {
+      track(joinPoint, result);
+      return result;
     }
-
-    while (declaringClass != null) {
-      addFixedAttribute(declaringClass.getAnnotation(FixedAttribute.class), attributes);
-      addFixedAttributes(declaringClass.getAnnotation(FixedAttributes.class), attributes);
-      declaringClass = declaringClass.getEnclosingClass();
+    long start = System.nanoTime();
+    if (track(joinPoint, result)) {
+      metrics.adviceTime.record(System.nanoTime() - start);
     }
-
-    declaringClass = joinPoint.getThis().getClass();
-    addFixedAttribute(declaringClass.getAnnotation(FixedAttribute.class), attributes);
-    addFixedAttributes(declaringClass.getAnnotation(FixedAttributes.class), attributes);
+    return result;
   }
 
-  private void addMethodAttributes(Method method, Object returnValue, Map<String, Object> attributes,
-                                   Map<Integer, String> transformMap) {
-    Annotation[] annotations = method.getDeclaredAnnotations();
-    for (Annotation annotation : annotations) {
-      if (annotation instanceof Attribute) {
-        addAttribute((Attribute) annotation, returnValue, attributes);
-      }
-      if (annotation instanceof FixedAttribute) {
-        addFixedAttribute((FixedAttribute) annotation, attributes);
-      }
-      if (annotation instanceof FixedAttributes) {
-        addFixedAttributes((FixedAttributes) annotation, attributes);
-      }
-      if (annotation instanceof TransformAttributeMap) {
-        TransformAttributeMap transformAttributeMap = (TransformAttributeMap) annotation;
-        int[] keys = transformAttributeMap.keys();
-        String[] values = transformAttributeMap.values();
-        if (keys.length != values.length) {
-          throw new IllegalStateException("TransformAttributeMap keys and values must have same length");
-        }
-        for (int i = 0; i < keys.length; i++) {
-          transformMap.put(keys[i], values[i]);
-        }
-      }
-      if (annotation instanceof TransformAttribute) {
-        addTransformAttribute((TransformAttribute) annotation, returnValue, transformMap, attributes);
-      }
+  /**
+   * @return false when the call is not sampled or exceeds the rate limit
+   */
+  private boolean track(ProceedingJoinPoint joinPoint, Object result) {
+    Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+    TrackingPlan plan = TrackingPlan.of(method);
+    if (!Sampling.sample(plan.eventName, plan.sampleRate) || !plan.rateLimit.tryAcquire()) {
+      addSuperAttributes(plan, method, joinPoint, result);
+      return false;
     }
-  }
 
-  private void addMethodParameterAttributes(Method method, JoinPoint joinPoint, Map<String, Object> attributes,
-                                            Map<Integer, String> transformMap) {
-    Object[] fields = joinPoint.getArgs();
-    Annotation[][] annotations = method.getParameterAnnotations();
-    checkParameters(annotations, fields, transformMap, attributes);
-  }
-
-  private void addAttribute(Attribute attribute, Object methodResult, Map<String, Object> attributes) {
-    if (attribute == null) return;
-
-    Object value = null;
-    if (methodResult != null) {
-      value = methodResult;
-    } else if (attribute.defaultValue().length() != 0) {
-      value = attribute.defaultValue();
-    }
-    attributes.put(attribute.value(), value);
-    if (attribute.isSuper()) {
-      addSuperAttribute(attribute.value(), value);
-    }
-  }
+    // Local attributes
+    final Map<String, Object> attributes = newAttributes(aspectListener, plan.attributeCount);
 
-  private void addTransformAttribute(TransformAttribute attribute, Object result, Map<Integer, String> transformMap,
-                                     Map<String, Object> attributes) {
-    if (attribute == null) return;
+    addClassAttributes(plan, method, joinPoint, attributes);
+    plan.addMethodAttributes(result, attributes, aspectListener);
+    plan.addParameterAttributes(joinPoint.getArgs(), attributes, aspectListener);
 
-    Object value = null;
-    if (result != null) {
-      value = transformMap.get(result);
-    } else if (attribute.defaultValue().length() != 0) {
-      value = attribute.defaultValue();
-    }
-    attributes.put(attribute.value(), value);
-    if (attribute.isSuper()) {
-      addSuperAttribute(attribute.value(), value);
-    }
+    // send the results
+    pushEvent(plan.trackEvent, plan.nameId, attributes);
+    return true;
   }
 
-  private void addFixedAttributes(FixedAttributes fixedAttributes, Map<String, Object> attributes) {
-    if (fixedAttributes == null) return;
+  /**
+   * Calls which are not tracked still update the super attributes, in the same order as a tracked call.
+   * The arguments are only copied when a parameter is a super attribute.
+   */
+  private void addSuperAttributes(TrackingPlan plan, Method method, JoinPoint joinPoint, Object result) {
+    if (aspectListener == null) return;
 
-    FixedAttribute[] attributeList = fixedAttributes.value();
-    for (FixedAttribute attribute : attributeList) {
-      attributes.put(attribute.key(), attribute.value());
-      if (attribute.isSuper()) {
-        addSuperAttribute(attribute.key(), attribute.value());
+    addClassSuperAttributes(method.getDeclaringClass(), joinPoint.getThis(), aspectListener);
+    plan.addSuperAttributes(result, plan.hasSuperParameters() ? joinPoint.getArgs() : null, aspectListener);
+  }
+
+  /**
+   * Re-adds the class scope fixed attributes marked with isSuper, for calls which are not tracked
+   *
+   * @param target null for static methods
+   */
+  static void addClassSuperAttributes(Class<?> declaringClass, Object target, AspectListener listener) {
+    Class<?> runtimeClass = target != null ? target.getClass() : declaringClass;
+    ClassAttributes.of(declaringClass, runtimeClass).applySuperAttributes(listener);
+  }
+
+  private void addClassAttributes(TrackingPlan plan, Method method, JoinPoint joinPoint,
+                                  Map<String, Object> attributes) {
+    addClassAttributes(attributes, method.getDeclaringClass(), joinPoint.getThis(), plan.trackableThis,
+        aspectListener);
+  }
+
+  /**
+   * Adds the attributes of the tracked instance itself and the class scope fixed attributes
+   *
+   * @param target        null for static methods
+   * @param trackableThis true when the method is annotated with {@link TrackableAttribute} and the declaring class
+   *                      is {@link Trackable}
+   */
+  static void addClassAttributes(Map<String, Object> attributes, Class<?> declaringClass, Object target,
+                                 boolean trackableThis, AspectListener listener) {
+    if (trackableThis) {
+      Trackable trackable = (Trackable) target;
+      Map<String, Object> trackableValues = trackable.getTrackableAttributes();
+      if (trackableValues != null) {
+        attributes.putAll(trackableValues);
       }
     }
-  }
 
-  private void addFixedAttribute(FixedAttribute attribute, Map<String, Object> attributes) {
-    if (attribute == null) return;
-    attributes.put(attribute.key(), attribute.value());
-    if (attribute.isSuper()) {
-      addSuperAttribute(attribute.key(), attribute.value());
-    }
+    Class<?> runtimeClass = target != null ? target.getClass() : declaringClass;
+    ClassAttributes.of(declaringClass, runtimeClass).apply(attributes, listener);
   }
 
-  private void checkParameters(Annotation[][] keys, Object[] values, Map<Integer, String> transformAttributeMap,
-                               Map<String, Object> attributes) {
-    if (keys == null || values == null) {
-      return;
-    }
-    for (int i = 0, size = keys.length; i < size; i++) {
-      if (keys[i].length == 0) {
-        continue;
-      }
-      Object value = values[i];
-      Annotation annotation = keys[i][0];
-      if (annotation instanceof Attribute) {
-        Attribute attribute = (Attribute) annotation;
-        Object result = null;
-        if (value != null) {
-          result = value;
-        } else if (attribute.defaultValue().length() != 0) {
-          result = attribute.defaultValue();
-        }
-        attributes.put(attribute.value(), result);
-        if (attribute.isSuper()) {
-          addSuperAttribute(attribute.value(), result);
-        }
-      }
-      if (annotation instanceof TrackableAttribute) {
-        if (value instanceof Trackable) {
-          Trackable trackable = (Trackable) value;
-          Map<String, Object> trackableValues = trackable.getTrackableAttributes();
-          if (trackableValues != null) {
-            attributes.putAll(trackable.getTrackableAttributes());
-          }
-        } else {
-          throw new ClassCastException("Trackable interface must be implemented for the parameter type");
-        }
-      }
-      if (annotation instanceof TransformAttribute) {
-        if (transformAttributeMap == null) {
-          throw new IllegalStateException("Method must have TransformAttributeMap when TransformAttribute is used");
-        }
-        TransformAttribute transformAttribute = (TransformAttribute) annotation;
-        Object result = null;
-        if (value != null) {
-          result = transformAttributeMap.get(value);
-        } else if (transformAttribute.defaultValue().length() != 0) {
-          result = transformAttribute.defaultValue();
-        }
+  static AspectListener aspectListener() {
+    return aspectListener;
+  }
 
-        attributes.put(transformAttribute.value(), result);
-        if (transformAttribute.isSuper()) {
-          addSuperAttribute(transformAttribute.value(), result);
-        }
-      }
-    }
+  static AttributeMap newAttributes(AspectListener listener, int capacity) {
+    return listener != null ? listener.newAttributes(capacity) : new AttributeMap(capacity);
   }
 
-  private void pushEvent(TrackEvent trackEvent, Map<String, Object> attributes) {
+  private void pushEvent(TrackEvent trackEvent, int nameId, Map<String, Object> attributes) {
     if (aspectListener == null) return;
 
-    aspectListener.onAspectEventTriggered(trackEvent, attributes);
+    aspectListener.onAspectEventTriggered(trackEvent, nameId, attributes);
   }
 
   private void addSuperAttribute(String key, Object value) {
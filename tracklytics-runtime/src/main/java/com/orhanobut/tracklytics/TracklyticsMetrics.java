@@ -0,0 +1,215 @@
+package com.orhanobut.tracklytics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Snapshot of the tracking overhead and throughput, see {@link Tracklytics#getMetrics()}.
+ * Counters and histograms are cumulative since {@link Tracklytics#enableMetrics()}.
+ */
+public final class TracklyticsMetrics {
+
+  private final Map<String, Long> eventCounts;
+  private final Histogram adviceTime;
+  private final Map<EventSubscriber, Histogram> subscriberLatencies;
+  private final Histogram subscriberLatency;
+  private final int superAttributeCount;
+  private final long droppedEventCount;
+  private final long failedEventCount;
+  private final long droppedLogCount;
+  private final long rateLimitedEventCount;
+  private final int queueDepth;
+  private final int logQueueDepth;
+
+  TracklyticsMetrics(Map<String, Long> eventCounts, Histogram adviceTime,
+                     Map<EventSubscriber, Histogram> subscriberLatencies,
+                     int superAttributeCount, long droppedEventCount, long failedEventCount, long droppedLogCount,
+                     long rateLimitedEventCount, int queueDepth, int logQueueDepth) {
+    this.eventCounts = Collections.unmodifiableMap(eventCounts);
+    this.adviceTime = adviceTime;
+    this.subscriberLatencies = Collections.unmodifiableMap(subscriberLatencies);
+    this.subscriberLatency = Histogram.sum(subscriberLatencies.values());
+    this.superAttributeCount = superAttributeCount;
+    this.droppedEventCount = droppedEventCount;
+    this.failedEventCount = failedEventCount;
+    this.droppedLogCount = droppedLogCount;
+    this.rateLimitedEventCount = rateLimitedEventCount;
+    this.queueDepth = queueDepth;
+    this.logQueueDepth = logQueueDepth;
+  }
+
+  /**
+   * Number of tracked events by name, sampled and rate limited calls are not counted
+   */
+  public Map<String, Long> getEventCounts() {
+    return eventCounts;
+  }
+
+  /**
+   * Time the woven advice of {@link TrackEvent} methods adds to each tracked call, without the method itself,
+   * in nanoseconds. Calls which are not sampled or exceed the rate limit are not recorded, they only pay for the
+   * check.
+   */
+  public Histogram getAdviceTime() {
+    return adviceTime;
+  }
+
+  /**
+   * Time spent in {@link EventSubscriber#onEventTracked(Event)} of all subscribers, in nanoseconds
+   */
+  public Histogram getSubscriberLatency() {
+    return subscriberLatency;
+  }
+
+  /**
+   * Time spent in {@link EventSubscriber#onEventTracked(Event)} of the given subscriber, in nanoseconds
+   *
+   * @return null for a subscriber which was never added
+   */
+  public Histogram getSubscriberLatency(EventSubscriber subscriber) {
+    return subscriberLatencies.get(subscriber);
+  }
+
+  public int getSuperAttributeCount() {
+    return superAttributeCount;
+  }
+
+  /**
+   * See {@link Tracklytics#getDroppedEventCount()}
+   */
+  public long getDroppedEventCount() {
+    return droppedEventCount;
+  }
+
+  /**
+   * See {@link Tracklytics#getFailedEventCount()}
+   */
+  public long getFailedEventCount() {
+    return failedEventCount;
+  }
+
+  /**
+   * See {@link Tracklytics#getDroppedLogCount()}
+   */
+  public long getDroppedLogCount() {
+    return droppedLogCount;
+  }
+
+  /**
+   * See {@link Tracklytics#getRateLimitedEventCount()}
+   */
+  public long getRateLimitedEventCount() {
+    return rateLimitedEventCount;
+  }
+
+  /**
+   * Number of events waiting in the async dispatch and subscriber queues
+   */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * Number of events waiting to be logged by the async logging
+   */
+  public int getLogQueueDepth() {
+    return logQueueDepth;
+  }
+
+  @Override public String toString() {
+    return "events=" + eventCounts
+        + ", adviceTime=" + adviceTime
+        + ", subscriberLatency=" + subscriberLatency
+        + ", superAttributes=" + superAttributeCount
+        + ", droppedEvents=" + droppedEventCount
+        + ", failedEvents=" + failedEventCount
+        + ", droppedLogs=" + droppedLogCount
+        + ", rateLimited=" + rateLimitedEventCount
+        + ", queueDepth=" + queueDepth
+        + ", logQueueDepth=" + logQueueDepth;
+  }
+
+  /**
+   * Distribution of recorded values. Values are kept in buckets, percentiles and the maximum are reported as the
+   * upper bound of their bucket, which is at most 6.25% above the recorded value.
+   */
+  public static final class Histogram {
+
+    private final long[] counts;
+    private final long sum;
+    private final long count;
+
+    /**
+     * Histogram of all values which are recorded by the given ones
+     */
+    static Histogram sum(Iterable<Histogram> histograms) {
+      long[] counts = new long[LogHistogram.BUCKETS];
+      long sum = 0;
+      for (Histogram histogram : histograms) {
+        for (int i = 0; i < counts.length; i++) {
+          counts[i] += histogram.counts[i];
+        }
+        sum += histogram.sum;
+      }
+      return new Histogram(counts, sum);
+    }
+
+    Histogram(long[] counts, long sum) {
+      this.counts = counts;
+      this.sum = sum;
+      long count = 0;
+      for (long bucket : counts) {
+        count += bucket;
+      }
+      this.count = count;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * 0 when nothing is recorded
+     */
+    public double getMean() {
+      return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * 0 when nothing is recorded
+     */
+    public long getMax() {
+      for (int i = counts.length - 1; i >= 0; i--) {
+        if (counts[i] != 0) return LogHistogram.highestValue(i);
+      }
+      return 0;
+    }
+
+    /**
+     * @param percentile from 0 to 100
+     * @return 0 when nothing is recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException("Percentile must be from 0 to 100");
+      }
+      if (count == 0) return 0;
+
+      long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= target) return LogHistogram.highestValue(i);
+      }
+      return getMax();
+    }
+
+    @Override public String toString() {
+      return "{count=" + count
+          + ", mean=" + Math.round(getMean())
+          + ", p50=" + getValueAtPercentile(50)
+          + ", p99=" + getValueAtPercentile(99)
+          + ", max=" + getMax() + "}";
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package com.orhanobut.tracklytics;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Compiled form of {@link TransformAttributeMap}, int keys are looked up without boxing.
+ * <p>
+ * Keys which are small and contiguous, such as positions, are stored in a dense array indexed by the key.
+ * Otherwise keys are kept sorted and looked up with binary search.
+ */
+final class TransformTable {
+
+  static final TransformTable EMPTY = new TransformTable(0, new String[0], null, new String[0]);
+
+  /**
+   * Dense table is used as long as it doesn't waste more than this factor of the actual key count
+   */
+  private static final int MAX_DENSE_FACTOR = 2;
+  private static final int MIN_DENSE_SLACK = 8;
+
+  private final int offset;
+  private final String[] denseValues;
+  private final int[] sortedKeys;
+  private final String[] sortedValues;
+
+  private TransformTable(int offset, String[] denseValues, int[] sortedKeys, String[] sortedValues) {
+    this.offset = offset;
+    this.denseValues = denseValues;
+    this.sortedKeys = sortedKeys;
+    this.sortedValues = sortedValues;
+  }
+
+  /**
+   * Creates the table for the given pairs, the latest value wins when the same key is given more than once.
+   *
+   * @throws IllegalStateException when keys and values don't have the same length
+   */
+  static TransformTable compile(int[] keys, String[] values) {
+    if (keys.length != values.length) {
+      throw new IllegalStateException("TransformAttributeMap keys and values must have same length");
+    }
+    if (keys.length == 0) return EMPTY;
+
+    int min = keys[0];
+    int max = keys[0];
+    for (int key : keys) {
+      min = Math.min(min, key);
+      max = Math.max(max, key);
+    }
+
+    long range = (long) max - min + 1;
+    if (range <= (long) keys.length * MAX_DENSE_FACTOR + MIN_DENSE_SLACK) {
+      String[] dense = new String[(int) range];
+      for (int i = 0; i < keys.length; i++) {
+        dense[keys[i] - min] = values[i];
+      }
+      return new TransformTable(min, dense, null, null);
+    }
+
+    // Sort the indexes by key, stable so that the latest duplicate stays last
+    Integer[] order = new Integer[keys.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    final int[] unsortedKeys = keys;
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override public int compare(Integer lhs, Integer rhs) {
+        int left = unsortedKeys[lhs];
+        int right = unsortedKeys[rhs];
+        return left < right ? -1 : (left == right ? 0 : 1);
+      }
+    });
+
+    int[] sortedKeys = new int[keys.length];
+    String[] sortedValues = new String[keys.length];
+    int size = 0;
+    for (Integer index : order) {
+      int key = keys[index];
+      if (size > 0 && sortedKeys[size - 1] == key) {
+        sortedValues[size - 1] = values[index];
+        continue;
+      }
+      sortedKeys[size] = key;
+      sortedValues[size] = values[index];
+      size++;
+    }
+    return new TransformTable(0, null, Arrays.copyOf(sortedKeys, size), Arrays.copyOf(sortedValues, size));
+  }
+
+  String get(int key) {
+    if (denseValues != null) {
+      int index = key - offset;
+      return index >= 0 && index < denseValues.length ? denseValues[index] : null;
+    }
+    int index = Arrays.binarySearch(sortedKeys, key);
+    return index >= 0 ? sortedValues[index] : null;
+  }
+
+  /**
+   * Only int values can be transformed, any other type doesn't have a mapping
+   */
+  String get(Object value) {
+    return value instanceof Integer ? get(((Integer) value).intValue()) : null;
+  }
+}
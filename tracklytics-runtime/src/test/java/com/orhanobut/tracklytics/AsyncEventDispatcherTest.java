@@ -0,0 +1,220 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AsyncEventDispatcherTest {
+
+  private final List<String> delivered = new CopyOnWriteArrayList<>();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final CountDownLatch started = new CountDownLatch(1);
+
+  private final EventSubscriber blockingSubscriber = new EventSubscriber() {
+    @Override public void onEventTracked(Event event) {
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new AssertionError(e);
+      }
+      delivered.add(event.name);
+    }
+  };
+
+  private AsyncEventDispatcher dispatcher;
+
+  @After public void tearDown() throws Exception {
+    release.countDown();
+    if (dispatcher != null) {
+      dispatcher.shutdown(1, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test public void deliverOnConsumerThread() throws Exception {
+    final Thread caller = Thread.currentThread();
+    final List<Thread> threads = new CopyOnWriteArrayList<>();
+    dispatcher = new AsyncEventDispatcher(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        threads.add(Thread.currentThread());
+      }
+    }, 16, OverflowPolicy.BLOCK, 1, "test");
+
+    dispatcher.dispatch(event("event"));
+
+    assertThat(dispatcher.flush(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(threads).hasSize(1);
+    assertThat(threads.get(0)).isNotSameAs(caller);
+  }
+
+  @Test public void dropNewestWhenFull() throws Exception {
+    dispatcher = new AsyncEventDispatcher(blockingSubscriber, 2, OverflowPolicy.DROP_NEWEST, 1, "test");
+    dispatcher.dispatch(event("in_flight"));
+    started.await();
+
+    assertThat(dispatcher.dispatch(event("1"))).isTrue();
+    assertThat(dispatcher.dispatch(event("2"))).isTrue();
+    assertThat(dispatcher.dispatch(event("3"))).isFalse();
+
+    release.countDown();
+    assertThat(dispatcher.flush(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(delivered).containsExactly("in_flight", "1", "2").inOrder();
+    assertThat(dispatcher.droppedCount()).isEqualTo(1);
+  }
+
+  @Test public void dropOldestWhenFull() throws Exception {
+    dispatcher = new AsyncEventDispatcher(blockingSubscriber, 2, OverflowPolicy.DROP_OLDEST, 1, "test");
+    dispatcher.dispatch(event("in_flight"));
+    started.await();
+
+    dispatcher.dispatch(event("1"));
+    dispatcher.dispatch(event("2"));
+    assertThat(dispatcher.dispatch(event("3"))).isTrue();
+
+    release.countDown();
+    assertThat(dispatcher.flush(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(delivered).containsExactly("in_flight", "2", "3").inOrder();
+    assertThat(dispatcher.droppedCount()).isEqualTo(1);
+  }
+
+  @Test public void keepDeliveringWhenSubscriberThrows() throws Exception {
+    dispatcher = new AsyncEventDispatcher(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        if (event.name.equals("fail")) {
+          throw new IllegalStateException();
+        }
+        delivered.add(event.name);
+      }
+    }, 4, OverflowPolicy.BLOCK, 1, "test");
+
+    dispatcher.dispatch(event("fail"));
+    dispatcher.dispatch(event("event"));
+
+    assertThat(dispatcher.flush(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(delivered).containsExactly("event");
+    assertThat(dispatcher.failedCount()).isEqualTo(1);
+  }
+
+  @Test public void keepDeliveringWhenSubscriberThrowsError() throws Exception {
+    dispatcher = new AsyncEventDispatcher(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        if (event.name.equals("fail")) {
+          throw new AssertionError();
+        }
+        delivered.add(event.name);
+      }
+    }, 4, OverflowPolicy.BLOCK, 1, "test");
+
+    dispatcher.dispatch(event("fail"));
+    dispatcher.dispatch(event("event"));
+
+    assertThat(dispatcher.flush(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(delivered).containsExactly("event");
+    assertThat(dispatcher.failedCount()).isEqualTo(1);
+    assertThat(dispatcher.shutdown(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test public void flushWaitsForEarlierEventsWhenLaterOnesCompleteFirst() throws Exception {
+    dispatcher = new AsyncEventDispatcher(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        if (event.name.equals("slow")) {
+          blockingSubscriber.onEventTracked(event);
+          return;
+        }
+        delivered.add(event.name);
+      }
+    }, 4, OverflowPolicy.DROP_NEWEST, 2, "test");
+    dispatcher.dispatch(event("slow"));
+    started.await();
+
+    final AtomicBoolean flushed = new AtomicBoolean();
+    Thread flusher = new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          flushed.set(dispatcher.flush(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    });
+    flusher.start();
+    while (flusher.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+
+    // Completed by the other consumer while the earlier event is still delivered
+    dispatcher.dispatch(event("fast"));
+    while (!delivered.contains("fast")) {
+      Thread.sleep(1);
+    }
+    flusher.join(100);
+    assertThat(flusher.isAlive()).isTrue();
+
+    release.countDown();
+    flusher.join();
+    assertThat(flushed.get()).isTrue();
+    assertThat(delivered).containsExactly("fast", "slow").inOrder();
+  }
+
+  @Test public void shutdownDeliversQueuedEvents() throws Exception {
+    dispatcher = new AsyncEventDispatcher(blockingSubscriber, 4, OverflowPolicy.BLOCK, 1, "test");
+    dispatcher.dispatch(event("1"));
+    dispatcher.dispatch(event("2"));
+    release.countDown();
+
+    assertThat(dispatcher.shutdown(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(delivered).containsExactly("1", "2").inOrder();
+    assertThat(dispatcher.dispatch(event("3"))).isFalse();
+  }
+
+  @Test public void completeEventsWhichRaceWithShutdown() throws Exception {
+    for (int round = 0; round < 100; round++) {
+      final AtomicInteger dispatched = new AtomicInteger();
+      final AtomicInteger completed = new AtomicInteger();
+      final AsyncEventDispatcher dispatcher = new AsyncEventDispatcher(new EventSubscriber() {
+        @Override public void onEventTracked(Event event) {
+        }
+      }, 1024, OverflowPolicy.DROP_NEWEST, 1, "test", new AsyncEventDispatcher.CompletionListener() {
+        @Override public void onEventCompleted(Event event) {
+          completed.incrementAndGet();
+        }
+      });
+      final AtomicBoolean stop = new AtomicBoolean();
+      Thread[] producers = new Thread[4];
+      for (int i = 0; i < producers.length; i++) {
+        producers[i] = new Thread(new Runnable() {
+          @Override public void run() {
+            while (!stop.get()) {
+              dispatched.incrementAndGet();
+              dispatcher.dispatch(event("event"));
+            }
+          }
+        });
+        producers[i].start();
+      }
+      while (completed.get() < 100) {
+        Thread.yield();
+      }
+      assertThat(dispatcher.shutdown(1, TimeUnit.SECONDS)).isTrue();
+      stop.set(true);
+      for (Thread producer : producers) {
+        producer.join();
+      }
+
+      assertThat(completed.get()).isEqualTo(dispatched.get());
+      assertThat(dispatcher.flush(1, TimeUnit.SECONDS)).isTrue();
+    }
+  }
+
+  private static Event event(String name) {
+    return new Event(name, null, null, null, null);
+  }
+}
@@ -0,0 +1,165 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class AttributeMapTest {
+
+  @Test public void typedAccessors() {
+    AttributeMap attributes = new AttributeMap();
+    attributes.putInt("int", 3);
+    attributes.putLong("long", Long.MAX_VALUE);
+    attributes.putDouble("double", 1.5);
+    attributes.putFloat("float", 2.5f);
+    attributes.putBoolean("boolean", true);
+    attributes.put("string", "value");
+    attributes.put("boxed", 7L);
+
+    assertThat(attributes.getInt("int")).isEqualTo(3);
+    assertThat(attributes.getLong("int")).isEqualTo(3);
+    assertThat(attributes.getLong("long")).isEqualTo(Long.MAX_VALUE);
+    assertThat(attributes.getDouble("double")).isEqualTo(1.5);
+    assertThat(attributes.getLong("double")).isEqualTo(1);
+    assertThat(attributes.getDouble("float")).isEqualTo(2.5);
+    assertThat(attributes.getBoolean("boolean")).isTrue();
+    assertThat(attributes.getLong("boxed")).isEqualTo(7);
+    assertThat(attributes.getLong("string", -1)).isEqualTo(-1);
+    assertThat(attributes.getDouble("missing", -1)).isEqualTo(-1.0);
+    assertThat(attributes.getBoolean("missing")).isFalse();
+  }
+
+  @Test public void mapViewBoxesValues() {
+    AttributeMap attributes = new AttributeMap();
+    attributes.putInt("int", 3);
+    attributes.putLong("long", 4);
+    attributes.putDouble("double", 1.5);
+    attributes.putFloat("float", 2.5f);
+    attributes.putBoolean("boolean", false);
+    attributes.put("null", null);
+
+    assertThat(attributes).containsExactly(
+        "int", 3, "long", 4L, "double", 1.5, "float", 2.5f, "boolean", false, "null", null
+    ).inOrder();
+    assertThat(attributes.get("missing")).isNull();
+    assertThat(attributes.containsKey("null")).isTrue();
+  }
+
+  @Test public void replaceValue() {
+    AttributeMap attributes = new AttributeMap(1);
+    attributes.putInt("key", 1);
+
+    assertThat(attributes.put("key", "value")).isEqualTo(1);
+    assertThat(attributes.getLong("key")).isEqualTo(0);
+
+    attributes.putLong("key", 2);
+    assertThat(attributes).containsExactly("key", 2L);
+  }
+
+  @Test public void remove() {
+    AttributeMap attributes = new AttributeMap();
+    attributes.putInt("a", 1);
+    attributes.put("b", "value");
+    attributes.putDouble("c", 3);
+
+    assertThat(attributes.remove("b")).isEqualTo("value");
+    assertThat(attributes).containsExactly("a", 1, "c", 3.0).inOrder();
+
+    Iterator<Map.Entry<String, Object>> iterator = attributes.entrySet().iterator();
+    iterator.next();
+    iterator.remove();
+    assertThat(attributes).containsExactly("c", 3.0);
+  }
+
+  @Test public void growBeyondCapacity() {
+    AttributeMap attributes = new AttributeMap(1);
+    for (int i = 0; i < 20; i++) {
+      attributes.putInt("key" + i, i);
+    }
+
+    assertThat(attributes).hasSize(20);
+    assertThat(attributes.getInt("key19")).isEqualTo(19);
+  }
+
+  @Test public void equalsAndHashCodeOfBoxedMap() {
+    AttributeMap attributes = new AttributeMap();
+    attributes.putInt("int", 3);
+    attributes.putLong("long", -4);
+    attributes.putDouble("double", Double.NaN);
+    attributes.putFloat("float", -2.5f);
+    attributes.putBoolean("boolean", true);
+    attributes.put("string", "value");
+
+    Map<String, Object> boxed = new HashMap<>();
+    boxed.put("int", 3);
+    boxed.put("long", -4L);
+    boxed.put("double", Double.NaN);
+    boxed.put("float", -2.5f);
+    boxed.put("boolean", true);
+    boxed.put("string", "value");
+
+    assertThat(attributes).isEqualTo(boxed);
+    assertThat(boxed).isEqualTo(attributes);
+    assertThat(attributes.hashCode()).isEqualTo(boxed.hashCode());
+    assertThat(attributes).isEqualTo(new AttributeMap(boxed));
+    assertThat(new AttributeMap(boxed)).isEqualTo(attributes);
+  }
+
+  @Test public void copyAttributeMap() {
+    AttributeMap attributes = new AttributeMap(2);
+    attributes.putLong("long", 4);
+    attributes.put("string", "value");
+
+    AttributeMap copy = new AttributeMap(attributes);
+    copy.putInt("int", 3);
+
+    assertThat(copy).containsExactly("long", 4L, "string", "value", "int", 3).inOrder();
+    assertThat(attributes).hasSize(2);
+  }
+
+  @Test public void ensureCapacityKeepsAttributes() {
+    AttributeMap attributes = new AttributeMap(1);
+    attributes.putInt("int", 3);
+
+    attributes.ensureCapacity(12);
+    attributes.ensureCapacity(2);
+
+    assertThat(attributes).containsExactly("int", 3);
+  }
+
+  @Test public void accessByIndex() {
+    AttributeMap attributes = new AttributeMap();
+    attributes.putInt("attribute_map_test_int", 3);
+    attributes.put(Symbols.intern("attribute_map_test_known"), "attribute_map_test_known", "value");
+
+    assertThat(attributes.keyAt(0)).isEqualTo("attribute_map_test_int");
+    assertThat(attributes.valueAt(0)).isEqualTo(3);
+    assertThat(attributes.keyIdAt(1)).isEqualTo(Symbols.id("attribute_map_test_known"));
+    assertThat(attributes.valueAt(1)).isEqualTo("value");
+  }
+
+  @Test public void lookUpKeyIdsWithoutInterning() {
+    Symbols.intern("attribute_map_test_declared");
+    AttributeMap attributes = new AttributeMap();
+    attributes.put("attribute_map_test_declared", "value");
+    attributes.put("attribute_map_test_ad_hoc", "value");
+    int size = Symbols.size();
+
+    assertThat(Symbols.name(attributes.keyIdAt(0))).isEqualTo("attribute_map_test_declared");
+    assertThat(attributes.keyIdAt(1)).isEqualTo(Symbols.NONE);
+    assertThat(Symbols.id("attribute_map_test_ad_hoc")).isEqualTo(Symbols.NONE);
+    assertThat(Symbols.size()).isEqualTo(size);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void failForIndexBeyondSize() {
+    AttributeMap attributes = new AttributeMap(4);
+    attributes.putInt("int", 3);
+
+    attributes.keyAt(1);
+  }
+}
@@ -0,0 +1,76 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class ClassAttributesTest {
+
+  @FixedAttribute(key = "key1", value = "outer")
+  static class Outer {
+
+    @FixedAttributes({
+        @FixedAttribute(key = "key1", value = "inner"),
+        @FixedAttribute(key = "key2", value = "value2", isSuper = true)
+    })
+    static class Inner {
+    }
+  }
+
+  @FixedAttribute(key = "key3", value = "value3", isSuper = true)
+  static class Runtime extends Outer.Inner {
+  }
+
+  @FixedAttribute(key = "class_attributes_test_key", value = "value")
+  static class Declared {
+  }
+
+  @Test public void internDeclaredKeys() {
+    ClassAttributes.of(Declared.class, Declared.class);
+
+    assertThat(Symbols.name(Symbols.id("class_attributes_test_key"))).isEqualTo("class_attributes_test_key");
+  }
+
+  @Test public void cacheSnapshotPerClassPair() {
+    ClassAttributes classAttributes = ClassAttributes.of(Outer.Inner.class, Runtime.class);
+
+    assertThat(ClassAttributes.of(Outer.Inner.class, Runtime.class)).isSameAs(classAttributes);
+    assertThat(ClassAttributes.of(Outer.Inner.class, Outer.Inner.class)).isNotSameAs(classAttributes);
+  }
+
+  @Test public void enclosingClassOverridesDeclaringClass() {
+    ClassAttributes classAttributes = ClassAttributes.of(Outer.Inner.class, Runtime.class);
+
+    assertThat(classAttributes.attributes).containsExactly(
+        "key1", "outer", "key2", "value2", "key3", "value3"
+    );
+  }
+
+  @Test public void applyAttributesAndSuperAttributes() {
+    final Map<String, Object> superAttributes = new HashMap<>();
+    AspectListener listener = new AspectListener() {
+      @Override public AttributeMap newAttributes(int capacity) {
+        return new AttributeMap(capacity);
+      }
+
+      @Override public void onAspectEventTriggered(TrackEvent trackEvent, int nameId, Map<String, Object> attributes) {
+      }
+
+      @Override public void onAspectSuperAttributeAdded(String key, Object value) {
+        superAttributes.put(key, value);
+      }
+
+      @Override public void onAspectSuperAttributeRemoved(String key) {
+      }
+    };
+    Map<String, Object> attributes = new HashMap<>();
+
+    ClassAttributes.of(Outer.Inner.class, Runtime.class).apply(attributes, listener);
+
+    assertThat(attributes).containsExactly("key1", "outer", "key2", "value2", "key3", "value3");
+    assertThat(superAttributes).containsExactly("key2", "value2", "key3", "value3");
+  }
+}
@@ -0,0 +1,165 @@
+package com.orhanobut.tracklytics;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class EventBatcherTest {
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+  private final List<List<Event>> containers = Collections.synchronizedList(new ArrayList<List<Event>>());
+
+  private final BatchEventSubscriber subscriber = new BatchEventSubscriber() {
+    @Override public void onEventsTracked(List<Event> events) {
+      List<String> names = new ArrayList<>();
+      for (Event event : events) {
+        names.add(event.name);
+      }
+      batches.add(names);
+      containers.add(events);
+    }
+  };
+
+  @After public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test public void flushWhenMaxEventsReached() {
+    EventBatcher batcher = new EventBatcher(subscriber, 2, Long.MAX_VALUE, 1, TimeUnit.HOURS, scheduler);
+
+    batcher.add(event("1"));
+    assertThat(batches).isEmpty();
+
+    batcher.add(event("2"));
+    assertThat(batches).containsExactly(list("1", "2"));
+  }
+
+  @Test public void flushWhenMaxBytesReached() {
+    long eventSize = new EventBatcher.SizeEstimator().estimate(event("1"));
+    EventBatcher batcher = new EventBatcher(subscriber, 100, eventSize * 3, 1, TimeUnit.HOURS, scheduler);
+
+    batcher.add(event("1"));
+    batcher.add(event("2"));
+    assertThat(batches).isEmpty();
+
+    batcher.add(event("3"));
+    assertThat(batches).containsExactly(list("1", "2", "3"));
+  }
+
+  @Test public void flushWhenMaxLatencyElapsed() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    EventBatcher batcher = new EventBatcher(new BatchEventSubscriber() {
+      @Override public void onEventsTracked(List<Event> events) {
+        subscriber.onEventsTracked(events);
+        latch.countDown();
+      }
+    }, 100, Long.MAX_VALUE, 10, TimeUnit.MILLISECONDS, scheduler);
+
+    batcher.add(event("1"));
+
+    assertThat(latch.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(batches).containsExactly(list("1"));
+  }
+
+  @Test public void explicitFlush() {
+    EventBatcher batcher = new EventBatcher(subscriber, 100, Long.MAX_VALUE, 1, TimeUnit.HOURS, scheduler);
+
+    batcher.flush();
+    assertThat(batches).isEmpty();
+
+    batcher.add(event("1"));
+    batcher.flush();
+    assertThat(batches).containsExactly(list("1"));
+  }
+
+  @Test public void reuseBatchContainers() {
+    EventBatcher batcher = new EventBatcher(subscriber, 1, Long.MAX_VALUE, 1, TimeUnit.HOURS, scheduler);
+
+    batcher.add(event("1"));
+    batcher.add(event("2"));
+    batcher.add(event("3"));
+
+    assertThat(batches).containsExactly(list("1"), list("2"), list("3")).inOrder();
+    assertThat(containers.get(2)).isSameAs(containers.get(0));
+    assertThat(containers.get(1)).isNotSameAs(containers.get(0));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void batchIsReadOnly() {
+    EventBatcher batcher = new EventBatcher(new BatchEventSubscriber() {
+      @Override public void onEventsTracked(List<Event> events) {
+        events.clear();
+      }
+    }, 1, Long.MAX_VALUE, 1, TimeUnit.HOURS, scheduler);
+
+    batcher.add(event("1"));
+  }
+
+  @Test public void estimateAttributeMapsLikeOtherMaps() {
+    Map<String, Object> values = new HashMap<>();
+    values.put("int", 1);
+    values.put("boolean", true);
+    values.put("string", "value");
+    AttributeMap attributes = new AttributeMap(values);
+    PersistentMap superAttributes = PersistentMap.EMPTY.with("super", "value");
+    EventBatcher.SizeEstimator estimator = new EventBatcher.SizeEstimator();
+
+    long expected = estimator.estimate(new Event("event", new int[]{1}, new String[]{"tag"}, values,
+        new HashMap<String, Object>(superAttributes)));
+
+    assertThat(estimator.estimate(new Event("event", new int[]{1}, new String[]{"tag"}, attributes,
+        superAttributes))).isEqualTo(expected);
+    assertThat(estimator.estimate(new Event("event", new int[]{1}, new String[]{"tag"}, attributes,
+        superAttributes))).isEqualTo(expected);
+  }
+
+  @Test public void estimateWithoutAllocation() {
+    AttributeMap attributes = new AttributeMap(4);
+    attributes.putInt("int", 1);
+    attributes.putLong("long", 2L);
+    attributes.put("string", "value");
+    Event event = new Event("event", null, null, attributes, PersistentMap.EMPTY.with("super", "value"));
+    EventBatcher.SizeEstimator estimator = new EventBatcher.SizeEstimator();
+
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long allocated = 0;
+    long size = 0;
+    // The first round warms up the caches
+    for (int round = 0; round < 2; round++) {
+      long start = threads.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < 1000; i++) {
+        size += estimator.estimate(event);
+      }
+      allocated = threads.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    assertThat(size).isGreaterThan(0L);
+    assertThat(allocated).isLessThan(1000L);
+  }
+
+  private static List<String> list(String... names) {
+    List<String> list = new ArrayList<>();
+    Collections.addAll(list, names);
+    return list;
+  }
+
+  private static Event event(String name) {
+    return new Event(name, null, null, null, null);
+  }
+}
@@ -0,0 +1,146 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class EventCoalescerTest {
+
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+  private final List<Event> delivered = Collections.synchronizedList(new ArrayList<Event>());
+
+  private final EventSubscriber downstream = new EventSubscriber() {
+    @Override public void onEventTracked(Event event) {
+      delivered.add(event);
+    }
+  };
+
+  @After public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test public void collapseIdenticalEvents() {
+    EventCoalescer coalescer = new EventCoalescer(downstream, 1, TimeUnit.HOURS, 16, scheduler);
+
+    Event first = event("event", "key", "value");
+    coalescer.add(first);
+    coalescer.add(event("event", "key", "value"));
+    coalescer.add(event("event", "key", "value"));
+    assertThat(delivered).isEmpty();
+
+    coalescer.flush();
+    assertThat(delivered).containsExactly(first);
+    assertThat(first.getOccurrenceCount()).isEqualTo(3);
+  }
+
+  @Test public void keepDifferentEvents() {
+    EventCoalescer coalescer = new EventCoalescer(downstream, 1, TimeUnit.HOURS, 16, scheduler);
+
+    coalescer.add(event("event", "key", "value"));
+    coalescer.add(event("event", "key", "other"));
+    coalescer.add(event("other", "key", "value"));
+    coalescer.add(new Event("event", new int[]{1}, null, attributes("key", "value"), null));
+    coalescer.flush();
+
+    assertThat(delivered).hasSize(4);
+    for (Event event : delivered) {
+      assertThat(event.getOccurrenceCount()).isEqualTo(1);
+    }
+  }
+
+  @Test public void deliverWhenWindowIsOver() throws Exception {
+    final CountDownLatch latch = new CountDownLatch(1);
+    EventCoalescer coalescer = new EventCoalescer(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        delivered.add(event);
+        latch.countDown();
+      }
+    }, 10, TimeUnit.MILLISECONDS, 16, scheduler);
+
+    coalescer.add(event("event", "key", "value"));
+    coalescer.add(event("event", "key", "value"));
+
+    assertThat(latch.await(1, TimeUnit.SECONDS)).isTrue();
+    assertThat(delivered).hasSize(1);
+    assertThat(delivered.get(0).getOccurrenceCount()).isEqualTo(2);
+  }
+
+  @Test public void startNewWindowAfterExpiry() throws Exception {
+    EventCoalescer coalescer = new EventCoalescer(downstream, 1, TimeUnit.MILLISECONDS, 16, scheduler);
+
+    Event first = event("event", "key", "value");
+    coalescer.add(first);
+    Thread.sleep(5);
+    Event second = event("event", "key", "value");
+    coalescer.add(second);
+    coalescer.close();
+
+    assertThat(delivered).contains(first);
+    assertThat(delivered).contains(second);
+  }
+
+  @Test public void deliverRightAwayWhenFull() {
+    EventCoalescer coalescer = new EventCoalescer(downstream, 1, TimeUnit.HOURS, 2, scheduler);
+
+    coalescer.add(event("1", "key", "value"));
+    coalescer.add(event("2", "key", "value"));
+    coalescer.add(event("3", "key", "value"));
+    assertThat(delivered).hasSize(1);
+    assertThat(delivered.get(0).name).isEqualTo("3");
+
+    // Duplicates of held events are still collapsed
+    coalescer.add(event("1", "key", "value"));
+    assertThat(delivered).hasSize(1);
+  }
+
+  @Test public void keepProbeSequencesAfterRemoval() {
+    EventCoalescer coalescer = new EventCoalescer(downstream, 1, TimeUnit.HOURS, 64, scheduler);
+    for (int i = 0; i < 64; i++) {
+      coalescer.add(event("event" + i, "key", "value"));
+    }
+    coalescer.flush();
+    assertThat(delivered).hasSize(64);
+
+    delivered.clear();
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < 64; i++) {
+        coalescer.add(event("event" + i, "key", "value"));
+      }
+    }
+    coalescer.flush();
+    assertThat(delivered).hasSize(64);
+    for (Event event : delivered) {
+      assertThat(event.getOccurrenceCount()).isEqualTo(2);
+    }
+  }
+
+  @Test public void deliverRightAwayWhenClosed() {
+    EventCoalescer coalescer = new EventCoalescer(downstream, 1, TimeUnit.HOURS, 16, scheduler);
+    coalescer.close();
+
+    coalescer.add(event("event", "key", "value"));
+
+    assertThat(delivered).hasSize(1);
+  }
+
+  private static Event event(String name, String key, String value) {
+    return new Event(name, null, null, attributes(key, value), null);
+  }
+
+  private static Map<String, Object> attributes(String key, String value) {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(key, value);
+    return attributes;
+  }
+}
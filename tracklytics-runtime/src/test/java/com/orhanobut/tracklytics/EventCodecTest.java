@@ -0,0 +1,239 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class EventCodecTest {
+
+  private final EventCodec.Encoder encoder = new EventCodec.Encoder();
+  private final EventCodec.Decoder decoder = new EventCodec.Decoder();
+
+  @Test public void roundTrip() {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("int", -5);
+    attributes.put("long", Long.MAX_VALUE);
+    attributes.put("double", 1.5);
+    attributes.put("float", 2.5f);
+    attributes.put("true", true);
+    attributes.put("false", false);
+    attributes.put("short", (short) -3);
+    attributes.put("byte", (byte) 7);
+    attributes.put("string", "value");
+    attributes.put("unicode", "ü€😀");
+    attributes.put("null", null);
+    attributes.put("other", new StringBuilder("builder"));
+    Map<String, Object> superAttributes = new HashMap<>();
+    superAttributes.put("super", "value");
+    Event event = new Event("event", new int[]{-1, 0, Integer.MAX_VALUE}, new String[]{"tag"}, attributes,
+        superAttributes);
+
+    Event decoded = roundTrip(event);
+
+    assertThat(decoded.name).isEqualTo("event");
+    assertThat(decoded.filters).asList().containsExactly(-1, 0, Integer.MAX_VALUE).inOrder();
+    assertThat(decoded.tags).asList().containsExactly("tag");
+    assertThat(decoded.superAttributes).containsExactly("super", "value");
+    assertThat(decoded.attributes).hasSize(attributes.size());
+    assertThat(decoded.attributes).containsEntry("int", -5);
+    assertThat(decoded.attributes).containsEntry("long", Long.MAX_VALUE);
+    assertThat(decoded.attributes).containsEntry("double", 1.5);
+    assertThat(decoded.attributes).containsEntry("float", 2.5f);
+    assertThat(decoded.attributes).containsEntry("true", true);
+    assertThat(decoded.attributes).containsEntry("false", false);
+    assertThat(decoded.attributes).containsEntry("short", (short) -3);
+    assertThat(decoded.attributes).containsEntry("byte", (byte) 7);
+    assertThat(decoded.attributes).containsEntry("string", "value");
+    assertThat(decoded.attributes).containsEntry("unicode", "ü€😀");
+    assertThat(decoded.attributes).containsEntry("null", null);
+    assertThat(decoded.attributes).containsEntry("other", "builder");
+  }
+
+  @Test public void roundTripSamplingWeight() {
+    Event event = new Event("event", null, null, null, null);
+    event.samplingWeight = 4;
+
+    assertThat(roundTrip(event).getSamplingWeight()).isEqualTo(4.0);
+    assertThat(roundTrip(new Event("event", null, null, null, null)).getSamplingWeight()).isEqualTo(1.0);
+  }
+
+  @Test public void roundTripOccurrenceCount() {
+    Event event = new Event("event", null, null, null, null);
+    event.occurrences = 300;
+    event.samplingWeight = 2;
+
+    Event decoded = roundTrip(event);
+    assertThat(decoded.getOccurrenceCount()).isEqualTo(300);
+    assertThat(decoded.getSamplingWeight()).isEqualTo(2.0);
+  }
+
+  @Test public void roundTripTypedAttributes() {
+    AttributeMap attributes = new AttributeMap();
+    attributes.putInt("int", -5);
+    attributes.putLong("long", Long.MIN_VALUE);
+    attributes.putDouble("double", 1.5);
+    attributes.putFloat("float", 2.5f);
+    attributes.putBoolean("boolean", true);
+    attributes.put("string", "value");
+
+    Event decoded = roundTrip(new Event("event", null, null, attributes, null));
+
+    assertThat(decoded.attributes).isEqualTo(attributes);
+    assertThat(decoded.getTypedAttributes().getLong("long")).isEqualTo(Long.MIN_VALUE);
+    assertThat(decoded.getTypedAttributes().getDouble("double")).isEqualTo(1.5);
+  }
+
+  @Test public void symbolIdsDoNotChangeEncoding() {
+    AttributeMap withIds = new AttributeMap();
+    withIds.put(Symbols.intern("codec_test_key"), "codec_test_key", "value");
+    Event event = new Event("codec_test_event", null, null, withIds, null);
+    event.nameId = Symbols.intern("codec_test_event");
+    AttributeMap withoutIds = new AttributeMap();
+    withoutIds.put("codec_test_key", "value");
+    Event plain = new Event("codec_test_event", null, null, withoutIds, null);
+
+    EventCodec.Encoder encoder = new EventCodec.Encoder();
+    EventCodec.Encoder plainEncoder = new EventCodec.Encoder();
+    for (int i = 0; i < 2; i++) {
+      ByteBuffer buffer = ByteBuffer.allocate(256);
+      ByteBuffer plainBuffer = ByteBuffer.allocate(256);
+      // The first event adds the strings by symbol, the second one finds them by symbol
+      encoder.encode(i == 0 ? event : plain, buffer);
+      encoder.encode(event, buffer);
+      plainEncoder.encode(plain, plainBuffer);
+      plainEncoder.encode(plain, plainBuffer);
+      buffer.flip();
+      plainBuffer.flip();
+      assertThat(buffer).isEqualTo(plainBuffer);
+      encoder.reset();
+      plainEncoder.reset();
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    encoder.encode(event, buffer);
+    buffer.flip();
+    Event decoded = new EventCodec.Decoder().decode(buffer);
+    assertThat(decoded.getNameId()).isEqualTo(event.nameId);
+    assertThat(decoded.attributes).containsExactly("codec_test_key", "value");
+  }
+
+  @Test public void roundTripNulls() {
+    Event decoded = roundTrip(new Event(null, null, null, null, null));
+
+    assertThat(decoded.name).isNull();
+    assertThat(decoded.filters).isNull();
+    assertThat(decoded.tags).isNull();
+    assertThat(decoded.attributes).isNull();
+    assertThat(decoded.superAttributes).isNull();
+  }
+
+  @Test public void repeatedStringsAreWrittenOnce() {
+    Event event = event("a_rather_long_event_name", "a_rather_long_attribute_key");
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+
+    encoder.encode(event, buffer);
+    int first = buffer.position();
+    encoder.encode(event, buffer);
+    int second = buffer.position() - first;
+
+    assertThat(second).isLessThan(first - "a_rather_long_event_name".length());
+
+    buffer.flip();
+    assertThat(decoder.decode(buffer).name).isEqualTo("a_rather_long_event_name");
+    Event decoded = decoder.decode(buffer);
+    assertThat(decoded.name).isEqualTo("a_rather_long_event_name");
+    assertThat(decoded.attributes).containsEntry("a_rather_long_attribute_key", 1);
+  }
+
+  @Test public void overflowLeavesEncoderUntouched() {
+    ByteBuffer small = ByteBuffer.allocate(8);
+    small.put((byte) 1);
+    try {
+      encoder.encode(event("event", "a_rather_long_attribute_key"), small);
+      fail();
+    } catch (BufferOverflowException expected) {
+      assertThat(small.position()).isEqualTo(1);
+    }
+
+    // The failed event must not have registered any string, otherwise the decoder can't resolve them
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    encoder.encode(event("event", "a_rather_long_attribute_key"), buffer);
+    buffer.flip();
+    assertThat(decoder.decode(buffer).name).isEqualTo("event");
+  }
+
+  @Test public void resetStartsNewStream() {
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    encoder.encode(event("event", "key"), buffer);
+    encoder.reset();
+    int start = buffer.position();
+    encoder.encode(event("event", "key"), buffer);
+
+    buffer.position(start);
+    assertThat(decoder.decode(buffer).name).isEqualTo("event");
+  }
+
+  @Test public void unknownStringIdIsRejected() {
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    encoder.encode(event("event", "key"), buffer);
+    int start = buffer.position();
+    encoder.encode(event("event", "key"), buffer);
+
+    buffer.position(start);
+    try {
+      decoder.decode(buffer);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertThat(expected).hasMessage("Unknown string id 0");
+    }
+  }
+
+  @Test public void truncatedEventIsRejected() {
+    ByteBuffer buffer = ByteBuffer.allocate(256);
+    encoder.encode(event("event", "key"), buffer);
+    buffer.flip();
+    buffer.limit(buffer.limit() - 1);
+
+    try {
+      decoder.decode(buffer);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertThat(expected).hasMessage("Event is truncated");
+    }
+  }
+
+  @Test public void dictionaryIsBounded() {
+    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    for (int i = 0; i < EventCodec.MAX_DICTIONARY_SIZE + 10; i++) {
+      buffer.clear();
+      encoder.encode(new Event("event" + i, null, null, null, null), buffer);
+      buffer.flip();
+      assertThat(decoder.decode(buffer).name).isEqualTo("event" + i);
+    }
+    buffer.clear();
+    encoder.encode(new Event("event" + (EventCodec.MAX_DICTIONARY_SIZE + 5), null, null, null, null), buffer);
+    buffer.flip();
+    assertThat(decoder.decode(buffer).name).isEqualTo("event" + (EventCodec.MAX_DICTIONARY_SIZE + 5));
+  }
+
+  private Event roundTrip(Event event) {
+    ByteBuffer buffer = ByteBuffer.allocate(1024);
+    encoder.encode(event, buffer);
+    buffer.flip();
+    Event decoded = decoder.decode(buffer);
+    assertThat(buffer.hasRemaining()).isFalse();
+    return decoded;
+  }
+
+  private static Event event(String name, String key) {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put(key, 1);
+    return new Event(name, null, null, attributes, null);
+  }
+}
@@ -0,0 +1,234 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class EventJournalTest {
+
+  private static final int SEGMENT_SIZE = 4096;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test public void replayEventsWhichAreNotAcknowledged() throws Exception {
+    File directory = folder.getRoot();
+    EventJournal journal = open(directory);
+    Event event1 = event("event1");
+    Event event2 = event("event2");
+    journal.append(event1);
+    journal.append(event2);
+    journal.acknowledge(event1.journalSequence);
+
+    List<Event> events = open(directory).takePendingEvents();
+
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).name).isEqualTo("event2");
+    assertThat(events.get(0).filters).asList().containsExactly(1, 2);
+    assertThat(events.get(0).tags).asList().containsExactly("tag");
+    assertThat(events.get(0).attributes).containsExactly("int", 1, "long", 2L, "string", "value", "null", null);
+    assertThat(events.get(0).superAttributes).containsExactly("double", 1.5, "boolean", true);
+  }
+
+  @Test public void keepSequencesAcrossRestarts() throws Exception {
+    File directory = folder.getRoot();
+    EventJournal journal = open(directory);
+    journal.append(event("event1"));
+
+    EventJournal reopened = open(directory);
+    Event replayed = reopened.takePendingEvents().get(0);
+    Event event2 = event("event2");
+    reopened.append(event2);
+
+    assertThat(event2.journalSequence).isGreaterThan(replayed.journalSequence);
+    reopened.acknowledge(replayed.journalSequence);
+    reopened.acknowledge(event2.journalSequence);
+    assertThat(open(directory).takePendingEvents()).isEmpty();
+  }
+
+  @Test public void deleteAcknowledgedSegments() throws Exception {
+    EventJournal journal = open(folder.getRoot());
+    List<Event> events = new ArrayList<>();
+    while (journal.segmentCount() < 3) {
+      Event event = event("event");
+      journal.append(event);
+      events.add(event);
+    }
+
+    // Out of order acknowledgements only release the segments once the gap is closed
+    for (int i = events.size() - 1; i > 0; i--) {
+      journal.acknowledge(events.get(i).journalSequence);
+    }
+    assertThat(journal.segmentCount()).isEqualTo(3);
+
+    journal.acknowledge(events.get(0).journalSequence);
+    assertThat(journal.segmentCount()).isEqualTo(1);
+    assertThat(folder.getRoot().list()).hasLength(1);
+  }
+
+  @Test public void skipCorruptedRecords() throws Exception {
+    File directory = folder.getRoot();
+    EventJournal journal = open(directory);
+    journal.append(event("event1"));
+    journal.append(event("event2"));
+    journal.append(event("event3"));
+
+    // Flip the last payload byte of the second record
+    File segment = directory.listFiles()[0];
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    file.seek(20);
+    int second = 20 + 8 + file.readInt();
+    file.seek(second);
+    int position = second + 8 + file.readInt() - 1;
+    file.seek(position);
+    int value = file.read();
+    file.seek(position);
+    file.write(value ^ 0xFF);
+    file.close();
+
+    List<Event> events = open(directory).takePendingEvents();
+    assertThat(events).hasSize(2);
+    assertThat(events.get(0).name).isEqualTo("event1");
+    assertThat(events.get(1).name).isEqualTo("event3");
+  }
+
+  @Test public void skipRecordsWhichReferToCorruptedStrings() throws Exception {
+    File directory = folder.getRoot();
+    EventJournal journal = open(directory);
+    journal.append(event("event1"));
+    journal.append(event("event2"));
+
+    // The first record defines the attribute keys which the second one refers to
+    File segment = directory.listFiles()[0];
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    file.seek(20 + 8);
+    int value = file.read();
+    file.seek(20 + 8);
+    file.write(value ^ 0xFF);
+    file.close();
+
+    EventJournal reopened = open(directory);
+    assertThat(reopened.takePendingEvents()).isEmpty();
+    assertThat(reopened.segmentCount()).isEqualTo(0);
+  }
+
+  @Test public void rejectEventsLargerThanSegment() throws Exception {
+    EventJournal journal = open(folder.getRoot());
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("key", new String(new char[SEGMENT_SIZE]));
+    Event event = new Event("event", null, null, attributes, null);
+
+    journal.append(event);
+
+    assertThat(event.journalSequence).isEqualTo(-1L);
+    assertThat(journal.failedRecordCount()).isEqualTo(1);
+  }
+
+  @Test public void rejectEventsWhichOutgrowSegmentAfterRotation() throws Exception {
+    File directory = folder.getRoot();
+    EventJournal journal = open(directory);
+    int maxLength = SEGMENT_SIZE - EventJournal.HEADER_SIZE - EventJournal.RECORD_HEADER_SIZE;
+    // Leaves 3 bytes of the first segment
+    int firstLength = maxLength - 3;
+    String tag = new String(new char[firstLength - encodedLength(taggedEvent("")) - 1]).replace('\0', 't');
+    Event first = taggedEvent(tag);
+    assertThat(encodedLength(first)).isEqualTo(firstLength);
+    // Refers to the tag of the first segment, but is larger than a segment when it is written on its own
+    Event second = taggedEvent(tag, tag, tag, tag, tag);
+    assertThat(encodedLength(second)).isGreaterThan(maxLength);
+
+    journal.append(first);
+    journal.append(second);
+    journal.append(event("event3"));
+
+    assertThat(second.journalSequence).isEqualTo(-1L);
+    assertThat(journal.failedRecordCount()).isEqualTo(1);
+    List<Event> events = open(directory).takePendingEvents();
+    assertThat(events).hasSize(2);
+    assertThat(events.get(0).tags).asList().containsExactly(tag);
+    assertThat(events.get(1).name).isEqualTo("event3");
+  }
+
+  @Test public void discardEmptySegmentOnRecovery() throws Exception {
+    File directory = folder.getRoot();
+    // Creates the first segment, but the event is never written to it
+    String tag = new String(new char[SEGMENT_SIZE]).replace('\0', 't');
+    open(directory).append(taggedEvent(tag));
+
+    EventJournal journal = open(directory);
+    Event first = event("event1");
+    journal.append(first);
+    journal.append(event("event2"));
+    journal.acknowledge(first.journalSequence);
+
+    List<Event> events = open(directory).takePendingEvents();
+    assertThat(events).hasSize(1);
+    assertThat(events.get(0).name).isEqualTo("event2");
+  }
+
+  @Test public void replayToAllSubscribersAfterInit() throws Exception {
+    File directory = folder.getRoot();
+    open(directory).append(event("event1"));
+
+    final List<String> names = new CopyOnWriteArrayList<>();
+    final List<String> otherNames = new CopyOnWriteArrayList<>();
+    EventJournal journal = open(directory);
+    Tracklytics tracklytics = Tracklytics.init(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        names.add(event.name);
+      }
+    }, journal);
+    assertThat(names).isEmpty();
+
+    tracklytics.addEventSubscriber(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        otherNames.add(event.name);
+      }
+    });
+    tracklytics.enableAsyncDispatch(16, OverflowPolicy.BLOCK, 1);
+    tracklytics.replayPendingEvents();
+    tracklytics.replayPendingEvents();
+    assertThat(tracklytics.shutdown(1, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(names).containsExactly("event1");
+    assertThat(otherNames).containsExactly("event1");
+    assertThat(open(directory).takePendingEvents()).isEmpty();
+  }
+
+  private static EventJournal open(File directory) throws Exception {
+    return EventJournal.open(directory, SEGMENT_SIZE, EventJournal.SyncPolicy.NONE);
+  }
+
+  private static Event taggedEvent(String... tags) {
+    return new Event("e", null, tags, null, null);
+  }
+
+  private static int encodedLength(Event event) {
+    ByteBuffer buffer = ByteBuffer.allocate(2 * SEGMENT_SIZE);
+    new EventCodec.Encoder().encode(event, buffer);
+    return buffer.position();
+  }
+
+  private static Event event(String name) {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("int", 1);
+    attributes.put("long", 2L);
+    attributes.put("string", "value");
+    attributes.put("null", null);
+    Map<String, Object> superAttributes = new HashMap<>();
+    superAttributes.put("double", 1.5);
+    superAttributes.put("boolean", true);
+    return new Event(name, new int[]{1, 2}, new String[]{"tag"}, attributes, superAttributes);
+  }
+}
@@ -0,0 +1,107 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class EventPoolTest {
+
+  @Test public void reuseReleasedEvent() {
+    EventPool pool = new EventPool(4, false);
+
+    Event event = acquire(pool, "event");
+    event.pooledAttributes.putInt("key", 1);
+    event.release();
+
+    Event reused = acquire(pool, "other");
+    assertThat(reused).isSameAs(event);
+    assertThat(reused.getName()).isEqualTo("other");
+    assertThat(reused.name).isNull();
+    assertThat(reused.pooledAttributes).isEmpty();
+    assertThat(pool.createdCount()).isEqualTo(1);
+  }
+
+  @Test public void keepRetainedEvent() {
+    EventPool pool = new EventPool(4, false);
+
+    Event event = acquire(pool, "event").retain();
+    event.release();
+    assertThat(pool.size()).isEqualTo(0);
+    assertThat(event.getName()).isEqualTo("event");
+
+    event.release();
+    assertThat(pool.size()).isEqualTo(1);
+  }
+
+  @Test public void dropEventsOverCapacity() {
+    EventPool pool = new EventPool(1, false);
+
+    Event first = acquire(pool, "event");
+    Event second = acquire(pool, "event");
+    first.release();
+    second.release();
+
+    assertThat(pool.size()).isEqualTo(1);
+    assertThat(pool.createdCount()).isEqualTo(2);
+  }
+
+  @Test public void failForReleaseMoreThanOnce() {
+    Event event = acquire(new EventPool(4, false), "event");
+    event.release();
+
+    try {
+      event.release();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Event is released more than once");
+    }
+  }
+
+  @Test public void failForRetainAfterRelease() {
+    Event event = acquire(new EventPool(4, false), "event");
+    event.release();
+
+    try {
+      event.retain();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Event is retained after it is released");
+    }
+  }
+
+  @Test public void failForUseAfterReleaseInDebugMode() {
+    EventPool pool = new EventPool(4, true);
+    Event event = acquire(pool, "event");
+    event.release();
+
+    assertThat(acquire(pool, "event")).isNotSameAs(event);
+    try {
+      event.getAllAttributes();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Event is used after it is released");
+    }
+    try {
+      event.getAttributes().get("key");
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Event is used after it is released");
+    }
+  }
+
+  @Test public void notPooledEventIgnoresRelease() {
+    Event event = new Event("event", null, null, null, null);
+    event.release();
+    event.release();
+
+    assertThat(event.retain()).isSameAs(event);
+    assertThat(event.getOccurrenceCount()).isEqualTo(1);
+  }
+
+  private static Event acquire(EventPool pool, String name) {
+    Event event = pool.acquire();
+    event.fill(name, null, null, event.pooledAttributes, null);
+    return event;
+  }
+}
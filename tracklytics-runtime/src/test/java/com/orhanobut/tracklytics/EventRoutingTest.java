@@ -0,0 +1,53 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class EventRoutingTest {
+
+  private final EventRouting routing = new EventRouting();
+
+  @Test public void intersectSameFiltersAndTags() {
+    long[] interest = routing.compile(new int[]{100}, new String[]{"tag"});
+
+    assertThat(EventRouting.intersects(interest, routing.compile(new int[]{1, 100}, null))).isTrue();
+    assertThat(EventRouting.intersects(interest, routing.compile(null, new String[]{"other", "tag"}))).isTrue();
+    assertThat(EventRouting.intersects(interest, routing.compile(new int[]{1}, new String[]{"other"}))).isFalse();
+    assertThat(EventRouting.intersects(interest, routing.compile(null, null))).isFalse();
+  }
+
+  @Test public void filterAndTagWithSameValueAreDifferent() {
+    long[] interest = routing.compile(new int[]{1}, null);
+
+    assertThat(EventRouting.intersects(interest, routing.compile(null, new String[]{"1"}))).isFalse();
+  }
+
+  @Test public void growBeyondOneWord() {
+    int[] filters = new int[200];
+    for (int i = 0; i < filters.length; i++) {
+      filters[i] = i;
+    }
+    routing.compile(filters, null);
+
+    long[] interest = routing.compile(new int[]{150}, null);
+    assertThat(interest).hasLength(3);
+    assertThat(EventRouting.intersects(interest, routing.compile(new int[]{150}, null))).isTrue();
+    assertThat(EventRouting.intersects(interest, routing.compile(new int[]{1}, null))).isFalse();
+  }
+
+  @Test public void compileTrackEventOnce() {
+    TrackEvent trackEvent = mock(TrackEvent.class);
+    when(trackEvent.filters()).thenReturn(new int[]{1});
+    when(trackEvent.tags()).thenReturn(new String[]{"tag"});
+
+    long[] route = routing.route(trackEvent);
+
+    assertThat(routing.route(trackEvent)).isSameAs(route);
+    verify(trackEvent, times(1)).filters();
+  }
+}
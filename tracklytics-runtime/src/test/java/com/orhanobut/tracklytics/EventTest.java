@@ -6,6 +6,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 public class EventTest {
 
@@ -23,6 +24,24 @@ public class EventTest {
     assertThat(event.tags).isEqualTo(tags);
     assertThat(event.attributes).isEqualTo(attributes);
     assertThat(event.superAttributes).isEqualTo(superAttributes);
+    assertThat(event.getName()).isEqualTo("event_name");
+    assertThat(event.getFilters()).isEqualTo(filters);
+    assertThat(event.getTags()).isEqualTo(tags);
+    assertThat(event.getAttributes()).isSameAs(attributes);
+    assertThat(event.getSuperAttributes()).isSameAs(superAttributes);
+  }
+
+  @Test public void getTypedAttributes() {
+    AttributeMap typed = new AttributeMap();
+    assertThat(new Event("event_name", null, null, typed, null).getTypedAttributes()).isSameAs(typed);
+
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("key", 5);
+    Event event = new Event("event_name", null, null, attributes, null);
+    assertThat(event.getTypedAttributes().getLong("key")).isEqualTo(5);
+    assertThat(event.getTypedAttributes()).isSameAs(event.getTypedAttributes());
+
+    assertThat(new Event("event_name", null, null, null, null).getTypedAttributes()).isEmpty();
   }
 
   @Test public void getAllAttributes() {
@@ -37,4 +56,61 @@ public class EventTest {
     assertThat(event.getAllAttributes()).containsEntry("key", "value");
     assertThat(event.getAllAttributes()).containsEntry("key1", "value1");
   }
-}
\ No newline at end of file
+
+  @Test public void superAttributesOverrideAttributes() {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("key", "value");
+    attributes.put("shared", "attribute");
+
+    Map<String, Object> superAttributes = new HashMap<>();
+    superAttributes.put("shared", "super");
+    superAttributes.put("null", null);
+
+    Event event = new Event("event_name", null, null, attributes, superAttributes);
+    Map<String, Object> allAttributes = event.getAllAttributes();
+
+    assertThat(allAttributes).containsExactly("key", "value", "shared", "super", "null", null);
+    assertThat(allAttributes).hasSize(3);
+    assertThat(allAttributes.get("shared")).isEqualTo("super");
+    assertThat(allAttributes.containsKey("null")).isTrue();
+    assertThat(allAttributes.get("missing")).isNull();
+    assertThat(allAttributes).isEqualTo(event.copyAllAttributes());
+  }
+
+  @Test public void getAllAttributesIsReadOnly() {
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("key", "value");
+    Event event = new Event("event_name", null, null, attributes, null);
+
+    try {
+      event.getAllAttributes().put("key1", "value1");
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    try {
+      event.getAllAttributes().entrySet().iterator().next().setValue("value1");
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+    assertThat(attributes).containsExactly("key", "value");
+  }
+
+  @Test public void getAllAttributesWithoutAttributes() {
+    Event event = new Event("event_name", null, null, null, null);
+
+    assertThat(event.getAllAttributes()).isEmpty();
+    assertThat(event.copyAllAttributes()).isEmpty();
+  }
+
+  @Test public void copyAllAttributesIsMutable() {
+    Map<String, Object> superAttributes = new HashMap<>();
+    superAttributes.put("key", "value");
+    Event event = new Event("event_name", null, null, new HashMap<String, Object>(), superAttributes);
+
+    Map<String, Object> copy = event.copyAllAttributes();
+    copy.put("key", "value1");
+
+    assertThat(copy).containsExactly("key", "value1");
+    assertThat(event.getAllAttributes()).containsExactly("key", "value");
+  }
+}
@@ -0,0 +1,108 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class LogHistogramTest {
+
+  @Test public void keepSmallValuesExact() {
+    for (int value = 0; value < 32; value++) {
+      assertThat(LogHistogram.index(value)).isEqualTo(value);
+      assertThat(LogHistogram.highestValue(value)).isEqualTo(value);
+    }
+  }
+
+  @Test public void coverAllValuesWithAdjacentBuckets() {
+    for (int i = 1; i < LogHistogram.BUCKETS; i++) {
+      long lowest = LogHistogram.highestValue(i - 1) + 1;
+      assertThat(LogHistogram.index(lowest)).isEqualTo(i);
+      assertThat(LogHistogram.index(LogHistogram.highestValue(i))).isEqualTo(i);
+    }
+    assertThat(LogHistogram.highestValue(LogHistogram.BUCKETS - 1)).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test public void boundRelativeError() {
+    long[] values = {33, 100, 1000, 12345, 1000000, 987654321L, Long.MAX_VALUE / 3};
+    for (long value : values) {
+      long highest = LogHistogram.highestValue(LogHistogram.index(value));
+      assertThat(highest).isAtLeast(value);
+      assertThat((double) (highest - value) / value).isAtMost(0.0625);
+    }
+  }
+
+  @Test public void reportPercentiles() {
+    LogHistogram histogram = new LogHistogram();
+    for (int value = 1; value <= 100; value++) {
+      histogram.record(value * 1000);
+    }
+    histogram.record(-5);
+
+    TracklyticsMetrics.Histogram snapshot = histogram.snapshot();
+
+    assertThat(snapshot.getCount()).isEqualTo(101);
+    assertThat(snapshot.getMean()).isWithin(0.5).of(5050000 / 101.0);
+    assertThat(snapshot.getValueAtPercentile(0)).isEqualTo(0);
+    assertCloseTo(snapshot.getValueAtPercentile(50), 50000);
+    assertCloseTo(snapshot.getValueAtPercentile(99), 99000);
+    assertCloseTo(snapshot.getMax(), 100000);
+  }
+
+  @Test public void reportZeroWhenEmpty() {
+    TracklyticsMetrics.Histogram snapshot = new LogHistogram().snapshot();
+
+    assertThat(snapshot.getCount()).isEqualTo(0);
+    assertThat(snapshot.getMean()).isEqualTo(0.0);
+    assertThat(snapshot.getMax()).isEqualTo(0);
+    assertThat(snapshot.getValueAtPercentile(99)).isEqualTo(0);
+  }
+
+  @Test public void sumStripedCounts() throws InterruptedException {
+    final StripedCounter counter = new StripedCounter();
+    Thread[] threads = new Thread[4];
+    for (int i = 0; i < threads.length; i++) {
+      threads[i] = new Thread(new Runnable() {
+        @Override public void run() {
+          for (int j = 0; j < 10000; j++) {
+            counter.increment();
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(counter.sum()).isEqualTo(40000);
+  }
+
+  @Test public void sumStripedBuckets() throws InterruptedException {
+    final LogHistogram histogram = new LogHistogram();
+    Thread[] threads = new Thread[8];
+    for (int i = 0; i < threads.length; i++) {
+      final long value = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override public void run() {
+          for (int j = 0; j < 10000; j++) {
+            histogram.record(value);
+          }
+        }
+      });
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    TracklyticsMetrics.Histogram snapshot = histogram.snapshot();
+    assertThat(snapshot.getCount()).isEqualTo(80000);
+    assertThat(snapshot.getMax()).isEqualTo(7);
+    assertThat(snapshot.getValueAtPercentile(50)).isEqualTo(3);
+  }
+
+  private static void assertCloseTo(long actual, long value) {
+    assertThat(actual).isAtLeast(value);
+    assertThat(actual).isAtMost((long) (value * 1.0625));
+  }
+}
@@ -0,0 +1,81 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class PersistentMapTest {
+
+  @Test public void emptyMap() {
+    assertThat(PersistentMap.EMPTY).isEmpty();
+    assertThat(PersistentMap.EMPTY.get("key")).isNull();
+    assertThat(PersistentMap.EMPTY.version).isEqualTo(0);
+  }
+
+  @Test public void writesDoNotChangeExistingMaps() {
+    PersistentMap map1 = PersistentMap.EMPTY.with("key1", "value1");
+    PersistentMap map2 = map1.with("key2", "value2");
+    PersistentMap map3 = map2.without("key1");
+
+    assertThat(map1).containsExactly("key1", "value1");
+    assertThat(map2).containsExactly("key1", "value1", "key2", "value2");
+    assertThat(map3).containsExactly("key2", "value2");
+    assertThat(map3.version).isEqualTo(3);
+  }
+
+  @Test public void returnSameMapWhenNothingChanges() {
+    PersistentMap map = PersistentMap.EMPTY.with("key", "value");
+
+    assertThat(map.with("key", "value")).isSameAs(map);
+    assertThat(map.without("other")).isSameAs(map);
+  }
+
+  @Test public void nullValues() {
+    PersistentMap map = PersistentMap.EMPTY.with("key", null);
+
+    assertThat(map.containsKey("key")).isTrue();
+    assertThat(map.get("key")).isNull();
+    assertThat(map).hasSize(1);
+  }
+
+  @Test public void collidingKeys() {
+    // "Aa" and "BB" have the same hash code
+    PersistentMap map = PersistentMap.EMPTY.with("Aa", 1).with("BB", 2);
+
+    assertThat(map).containsExactly("Aa", 1, "BB", 2);
+    assertThat(map.without("Aa")).containsExactly("BB", 2);
+    assertThat(map.without("Aa").without("BB")).isEmpty();
+  }
+
+  @Test public void behaveLikeHashMap() {
+    Random random = new Random(42);
+    Map<String, Object> expected = new HashMap<>();
+    PersistentMap map = PersistentMap.EMPTY;
+
+    for (int i = 0; i < 20000; i++) {
+      String key = "key" + random.nextInt(2000);
+      if (random.nextInt(3) == 0) {
+        expected.remove(key);
+        map = map.without(key);
+      } else {
+        expected.put(key, i);
+        map = map.with(key, i);
+      }
+    }
+
+    assertThat(map).isEqualTo(expected);
+    assertThat(map).hasSize(expected.size());
+    for (String key : expected.keySet()) {
+      assertThat(map.get(key)).isEqualTo(expected.get(key));
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void immutable() {
+    PersistentMap.EMPTY.with("key", "value").put("key", "other");
+  }
+}
@@ -0,0 +1,60 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class RateLimiterTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test public void allowBurstOfOneSecond() {
+    RateLimiter rateLimiter = new RateLimiter(4);
+
+    for (int i = 0; i < 4; i++) {
+      assertThat(rateLimiter.tryAcquire(0)).isTrue();
+    }
+    assertThat(rateLimiter.tryAcquire(0)).isFalse();
+  }
+
+  @Test public void refillWithTheRate() {
+    RateLimiter rateLimiter = new RateLimiter(4);
+    for (int i = 0; i < 4; i++) {
+      rateLimiter.tryAcquire(0);
+    }
+
+    assertThat(rateLimiter.tryAcquire(SECOND / 8)).isFalse();
+    assertThat(rateLimiter.tryAcquire(SECOND / 4)).isTrue();
+    assertThat(rateLimiter.tryAcquire(SECOND / 4)).isFalse();
+  }
+
+  @Test public void idlePeriodDoesNotExceedBurst() {
+    RateLimiter rateLimiter = new RateLimiter(2);
+    rateLimiter.tryAcquire(0);
+
+    long later = 10 * SECOND;
+    assertThat(rateLimiter.tryAcquire(later)).isTrue();
+    assertThat(rateLimiter.tryAcquire(later)).isTrue();
+    assertThat(rateLimiter.tryAcquire(later)).isFalse();
+  }
+
+  @Test public void handleNegativeNanoTime() {
+    RateLimiter rateLimiter = new RateLimiter(1);
+
+    assertThat(rateLimiter.tryAcquire(-SECOND)).isTrue();
+    assertThat(rateLimiter.tryAcquire(-SECOND)).isFalse();
+    assertThat(rateLimiter.tryAcquire(0)).isTrue();
+  }
+
+  @Test public void rejectNonPositiveRate() {
+    try {
+      new RateLimiter(0);
+      fail();
+    } catch (IllegalArgumentException expected) {
+      assertThat(expected).hasMessage("Permits per second must be positive");
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class RateLimitsTest {
+
+  @Test public void unlimitedWithoutLimit() {
+    RateLimits.Limit limit = RateLimits.of("unlimited", 0);
+
+    for (int i = 0; i < 1000; i++) {
+      assertThat(limit.tryAcquire()).isTrue();
+    }
+    assertThat(RateLimits.rejectedCount("unlimited")).isEqualTo(0);
+  }
+
+  @Test public void rejectAndCountOverAnnotatedLimit() {
+    RateLimits.Limit limit = RateLimits.of("annotated", 2);
+
+    assertThat(limit.tryAcquire()).isTrue();
+    assertThat(limit.tryAcquire()).isTrue();
+    assertThat(limit.tryAcquire()).isFalse();
+    assertThat(limit.tryAcquire()).isFalse();
+    assertThat(RateLimits.rejectedCount("annotated")).isEqualTo(2);
+    assertThat(RateLimits.rejectedCount()).isAtLeast(2L);
+  }
+
+  @Test public void sameLimitForEventName() {
+    RateLimits.Limit limit = RateLimits.of("shared", 1);
+
+    assertThat(RateLimits.of("shared", 5)).isSameAs(limit);
+    assertThat(RateLimits.find("shared")).isSameAs(limit);
+    assertThat(RateLimits.find("unknown")).isNull();
+  }
+
+  @Test public void overrideAnnotatedLimit() {
+    RateLimits.Limit limit = RateLimits.of("overridden", 1);
+    RateLimits.set("overridden", 3);
+
+    assertThat(limit.tryAcquire()).isTrue();
+    assertThat(limit.tryAcquire()).isTrue();
+    assertThat(limit.tryAcquire()).isTrue();
+    assertThat(limit.tryAcquire()).isFalse();
+
+    RateLimits.clear("overridden");
+    assertThat(limit.tryAcquire()).isTrue();
+    assertThat(limit.tryAcquire()).isFalse();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectNonPositiveOverride() {
+    RateLimits.set("invalid", 0);
+  }
+}
@@ -0,0 +1,79 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class RingBufferTest {
+
+  @Test public void roundCapacityUpToPowerOfTwo() {
+    assertThat(new RingBuffer<String>(5).capacity()).isEqualTo(8);
+    assertThat(new RingBuffer<String>(8).capacity()).isEqualTo(8);
+  }
+
+  @Test public void firstInFirstOut() {
+    RingBuffer<String> buffer = new RingBuffer<>(4);
+
+    assertThat(buffer.offer("a")).isTrue();
+    assertThat(buffer.offer("b")).isTrue();
+    assertThat(buffer.size()).isEqualTo(2);
+
+    assertThat(buffer.poll()).isEqualTo("a");
+    assertThat(buffer.poll()).isEqualTo("b");
+    assertThat(buffer.poll()).isNull();
+    assertThat(buffer.isEmpty()).isTrue();
+  }
+
+  @Test public void rejectWhenFull() {
+    RingBuffer<String> buffer = new RingBuffer<>(2);
+
+    assertThat(buffer.offer("a")).isTrue();
+    assertThat(buffer.offer("b")).isTrue();
+    assertThat(buffer.offer("c")).isFalse();
+
+    assertThat(buffer.poll()).isEqualTo("a");
+    assertThat(buffer.offer("c")).isTrue();
+    assertThat(buffer.poll()).isEqualTo("b");
+    assertThat(buffer.poll()).isEqualTo("c");
+  }
+
+  @Test public void concurrentProducersAndConsumers() throws Exception {
+    final RingBuffer<Integer> buffer = new RingBuffer<>(64);
+    final int producerCount = 4;
+    final int perProducer = 2000;
+    final CountDownLatch done = new CountDownLatch(producerCount);
+    final AtomicInteger consumed = new AtomicInteger();
+    final Set<Integer> values = new HashSet<>();
+
+    for (int p = 0; p < producerCount; p++) {
+      final int offset = p * perProducer;
+      new Thread(new Runnable() {
+        @Override public void run() {
+          for (int i = 0; i < perProducer; i++) {
+            while (!buffer.offer(offset + i)) {
+              Thread.yield();
+            }
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+
+    while (consumed.get() < producerCount * perProducer) {
+      Integer value = buffer.poll();
+      if (value != null) {
+        values.add(value);
+        consumed.incrementAndGet();
+      }
+    }
+    done.await();
+
+    assertThat(values).hasSize(producerCount * perProducer);
+    assertThat(buffer.poll()).isNull();
+  }
+}
@@ -0,0 +1,71 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+public class SamplingTest {
+
+  @After public void tearDown() {
+    Sampling.clearRates();
+  }
+
+  @Test public void keepAllAndNone() {
+    for (int i = 0; i < 1000; i++) {
+      assertThat(Sampling.sample("event", 1)).isTrue();
+      assertThat(Sampling.sample("event", 0)).isFalse();
+    }
+  }
+
+  @Test public void keepShareOfCalls() {
+    int kept = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (Sampling.sample("event", 0.25)) kept++;
+    }
+
+    assertThat(kept).isGreaterThan(24000);
+    assertThat(kept).isLessThan(26000);
+  }
+
+  @Test public void weight() {
+    assertThat(Sampling.weight("event", 1)).isEqualTo(1.0);
+    assertThat(Sampling.weight("event", 0.25)).isEqualTo(4.0);
+    assertThat(Sampling.weight("event", 0)).isEqualTo(1.0);
+  }
+
+  @Test public void overrideRateOfEventName() {
+    Sampling.setRate("event", 0);
+
+    assertThat(Sampling.sample("event", 1)).isFalse();
+    assertThat(Sampling.sample("other", 1)).isTrue();
+
+    Sampling.setRate("event", 0.5);
+    assertThat(Sampling.weight("event", 1)).isEqualTo(2.0);
+
+    Sampling.clearRate("event");
+    assertThat(Sampling.sample("event", 1)).isTrue();
+    assertThat(Sampling.weight("event", 1)).isEqualTo(1.0);
+  }
+
+  @Test public void rejectRateOutOfRange() {
+    for (double rate : new double[]{-0.1, 1.1, Double.NaN}) {
+      try {
+        Sampling.setRate("event", rate);
+        fail();
+      } catch (IllegalArgumentException expected) {
+        assertThat(expected).hasMessage("Sample rate must be between 0 and 1");
+      }
+    }
+  }
+
+  @Test public void randomIsWithinUnitInterval() {
+    Sampling.XorShift random = new Sampling.XorShift(0);
+    for (int i = 0; i < 100000; i++) {
+      double value = random.nextDouble();
+      assertThat(value).isAtLeast(0.0);
+      assertThat(value).isLessThan(1.0);
+    }
+  }
+}
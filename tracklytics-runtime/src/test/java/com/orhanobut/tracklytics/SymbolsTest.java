@@ -0,0 +1,41 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class SymbolsTest {
+
+  @Test public void internAssignsDenseIds() {
+    int first = Symbols.intern("symbols_test_first");
+    int second = Symbols.intern("symbols_test_second");
+
+    assertThat(second).isEqualTo(first + 1);
+    assertThat(Symbols.intern("symbols_test_first")).isEqualTo(first);
+    assertThat(Symbols.size()).isGreaterThan(second);
+  }
+
+  @Test public void lookUpIdAndName() {
+    int id = Symbols.intern("symbols_test_name");
+
+    assertThat(Symbols.id("symbols_test_name")).isEqualTo(id);
+    assertThat(Symbols.name(id)).isEqualTo("symbols_test_name");
+  }
+
+  @Test public void unknownSymbols() {
+    assertThat(Symbols.id("symbols_test_unknown")).isEqualTo(Symbols.NONE);
+    assertThat(Symbols.id(null)).isEqualTo(Symbols.NONE);
+    assertThat(Symbols.intern(null)).isEqualTo(Symbols.NONE);
+    assertThat(Symbols.name(Symbols.NONE)).isNull();
+    assertThat(Symbols.name(Integer.MAX_VALUE)).isNull();
+  }
+
+  @Test public void growBeyondInitialCapacity() {
+    int first = Symbols.intern("symbols_test_grow0");
+    for (int i = 1; i < 100; i++) {
+      Symbols.intern("symbols_test_grow" + i);
+    }
+
+    assertThat(Symbols.name(first + 99)).isEqualTo("symbols_test_grow99");
+  }
+}
@@ -0,0 +1,61 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+
+public class TrackingPlanTest {
+
+  @Test public void cachePlanPerMethod() throws Exception {
+    class Foo {
+      @TrackEvent("event") public void foo() {
+      }
+    }
+    Method method = Foo.class.getMethod("foo");
+
+    TrackingPlan plan = TrackingPlan.of(method);
+
+    assertThat(TrackingPlan.of(method)).isSameAs(plan);
+    assertThat(plan.trackEvent.value()).isEqualTo("event");
+  }
+
+  @Test public void extractAttributesWithoutReflection() throws Exception {
+    class Foo {
+      @TrackEvent("event")
+      @Attribute("key1")
+      @FixedAttribute(key = "key2", value = "value2")
+      public String foo(@Attribute("key3") String value, String ignored) {
+        return "value1";
+      }
+    }
+    TrackingPlan plan = TrackingPlan.of(Foo.class.getMethod("foo", String.class, String.class));
+    Map<String, Object> attributes = new HashMap<>();
+
+    plan.addMethodAttributes("value1", attributes, null);
+    plan.addParameterAttributes(new Object[]{"value3", "ignored"}, attributes, null);
+
+    assertThat(attributes).containsExactly("key1", "value1", "key2", "value2", "key3", "value3");
+  }
+
+  @Test public void countAttributesOfMethodAndClass() throws Exception {
+    @FixedAttribute(key = "screen", value = "foo")
+    class Foo {
+      @TrackEvent("event")
+      @Attribute("key1")
+      @FixedAttributes({
+          @FixedAttribute(key = "key2", value = "value2"),
+          @FixedAttribute(key = "key3", value = "value3")
+      })
+      public String foo(@Attribute("key4") String value, @TrackableAttribute Trackable trackable, String ignored) {
+        return "value1";
+      }
+    }
+    TrackingPlan plan = TrackingPlan.of(Foo.class.getMethod("foo", String.class, Trackable.class, String.class));
+
+    assertThat(plan.attributeCount).isEqualTo(5);
+  }
+}
@@ -0,0 +1,182 @@
+package com.orhanobut.tracklytics;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TrackingStubsTest {
+
+  @FixedAttribute(key = "screen", value = "foo")
+  static class Foo implements Trackable {
+
+    @TrackEvent(value = "event", filters = {1, 2}, tags = "tag")
+    @FixedAttribute(key = "fixed", value = "value", isSuper = true)
+    @TrackableAttribute
+    @Attribute("result")
+    public String foo(@Attribute("name") String name) {
+      return "result";
+    }
+
+    @Override public Map<String, Object> getTrackableAttributes() {
+      Map<String, Object> attributes = new HashMap<>();
+      attributes.put("this", "foo");
+      return attributes;
+    }
+  }
+
+  private final Map<String, Object> superAttributes = new HashMap<>();
+  private TrackEvent trackEvent;
+  private Map<String, Object> attributes;
+
+  @Before public void setup() {
+    TracklyticsAspect.subscribe(new AspectListener() {
+      @Override public AttributeMap newAttributes(int capacity) {
+        return new AttributeMap(capacity);
+      }
+
+      @Override public void onAspectEventTriggered(TrackEvent trackEvent, int nameId, Map<String, Object> attributes) {
+        TrackingStubsTest.this.trackEvent = trackEvent;
+        TrackingStubsTest.this.attributes = attributes;
+      }
+
+      @Override public void onAspectSuperAttributeAdded(String key, Object value) {
+        superAttributes.put(key, value);
+      }
+
+      @Override public void onAspectSuperAttributeRemoved(String key) {
+        superAttributes.remove(key);
+      }
+    });
+  }
+
+  @After public void tearDown() {
+    TracklyticsAspect.subscribe(null);
+  }
+
+  @Test public void trackEventEqualsAnnotation() throws Exception {
+    TrackEvent annotation = Foo.class.getMethod("foo", String.class).getAnnotation(TrackEvent.class);
+    TrackEvent trackEvent = TrackingStubs.trackEvent("event", new int[]{1, 2}, new String[]{"tag"});
+
+    assertThat(trackEvent).isEqualTo(annotation);
+    assertThat(annotation).isEqualTo(trackEvent);
+    assertThat(trackEvent.hashCode()).isEqualTo(annotation.hashCode());
+    assertThat(trackEvent.annotationType()).isEqualTo(TrackEvent.class);
+  }
+
+  @Test public void trackEventWithSampleRateEqualsAnnotation() throws Exception {
+    class Bar {
+      @TrackEvent(value = "event", sampleRate = 0.5) public void bar() {
+      }
+    }
+    TrackEvent annotation = Bar.class.getMethod("bar").getAnnotation(TrackEvent.class);
+    TrackEvent trackEvent = TrackingStubs.trackEvent("event", new int[0], new String[0], 0.5);
+
+    assertThat(trackEvent).isEqualTo(annotation);
+    assertThat(trackEvent.hashCode()).isEqualTo(annotation.hashCode());
+    assertThat(trackEvent).isNotEqualTo(TrackingStubs.trackEvent("event", new int[0], new String[0]));
+  }
+
+  @Test public void trackEventWithRateLimitEqualsAnnotation() throws Exception {
+    class Bar {
+      @TrackEvent(value = "event", rateLimit = 10) public void bar() {
+      }
+    }
+    TrackEvent annotation = Bar.class.getMethod("bar").getAnnotation(TrackEvent.class);
+    TrackEvent trackEvent = TrackingStubs.trackEvent("event", new int[0], new String[0], 1, 10);
+
+    assertThat(trackEvent).isEqualTo(annotation);
+    assertThat(trackEvent.hashCode()).isEqualTo(annotation.hashCode());
+  }
+
+  @Test public void shouldTrackWithinRateLimit() {
+    TrackEvent trackEvent = TrackingStubs.trackEvent("stub_limited_event", new int[0], new String[0], 1, 1);
+
+    assertThat(TrackingStubs.shouldTrack(trackEvent)).isTrue();
+    assertThat(TrackingStubs.shouldTrack(trackEvent)).isFalse();
+  }
+
+  @Test public void stubTracksSameEventAsAspect() throws Throwable {
+    Foo foo = new Foo();
+
+    ProceedingJoinPoint joinPoint = mock(ProceedingJoinPoint.class);
+    MethodSignature signature = mock(MethodSignature.class);
+    when(joinPoint.getSignature()).thenReturn(signature);
+    when(signature.getMethod()).thenReturn(Foo.class.getMethod("foo", String.class));
+    when(joinPoint.getThis()).thenReturn(foo);
+    when(joinPoint.getArgs()).thenReturn(new Object[]{"name"});
+    when(joinPoint.proceed()).thenReturn("result");
+    new TracklyticsAspect().weaveJoinPointTrackEvent(joinPoint);
+
+    TrackEvent aspectEvent = trackEvent;
+    Map<String, Object> aspectAttributes = attributes;
+    Map<String, Object> aspectSuperAttributes = new HashMap<>(superAttributes);
+    superAttributes.clear();
+
+    // What the generated advice of Foo.foo does
+    Map<String, Object> attributes = new HashMap<>();
+    TrackingStubs.addClassAttributes(attributes, Foo.class, foo, true);
+    TrackingStubs.putSuperAttribute(attributes, "fixed", "value");
+    attributes.put("result", "result");
+    attributes.put("name", "name");
+    TrackingStubs.trackEvent(TrackingStubs.trackEvent("event", new int[]{1, 2}, new String[]{"tag"}), attributes);
+
+    assertThat(trackEvent).isEqualTo(aspectEvent);
+    assertThat(this.attributes).isEqualTo(aspectAttributes);
+    assertThat(this.attributes).containsExactly(
+        "screen", "foo", "fixed", "value", "this", "foo", "result", "result", "name", "name"
+    );
+    assertThat(superAttributes).isEqualTo(aspectSuperAttributes);
+  }
+
+  @Test public void internDeclaredKeys() {
+    TrackingStubs.internKeys("stub_declared_key");
+
+    int keyId = Symbols.id("stub_declared_key");
+    assertThat(keyId).isNotEqualTo(Symbols.NONE);
+    assertThat(Symbols.name(keyId)).isEqualTo("stub_declared_key");
+  }
+
+  @Test public void addTrackableAttributes() {
+    Map<String, Object> attributes = new HashMap<>();
+    TrackingStubs.addTrackableAttributes(attributes, new Foo());
+
+    assertThat(attributes).containsExactly("this", "foo");
+  }
+
+  @Test public void addTrackableAttributesRequiresTrackable() {
+    try {
+      TrackingStubs.addTrackableAttributes(new HashMap<String, Object>(), "value");
+      fail();
+    } catch (ClassCastException expected) {
+    }
+  }
+
+  @Test public void superAttributes() {
+    TrackingStubs.addSuperAttribute("key", "value");
+    assertThat(superAttributes).containsExactly("key", "value");
+
+    TrackingStubs.removeSuperAttribute("key");
+    assertThat(superAttributes).isEmpty();
+  }
+
+  @Test public void ignoreWithoutListener() {
+    TracklyticsAspect.subscribe(null);
+
+    TrackingStubs.addSuperAttribute("key", "value");
+    TrackingStubs.trackEvent(TrackingStubs.trackEvent("event", new int[0], new String[0]),
+        new HashMap<String, Object>());
+
+    assertThat(superAttributes).isEmpty();
+    assertThat(trackEvent).isNull();
+  }
+}
@@ -13,6 +13,10 @@ import java.util.Map;
 
 import static com.google.common.truth.Truth.assertThat;
 import static junit.framework.TestCase.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -33,7 +37,11 @@ public class TracklyticsAspectTest {
     initMocks(this);
 
     aspectListener = new AspectListener() {
-      @Override public void onAspectEventTriggered(TrackEvent trackEvent, Map<String, Object> attributes) {
+      @Override public AttributeMap newAttributes(int capacity) {
+        return new AttributeMap(capacity);
+      }
+
+      @Override public void onAspectEventTriggered(TrackEvent trackEvent, int nameId, Map<String, Object> attributes) {
         TracklyticsAspectTest.this.trackEvent = trackEvent;
         TracklyticsAspectTest.this.attributes = attributes;
       }
@@ -686,6 +694,107 @@ public class TracklyticsAspectTest {
         .noAttributes();
   }
 
+  @Test public void skipAttributesOfUnsampledCalls() throws Throwable {
+    class Foo {
+      @TrackEvent(value = "event", sampleRate = 0)
+      @Attribute(value = "key", isSuper = true)
+      public String foo(@Attribute("key2") String param) {
+        return "test";
+      }
+    }
+
+    when(joinPoint.proceed()).thenReturn("test");
+    initMethod(Foo.class, "foo", String.class);
+
+    assertThat(aspect.weaveJoinPointTrackEvent(joinPoint)).isEqualTo("test");
+    assertThat(trackEvent).isNull();
+    assertThat(superAttributes).containsExactly("key", "test");
+    verify(joinPoint, never()).getArgs();
+  }
+
+  @FixedAttribute(key = "class_key", value = "class_value", isSuper = true)
+  static class UnsampledFoo {
+    @TrackEvent(value = "event", sampleRate = 0)
+    @FixedAttribute(key = "fixed", value = "value", isSuper = true)
+    @TransformAttributeMap(keys = 1, values = "one")
+    public void foo(@Attribute(value = "param", defaultValue = "default", isSuper = true) String param,
+                    @TransformAttribute(value = "position", isSuper = true) int position,
+                    @Attribute("local") String local) {
+    }
+  }
+
+  @Test public void addSuperAttributesOfUnsampledCalls() throws Throwable {
+    when(joinPoint.getArgs()).thenReturn(new Object[]{null, 1, "local"});
+    initMethod(UnsampledFoo.class, "foo", String.class, int.class, String.class);
+    when(joinPoint.getThis()).thenReturn(new UnsampledFoo());
+
+    aspect.weaveJoinPointTrackEvent(joinPoint);
+
+    assertThat(trackEvent).isNull();
+    assertThat(superAttributes).containsExactly("class_key", "class_value", "fixed", "value", "param", "default",
+        "position", "one");
+  }
+
+  @Test public void skipAttributesOverRateLimit() throws Throwable {
+    class Foo {
+      @TrackEvent(value = "aspect_limited_event", rateLimit = 1)
+      public void foo(@Attribute("key") String param) {
+      }
+    }
+
+    when(joinPoint.getArgs()).thenReturn(new Object[]{"param"});
+    invokeMethod(Foo.class, "foo", String.class);
+    assertTrack().event("aspect_limited_event").attribute("key", "param");
+
+    trackEvent = null;
+    invokeMethod(Foo.class, "foo", String.class);
+
+    assertThat(trackEvent).isNull();
+    verify(joinPoint, times(1)).getArgs();
+    assertThat(RateLimits.rejectedCount("aspect_limited_event")).isEqualTo(1);
+  }
+
+  @Test public void addSuperAttributesOverRateLimit() throws Throwable {
+    class Foo {
+      @TrackEvent(value = "aspect_limited_super_event", rateLimit = 1)
+      @FixedAttribute(key = "fixed", value = "value", isSuper = true)
+      public void foo(@Attribute(value = "key", isSuper = true) String param, @Attribute("local") String local) {
+      }
+    }
+
+    when(joinPoint.getArgs()).thenReturn(new Object[]{"first", "local"});
+    invokeMethod(Foo.class, "foo", String.class, String.class);
+    assertTrack().event("aspect_limited_super_event").attribute("key", "first");
+
+    trackEvent = null;
+    when(joinPoint.getArgs()).thenReturn(new Object[]{"second", "local"});
+    invokeMethod(Foo.class, "foo", String.class, String.class);
+
+    assertThat(trackEvent).isNull();
+    assertThat(superAttributes).containsExactly("fixed", "value", "key", "second");
+    assertThat(RateLimits.rejectedCount("aspect_limited_super_event")).isEqualTo(1);
+  }
+
+  @Test public void recordAdviceTimeOfTrackedCalls() throws Throwable {
+    class Foo {
+      @TrackEvent("title") public void foo() {
+      }
+
+      @TrackEvent(value = "title", sampleRate = 0) public void bar() {
+      }
+    }
+    MetricsCollector metrics = new MetricsCollector(mock(EventSubscriber.class));
+    TracklyticsAspect.setMetrics(metrics);
+    try {
+      invokeMethod(Foo.class, "foo");
+      invokeMethod(Foo.class, "bar");
+    } finally {
+      TracklyticsAspect.setMetrics(null);
+    }
+
+    assertThat(metrics.adviceTime.snapshot().getCount()).isEqualTo(1);
+  }
+
   AssertTracker assertTrack() {
     return new AssertTracker(trackEvent, attributes);
   }
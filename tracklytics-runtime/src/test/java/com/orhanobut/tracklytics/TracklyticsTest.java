@@ -1,17 +1,29 @@
 package com.orhanobut.tracklytics;
 
+import com.sun.management.ThreadMXBean;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Captor;
 import org.mockito.Mock;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
 
@@ -56,7 +68,7 @@ public class TracklyticsTest {
     Map<String, Object> attributes = new HashMap<>();
     attributes.put("key", "value");
 
-    tracklytics.onAspectEventTriggered(trackEvent, attributes);
+    tracklytics.onAspectEventTriggered(trackEvent, Symbols.NONE, attributes);
 
     verify(eventSubscriber).onEventTracked(eventCaptor.capture());
 
@@ -73,6 +85,29 @@ public class TracklyticsTest {
     assertThat(eventCaptor.getValue().attributes).isNull();
   }
 
+  @Test public void sampledAspectEventCarriesWeight() {
+    when(trackEvent.sampleRate()).thenReturn(0.25);
+
+    tracklytics.onAspectEventTriggered(trackEvent, Symbols.NONE, new HashMap<String, Object>());
+
+    verify(eventSubscriber).onEventTracked(eventCaptor.capture());
+    assertThat(eventCaptor.getValue().getSamplingWeight()).isEqualTo(4.0);
+  }
+
+  @Test public void sampleRateOverridesEventName() {
+    tracklytics.setSampleRate("event_name", 0);
+    try {
+      tracklytics.trackEvent("event_name");
+      tracklytics.trackEvent("other");
+
+      verify(eventSubscriber).onEventTracked(eventCaptor.capture());
+      assertThat(eventCaptor.getValue().name).isEqualTo("other");
+      assertThat(eventCaptor.getValue().getSamplingWeight()).isEqualTo(1.0);
+    } finally {
+      tracklytics.clearSampleRate("event_name");
+    }
+  }
+
   @Test public void addSuperAttributesToEvent() {
     tracklytics.addSuperAttribute("key1", "value1");
     tracklytics.addSuperAttribute("key2", "value2");
@@ -120,6 +155,17 @@ public class TracklyticsTest {
     assertThat(eventCaptor.getValue().superAttributes).containsExactly("key3", "value3");
   }
 
+  @Test public void superAttributesOfTrackedEventsDoNotChange() {
+    tracklytics.addSuperAttribute("key1", "value1");
+    tracklytics.trackEvent("event_name");
+
+    tracklytics.addSuperAttribute("key2", "value2");
+    tracklytics.removeSuperAttribute("key1");
+
+    verify(eventSubscriber).onEventTracked(eventCaptor.capture());
+    assertThat(eventCaptor.getValue().superAttributes).containsExactly("key1", "value1");
+  }
+
   @Test public void removeSuperAttributeFromAspects() {
     tracklytics.addSuperAttribute("key1", "value1");
     tracklytics.addSuperAttribute("key2", "value2");
@@ -145,4 +191,385 @@ public class TracklyticsTest {
 
     verify(logger).log("event-> {key=value}, super attrs: {}, filters: null");
   }
-}
\ No newline at end of file
+
+  @Test public void logWithoutAttributes() {
+    EventLogListener logger = mock(EventLogListener.class);
+    tracklytics.setEventLogListener(logger);
+
+    tracklytics.trackEvent("event");
+
+    verify(logger).log("event-> null, super attrs: {}, filters: null");
+  }
+
+  @Test public void structuredLog() {
+    StructuredEventLogListener logger = mock(StructuredEventLogListener.class);
+    tracklytics.setStructuredEventLogListener(logger);
+
+    tracklytics.trackEvent("event");
+
+    verify(logger).log(eventCaptor.capture());
+    assertThat(eventCaptor.getValue().name).isEqualTo("event");
+  }
+
+  @Test public void asyncLog() {
+    final List<String> messages = new CopyOnWriteArrayList<>();
+    final List<Thread> threads = new CopyOnWriteArrayList<>();
+    tracklytics.setEventLogListener(new EventLogListener() {
+      @Override public void log(String message) {
+        messages.add(message);
+        threads.add(Thread.currentThread());
+      }
+    });
+    StructuredEventLogListener structuredLogger = mock(StructuredEventLogListener.class);
+    tracklytics.setStructuredEventLogListener(structuredLogger);
+    tracklytics.enableAsyncLogging(16, 0);
+
+    Map<String, Object> attributes = new HashMap<>();
+    attributes.put("key", "value");
+    tracklytics.trackEvent("event1", attributes);
+    tracklytics.trackEvent("event2", attributes);
+    tracklytics.flush();
+
+    assertThat(messages).containsExactly(
+        "event1-> {key=value}, super attrs: {}, filters: null",
+        "event2-> {key=value}, super attrs: {}, filters: null"
+    ).inOrder();
+    assertThat(threads.get(0)).isNotSameAs(Thread.currentThread());
+    verify(structuredLogger, times(2)).log(eventCaptor.capture());
+    assertThat(tracklytics.shutdown(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test public void asyncLogDropsLinesOverRateLimit() {
+    final List<String> messages = new CopyOnWriteArrayList<>();
+    tracklytics.setEventLogListener(new EventLogListener() {
+      @Override public void log(String message) {
+        messages.add(message);
+      }
+    });
+    tracklytics.enableAsyncLogging(1024, 10);
+
+    for (int i = 0; i < 100; i++) {
+      tracklytics.trackEvent("event");
+    }
+    tracklytics.flush();
+
+    // A slow run may cross into the next second and get a few more lines
+    assertThat(messages.size()).isAtLeast(10);
+    assertThat(messages.size() + tracklytics.getDroppedLogCount()).isEqualTo(100);
+    assertThat(tracklytics.getDroppedLogCount()).isAtLeast(80L);
+    verify(eventSubscriber, times(100)).onEventTracked(eventCaptor.capture());
+  }
+
+  @Test public void asyncDispatch() {
+    tracklytics.enableAsyncDispatch(16, OverflowPolicy.BLOCK, 1);
+
+    tracklytics.trackEvent("event_name");
+    tracklytics.flush();
+
+    verify(eventSubscriber).onEventTracked(eventCaptor.capture());
+    assertThat(eventCaptor.getValue().name).isEqualTo("event_name");
+    assertThat(tracklytics.shutdown(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test public void deliverOnTrackingThreadAfterShutdown() {
+    tracklytics.enableAsyncDispatch(16, OverflowPolicy.BLOCK, 1);
+    tracklytics.shutdown(1, TimeUnit.SECONDS);
+
+    tracklytics.trackEvent("event_name");
+
+    verify(eventSubscriber).onEventTracked(eventCaptor.capture());
+    assertThat(eventCaptor.getValue().name).isEqualTo("event_name");
+  }
+
+  @Test public void batchSubscriber() {
+    final List<String> names = new ArrayList<>();
+    tracklytics.addBatchEventSubscriber(new BatchEventSubscriber() {
+      @Override public void onEventsTracked(List<Event> events) {
+        for (Event event : events) {
+          names.add(event.name);
+        }
+      }
+    }, 100, Long.MAX_VALUE, 1, TimeUnit.HOURS);
+
+    tracklytics.trackEvent("event1");
+    tracklytics.trackEvent("event2");
+    assertThat(names).isEmpty();
+
+    tracklytics.flush();
+    assertThat(names).containsExactly("event1", "event2").inOrder();
+    tracklytics.shutdown(1, TimeUnit.SECONDS);
+  }
+
+  @Test public void isolateAdditionalSubscribers() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Event> received = new CopyOnWriteArrayList<>();
+    EventSubscriber slow = new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    EventSubscriber failing = new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        throw new IllegalStateException("failing subscriber");
+      }
+    };
+    EventSubscriber fast = new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        received.add(event);
+      }
+    };
+    tracklytics.addEventSubscriber(slow);
+    tracklytics.addEventSubscriber(failing);
+    tracklytics.addEventSubscriber(fast);
+
+    tracklytics.trackEvent("event1");
+    tracklytics.trackEvent("event2");
+
+    verify(eventSubscriber, times(2)).onEventTracked(eventCaptor.capture());
+    long deadline = System.currentTimeMillis() + 1000;
+    while (received.size() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(1);
+    }
+    assertThat(received).hasSize(2);
+    assertThat(received.get(0)).isSameAs(eventCaptor.getAllValues().get(0));
+
+    release.countDown();
+    tracklytics.flush();
+    assertThat(tracklytics.getFailedEventCount()).isEqualTo(2);
+    assertThat(tracklytics.shutdown(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test(timeout = 5000) public void keepDeliveringWhenAdditionalSubscriberThrowsError() throws Exception {
+    final List<String> received = new CopyOnWriteArrayList<>();
+    EventSubscriber failing = new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        if (event.name.equals("fail")) {
+          throw new StackOverflowError();
+        }
+        received.add(event.name);
+      }
+    };
+    tracklytics.addEventSubscriber(failing, 2, OverflowPolicy.BLOCK);
+
+    tracklytics.trackEvent("fail");
+    // More events than the queue holds, a stopped channel would block the tracking thread
+    for (int i = 0; i < 10; i++) {
+      tracklytics.trackEvent("event" + i);
+    }
+    tracklytics.flush();
+
+    assertThat(received).hasSize(10);
+    assertThat(tracklytics.getFailedEventCount()).isEqualTo(1);
+    assertThat(tracklytics.shutdown(1, TimeUnit.SECONDS)).isTrue();
+  }
+
+  @Test public void removeAdditionalSubscriber() {
+    EventSubscriber subscriber = mock(EventSubscriber.class);
+    tracklytics.addEventSubscriber(subscriber);
+    tracklytics.removeEventSubscriber(subscriber);
+
+    tracklytics.trackEvent("event");
+    tracklytics.flush();
+
+    verifyZeroInteractions(subscriber);
+  }
+
+  @Test public void routeEventsByFiltersAndTags() {
+    EventSubscriber filtered = mock(EventSubscriber.class);
+    EventSubscriber tagged = mock(EventSubscriber.class);
+    EventSubscriber all = mock(EventSubscriber.class);
+    tracklytics.addEventSubscriber(filtered, new int[]{2, 3}, null);
+    tracklytics.addEventSubscriber(tagged, null, new String[]{"tag"});
+    tracklytics.addEventSubscriber(all);
+
+    // filters 1 and 2
+    tracklytics.onAspectEventTriggered(trackEvent, Symbols.NONE, new HashMap<String, Object>());
+    tracklytics.onAspectEventTriggered(trackEvent, Symbols.NONE, new HashMap<String, Object>());
+    tracklytics.trackEvent("event_name");
+    tracklytics.flush();
+
+    verify(filtered, times(2)).onEventTracked(eventCaptor.capture());
+    assertThat(eventCaptor.getValue().name).isEqualTo("event");
+    verifyZeroInteractions(tagged);
+    verify(all, times(3)).onEventTracked(any(Event.class));
+  }
+
+  @Test public void coalesceIdenticalEvents() {
+    tracklytics.enableCoalescing(1, TimeUnit.HOURS, 16);
+
+    tracklytics.trackEvent("event_name");
+    tracklytics.trackEvent("event_name");
+    verifyZeroInteractions(eventSubscriber);
+
+    tracklytics.flush();
+    verify(eventSubscriber).onEventTracked(eventCaptor.capture());
+    assertThat(eventCaptor.getValue().getOccurrenceCount()).isEqualTo(2);
+    tracklytics.shutdown(1, TimeUnit.SECONDS);
+  }
+
+  @Test public void rateLimitEventName() {
+    tracklytics.setRateLimit("limited_event", 1);
+    try {
+      tracklytics.trackEvent("limited_event");
+      tracklytics.trackEvent("limited_event");
+      tracklytics.trackEvent("other");
+
+      verify(eventSubscriber, times(2)).onEventTracked(eventCaptor.capture());
+      assertThat(eventCaptor.getAllValues().get(0).name).isEqualTo("limited_event");
+      assertThat(eventCaptor.getAllValues().get(1).name).isEqualTo("other");
+      assertThat(tracklytics.getRateLimitedEventCount("limited_event")).isEqualTo(1);
+      assertThat(tracklytics.getRateLimitedEventCount()).isAtLeast(1L);
+    } finally {
+      tracklytics.clearRateLimit("limited_event");
+    }
+  }
+
+  @Test public void reusePooledEvents() {
+    final List<Event> events = new ArrayList<>();
+    final List<String> names = new ArrayList<>();
+    Tracklytics pooled = Tracklytics.init(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        events.add(event);
+        names.add(event.getName() + event.getAttributes());
+      }
+    });
+    pooled.enableEventPooling(4, false);
+    pooled.addEventSubscriber(mock(EventSubscriber.class));
+
+    AttributeMap attributes = pooled.newAttributes(1);
+    attributes.putInt("key", 1);
+    pooled.onAspectEventTriggered(trackEvent, Symbols.NONE, attributes);
+    pooled.flush();
+    pooled.trackEvent("event_name");
+    pooled.flush();
+
+    assertThat(names).containsExactly("event{key=1}", "event_namenull").inOrder();
+    assertThat(events.get(1)).isSameAs(events.get(0));
+    assertThat(events.get(0).getAttributes()).isNull();
+    pooled.shutdown(1, TimeUnit.SECONDS);
+  }
+
+  @Test public void trackPooledAspectEventsWithoutAllocation() throws Exception {
+    class Foo {
+      @TrackEvent(value = "event", filters = {1, 2}, tags = "tag", sampleRate = 0.5) public void foo() {
+      }
+    }
+    final int[] count = new int[1];
+    Tracklytics pooled = Tracklytics.init(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        count[0]++;
+      }
+    });
+    pooled.enableEventPooling(4, false);
+    TrackingPlan plan = TrackingPlan.of(Foo.class.getMethod("foo"));
+
+    ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long allocated = 0;
+    // The first round fills the pool and the caches
+    for (int round = 0; round < 2; round++) {
+      long start = threads.getThreadAllocatedBytes(threadId);
+      for (int i = 0; i < 1000; i++) {
+        AttributeMap attributes = pooled.newAttributes(1);
+        attributes.putInt("key", i);
+        pooled.onAspectEventTriggered(plan.trackEvent, plan.nameId, attributes);
+      }
+      allocated = threads.getThreadAllocatedBytes(threadId) - start;
+    }
+
+    assertThat(count[0]).isEqualTo(2000);
+    // Reading the allocated bytes allocates a few bytes itself, a single allocation per event would be 1000s
+    assertThat(allocated).isLessThan(1000L);
+    pooled.shutdown(1, TimeUnit.SECONDS);
+  }
+
+  @Test public void keepRetainedPooledEvent() {
+    final List<Event> events = new ArrayList<>();
+    Tracklytics pooled = Tracklytics.init(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        events.add(events.isEmpty() ? event.retain() : event);
+      }
+    });
+    pooled.enableEventPooling(4, false);
+
+    pooled.trackEvent("event1");
+    pooled.trackEvent("event2");
+    assertThat(events.get(1)).isNotSameAs(events.get(0));
+    assertThat(events.get(0).getName()).isEqualTo("event1");
+
+    events.get(0).release();
+    pooled.trackEvent("event3");
+    assertThat(events.get(2)).isAnyOf(events.get(0), events.get(1));
+  }
+
+  @Test public void detectUseOfReleasedPooledEvent() {
+    final List<Event> events = new ArrayList<>();
+    Tracklytics pooled = Tracklytics.init(new EventSubscriber() {
+      @Override public void onEventTracked(Event event) {
+        events.add(event);
+      }
+    });
+    pooled.enableEventPooling(4, true);
+
+    pooled.trackEvent("event");
+    try {
+      events.get(0).getAllAttributes();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Event is used after it is released");
+    }
+  }
+
+  @Test public void carryNameIds() {
+    tracklytics.onAspectEventTriggered(trackEvent, Symbols.intern("event"), new HashMap<String, Object>());
+    tracklytics.trackEvent("event");
+    tracklytics.trackEvent("tracklytics_test_unknown");
+
+    verify(eventSubscriber, times(3)).onEventTracked(eventCaptor.capture());
+    int nameId = Symbols.id("event");
+    assertThat(eventCaptor.getAllValues().get(0).getNameId()).isEqualTo(nameId);
+    assertThat(eventCaptor.getAllValues().get(1).getNameId()).isEqualTo(nameId);
+    assertThat(eventCaptor.getAllValues().get(2).getNameId()).isEqualTo(Symbols.NONE);
+    // Names given at runtime are not interned
+    assertThat(Symbols.id("tracklytics_test_unknown")).isEqualTo(Symbols.NONE);
+  }
+
+  @Test public void collectMetrics() {
+    EventSubscriber filtered = mock(EventSubscriber.class);
+    tracklytics.addEventSubscriber(filtered, new int[]{1}, null);
+    tracklytics.enableMetrics();
+    try {
+      tracklytics.addSuperAttribute("super", "value");
+      tracklytics.onAspectEventTriggered(trackEvent, Symbols.intern("event"), new HashMap<String, Object>());
+      tracklytics.trackEvent("event");
+      tracklytics.trackEvent("tracklytics_test_metrics");
+      tracklytics.flush();
+
+      TracklyticsMetrics metrics = tracklytics.getMetrics();
+
+      assertThat(metrics.getEventCounts()).containsExactly("event", 2L, "tracklytics_test_metrics", 1L);
+      assertThat(metrics.getSubscriberLatency().getCount()).isEqualTo(4);
+      assertThat(metrics.getSubscriberLatency(eventSubscriber).getCount()).isEqualTo(3);
+      assertThat(metrics.getSubscriberLatency(filtered).getCount()).isEqualTo(1);
+      assertThat(metrics.getSubscriberLatency(mock(EventSubscriber.class))).isNull();
+      assertThat(metrics.getSuperAttributeCount()).isEqualTo(1);
+      assertThat(metrics.getDroppedEventCount()).isEqualTo(0);
+      assertThat(metrics.getQueueDepth()).isEqualTo(0);
+    } finally {
+      TracklyticsAspect.setMetrics(null);
+    }
+  }
+
+  @Test public void failToGetMetricsWhenNotEnabled() {
+    try {
+      tracklytics.getMetrics();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Metrics are not enabled");
+    }
+  }
+}
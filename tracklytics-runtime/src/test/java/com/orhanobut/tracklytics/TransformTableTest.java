@@ -0,0 +1,55 @@
+package com.orhanobut.tracklytics;
+
+import org.junit.Test;
+
+import static com.google.common.truth.Truth.assertThat;
+import static junit.framework.TestCase.fail;
+
+public class TransformTableTest {
+
+  @Test public void denseKeys() {
+    TransformTable table = TransformTable.compile(new int[]{1, 0, 2}, new String[]{"one", "zero", "two"});
+
+    assertThat(table.get(0)).isEqualTo("zero");
+    assertThat(table.get(1)).isEqualTo("one");
+    assertThat(table.get(2)).isEqualTo("two");
+    assertThat(table.get(3)).isNull();
+    assertThat(table.get(-1)).isNull();
+  }
+
+  @Test public void sparseKeys() {
+    TransformTable table = TransformTable.compile(
+        new int[]{1000, -5, Integer.MAX_VALUE}, new String[]{"thousand", "minus", "max"}
+    );
+
+    assertThat(table.get(1000)).isEqualTo("thousand");
+    assertThat(table.get(-5)).isEqualTo("minus");
+    assertThat(table.get(Integer.MAX_VALUE)).isEqualTo("max");
+    assertThat(table.get(0)).isNull();
+  }
+
+  @Test public void latestValueWinsForDuplicateKeys() {
+    int[] keys = {7, 100000, 7};
+    String[] values = {"first", "other", "second"};
+
+    assertThat(TransformTable.compile(keys, values).get(7)).isEqualTo("second");
+    assertThat(TransformTable.compile(new int[]{1, 1}, new String[]{"first", "second"}).get(1)).isEqualTo("second");
+  }
+
+  @Test public void onlyIntegerValuesAreTransformed() {
+    TransformTable table = TransformTable.compile(new int[]{1}, new String[]{"one"});
+
+    assertThat(table.get((Object) 1)).isEqualTo("one");
+    assertThat(table.get((Object) 1L)).isNull();
+    assertThat(table.get((Object) "1")).isNull();
+  }
+
+  @Test public void throwExceptionWhenLengthsAreDifferent() {
+    try {
+      TransformTable.compile(new int[]{0, 1}, new String[]{"value"});
+      fail("Should throw exception");
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("TransformAttributeMap keys and values must have same length");
+    }
+  }
+}